@@ -0,0 +1,479 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.combining;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.bind.JAXBElement;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.ow2.authzforce.core.pdp.api.AttributeFqn;
+import org.ow2.authzforce.core.pdp.api.AttributeFqns;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.ExtendedDecision;
+import org.ow2.authzforce.core.pdp.api.ExtendedDecisions;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.PepAction;
+import org.ow2.authzforce.core.pdp.api.UpdatableList;
+import org.ow2.authzforce.core.pdp.api.combining.BaseCombiningAlg;
+import org.ow2.authzforce.core.pdp.api.combining.CombiningAlg;
+import org.ow2.authzforce.core.pdp.api.combining.CombiningAlgParameter;
+import org.ow2.authzforce.core.pdp.api.combining.ParameterAssignment;
+import org.ow2.authzforce.core.pdp.api.policy.PrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+import org.ow2.authzforce.core.pdp.api.value.Value;
+import org.ow2.authzforce.core.pdp.impl.combining.StandardCombiningAlgorithm;
+import org.ow2.authzforce.core.pdp.impl.rule.RuleEvaluator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.ApplyType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.AttributeDesignatorType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.AttributeValueType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.CombinerParameter;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.ExpressionType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Policy;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Rule;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.RuleCombinerParameters;
+
+/**
+ * Rule combining algorithms that only evaluate the rules whose zone can match the geometry of the request.
+ * <p>
+ * Each algorithm wraps a standard rule combining algorithm. A rule is given a zone by the rule combiner parameters {@link #ZONE} (the
+ * geometry), {@link #ZONE_CATEGORY}, {@link #ZONE_ATTRIBUTE_ID} and optionally {@link #ZONE_ISSUER} (the attribute of the request
+ * holding the geometry tested against the zone). The parameters state that the rule is NotApplicable unless the envelope of that
+ * geometry intersects the envelope of the zone. {@link #index(Policy)} adds them to the rules of a policy whose condition is such a
+ * test, so they are not written by hand.
+ * <p>
+ * The envelopes of the zones are indexed per attribute in an STR packed R-tree when the policy is loaded. For a request with one
+ * geometry in the attribute, the rules whose zone envelope does not intersect the envelope of the geometry are skipped and the
+ * remaining rules are combined by the standard algorithm in the order of the policy. As all standard rule combining algorithms ignore
+ * NotApplicable rules, the decision is the same. If the attribute is not in the request context, does not hold exactly one geometry or
+ * the geometry is empty, all rules of that attribute are evaluated. Zones with another SRID than the geometry are never skipped, as
+ * the topological functions may reproject (see <code>geoxacml.crs.transform</code>).
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public abstract class ZoneIndexedRuleCombiningAlg extends BaseCombiningAlg<RuleEvaluator>
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(ZoneIndexedRuleCombiningAlg.class);
+
+	/**
+	 * Prefix of the identifiers: the identifier of an algorithm is the prefix followed by the identifier of the standard algorithm it
+	 * wraps
+	 */
+	public static final String ID_PREFIX = "urn:de:securedimensions:rule-combining-algorithm:geoxacml:zone-indexed:";
+
+	/**
+	 * Rule combiner parameter: the zone (geometry) of the rule
+	 */
+	public static final String ZONE = "urn:de:securedimensions:geoxacml:zone";
+
+	/**
+	 * Rule combiner parameter: the category (string) of the attribute tested against the zone
+	 */
+	public static final String ZONE_CATEGORY = ZONE + "-category";
+
+	/**
+	 * Rule combiner parameter: the identifier (string) of the attribute tested against the zone
+	 */
+	public static final String ZONE_ATTRIBUTE_ID = ZONE + "-attribute-id";
+
+	/**
+	 * Optional rule combiner parameter: the issuer (string) of the attribute tested against the zone
+	 */
+	public static final String ZONE_ISSUER = ZONE + "-issuer";
+
+	private static final String ONE_AND_ONLY_ID = GeometryValue.DATATYPE.getFunctionIdPrefix() + "-one-and-only";
+
+	private static final List<String> STANDARD_IDS = Arrays.asList(StandardCombiningAlgorithm.XACML_3_0_RULE_COMBINING_DENY_OVERRIDES.getId(),
+			StandardCombiningAlgorithm.XACML_3_0_RULE_COMBINING_ORDERED_DENY_OVERRIDES.getId(), StandardCombiningAlgorithm.XACML_3_0_RULE_COMBINING_PERMIT_OVERRIDES.getId(),
+			StandardCombiningAlgorithm.XACML_3_0_RULE_COMBINING_ORDERED_PERMIT_OVERRIDES.getId(), StandardCombiningAlgorithm.XACML_3_0_RULE_COMBINING_DENY_UNLESS_PERMIT.getId(),
+			StandardCombiningAlgorithm.XACML_3_0_RULE_COMBINING_PERMIT_UNLESS_DENY.getId(), StandardCombiningAlgorithm.XACML_1_0_RULE_COMBINING_FIRST_APPLICABLE.getId());
+
+	private static final LongAdder skippedRules = new LongAdder();
+
+	private final String standardId;
+
+	private ZoneIndexedRuleCombiningAlg(final String standardId)
+	{
+		super(ID_PREFIX + standardId, RuleEvaluator.class);
+		this.standardId = standardId;
+	}
+
+	public static final class DenyOverrides extends ZoneIndexedRuleCombiningAlg
+	{
+		public DenyOverrides()
+		{
+			super(STANDARD_IDS.get(0));
+		}
+	}
+
+	public static final class OrderedDenyOverrides extends ZoneIndexedRuleCombiningAlg
+	{
+		public OrderedDenyOverrides()
+		{
+			super(STANDARD_IDS.get(1));
+		}
+	}
+
+	public static final class PermitOverrides extends ZoneIndexedRuleCombiningAlg
+	{
+		public PermitOverrides()
+		{
+			super(STANDARD_IDS.get(2));
+		}
+	}
+
+	public static final class OrderedPermitOverrides extends ZoneIndexedRuleCombiningAlg
+	{
+		public OrderedPermitOverrides()
+		{
+			super(STANDARD_IDS.get(3));
+		}
+	}
+
+	public static final class DenyUnlessPermit extends ZoneIndexedRuleCombiningAlg
+	{
+		public DenyUnlessPermit()
+		{
+			super(STANDARD_IDS.get(4));
+		}
+	}
+
+	public static final class PermitUnlessDeny extends ZoneIndexedRuleCombiningAlg
+	{
+		public PermitUnlessDeny()
+		{
+			super(STANDARD_IDS.get(5));
+		}
+	}
+
+	public static final class FirstApplicable extends ZoneIndexedRuleCombiningAlg
+	{
+		public FirstApplicable()
+		{
+			super(STANDARD_IDS.get(6));
+		}
+	}
+
+	/**
+	 * @return number of rules skipped since the start of the PDP because their zone could not match
+	 */
+	public static long getSkippedRules()
+	{
+		return skippedRules.sum();
+	}
+
+	/**
+	 * The zones of one attribute of the request
+	 */
+	private static final class AttributeZones
+	{
+		private final AttributeFqn attribute;
+		private final Map<Integer, STRtree> trees = new HashMap<Integer, STRtree>();
+		private final Map<Integer, BitSet> rules = new HashMap<Integer, BitSet>();
+
+		private AttributeZones(final AttributeFqn attribute)
+		{
+			this.attribute = attribute;
+		}
+
+		private void add(final int rule, final GeometryValue zone)
+		{
+			final Geometry g = zone.getUnderlyingValue();
+			final Integer srid = Integer.valueOf(g.getSRID());
+			rules.computeIfAbsent(srid, s -> new BitSet()).set(rule);
+			if (!g.isEmpty())
+				trees.computeIfAbsent(srid, s -> new STRtree()).insert(g.getEnvelopeInternal(), Integer.valueOf(rule));
+		}
+
+		private void build()
+		{
+			for (final STRtree tree : trees.values())
+				tree.build();
+		}
+
+		/**
+		 * Sets the rules that may match the geometry of the request
+		 */
+		private void addCandidates(final EvaluationContext context, final BitSet candidates)
+		{
+			Bag<GeometryValue> bag;
+			try
+			{
+				bag = context.getNamedAttributeValue(attribute, GeometryValue.DATATYPE);
+			}
+			catch (IndeterminateEvaluationException e)
+			{
+				// left to the rules
+				bag = null;
+			}
+
+			final Geometry g = (bag == null || bag.size() != 1) ? null : bag.getSingleElement().getUnderlyingValue();
+			for (final Map.Entry<Integer, BitSet> entry : rules.entrySet())
+			{
+				if (g == null || g.isEmpty() || g.getSRID() != entry.getKey().intValue())
+				{
+					candidates.or(entry.getValue());
+					continue;
+				}
+
+				final STRtree tree = trees.get(entry.getKey());
+				if (tree == null)
+					continue;
+
+				for (final Object rule : tree.query(g.getEnvelopeInternal()))
+					candidates.set(((Integer) rule).intValue());
+			}
+		}
+	}
+
+	private final class Evaluator implements CombiningAlg.Evaluator
+	{
+		private final CombiningAlg<RuleEvaluator> standardAlg;
+		private final List<RuleEvaluator> rules;
+		private final CombiningAlg.Evaluator allRules;
+		private final BitSet unindexed;
+		private final List<AttributeZones> zones;
+
+		private Evaluator(final CombiningAlg<RuleEvaluator> standardAlg, final List<RuleEvaluator> rules, final BitSet unindexed, final List<AttributeZones> zones)
+		{
+			this.standardAlg = standardAlg;
+			this.rules = rules;
+			this.allRules = standardAlg.getInstance(Collections.<CombiningAlgParameter<? extends RuleEvaluator>> emptyList(), rules);
+			this.unindexed = unindexed;
+			this.zones = zones;
+		}
+
+		@Override
+		public ExtendedDecision evaluate(final EvaluationContext context, final UpdatableList<PepAction> updatablePepActions, final UpdatableList<PrimaryPolicyMetadata> updatableApplicablePolicyIdList)
+		{
+			final BitSet candidates = (BitSet) unindexed.clone();
+			for (final AttributeZones z : zones)
+				z.addCandidates(context, candidates);
+
+			final int n = candidates.cardinality();
+			if (n == rules.size())
+				return allRules.evaluate(context, updatablePepActions, updatableApplicablePolicyIdList);
+
+			skippedRules.add(rules.size() - n);
+			if (n == 0)
+				return ExtendedDecisions.SIMPLE_NOT_APPLICABLE;
+
+			final List<RuleEvaluator> candidateRules = new ArrayList<RuleEvaluator>(n);
+			for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+				candidateRules.add(rules.get(i));
+			return standardAlg.getInstance(Collections.<CombiningAlgParameter<? extends RuleEvaluator>> emptyList(), candidateRules).evaluate(context, updatablePepActions,
+					updatableApplicablePolicyIdList);
+		}
+	}
+
+	@Override
+	public CombiningAlg.Evaluator getInstance(final Iterable<CombiningAlgParameter<? extends RuleEvaluator>> params, final Iterable<? extends RuleEvaluator> combinedElements)
+			throws UnsupportedOperationException, IllegalArgumentException
+	{
+		final CombiningAlg<RuleEvaluator> standardAlg = StandardCombiningAlgorithm.REGISTRY.getAlgorithm(standardId, RuleEvaluator.class);
+
+		final List<RuleEvaluator> rules = new ArrayList<RuleEvaluator>();
+		final Map<RuleEvaluator, Integer> positions = new IdentityHashMap<RuleEvaluator, Integer>();
+		for (final RuleEvaluator rule : combinedElements)
+		{
+			positions.put(rule, Integer.valueOf(rules.size()));
+			rules.add(rule);
+		}
+
+		// the parameters of a rule may be given in several elements
+		final Map<RuleEvaluator, Map<String, Value>> assignments = new IdentityHashMap<RuleEvaluator, Map<String, Value>>();
+		if (params != null)
+		{
+			for (final CombiningAlgParameter<? extends RuleEvaluator> param : params)
+			{
+				final Map<String, Value> values = assignments.computeIfAbsent(param.getCombinedElement(), r -> new HashMap<String, Value>());
+				for (final ParameterAssignment assignment : param.getParameters())
+					values.put(assignment.getParameterName(), assignment.getValue());
+			}
+		}
+
+		final BitSet unindexed = new BitSet();
+		unindexed.set(0, rules.size());
+		final Map<AttributeFqn, AttributeZones> zones = new LinkedHashMap<AttributeFqn, AttributeZones>();
+		for (final Map.Entry<RuleEvaluator, Map<String, Value>> entry : assignments.entrySet())
+		{
+			final Map<String, Value> values = entry.getValue();
+			final Value zone = values.get(ZONE);
+			if (zone == null)
+				continue;
+
+			final RuleEvaluator rule = entry.getKey();
+			final Integer position = positions.get(rule);
+			if (!(zone instanceof GeometryValue) || position == null)
+				throw new IllegalArgumentException("Invalid parameter " + ZONE + " of rule '" + rule.getRuleId() + "': a geometry of a combined rule is required");
+
+			final AttributeFqn attribute = AttributeFqns.newInstance(string(values, ZONE_CATEGORY, rule), Optional.ofNullable(values.containsKey(ZONE_ISSUER) ? string(values, ZONE_ISSUER, rule) : null),
+					string(values, ZONE_ATTRIBUTE_ID, rule));
+			zones.computeIfAbsent(attribute, AttributeZones::new).add(position.intValue(), (GeometryValue) zone);
+			unindexed.clear(position.intValue());
+		}
+
+		if (zones.isEmpty())
+			return standardAlg.getInstance(Collections.<CombiningAlgParameter<? extends RuleEvaluator>> emptyList(), rules);
+
+		for (final AttributeZones z : zones.values())
+			z.build();
+		LOGGER.debug("{}: {} of {} rules indexed by zone", getId(), Integer.valueOf(rules.size() - unindexed.cardinality()), Integer.valueOf(rules.size()));
+		return new Evaluator(standardAlg, rules, unindexed, new ArrayList<AttributeZones>(zones.values()));
+	}
+
+	private static String string(final Map<String, Value> values, final String name, final RuleEvaluator rule)
+	{
+		final Value value = values.get(name);
+		if (!(value instanceof StringValue))
+			throw new IllegalArgumentException("Missing or invalid parameter " + name + " of rule '" + rule.getRuleId() + "': a string is required");
+		return ((StringValue) value).getUnderlyingValue();
+	}
+
+	/**
+	 * Adds the zone parameters to the rules of a policy that are NotApplicable unless the geometry of an attribute intersects a zone,
+	 * and replaces the rule combining algorithm by the zone indexed one. These are the rules without target whose condition is
+	 * <code>geometry-within(geometry-one-and-only(&lt;designator&gt;), &lt;zone&gt;)</code>,
+	 * <code>geometry-contains(&lt;zone&gt;, geometry-one-and-only(&lt;designator&gt;))</code> or
+	 * <code>geometry-intersects</code> with the arguments in either order.
+	 *
+	 * @param policy
+	 *            policy to be loaded by the PDP
+	 * @return the policy with zone indexed rules, or <code>policy</code> if it has no such rule or another combining algorithm than
+	 *         the wrapped ones
+	 */
+	public static Policy index(final Policy policy)
+	{
+		if (!STANDARD_IDS.contains(policy.getRuleCombiningAlgId()))
+			return policy;
+
+		final List<Serializable> content = new ArrayList<Serializable>();
+		int indexed = 0;
+		for (final Serializable element : policy.getCombinerParametersAndRuleCombinerParametersAndVariableDefinitions())
+		{
+			content.add(element);
+			if (!(element instanceof Rule))
+				continue;
+
+			final Rule rule = (Rule) element;
+			final List<CombinerParameter> parameters = zoneParameters(rule);
+			if (parameters != null)
+			{
+				content.add(new RuleCombinerParameters(parameters, rule.getRuleId()));
+				indexed++;
+			}
+		}
+
+		if (indexed == 0)
+			return policy;
+
+		LOGGER.debug("Policy '{}': {} rules indexed by zone", policy.getPolicyId(), Integer.valueOf(indexed));
+		return new Policy(policy.getDescription(), policy.getPolicyIssuer(), policy.getPolicyDefaults(), policy.getTarget(), content, policy.getObligationExpressions(),
+				policy.getAdviceExpressions(), policy.getPolicyId(), policy.getVersion(), ID_PREFIX + policy.getRuleCombiningAlgId(), policy.getMaxDelegationDepth());
+	}
+
+	private static List<CombinerParameter> zoneParameters(final Rule rule)
+	{
+		if ((rule.getTarget() != null && !rule.getTarget().getAnyOves().isEmpty()) || rule.getCondition() == null)
+			return null;
+
+		final ExpressionType condition = rule.getCondition().getExpression().getValue();
+		if (!(condition instanceof ApplyType) || ((ApplyType) condition).getExpressions().size() != 2)
+			return null;
+
+		final ApplyType apply = (ApplyType) condition;
+		final ExpressionType arg0 = apply.getExpressions().get(0).getValue();
+		final ExpressionType arg1 = apply.getExpressions().get(1).getValue();
+		final ExpressionType zone;
+		final ExpressionType other;
+		switch (apply.getFunctionId())
+		{
+			case TopologicalFunctions.Within.ID:
+				zone = arg1;
+				other = arg0;
+				break;
+			case TopologicalFunctions.Contains.ID:
+				zone = arg0;
+				other = arg1;
+				break;
+			case TopologicalFunctions.Intersects.ID:
+				zone = (arg0 instanceof AttributeValueType) ? arg0 : arg1;
+				other = (zone == arg0) ? arg1 : arg0;
+				break;
+			default:
+				return null;
+		}
+
+		if (!(zone instanceof AttributeValueType) || !GeometryValue.DATATYPE.getId().equals(((AttributeValueType) zone).getDataType()))
+			return null;
+
+		final AttributeDesignatorType designator = designator(other);
+		if (designator == null)
+			return null;
+
+		final List<CombinerParameter> parameters = new ArrayList<CombinerParameter>();
+		parameters.add(new CombinerParameter((AttributeValueType) zone, ZONE));
+		parameters.add(new CombinerParameter(string(designator.getCategory()), ZONE_CATEGORY));
+		parameters.add(new CombinerParameter(string(designator.getAttributeId()), ZONE_ATTRIBUTE_ID));
+		if (designator.getIssuer() != null)
+			parameters.add(new CombinerParameter(string(designator.getIssuer()), ZONE_ISSUER));
+		return parameters;
+	}
+
+	/**
+	 * @return the designator of <code>geometry-one-and-only(&lt;designator&gt;)</code>, <code>null</code> for any other expression
+	 */
+	private static AttributeDesignatorType designator(final ExpressionType expression)
+	{
+		if (!(expression instanceof ApplyType) || !ONE_AND_ONLY_ID.equals(((ApplyType) expression).getFunctionId()))
+			return null;
+
+		final List<JAXBElement<? extends ExpressionType>> args = ((ApplyType) expression).getExpressions();
+		if (args.size() != 1 || !(args.get(0).getValue() instanceof AttributeDesignatorType))
+			return null;
+
+		final AttributeDesignatorType designator = (AttributeDesignatorType) args.get(0).getValue();
+		return GeometryValue.DATATYPE.getId().equals(designator.getDataType()) ? designator : null;
+	}
+
+	private static AttributeValueType string(final String value)
+	{
+		return new AttributeValueType(Collections.<Serializable> singletonList(value), StandardDatatypes.STRING.getId(), null);
+	}
+}
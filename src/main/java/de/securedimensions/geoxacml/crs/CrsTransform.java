@@ -0,0 +1,359 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.crs;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.densify.Densifier;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline coordinate transformation between the WGS 84 based CRSs most used in access requests:
+ * <ul>
+ * <li><code>EPSG:4326</code> WGS 84 geographic; internally with the axis order LAT/LON (see {@link SwapAxesCoordinateFilter})</li>
+ * <li><code>EPSG:3857</code> WGS 84 / Pseudo-Mercator</li>
+ * <li><code>EPSG:32601</code> to <code>EPSG:32660</code> and <code>EPSG:32701</code> to <code>EPSG:32760</code> WGS 84 / UTM zones
+ * north and south</li>
+ * </ul>
+ * All CRSs share the WGS 84 datum, so a transformation is the inverse projection of the source followed by the projection of the target;
+ * no datum shift is involved. The transverse Mercator projection uses the Krueger series to the fourth order in <code>n</code>, which is
+ * accurate to well below a millimetre within a UTM zone.
+ * <p>
+ * A straight edge in the source CRS is in general curved in the target CRS. Before a geometry is transformed, its edges are therefore
+ * densified to segments of at most <code>geoxacml.crs.maxSegmentLength</code> metres (default 1000, 0 to disable; a degree is taken
+ * as 111320 metres for <code>EPSG:4326</code>), so the transformed geometry follows the curved edges.
+ * <p>
+ * Transformations are compiled once per pair of SRIDs and cached. They hold no state, so a transformation is shared by concurrent
+ * decisions; each transformed geometry gets its own coordinate filter.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class CrsTransform
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(CrsTransform.class);
+
+	/**
+	 * Maximum length of a segment of a transformed geometry, in metres
+	 */
+	private static final double MAX_SEGMENT_LENGTH = Double.parseDouble(System.getProperty("geoxacml.crs.maxSegmentLength", "1000"));
+
+	/**
+	 * Length of a degree of latitude, in metres
+	 */
+	private static final double METRES_PER_DEGREE = 111320.0;
+
+	/**
+	 * WGS 84 semi-major axis and flattening
+	 */
+	private static final double A = 6378137.0;
+	private static final double F = 1.0 / 298.257223563;
+
+	private static final Map<Long, CrsTransform> TRANSFORMS = new ConcurrentHashMap<Long, CrsTransform>();
+
+	/**
+	 * Projection of a CRS from and to geographic coordinates in radians
+	 */
+	private interface Projection
+	{
+		/**
+		 * @param result
+		 *            receives latitude and longitude
+		 */
+		void inverse(double x, double y, double[] result);
+
+		/**
+		 * @param result
+		 *            receives x and y in the axis order of the CRS
+		 */
+		void forward(double lat, double lon, double[] result);
+	}
+
+	private static final Projection GEOGRAPHIC = new Projection()
+	{
+		@Override
+		public void inverse(final double x, final double y, final double[] result)
+		{
+			result[0] = Math.toRadians(x);
+			result[1] = Math.toRadians(y);
+		}
+
+		@Override
+		public void forward(final double lat, final double lon, final double[] result)
+		{
+			result[0] = Math.toDegrees(lat);
+			result[1] = Math.toDegrees(lon);
+		}
+	};
+
+	private static final Projection PSEUDO_MERCATOR = new Projection()
+	{
+		/**
+		 * Latitude at which the projection is clipped
+		 */
+		private final double maxLat = Math.toRadians(85.0511287798066);
+
+		@Override
+		public void inverse(final double x, final double y, final double[] result)
+		{
+			result[0] = 2.0 * Math.atan(Math.exp(y / A)) - Math.PI / 2.0;
+			result[1] = x / A;
+		}
+
+		@Override
+		public void forward(final double lat, final double lon, final double[] result)
+		{
+			final double phi = Math.max(-maxLat, Math.min(maxLat, lat));
+			result[0] = A * lon;
+			result[1] = A * Math.log(Math.tan(Math.PI / 4.0 + phi / 2.0));
+		}
+	};
+
+	/**
+	 * Transverse Mercator on the WGS 84 ellipsoid (Krueger series)
+	 */
+	private static final class TransverseMercator implements Projection
+	{
+		private static final double N = F / (2.0 - F);
+		private static final double N2 = N * N;
+		private static final double N3 = N2 * N;
+		private static final double N4 = N3 * N;
+		private static final double RECTIFYING_RADIUS = A / (1.0 + N) * (1.0 + N2 / 4.0 + N4 / 64.0);
+		private static final double E = 2.0 * Math.sqrt(N) / (1.0 + N);
+
+		private static final double[] ALPHA = {
+				N / 2.0 - 2.0 * N2 / 3.0 + 5.0 * N3 / 16.0 + 41.0 * N4 / 180.0,
+				13.0 * N2 / 48.0 - 3.0 * N3 / 5.0 + 557.0 * N4 / 1440.0,
+				61.0 * N3 / 240.0 - 103.0 * N4 / 140.0,
+				49561.0 * N4 / 161280.0 };
+		private static final double[] BETA = {
+				N / 2.0 - 2.0 * N2 / 3.0 + 37.0 * N3 / 96.0 - N4 / 360.0,
+				N2 / 48.0 + N3 / 15.0 - 437.0 * N4 / 1440.0,
+				17.0 * N3 / 480.0 - 37.0 * N4 / 840.0,
+				4397.0 * N4 / 161280.0 };
+		private static final double[] DELTA = {
+				2.0 * N - 2.0 * N2 / 3.0 - 2.0 * N3 + 116.0 * N4 / 45.0,
+				7.0 * N2 / 3.0 - 8.0 * N3 / 5.0 - 227.0 * N4 / 45.0,
+				56.0 * N3 / 15.0 - 136.0 * N4 / 35.0,
+				4279.0 * N4 / 630.0 };
+
+		private final double centralMeridian;
+		private final double scale;
+		private final double falseEasting;
+		private final double falseNorthing;
+
+		private TransverseMercator(final double centralMeridian, final double scale, final double falseEasting, final double falseNorthing)
+		{
+			this.centralMeridian = centralMeridian;
+			this.scale = scale;
+			this.falseEasting = falseEasting;
+			this.falseNorthing = falseNorthing;
+		}
+
+		@Override
+		public void forward(final double lat, final double lon, final double[] result)
+		{
+			final double sinLat = Math.sin(lat);
+			final double t = Math.sinh(atanh(sinLat) - E * atanh(E * sinLat));
+			final double dLon = lon - centralMeridian;
+			final double xi = Math.atan2(t, Math.cos(dLon));
+			final double eta = atanh(Math.sin(dLon) / Math.sqrt(1.0 + t * t));
+
+			double easting = eta;
+			double northing = xi;
+			for (int j = 1; j <= 4; j++)
+			{
+				easting += ALPHA[j - 1] * Math.cos(2 * j * xi) * Math.sinh(2 * j * eta);
+				northing += ALPHA[j - 1] * Math.sin(2 * j * xi) * Math.cosh(2 * j * eta);
+			}
+			result[0] = falseEasting + scale * RECTIFYING_RADIUS * easting;
+			result[1] = falseNorthing + scale * RECTIFYING_RADIUS * northing;
+		}
+
+		@Override
+		public void inverse(final double x, final double y, final double[] result)
+		{
+			final double xi = (y - falseNorthing) / (scale * RECTIFYING_RADIUS);
+			final double eta = (x - falseEasting) / (scale * RECTIFYING_RADIUS);
+
+			double xiP = xi;
+			double etaP = eta;
+			for (int j = 1; j <= 4; j++)
+			{
+				xiP -= BETA[j - 1] * Math.sin(2 * j * xi) * Math.cosh(2 * j * eta);
+				etaP -= BETA[j - 1] * Math.cos(2 * j * xi) * Math.sinh(2 * j * eta);
+			}
+
+			final double chi = Math.asin(Math.sin(xiP) / Math.cosh(etaP));
+			double lat = chi;
+			for (int j = 1; j <= 4; j++)
+				lat += DELTA[j - 1] * Math.sin(2 * j * chi);
+
+			result[0] = lat;
+			result[1] = centralMeridian + Math.atan2(Math.sinh(etaP), Math.cos(xiP));
+		}
+
+		private static double atanh(final double x)
+		{
+			return 0.5 * Math.log((1.0 + x) / (1.0 - x));
+		}
+	}
+
+	private static Projection getProjection(final int srid)
+	{
+		if (srid == 4326)
+			return GEOGRAPHIC;
+		if (srid == 3857)
+			return PSEUDO_MERCATOR;
+		if ((srid > 32600 && srid <= 32660) || (srid > 32700 && srid <= 32760))
+		{
+			final int zone = srid % 100;
+			final double centralMeridian = Math.toRadians(zone * 6.0 - 183.0);
+			return new TransverseMercator(centralMeridian, 0.9996, 500000.0, (srid > 32700) ? 10000000.0 : 0.0);
+		}
+		return null;
+	}
+
+	/**
+	 * @return <code>true</code> if geometries with the SRID can be transformed
+	 */
+	public static boolean isSupported(final int srid)
+	{
+		return getProjection(srid) != null;
+	}
+
+	/**
+	 * Returns the (cached) transformation between two CRSs
+	 *
+	 * @return the transformation or <code>null</code> if one of the CRSs is not supported
+	 */
+	public static CrsTransform get(final int sourceSrid, final int targetSrid)
+	{
+		final Long key = Long.valueOf(((long) sourceSrid << 32) | (targetSrid & 0xffffffffL));
+		CrsTransform transform = TRANSFORMS.get(key);
+		if (transform == null)
+		{
+			final Projection source = getProjection(sourceSrid);
+			final Projection target = getProjection(targetSrid);
+			if (source == null || target == null)
+				return null;
+
+			transform = new CrsTransform(source, target);
+			TRANSFORMS.putIfAbsent(key, transform);
+			LOGGER.debug("Transformation from EPSG:{} to EPSG:{} compiled", sourceSrid, targetSrid);
+		}
+		return transform;
+	}
+
+	/**
+	 * Transforms a copy of the geometry, densified to segments of at most <code>geoxacml.crs.maxSegmentLength</code>
+	 *
+	 * @return the transformed geometry or <code>null</code> if one of the CRSs is not supported
+	 */
+	public static Geometry transform(final Geometry g, final int targetSrid)
+	{
+		final CrsTransform transform = get(g.getSRID(), targetSrid);
+		if (transform == null)
+			return null;
+
+		final Geometry copy = densify(g);
+		copy.apply(transform.new Filter());
+		copy.geometryChanged();
+		copy.setSRID(targetSrid);
+		copy.setUserData(g.getUserData());
+		return copy;
+	}
+
+	/**
+	 * @return a densified copy of the geometry, or a plain copy if it has no edges longer than the maximum segment length
+	 */
+	private static Geometry densify(final Geometry g)
+	{
+		if (MAX_SEGMENT_LENGTH <= 0.0 || g.getDimension() == 0)
+			return g.copy();
+
+		final double maxLength = (g.getSRID() == 4326) ? MAX_SEGMENT_LENGTH / METRES_PER_DEGREE : MAX_SEGMENT_LENGTH;
+		final Envelope env = g.getEnvelopeInternal();
+		if (env.getWidth() <= maxLength && env.getHeight() <= maxLength)
+			return g.copy();
+
+		// points are only added on the edges, so a valid geometry stays valid and is not repaired with a buffer
+		final Densifier densifier = new Densifier(g);
+		densifier.setDistanceTolerance(maxLength);
+		densifier.setValidate(false);
+		final Geometry densified = densifier.getResultGeometry();
+		densified.setSRID(g.getSRID());
+		return densified;
+	}
+
+	private final Projection source;
+	private final Projection target;
+
+	private CrsTransform(final Projection source, final Projection target)
+	{
+		this.source = source;
+		this.target = target;
+	}
+
+	/**
+	 * Transforms the coordinates of one geometry, reusing one result array for all coordinates
+	 */
+	private final class Filter implements CoordinateSequenceFilter
+	{
+		private final double[] result = new double[2];
+
+		@Override
+		public void filter(final CoordinateSequence seq, final int i)
+		{
+			transform(seq.getX(i), seq.getY(i), result);
+			seq.setOrdinate(i, CoordinateSequence.X, result[0]);
+			seq.setOrdinate(i, CoordinateSequence.Y, result[1]);
+		}
+
+		@Override
+		public boolean isDone()
+		{
+			return false;
+		}
+
+		@Override
+		public boolean isGeometryChanged()
+		{
+			return true;
+		}
+	}
+
+	/**
+	 * Transforms one coordinate
+	 *
+	 * @param result
+	 *            receives the transformed coordinate
+	 */
+	public void transform(final double x, final double y, final double[] result)
+	{
+		source.inverse(x, y, result);
+		target.forward(result[0], result[1], result);
+	}
+}
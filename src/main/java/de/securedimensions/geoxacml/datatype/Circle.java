@@ -0,0 +1,135 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.datatype;
+
+import java.io.Serializable;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * A circle given by its center and radius.
+ * <p>
+ * Used as an inner approximation of polygonal geometries: every point strictly inside the circle is in the interior of the geometry it was derived from.
+ * <p>
+ * Also used as the analytic form of a <code>gml:CircleByCenterPoint</code>, together with the number of segments of the regular polygon,
+ * inscribed in the circle, that represents the circle as geometry.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class Circle implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final double x;
+	private final double y;
+	private final double radius;
+	private final double radiusSquared;
+	private final int segments;
+
+	public Circle(final double x, final double y, final double radius)
+	{
+		this(x, y, radius, 0);
+	}
+
+	/**
+	 * @param segments
+	 *            number of segments of the polygon representing the circle, 0 if none
+	 */
+	public Circle(final double x, final double y, final double radius, final int segments)
+	{
+		this.x = x;
+		this.y = y;
+		this.radius = radius;
+		this.radiusSquared = radius * radius;
+		this.segments = segments;
+	}
+
+	public double getX()
+	{
+		return x;
+	}
+
+	public double getY()
+	{
+		return y;
+	}
+
+	public double getRadius()
+	{
+		return radius;
+	}
+
+	/**
+	 * @return number of segments of the polygon representing the circle, 0 if none
+	 */
+	public int getSegments()
+	{
+		return segments;
+	}
+
+	/**
+	 * @return the circle inscribed in the polygon representing this circle (reduced slightly to stay clear of rounding), or
+	 *         <code>null</code> if there is no polygon
+	 */
+	public Circle getInscribedCircle()
+	{
+		if (segments < 3)
+			return null;
+
+		return new Circle(x, y, radius * Math.cos(Math.PI / segments) * (1.0 - 1.0E-9));
+	}
+
+	/**
+	 * @return the distance from the point to the center
+	 */
+	public double distanceToCenter(final double px, final double py)
+	{
+		return Math.hypot(px - x, py - y);
+	}
+
+	/**
+	 * Tests whether the point is strictly inside the circle
+	 */
+	public boolean containsProperly(final double px, final double py)
+	{
+		final double dx = px - x;
+		final double dy = py - y;
+		return dx * dx + dy * dy < radiusSquared;
+	}
+
+	/**
+	 * Tests whether all four corners of the envelope are strictly inside the circle - and therefore the whole envelope
+	 */
+	public boolean containsProperly(final Envelope env)
+	{
+		if (env.isNull())
+			return false;
+
+		return containsProperly(env.getMinX(), env.getMinY()) && containsProperly(env.getMinX(), env.getMaxY())
+				&& containsProperly(env.getMaxX(), env.getMinY()) && containsProperly(env.getMaxX(), env.getMaxY());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString()
+	{
+		return "CIRCLE(" + x + " " + y + ", " + radius + ")";
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.datatype;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.ow2.authzforce.core.pdp.api.value.AttributeDatatype;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.BaseAttributeValueFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.sf.saxon.s9api.XPathCompiler;
+
+/**
+ * Represents an axis-aligned bounding box with its SRID.
+ * <p>
+ * The box is encoded as <code>BOX(minx miny, maxx maxy)</code>, either prefixed with <code>SRID=&lt;code&gt;;</code> or with the CRS
+ * given in the <code>crs</code> attribute of the AttributeValue, as for WKT encoded geometries. The axis order follows the same
+ * normalization as for {@link GeometryValue}: for <code>CRS84</code> the coordinates are given LON/LAT and stored LAT/LON.
+ * <p>
+ * Rules that only need box semantics can compare boxes on their four coordinates instead of testing polygons. The coordinates are kept
+ * as primitive fields, so a comparison reads four doubles and no geometry or envelope object is created. The box is closed: it contains
+ * its boundary, and a box with zero width or height is a valid (degenerate) box. Coordinates must not be NaN.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class EnvelopeValue implements AttributeValue, Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EnvelopeValue.class);
+
+	private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(new PrecisionModel());
+
+	private final double minX;
+	private final double minY;
+	private final double maxX;
+	private final double maxY;
+	private final int srid;
+
+	/**
+	 * Data type Envelope
+	 */
+	public static final AttributeDatatype<EnvelopeValue> DATATYPE =
+			new AttributeDatatype<EnvelopeValue>(EnvelopeValue.class, "urn:ogc:def:dataType:geoxacml:1.0:envelope", "urn:de:securedimensions:function:geoxacml:envelope");
+
+	public static final class Factory extends BaseAttributeValueFactory<EnvelopeValue>
+	{
+		private static final QName CRS_ATTRIBUTE = new QName("http://www.opengis.net/geoxacml", "crs");
+
+		private static final Pattern BOX = Pattern.compile("\\s*(?:(SRID|CRS)=([^;]+);)?\\s*BOX\\s*\\(\\s*(\\S+)\\s+(\\S+)\\s*,\\s*(\\S+)\\s+(\\S+)\\s*\\)\\s*",
+				Pattern.CASE_INSENSITIVE);
+
+		public Factory()
+		{
+			super(DATATYPE);
+		}
+
+		/**
+		 * Parses a box encoding
+		 *
+		 * @throws IllegalArgumentException
+		 *             if the encoding is not a valid box or has no CRS
+		 */
+		public EnvelopeValue getInstance(final String encoding, final Map<QName, String> otherXmlAttributes) throws IllegalArgumentException
+		{
+			LOGGER.debug("getInstance(String value): {}", encoding);
+
+			final Matcher m = BOX.matcher(encoding);
+			if (!m.matches())
+				throw new IllegalArgumentException("Invalid content for datatype '" + DATATYPE.getId() + "': " + encoding);
+
+			final String crsName;
+			if (m.group(1) == null)
+			{
+				crsName = (otherXmlAttributes == null) ? null : otherXmlAttributes.get(CRS_ATTRIBUTE);
+				if (crsName == null)
+					throw new IllegalArgumentException("Envelope encoding with no crs defined!");
+			}
+			else
+				crsName = m.group(1).equalsIgnoreCase("SRID") ? "EPSG:" + m.group(2).trim() : m.group(2).trim();
+
+			final double x1;
+			final double y1;
+			final double x2;
+			final double y2;
+			try
+			{
+				x1 = Double.parseDouble(m.group(3));
+				y1 = Double.parseDouble(m.group(4));
+				x2 = Double.parseDouble(m.group(5));
+				y2 = Double.parseDouble(m.group(6));
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Invalid coordinate for datatype '" + DATATYPE.getId() + "': " + e.getMessage());
+			}
+
+			if (Double.isNaN(x1) || Double.isNaN(y1) || Double.isNaN(x2) || Double.isNaN(y2))
+				throw new IllegalArgumentException("Invalid coordinate for datatype '" + DATATYPE.getId() + "': NaN");
+			if (x1 > x2 || y1 > y2)
+				throw new IllegalArgumentException("Invalid content for datatype '" + DATATYPE.getId() + "': lower corner above upper corner");
+
+			final int srid = GeometryValue.getSRID(crsName);
+			// the internal code -4326 (LON/LAT) is normalized to LAT/LON as for geometries
+			if (srid == -4326)
+				return new EnvelopeValue(y1, x1, y2, x2, 4326);
+			return new EnvelopeValue(x1, y1, x2, y2, srid);
+		}
+
+		@Override
+		public EnvelopeValue getInstance(final List<Serializable> content, final Map<QName, String> otherXmlAttributes, final XPathCompiler xPathCompiler) throws IllegalArgumentException
+		{
+			if (content == null)
+				throw new IllegalArgumentException("Invalid content for datatype '" + DATATYPE.getId() + "': empty");
+
+			final Iterator<Serializable> contentIterator = content.iterator();
+			if (!contentIterator.hasNext())
+				throw new IllegalArgumentException("Invalid content for datatype '" + DATATYPE.getId() + "': empty");
+
+			final Serializable value = contentIterator.next();
+			if (!(value instanceof String) || contentIterator.hasNext())
+				throw new IllegalArgumentException("Invalid content for datatype '" + DATATYPE.getId() + "': a box must be encoded as a single String");
+
+			return getInstance((String) value, otherXmlAttributes);
+		}
+	}
+
+	public static final Factory FACTORY = new Factory();
+
+	/**
+	 * Returns a new box
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a coordinate is NaN or the lower corner is above the upper corner
+	 */
+	public EnvelopeValue(final double minX, final double minY, final double maxX, final double maxY, final int srid) throws IllegalArgumentException
+	{
+		if (Double.isNaN(minX) || Double.isNaN(minY) || Double.isNaN(maxX) || Double.isNaN(maxY))
+			throw new IllegalArgumentException("Coordinate of the envelope is NaN");
+		if (minX > maxX || minY > maxY)
+			throw new IllegalArgumentException("Lower corner of the envelope above upper corner");
+		// adding 0.0 turns -0.0 into 0.0, so equal boxes have the same hash code
+		this.minX = minX + 0.0;
+		this.minY = minY + 0.0;
+		this.maxX = maxX + 0.0;
+		this.maxY = maxY + 0.0;
+		this.srid = srid;
+	}
+
+	/**
+	 * Returns the bounding box of a geometry
+	 *
+	 * @return the box or <code>null</code> if the geometry is empty
+	 */
+	public static EnvelopeValue of(final GeometryValue gv)
+	{
+		final Geometry g = gv.getUnderlyingValue();
+		if (g.isEmpty())
+			return null;
+
+		final Envelope e = g.getEnvelopeInternal();
+		return new EnvelopeValue(e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY(), g.getSRID());
+	}
+
+	/**
+	 * Returns the box as geometry: a rectangular polygon, or a line or point for a degenerate box
+	 */
+	public GeometryValue toGeometry()
+	{
+		final Geometry g = GEOMETRY_FACTORY.toGeometry(new Envelope(minX, maxX, minY, maxY));
+		g.setSRID(srid);
+		return new GeometryValue(g);
+	}
+
+	public double getMinX()
+	{
+		return minX;
+	}
+
+	public double getMinY()
+	{
+		return minY;
+	}
+
+	public double getMaxX()
+	{
+		return maxX;
+	}
+
+	public double getMaxY()
+	{
+		return maxY;
+	}
+
+	public int getSRID()
+	{
+		return srid;
+	}
+
+	/**
+	 * Tests whether the boxes share at least one point; boxes with different SRID never intersect
+	 */
+	public boolean intersects(final EnvelopeValue other)
+	{
+		return srid == other.srid && minX <= other.maxX && maxX >= other.minX && minY <= other.maxY && maxY >= other.minY;
+	}
+
+	/**
+	 * Tests whether every point of the other box is in this box; boxes with different SRID never contain each other
+	 */
+	public boolean contains(final EnvelopeValue other)
+	{
+		return srid == other.srid && minX <= other.minX && maxX >= other.maxX && minY <= other.minY && maxY >= other.maxY;
+	}
+
+	/**
+	 * Tests whether every point of this box is in the other box
+	 */
+	public boolean within(final EnvelopeValue other)
+	{
+		return other.contains(this);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode()
+	{
+		int result = Double.hashCode(minX);
+		result = 31 * result + Double.hashCode(minY);
+		result = 31 * result + Double.hashCode(maxX);
+		result = 31 * result + Double.hashCode(maxY);
+		return 31 * result + srid;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(final Object obj)
+	{
+		if (this == obj)
+			return true;
+
+		if (!(obj instanceof EnvelopeValue))
+			return false;
+
+		final EnvelopeValue other = (EnvelopeValue) obj;
+		return srid == other.srid && minX == other.minX && minY == other.minY && maxX == other.maxX && maxY == other.maxY;
+	}
+
+	/**
+	 * @return the box encoding
+	 */
+	public String printXML()
+	{
+		return toString();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Serializable> getContent()
+	{
+		return Collections.<Serializable> singletonList(printXML());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString()
+	{
+		return "SRID=" + srid + ";BOX(" + minX + " " + minY + ", " + maxX + " " + maxY + ")";
+	}
+
+	@Override
+	public Map<QName, String> getXmlAttributes()
+	{
+		return new HashMap<QName, String>();
+	}
+}
@@ -0,0 +1,467 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.datatype;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import de.securedimensions.geoxacml.io.gml3.GeometryStrategies;
+
+/**
+ * Snapshot of the geometries of a policy set, compiled ahead of time so a PDP does not parse them at startup.
+ * <p>
+ * The snapshot is built by {@link #main(String[])} from the policy files and loaded from the file <code>geoxacml.snapshot.file</code>
+ * if set. The file is memory-mapped and its header validated once; {@link GeometryValue.Factory} looks up every geometry in the
+ * snapshot before parsing it. A geometry is found by the SHA-256 hash of its key in the parse cache: the encoding and CRS of a WKT,
+ * WKB or GeoJSON geometry, and a canonical form of a GML element that does not depend on namespace prefixes, attribute order or
+ * whitespace. A changed policy geometry is simply not found and parsed as before. An entry with a wrong checksum and a file with a
+ * wrong header or version are ignored as well.
+ * <p>
+ * The header records the parser configuration the snapshot was built with: the number of segments of GML arcs and circles
+ * (<code>geoxacml.circle.segments</code>) and the mapping of CRS names to SRID and axis order. A snapshot built with a different
+ * configuration would return other geometries than the parser, so it is ignored.
+ * <p>
+ * Layout (big-endian):
+ *
+ * <pre>
+ * byte[4]  magic "GXSN"
+ * int      version (2)
+ * int      CRC32 of the parser configuration
+ * int      number of entries
+ * entries sorted by hash: byte[32] SHA-256 of the key (UTF-8), long offset, int length, int CRC32 of the value
+ * values in the serialized form of geometry values (see {@link de.securedimensions.geoxacml.io.GeometryCodec})
+ * </pre>
+ *
+ * Derived structures (prepared geometries, indexes) are not part of the snapshot; they are computed on first use as for parsed
+ * geometries.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class GeometrySnapshot
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(GeometrySnapshot.class);
+
+	private static final byte[] MAGIC = { 'G', 'X', 'S', 'N' };
+
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 16;
+
+	private static final int COUNT_OFFSET = 12;
+
+	private static final int ENTRY_SIZE = 48;
+
+	/**
+	 * CRS names whose SRID is recorded in the configuration of the snapshot; the SRID of a geometry also decides its axis order
+	 */
+	private static final String[] CRS_NAMES = { "EPSG:4326", "urn:ogc:def:crs:EPSG::4326", "http://www.opengis.net/def/crs/EPSG/0/4326",
+			"CRS84", "urn:ogc:def:crs:OGC::CRS84", "http://www.opengis.net/def/crs/OGC/1.3/CRS84", "WGS84", "EPSG:3857" };
+
+	private static final int CONFIGURATION = configuration();
+
+	private static final LongAdder HITS = new LongAdder();
+	private static final LongAdder MISSES = new LongAdder();
+
+	private static volatile ByteBuffer snapshot = load(System.getProperty("geoxacml.snapshot.file"));
+
+	private GeometrySnapshot()
+	{
+	}
+
+	/**
+	 * @return <code>true</code> if a valid snapshot is loaded
+	 */
+	public static boolean isEnabled()
+	{
+		return snapshot != null;
+	}
+
+	/**
+	 * Replaces the loaded snapshot, e.g. when the policies are reloaded. The parse cache is cleared, so geometries are taken from the
+	 * new snapshot.
+	 *
+	 * @param file
+	 *            the snapshot file or <code>null</code> to parse all geometries
+	 * @return <code>true</code> if the file is a valid snapshot
+	 */
+	public static boolean use(final Path file)
+	{
+		snapshot = (file == null) ? null : load(file.toString());
+		GeometryValue.Factory.invalidateParseCache();
+		return snapshot != null;
+	}
+
+	/**
+	 * @return number of geometries found in the snapshot
+	 */
+	public static long getHits()
+	{
+		return HITS.sum();
+	}
+
+	/**
+	 * @return number of geometries looked up but not found in the snapshot
+	 */
+	public static long getMisses()
+	{
+		return MISSES.sum();
+	}
+
+	/**
+	 * The parser configuration the geometries depend on
+	 */
+	private static int configuration()
+	{
+		final StringBuilder sb = new StringBuilder("geoxacml.circle.segments=").append(GeometryStrategies.CIRCLE_SEGMENTS);
+		for (final String crs : CRS_NAMES)
+			sb.append('\n').append(crs).append('=').append(GeometryValue.getSRID(crs));
+
+		final CRC32 crc = new CRC32();
+		crc.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+		return (int) crc.getValue();
+	}
+
+	private static ByteBuffer load(final String file)
+	{
+		if (file == null)
+			return null;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE || channel.size() < HEADER_SIZE)
+				throw new IOException("invalid size " + channel.size());
+
+			final ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			for (int i = 0; i < MAGIC.length; i++)
+			{
+				if (buffer.get(i) != MAGIC[i])
+					throw new IOException("not a geometry snapshot");
+			}
+			if (buffer.getInt(4) != VERSION)
+				throw new IOException("unsupported version " + buffer.getInt(4));
+			if (buffer.getInt(8) != CONFIGURATION)
+				throw new IOException("built with a different parser configuration (geoxacml.circle.segments or CRS handling)");
+			final int count = buffer.getInt(COUNT_OFFSET);
+			if (count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > buffer.capacity())
+				throw new IOException("truncated");
+
+			LOGGER.info("Geometry snapshot {} loaded with {} geometries", file, Integer.valueOf(count));
+			return buffer;
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn("Geometry snapshot {} ignored, policy geometries are parsed: {}", file, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the geometry value of the key
+	 *
+	 * @param key
+	 *            key of the geometry in the parse cache
+	 * @return the value or <code>null</code> if the snapshot has no valid entry for the key
+	 */
+	static GeometryValue get(final String key)
+	{
+		final ByteBuffer buffer = snapshot;
+		if (buffer == null)
+			return null;
+
+		final byte[] hash = hash(key);
+		int low = 0;
+		int high = buffer.getInt(COUNT_OFFSET) - 1;
+		while (low <= high)
+		{
+			final int mid = (low + high) >>> 1;
+			final int entry = HEADER_SIZE + mid * ENTRY_SIZE;
+			final int cmp = compare(buffer, entry, hash);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+			{
+				final GeometryValue gv = read(buffer, entry);
+				if (gv != null)
+				{
+					HITS.increment();
+					return gv;
+				}
+				break;
+			}
+		}
+		MISSES.increment();
+		return null;
+	}
+
+	private static int compare(final ByteBuffer buffer, final int entry, final byte[] hash)
+	{
+		for (int i = 0; i < hash.length; i++)
+		{
+			final int cmp = Integer.compare(buffer.get(entry + i) & 0xff, hash[i] & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		return 0;
+	}
+
+	private static GeometryValue read(final ByteBuffer buffer, final int entry)
+	{
+		final long offset = buffer.getLong(entry + 32);
+		final int length = buffer.getInt(entry + 40);
+		if (offset < 0 || length < 0 || offset + length > buffer.capacity())
+		{
+			LOGGER.warn("Geometry snapshot entry out of bounds, geometry is parsed");
+			return null;
+		}
+
+		final byte[] bytes = new byte[length];
+		final ByteBuffer value = buffer.duplicate();
+		value.position((int) offset);
+		value.get(bytes);
+
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+		if ((int) crc.getValue() != buffer.getInt(entry + 44))
+		{
+			LOGGER.warn("Geometry snapshot entry with wrong checksum, geometry is parsed");
+			return null;
+		}
+
+		try
+		{
+			return GeometryValue.SerializedForm.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			LOGGER.warn("Geometry snapshot entry cannot be read, geometry is parsed: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private static int compare(final byte[] a, final byte[] b)
+	{
+		for (int i = 0; i < a.length; i++)
+		{
+			final int cmp = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		return 0;
+	}
+
+	private static byte[] hash(final String key)
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// SHA-256 is available in every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the geometry values
+	 *
+	 * @param values
+	 *            geometry values by their key in the parse cache
+	 */
+	public static void write(final Map<String, GeometryValue> values, final Path file) throws IOException
+	{
+		// pairs of hash and value, sorted by the unsigned bytes of the hash
+		final List<byte[][]> entries = new ArrayList<byte[][]>(values.size());
+		for (final Map.Entry<String, GeometryValue> e : values.entrySet())
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			GeometryValue.SerializedForm.write(e.getValue(), new DataOutputStream(bytes));
+			entries.add(new byte[][] { hash(e.getKey()), bytes.toByteArray() });
+		}
+		entries.sort((a, b) -> compare(a[0], b[0]));
+
+		final Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		// written under a temporary name and moved, so a starting PDP never maps a partial file
+		final Path tmp = Files.createTempFile(dir, "geoxacml", ".tmp");
+		try (OutputStream os = Files.newOutputStream(tmp); DataOutputStream out = new DataOutputStream(os))
+		{
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(CONFIGURATION);
+			out.writeInt(entries.size());
+
+			long offset = HEADER_SIZE + (long) entries.size() * ENTRY_SIZE;
+			for (final byte[][] e : entries)
+			{
+				final CRC32 crc = new CRC32();
+				crc.update(e[1]);
+				out.write(e[0]);
+				out.writeLong(offset);
+				out.writeInt(e[1].length);
+				out.writeInt((int) crc.getValue());
+				offset += e[1].length;
+			}
+			for (final byte[][] e : entries)
+				out.write(e[1]);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Collects the geometry attribute values of a policy file by their key in the parse cache. GML Null geometries are not
+	 * collected, they are not parsed, and neither are references to features (<code>REF=</code>), which are resolved by their layer.
+	 */
+	public static void collect(final Document policy, final Map<String, GeometryValue> values)
+	{
+		final NodeList attributeValues = policy.getElementsByTagNameNS("*", "AttributeValue");
+		for (int i = 0; i < attributeValues.getLength(); i++)
+		{
+			final Element av = (Element) attributeValues.item(i);
+			if (!GeometryValue.DATATYPE.getId().equals(av.getAttribute("DataType")))
+				continue;
+
+			final Map<QName, String> otherXmlAttributes = new HashMap<QName, String>();
+			final NamedNodeMap attributes = av.getAttributes();
+			for (int j = 0; j < attributes.getLength(); j++)
+			{
+				final Attr a = (Attr) attributes.item(j);
+				if (a.getNamespaceURI() != null && !"http://www.w3.org/2000/xmlns/".equals(a.getNamespaceURI()))
+					otherXmlAttributes.put(new QName(a.getNamespaceURI(), a.getLocalName()), a.getValue());
+			}
+
+			Element gml = null;
+			for (Node child = av.getFirstChild(); child != null; child = child.getNextSibling())
+			{
+				if (child instanceof Element)
+				{
+					gml = (Element) child;
+					break;
+				}
+			}
+
+			try
+			{
+				if (gml == null)
+				{
+					final String encoding = av.getTextContent();
+					if (encoding.trim().regionMatches(true, 0, "REF=", 0, "REF=".length()))
+						continue;
+					values.put(GeometryValue.Factory.key(encoding, otherXmlAttributes), GeometryValue.FACTORY.getInstance(encoding, otherXmlAttributes, null));
+				}
+				else if (!gml.getLocalName().equalsIgnoreCase("Null") && gml instanceof Serializable)
+				{
+					final List<Serializable> content = Collections.singletonList((Serializable) gml);
+					values.put(GeometryValue.Factory.key(gml), GeometryValue.FACTORY.getInstance(content, otherXmlAttributes, null));
+				}
+			}
+			catch (IllegalArgumentException e)
+			{
+				LOGGER.warn("Geometry not added to the snapshot: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Build step: compiles the geometries of the policy files into a snapshot.
+	 * <p>
+	 * Usage: <code>GeometrySnapshot &lt;snapshot file&gt; &lt;policy file or directory&gt;...</code>; directories are searched for
+	 * <code>*.xml</code> files.
+	 */
+	public static void main(final String[] args) throws IOException, SAXException, ParserConfigurationException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: GeometrySnapshot <snapshot file> <policy file or directory>...");
+			System.exit(1);
+		}
+
+		final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+
+		dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+
+		final Map<String, GeometryValue> values = new HashMap<String, GeometryValue>();
+		for (int i = 1; i < args.length; i++)
+		{
+			final List<Path> files = new ArrayList<Path>();
+			final Path path = Paths.get(args[i]);
+			if (Files.isDirectory(path))
+			{
+				try (Stream<Path> walk = Files.walk(path))
+				{
+					files.addAll(walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".xml")).collect(Collectors.toList()));
+				}
+			}
+			else
+				files.add(path);
+
+			for (final Path file : files)
+			{
+				LOGGER.info("Reading geometries from {}", file);
+				collect(dbf.newDocumentBuilder().parse(file.toFile()), values);
+			}
+		}
+
+		write(values, Paths.get(args[0]));
+		LOGGER.info("Geometry snapshot {} written with {} geometries", args[0], Integer.valueOf(values.size()));
+	}
+}
@@ -20,13 +20,23 @@ package de.securedimensions.geoxacml.datatype;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -44,24 +54,44 @@ import org.ow2.authzforce.core.pdp.api.value.AttributeDatatype;
 import org.ow2.authzforce.core.pdp.api.value.BaseAttributeValueFactory;
 import org.ow2.authzforce.core.pdp.api.value.SimpleValue;
 
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.wololo.jts2geojson.GeoJSONReader;
 import org.xml.sax.SAXException;
 
 import de.securedimensions.geoxacml.crs.SwapAxesCoordinateFilter;
+import de.securedimensions.geoxacml.index.CellCovering;
+import de.securedimensions.geoxacml.index.GridPointLocator;
+import de.securedimensions.geoxacml.io.FlatGeobufLayer;
+import de.securedimensions.geoxacml.io.GeometryCodec;
+import de.securedimensions.geoxacml.io.MappedGeometryStore;
 import de.securedimensions.geoxacml.io.gml3.GMLWriter;
 
 import net.sf.saxon.s9api.XPathCompiler;
 
+import org.locationtech.jts.algorithm.construct.MaximumInscribedCircle;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Polygonal;
 import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 import org.locationtech.jts.io.WKTWriter;
+import org.locationtech.jts.operation.distance.IndexedFacetDistance;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
 /**
  * Represents the Geometry datatype <i>GeoXACML 1.0 Data Type<i>. 
  * <p>
@@ -79,7 +109,7 @@ import org.slf4j.LoggerFactory;
  * @author Andreas Matheus, Secure Dimensions GmbH. 
  *
  */
-public final class GeometryValue extends SimpleValue<Geometry>
+public final class GeometryValue extends SimpleValue<Geometry> implements Serializable
 {
 	/**
 	 * General Problem when implementing software that creates a geometry from any encoding 
@@ -90,6 +120,46 @@ public final class GeometryValue extends SimpleValue<Geometry>
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(GeometryValue.class);
 
+	/**
+	 * Relative tolerance (of the envelope diameter) used when computing the inscribed circle
+	 */
+	private static final double INSCRIBED_CIRCLE_TOLERANCE = 1.0E-3;
+
+	/**
+	 * Analytic form of a geometry parsed from a circle, <code>null</code> for any other geometry
+	 */
+	private final Circle circle;
+
+	/**
+	 * <code>true</code> if the geometry is an axis-aligned rectangle with non-zero area, e.g. parsed from a <code>gml:Envelope</code>
+	 */
+	private final boolean rectangle;
+
+	/**
+	 * Coordinates of a geometry that is a single non-empty point, read once so point predicates do not go through the coordinate
+	 * sequence; <code>NaN</code> for any other geometry
+	 */
+	private final double pointX;
+	private final double pointY;
+
+	/**
+	 * Structures derived from the geometry. They are computed on first use and kept for the lifetime of this value,
+	 * so a policy geometry pays for them once and all later evaluations share them.
+	 */
+	private transient volatile PreparedGeometry prepared = null;
+	private transient volatile PreparedGeometry preparedConvexHull = null;
+	private transient volatile Circle inscribedCircle = null;
+	private transient volatile boolean inscribedCircleComputed = false;
+	private transient volatile GeometryValue simplified = null;
+	private transient volatile GridPointLocator gridPointLocator = null;
+	private transient volatile boolean gridPointLocatorComputed = false;
+	private transient volatile CellCovering cellCovering = null;
+	private transient volatile boolean cellCoveringComputed = false;
+	private transient volatile IndexedFacetDistance facetDistance = null;
+	private transient volatile long fingerprint = 0;
+	private transient volatile boolean fingerprintComputed = false;
+	private transient double simplificationTolerance = 0.0;
+
 	/**
 	 * Data type Geometry
 	 */
@@ -100,6 +170,15 @@ public final class GeometryValue extends SimpleValue<Geometry>
 	{
 
 
+		private static final QName CRS_ATTRIBUTE = new QName("http://www.opengis.net/geoxacml","crs");
+
+		/**
+		 * Geometries parsed recently, keyed by their encoding. Values are immutable, so the individual decisions of a
+		 * Multiple Decision request carrying the same geometry share one instance together with its derived structures.
+		 */
+		private static final long PARSE_CACHE_SIZE = Long.getLong("geoxacml.parse.cacheSize", 1024);
+		private static final Cache<String, GeometryValue> PARSE_CACHE = (PARSE_CACHE_SIZE > 0) ? Caffeine.newBuilder().maximumSize(PARSE_CACHE_SIZE).recordStats().build() : null;
+
 		private static GeometryFactory gf;
 		private static SAXParserFactory fact;
 		private static TransformerFactory tf;
@@ -129,6 +208,153 @@ public final class GeometryValue extends SimpleValue<Geometry>
 			
 			final String encoding = (String)value;
 			
+			if (PARSE_CACHE == null && !GeometrySnapshot.isEnabled())
+				return parse(encoding, otherXmlAttributes);
+
+			final String key = key(encoding, otherXmlAttributes);
+			GeometryValue gv = (PARSE_CACHE == null) ? null : PARSE_CACHE.getIfPresent(key);
+			if (gv == null)
+			{
+				gv = GeometrySnapshot.get(key);
+				if (gv == null)
+					gv = parse(encoding, otherXmlAttributes);
+				if (PARSE_CACHE != null)
+					PARSE_CACHE.put(key, gv);
+			}
+			return gv;
+		}
+
+		/**
+		 * Returns the key of a string encoded geometry in the parse cache and the snapshot
+		 */
+		static String key(final String encoding, final Map<QName, String> otherXmlAttributes)
+		{
+			// the crs attribute is part of the key as it determines the SRID of WKT encodings
+			final String crsName = (otherXmlAttributes == null) ? null : otherXmlAttributes.get(CRS_ATTRIBUTE);
+			return encoding + '\u0000' + crsName;
+		}
+
+		/**
+		 * Drops the parsed geometries, so they are taken from a replaced snapshot or parsed again
+		 */
+		static void invalidateParseCache()
+		{
+			if (PARSE_CACHE != null)
+				PARSE_CACHE.invalidateAll();
+		}
+
+		/**
+		 * Returns the key of a GML encoded geometry in the parse cache and the snapshot: a canonical form of the element that does not
+		 * depend on how the element was read. Names are qualified by their namespace URI instead of a prefix, namespace declarations
+		 * are dropped, attributes are sorted and whitespace in text is collapsed, so the element read by a DOM parser when the snapshot
+		 * is built and the one unmarshalled by the PDP have the same key.
+		 */
+		static String key(final Node gmlNode)
+		{
+			final StringBuilder sb = new StringBuilder();
+			canonicalize(gmlNode, sb);
+			return sb.toString();
+		}
+
+		private static void canonicalize(final Node node, final StringBuilder sb)
+		{
+			switch (node.getNodeType())
+			{
+				case Node.ELEMENT_NODE:
+				{
+					sb.append('<');
+					appendName(node, sb);
+
+					final NamedNodeMap attributes = node.getAttributes();
+					final List<String> sorted = new ArrayList<String>(attributes.getLength());
+					for (int i = 0; i < attributes.getLength(); i++)
+					{
+						final Node a = attributes.item(i);
+						if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(a.getNamespaceURI()) || a.getNodeName().startsWith(XMLConstants.XMLNS_ATTRIBUTE))
+							continue;
+
+						final StringBuilder attribute = new StringBuilder();
+						appendName(a, attribute);
+						attribute.append("=\"");
+						appendEscaped(a.getNodeValue(), attribute);
+						attribute.append('"');
+						sorted.add(attribute.toString());
+					}
+					Collections.sort(sorted);
+					for (final String attribute : sorted)
+						sb.append(' ').append(attribute);
+					sb.append('>');
+
+					for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+						canonicalize(child, sb);
+
+					sb.append("</");
+					appendName(node, sb);
+					sb.append('>');
+					break;
+				}
+				case Node.TEXT_NODE:
+				case Node.CDATA_SECTION_NODE:
+				{
+					final String text = node.getNodeValue().trim().replaceAll("\\s+", " ");
+					if (!text.isEmpty())
+						appendEscaped(text, sb);
+					break;
+				}
+				default:
+					// comments and processing instructions do not change the geometry
+					break;
+			}
+		}
+
+		private static void appendName(final Node node, final StringBuilder sb)
+		{
+			final String localName = (node.getLocalName() == null) ? node.getNodeName() : node.getLocalName();
+			if (node.getNamespaceURI() != null)
+				sb.append('{').append(node.getNamespaceURI()).append('}');
+			sb.append(localName);
+		}
+
+		private static void appendEscaped(final String value, final StringBuilder sb)
+		{
+			for (int i = 0; i < value.length(); i++)
+			{
+				final char c = value.charAt(i);
+				switch (c)
+				{
+					case '&':
+						sb.append("&amp;");
+						break;
+					case '<':
+						sb.append("&lt;");
+						break;
+					case '>':
+						sb.append("&gt;");
+						break;
+					case '"':
+						sb.append("&quot;");
+						break;
+					default:
+						sb.append(c);
+				}
+			}
+		}
+
+		/**
+		 * Moves the coordinates of a large geometry off the heap if enabled (see {@link MappedGeometryStore}). The axis order of
+		 * <code>CRS84</code> is normalized while packing the coordinates, so the mapped file is never written to.
+		 */
+		private static Geometry offHeap(final Geometry g)
+		{
+			final boolean swapAxes = g.getSRID() == -4326;
+			final Geometry mapped = MappedGeometryStore.map(g, swapAxes);
+			if (mapped != g && swapAxes)
+				mapped.setSRID(4326);
+			return mapped;
+		}
+
+		private GeometryValue parse(final String encoding, final Map<QName, String> otherXmlAttributes)
+		{
 			try {
 				Geometry g = null;
 				// container to keep all the metadata for the Geometry
@@ -152,6 +378,12 @@ public final class GeometryValue extends SimpleValue<Geometry>
 					g.setUserData("inapplicable");
 					g.setSRID(0);
 				}
+				else if(encoding.substring(0, "REF=".length()).equalsIgnoreCase("REF="))
+				{
+					// Encoding REF=<layer>:<featureIndex> resolved from a local FlatGeobuf file
+					// The geometry is shared with the feature cache of the layer and has the internal axis order
+					g = FlatGeobufLayer.resolve(encoding.substring("REF=".length()));
+				}
 				else if(
 						(encoding.substring(0, "SRID=".length()).equalsIgnoreCase("SRID=")) ||
 						(encoding.substring(0, "CRS=".length()).equalsIgnoreCase("CRS=")))
@@ -207,8 +439,7 @@ public final class GeometryValue extends SimpleValue<Geometry>
 					
 					LOGGER.debug("otherXmlAttributes: " + otherXmlAttributes);
 					
-					QName crsAttr = new QName("http://www.opengis.net/geoxacml","crs");
-					crsName = otherXmlAttributes.get(crsAttr);
+					crsName = otherXmlAttributes.get(CRS_ATTRIBUTE);
 					
 					if (crsName == null)
 						throw new IllegalArgumentException("WKT geometry encoding with no crs defined!");
@@ -253,7 +484,7 @@ public final class GeometryValue extends SimpleValue<Geometry>
 				else
 					throw new IllegalArgumentException("Unknown geometry encoding");
 								
-				return new GeometryValue(g);
+				return new GeometryValue(offHeap(g));
 			}
 			catch (ParseException e) {
 				e.printStackTrace();
@@ -341,6 +572,20 @@ public final class GeometryValue extends SimpleValue<Geometry>
 					}
 
 					// We have to process a real GML geometry
+					final String key = (PARSE_CACHE == null && !GeometrySnapshot.isEnabled()) ? null : key(gmlNode);
+					if (key != null)
+					{
+						GeometryValue gv = (PARSE_CACHE == null) ? null : PARSE_CACHE.getIfPresent(key);
+						if (gv != null)
+							return gv;
+						gv = GeometrySnapshot.get(key);
+						if (gv != null)
+						{
+							if (PARSE_CACHE != null)
+								PARSE_CACHE.put(key, gv);
+							return gv;
+						}
+					}
 					ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 					Source xmlSource = new DOMSource(gmlNode);
 					Result outputTarget = new StreamResult(outputStream);
@@ -387,10 +632,15 @@ public final class GeometryValue extends SimpleValue<Geometry>
                     		throw new IllegalArgumentException("crs from GML element missing");
                     }
                                         
+                    // a gml:CircleByCenterPoint keeps its analytic form
+                    final Circle circle = (g.getUserData() instanceof Circle) ? (Circle) g.getUserData() : null;
                     g.setSRID(getSRID(crsName));
                     g.setUserData(null);
 
-                    return new GeometryValue(g);
+                    final GeometryValue gv = new GeometryValue(offHeap(g), circle);
+                    if (PARSE_CACHE != null)
+                    	PARSE_CACHE.put(key, gv);
+                    return gv;
 	                    
 				}
 				else
@@ -416,6 +666,14 @@ public final class GeometryValue extends SimpleValue<Geometry>
 	}
 		
 	public static final Factory FACTORY = new Factory();
+
+	/**
+	 * @return the statistics of the cache of parsed geometries or <code>null</code> if the cache is disabled
+	 */
+	public static CacheStats getParseCacheStats()
+	{
+		return (Factory.PARSE_CACHE == null) ? null : Factory.PARSE_CACHE.stats();
+	}
 	
 	/**
 	 * Returns a new <code>GeometryValue</code> that represents the name indicated by the <code>Geometry</code> provided.
@@ -425,6 +683,20 @@ public final class GeometryValue extends SimpleValue<Geometry>
 	 *             if format of {@code val} does not comply with the geometry datatype definition
 	 */
 	public GeometryValue(Geometry g) throws IllegalArgumentException
+	{
+		this(g, null);
+	}
+
+	/**
+	 * Returns a new <code>GeometryValue</code> for a polygon representing a circle.
+	 * @param g
+	 *            a geometry instance
+	 * @param circle
+	 *            the analytic form of the circle represented by <code>g</code>, or <code>null</code>
+	 * @throws java.lang.IllegalArgumentException
+	 *             if format of {@code val} does not comply with the geometry datatype definition
+	 */
+	public GeometryValue(Geometry g, Circle circle) throws IllegalArgumentException
 	{
 		super(g);
 									
@@ -444,11 +716,292 @@ public final class GeometryValue extends SimpleValue<Geometry>
 			value.apply(new SwapAxesCoordinateFilter());
 			value.geometryChanged();
 			value.setSRID(4326);
+			if (circle != null)
+				circle = new Circle(circle.getY(), circle.getX(), circle.getRadius(), circle.getSegments());
+		}
+
+		this.circle = circle;
+		this.rectangle = (value instanceof Polygon) && ((Polygon) value).isRectangle() && value.getEnvelopeInternal().getArea() > 0.0;
+
+		if ((value instanceof Point) && !value.isEmpty())
+		{
+			this.pointX = ((Point) value).getX();
+			this.pointY = ((Point) value).getY();
+		}
+		else
+		{
+			this.pointX = Double.NaN;
+			this.pointY = Double.NaN;
 		}
 
 		
 	}
 
+	/**
+	 * Returns the prepared (indexed) form of the geometry, used for the exact evaluation of topological predicates
+	 * 
+	 * @return prepared geometry
+	 */
+	public PreparedGeometry getPreparedGeometry()
+	{
+		PreparedGeometry pg = prepared;
+		if (pg == null)
+		{
+			pg = PreparedGeometryFactory.prepare(value);
+			prepared = pg;
+		}
+		return pg;
+	}
+
+	/**
+	 * Returns the prepared convex hull of the geometry: a conservative outer approximation
+	 * 
+	 * @return prepared convex hull
+	 */
+	public PreparedGeometry getPreparedConvexHull()
+	{
+		PreparedGeometry pg = preparedConvexHull;
+		if (pg == null)
+		{
+			pg = PreparedGeometryFactory.prepare(value.convexHull());
+			preparedConvexHull = pg;
+		}
+		return pg;
+	}
+
+	/**
+	 * Returns a circle inside the polygonal geometry: a conservative inner approximation.
+	 * 
+	 * @return the inscribed circle or <code>null</code> if the geometry is not polygonal or empty
+	 */
+	public Circle getInscribedCircle()
+	{
+		if (!inscribedCircleComputed)
+		{
+			Circle c = null;
+			if (circle != null)
+				c = circle.getInscribedCircle();
+			else if ((value instanceof Polygonal) && !value.isEmpty())
+			{
+				try
+				{
+					final double tolerance = Math.max(value.getEnvelopeInternal().getWidth(), value.getEnvelopeInternal().getHeight()) * INSCRIBED_CIRCLE_TOLERANCE;
+					final MaximumInscribedCircle mic = new MaximumInscribedCircle(value, tolerance);
+					final Point center = mic.getCenter();
+					// the radius is the distance from the center to the boundary; shrink it slightly to stay clear of rounding
+					final double radius = mic.getRadiusLine().getLength() * (1.0 - 1.0E-9);
+					if (radius > 0.0)
+						c = new Circle(center.getX(), center.getY(), radius);
+				}
+				catch (RuntimeException e)
+				{
+					LOGGER.debug("No inscribed circle for geometry: {}", e.getMessage());
+				}
+			}
+			inscribedCircle = c;
+			inscribedCircleComputed = true;
+		}
+		return inscribedCircle;
+	}
+
+	/**
+	 * Returns the analytic form of the circle the geometry was parsed from. The geometry itself is a regular polygon inscribed in the circle.
+	 * 
+	 * @return the circle or <code>null</code> if the geometry was not parsed from a circle
+	 */
+	public Circle getCircle()
+	{
+		return circle;
+	}
+
+	/**
+	 * Returns whether the geometry is an axis-aligned rectangle, so predicates on it reduce to envelope tests. This is always the case for
+	 * a non-degenerate <code>gml:Envelope</code>, but also for any polygon with a rectangular shell and no holes.
+	 * 
+	 * @return <code>true</code> if the geometry is a rectangle with non-zero area
+	 */
+	public boolean isRectangle()
+	{
+		return rectangle;
+	}
+
+	/**
+	 * @return <code>true</code> if the geometry is a single non-empty point
+	 */
+	public boolean isPoint()
+	{
+		return !Double.isNaN(pointX);
+	}
+
+	/**
+	 * @return the x coordinate if the geometry is a single non-empty point (see {@link #isPoint()}), <code>NaN</code> otherwise
+	 */
+	public double getPointX()
+	{
+		return pointX;
+	}
+
+	/**
+	 * @return the y coordinate if the geometry is a single non-empty point (see {@link #isPoint()}), <code>NaN</code> otherwise
+	 */
+	public double getPointY()
+	{
+		return pointY;
+	}
+
+	/**
+	 * Returns the raster point locator for this polygonal geometry
+	 * 
+	 * @return the locator or <code>null</code> if the geometry is not polygonal, too small or the raster is disabled
+	 */
+	public GridPointLocator getGridPointLocator()
+	{
+		if (!gridPointLocatorComputed)
+		{
+			gridPointLocator = GridPointLocator.build(value);
+			gridPointLocatorComputed = true;
+		}
+		return gridPointLocator;
+	}
+
+	/**
+	 * Returns the raster point locator if it was already built by {@link #getGridPointLocator()}, so a geometry only known at decision
+	 * time is not rasterized for a single point test
+	 * 
+	 * @return the locator or <code>null</code> if it was not built or cannot be built for this geometry
+	 */
+	public GridPointLocator getComputedGridPointLocator()
+	{
+		return gridPointLocatorComputed ? gridPointLocator : null;
+	}
+
+	/**
+	 * Returns the hierarchical cell covering of this polygonal geometry
+	 * 
+	 * @return the covering or <code>null</code> if the geometry is not polygonal
+	 */
+	public CellCovering getCellCovering()
+	{
+		if (!cellCoveringComputed)
+		{
+			cellCovering = CellCovering.build(value, getPreparedGeometry());
+			cellCoveringComputed = true;
+		}
+		return cellCovering;
+	}
+
+	/**
+	 * Returns the cell covering if it was already built by {@link #getCellCovering()}
+	 * 
+	 * @return the covering or <code>null</code> if it was not built or cannot be built for this geometry
+	 */
+	public CellCovering getComputedCellCovering()
+	{
+		return cellCoveringComputed ? cellCovering : null;
+	}
+
+	/**
+	 * Returns the indexed facets (segments and points) of the geometry, used to compute the distance to other geometries.
+	 * Note that the distance between facets is not 0 for a geometry in the interior of a polygon.
+	 * 
+	 * @return facet distance
+	 */
+	public IndexedFacetDistance getFacetDistance()
+	{
+		IndexedFacetDistance fd = facetDistance;
+		if (fd == null)
+		{
+			fd = new IndexedFacetDistance(value);
+			facetDistance = fd;
+		}
+		return fd;
+	}
+
+	/**
+	 * Returns a 64 bit hash of the geometry type, structure, SRID and coordinates.
+	 * Geometries that are exactly equal have the same fingerprint.
+	 * 
+	 * @return fingerprint
+	 */
+	public long getFingerprint()
+	{
+		if (!fingerprintComputed)
+		{
+			fingerprint = mix(fingerprint(value, value.getSRID()));
+			fingerprintComputed = true;
+		}
+		return fingerprint;
+	}
+
+	private static long fingerprint(final Geometry g, long h)
+	{
+		h = h * 31 + g.getGeometryType().hashCode();
+		if (g instanceof Point)
+			return fingerprint(((Point) g).getCoordinateSequence(), h);
+		if (g instanceof LineString)
+			return fingerprint(((LineString) g).getCoordinateSequence(), h);
+		if (g instanceof Polygon)
+		{
+			final Polygon p = (Polygon) g;
+			h = fingerprint(p.getExteriorRing().getCoordinateSequence(), h);
+			for (int i = 0; i < p.getNumInteriorRing(); i++)
+				h = fingerprint(p.getInteriorRingN(i).getCoordinateSequence(), h);
+			return h;
+		}
+		for (int i = 0; i < g.getNumGeometries(); i++)
+			h = fingerprint(g.getGeometryN(i), h);
+		return h;
+	}
+
+	private static long fingerprint(final CoordinateSequence cs, long h)
+	{
+		h = mix(h + cs.size());
+		for (int i = 0; i < cs.size(); i++)
+		{
+			h = mix(h ^ Double.doubleToLongBits(cs.getX(i)));
+			h = mix(h ^ Double.doubleToLongBits(cs.getY(i)));
+		}
+		return h;
+	}
+
+	/**
+	 * Finalizer of the SplitMix64 generator, used as a 64 bit mixing function
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns a topology preserving simplification of this geometry. Only the most recently requested tolerance is kept.
+	 * 
+	 * @param tolerance
+	 *            distance tolerance in units of the CRS
+	 * @return the simplified geometry, or this value if simplification would not reduce the number of vertices
+	 */
+	public GeometryValue getSimplified(final double tolerance)
+	{
+		GeometryValue s = simplified;
+		if (s == null || s.simplificationTolerance != tolerance)
+		{
+			if (value.isEmpty() || value.getNumPoints() <= 4)
+				return this;
+
+			final Geometry g = TopologyPreservingSimplifier.simplify(value, tolerance);
+			if (g.getNumPoints() >= value.getNumPoints())
+				return this;
+
+			g.setSRID(value.getSRID());
+			g.setUserData(value.getUserData());
+			s = new GeometryValue(g);
+			s.simplificationTolerance = tolerance;
+			simplified = s;
+		}
+		return s;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public int hashCode()
@@ -485,7 +1038,7 @@ public final class GeometryValue extends SimpleValue<Geometry>
 		return g1.equalsExact(g2);
 	}
 
-	private static int getSRID(String srsName) throws IllegalArgumentException
+	static int getSRID(String srsName) throws IllegalArgumentException
 	{
 		
 		String []parts = srsName.split("[/,:]");
@@ -539,4 +1092,77 @@ public final class GeometryValue extends SimpleValue<Geometry>
 	public Map<QName, String> getXmlAttributes() {
 		return new HashMap<QName, String>();
 	}
+
+	/**
+	 * Geometry values are serialized in the compact form of {@link SerializedForm} instead of the JTS object graph
+	 */
+	private Object writeReplace()
+	{
+		return new SerializedForm(this);
+	}
+
+	private void readObject(final ObjectInputStream in) throws InvalidObjectException
+	{
+		throw new InvalidObjectException("GeometryValue is deserialized from its SerializedForm");
+	}
+
+	/**
+	 * Serialized form of a geometry value: the geometry in the layout of {@link GeometryCodec}, followed by a boolean and, for a circle,
+	 * its center, radius and number of segments. The derived structures are not serialized; they are recomputed on first use after
+	 * deserialization.
+	 */
+	static final class SerializedForm implements Externalizable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private GeometryValue gv;
+
+		public SerializedForm()
+		{
+		}
+
+		SerializedForm(final GeometryValue gv)
+		{
+			this.gv = gv;
+		}
+
+		@Override
+		public void writeExternal(final ObjectOutput out) throws IOException
+		{
+			write(gv, out);
+		}
+
+		@Override
+		public void readExternal(final ObjectInput in) throws IOException
+		{
+			this.gv = read(in);
+		}
+
+		static void write(final GeometryValue gv, final DataOutput out) throws IOException
+		{
+			GeometryCodec.write(gv.value, out);
+
+			final Circle circle = gv.circle;
+			out.writeBoolean(circle != null);
+			if (circle != null)
+			{
+				out.writeDouble(circle.getX());
+				out.writeDouble(circle.getY());
+				out.writeDouble(circle.getRadius());
+				out.writeInt(circle.getSegments());
+			}
+		}
+
+		static GeometryValue read(final DataInput in) throws IOException
+		{
+			final Geometry g = GeometryCodec.read(in);
+			final Circle circle = in.readBoolean() ? new Circle(in.readDouble(), in.readDouble(), in.readDouble(), in.readInt()) : null;
+			return new GeometryValue(Factory.offHeap(g), circle);
+		}
+
+		private Object readResolve()
+		{
+			return gv;
+		}
+	}
 }
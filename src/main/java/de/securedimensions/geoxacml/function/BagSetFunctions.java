@@ -18,17 +18,36 @@
 
 package de.securedimensions.geoxacml.function;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
 import org.ow2.authzforce.core.pdp.api.func.FirstOrderBagFunctions;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.SingleParameterTypedFirstOrderFunction;
 import org.ow2.authzforce.core.pdp.api.value.AttributeDatatype;
 import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
 import org.ow2.authzforce.core.pdp.api.value.Bag;
 import org.ow2.authzforce.core.pdp.api.value.BagDatatype;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.securedimensions.geoxacml.datatype.GeometryValue;
 
 /**
+ * <p>
+ * The membership tests <code>at-least-one-member-of</code>, <code>subset</code> and <code>set-equals</code> are implemented for
+ * geometries: the elements of one bag are hashed once and, for large bags, the elements of the other bag are tested in parallel. A bag
+ * given as constant in the policy is hashed when the policy is loaded, a bag evaluated at decision time on each evaluation.
  * 
  * @author Andreas Matheus, Secure Dimensions GmbH. 
  *
@@ -117,17 +136,86 @@ public class BagSetFunctions {
 	}
 
 
-	public static class AtLeastOneMemberOf extends FirstOrderBagFunctions.AtLeastOneMemberOf<GeometryValue>
+	/**
+	 * Tests whether all (or any) of the geometries are members of the set. Above the threshold of
+	 * {@link GeometryBagCall#isParallel(List, List)} the membership tests run in parallel; an existential test stops all tasks as soon as
+	 * one member is found.
+	 */
+	private static boolean members(final List<GeometryValue> geometries, final Set<GeometryValue> set, final boolean all, final boolean parallel)
+	{
+		final Stream<GeometryValue> stream = parallel ? geometries.parallelStream() : geometries.stream();
+		return all ? stream.allMatch(set::contains) : stream.anyMatch(set::contains);
+	}
+
+	/**
+	 * Hashes the bag given as constant argument at policy load time
+	 *
+	 * @return the set or <code>null</code> if the argument is not a constant bag of geometries
+	 */
+	private static Set<GeometryValue> precompute(final String functionId, final int index, final List<Expression<?>> argExpressions)
+	{
+		if (index >= argExpressions.size())
+			return null;
+
+		final Optional<?> constant = argExpressions.get(index).getValue();
+		if (!constant.isPresent())
+			return null;
+
+		try
+		{
+			return new HashSet<GeometryValue>(GeometryBagCall.toGeometries(functionId, index, (Value) constant.get()));
+		}
+		catch (IndeterminateEvaluationException e)
+		{
+			LOGGER.debug("Function {}: no set for argument #{}: {}", functionId, index, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the set of the constant bag if there is one, otherwise a set of the bag evaluated at decision time
+	 */
+	private static Set<GeometryValue> toSet(final Set<GeometryValue> constantSet, final List<GeometryValue> bag)
+	{
+		return (constantSet != null) ? constantSet : new HashSet<GeometryValue>(bag);
+	}
+
+	public static class AtLeastOneMemberOf extends SingleParameterTypedFirstOrderFunction<BooleanValue, Bag<GeometryValue>>
 	{
 		/**
 		 * Function identifier
-		 * public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-at-least-one-member-of";
 		 * <li>{@code -at-least-one-member-of}: tests whether one of the values in a given bag is in another given bag</li>
 		 */
+		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-bag-at-least-one-member-of";
 		
 		public AtLeastOneMemberOf()
 		{
-			super(paramBagTypeX);
+			super(ID, StandardDatatypes.BOOLEAN, false, Arrays.asList(paramBagTypeX, paramBagTypeX));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			final Set<GeometryValue> constantSet1 = precompute(ID, 0, argExpressions);
+			final Set<GeometryValue> constantSet2 = precompute(ID, 1, argExpressions);
+
+			return new GeometryBagCall(ID, functionSignature, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected boolean evaluate(final List<GeometryValue> bag1, final List<GeometryValue> bag2)
+				{
+					if (bag1.isEmpty() || bag2.isEmpty())
+						return false;
+
+					// the relation is symmetric: the elements of a bag of the request are tested against the set of a constant bag
+					if (constantSet2 == null && constantSet1 != null)
+						return members(bag2, constantSet1, false, isParallel(bag2, bag1));
+
+					return members(bag1, toSet(constantSet2, bag2), false, isParallel(bag1, bag2));
+				}
+
+			};
 		}
 
 	}
@@ -162,32 +250,68 @@ public class BagSetFunctions {
 
 	}
 
-	public static class Subset extends FirstOrderBagFunctions.Subset<GeometryValue>
+	public static class Subset extends SingleParameterTypedFirstOrderFunction<BooleanValue, Bag<GeometryValue>>
 	{
 		/**
 		 * Function identifier
-		 * public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-subset";
 		 * <li>{@code -subset}: tests whether all values of a given bag are in another given bag</li>
 		 */
+		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-bag-subset";
 		
 		public Subset()
 		{
-			super(paramBagTypeX);
+			super(ID, StandardDatatypes.BOOLEAN, false, Arrays.asList(paramBagTypeX, paramBagTypeX));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			final Set<GeometryValue> constantSet2 = precompute(ID, 1, argExpressions);
+
+			return new GeometryBagCall(ID, functionSignature, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected boolean evaluate(final List<GeometryValue> bag1, final List<GeometryValue> bag2)
+				{
+					return members(bag1, toSet(constantSet2, bag2), true, isParallel(bag1, bag2));
+				}
+
+			};
 		}
 
 	}
 
-	public static class SetEquals extends FirstOrderBagFunctions.SetEquals<GeometryValue>
+	public static class SetEquals extends SingleParameterTypedFirstOrderFunction<BooleanValue, Bag<GeometryValue>>
 	{
 		/**
 		 * Function identifier
-		 * public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-set-equals";
 		 * <li>{@code -set-equals}: tests whether bags are equal regardless of order</li>
 		 */
+		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-set-equals";
 		
 		public SetEquals()
 		{
-			super(paramBagType);
+			super(ID, StandardDatatypes.BOOLEAN, false, Arrays.asList(paramBagType, paramBagType));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			final Set<GeometryValue> constantSet1 = precompute(ID, 0, argExpressions);
+			final Set<GeometryValue> constantSet2 = precompute(ID, 1, argExpressions);
+
+			return new GeometryBagCall(ID, functionSignature, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected boolean evaluate(final List<GeometryValue> bag1, final List<GeometryValue> bag2)
+				{
+					final boolean parallel = isParallel(bag1, bag2);
+					return members(bag1, toSet(constantSet2, bag2), true, parallel) && members(bag2, toSet(constantSet1, bag1), true, parallel);
+				}
+
+			};
 		}
 
 	}
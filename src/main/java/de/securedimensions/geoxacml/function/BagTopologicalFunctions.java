@@ -0,0 +1,129 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.MultiParameterTypedFirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Geofencing functions testing one geometry against a bag of geometries, e.g. a subject location against a set of restricted zones.
+ * <p>
+ * <code>geometry-bag-any-within(g, zones)</code> is the same as <code>any-of(geometry-within, g, zones)</code> and
+ * <code>geometry-bag-any-intersects(g, zones)</code> the same as <code>any-of(geometry-intersects, g, zones)</code>. Instead of testing
+ * every zone, only the zones whose envelope intersects the envelope of <code>g</code> are tested. The index over the zones (see
+ * {@link GeometryBagIndex}) is built when the policy is loaded if the bag is a constant. A bag of zones evaluated at decision time is
+ * only indexed if the bag of geometries tested against it has enough geometries to pay for the index, otherwise it is scanned. Zones with
+ * another SRID than <code>g</code> are tested against <code>g</code> reprojected to their CRS.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class BagTopologicalFunctions {
+
+	/**
+	 * Tests whether the predicate holds for two geometries with the same SRID
+	 */
+	private interface Predicate
+	{
+		boolean test(GeometryValue g, GeometryValue zone, boolean degraded);
+	}
+
+	private static boolean any(final List<GeometryValue> geometries, final GeometryBagIndex zones, final Predicate predicate, final boolean degraded)
+	{
+		for (final GeometryValue gv : geometries)
+		{
+			if (gv.getUnderlyingValue().isEmpty())
+				continue;
+
+			for (final int srid : zones.getSrids())
+			{
+				final GeometryValue probe = GeometryBagIndex.probe(gv, srid);
+				if (probe == null)
+					continue;
+
+				for (final GeometryValue zone : zones.query(probe.getUnderlyingValue().getEnvelopeInternal()))
+				{
+					if (zone.getUnderlyingValue().getSRID() == srid && predicate.test(probe, zone, degraded))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static abstract class AnyFunction extends MultiParameterTypedFirstOrderFunction<BooleanValue>
+	{
+		private final String id;
+		private final Predicate predicate;
+
+		private AnyFunction(final String id, final Predicate predicate)
+		{
+			super(id, StandardDatatypes.BOOLEAN, false, Arrays.asList(GeometryValue.DATATYPE, GeometryValue.DATATYPE.getBagDatatype()));
+			this.id = id;
+			this.predicate = predicate;
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			final GeometryBagIndex constantZones = GeometryBagIndex.precompute(id, 1, argExpressions);
+
+			return new GeometryBagCall(id, functionSignature, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected boolean evaluate(final List<GeometryValue> geometries, final List<GeometryValue> zones)
+				{
+					return any(geometries, (constantZones != null) ? constantZones : GeometryBagIndex.forProbes(zones, geometries.size()), predicate, LoadShedding.isActive());
+				}
+
+			};
+		}
+	}
+
+	public final static class AnyWithin extends AnyFunction
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:geometry-bag-any-within";
+
+		public AnyWithin()
+		{
+			super(ID, GeometryPredicates::within);
+		}
+	}
+
+	public final static class AnyIntersects extends AnyFunction
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:geometry-bag-any-intersects";
+
+		public AnyIntersects()
+		{
+			super(ID, GeometryPredicates::intersects);
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Point;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.SingleParameterTypedFirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.index.CellCovering;
+
+/**
+ * Geofencing functions backed by a hierarchical cell covering (see {@link CellCovering}) of the zone geometry.
+ * <p>
+ * The functions have the same semantics as <code>geometry-within</code> and <code>geometry-intersects</code>. For a point tested against
+ * a polygonal zone the answer is found by hashing the point's cell at each level of the covering; only points in boundary cells are
+ * tested exactly. The covering of a zone given as a constant in the policy is computed when the policy is loaded. A zone only known at
+ * decision time is tested exactly, as building its covering costs more than the test it would answer.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class CellCoveringFunctions {
+
+	/**
+	 * Computes the covering of constant polygonal arguments at policy load time
+	 * 
+	 * @return for each argument, whether it is a constant geometry
+	 */
+	private static boolean[] precompute(final List<Expression<?>> argExpressions)
+	{
+		final boolean[] constant = new boolean[argExpressions.size()];
+		for (int i = 0; i < constant.length; i++)
+		{
+			final Object v = argExpressions.get(i).getValue().orElse(null);
+			if (v instanceof GeometryValue)
+			{
+				((GeometryValue) v).getCellCovering();
+				constant[i] = true;
+			}
+		}
+
+		return constant;
+	}
+
+	/**
+	 * Locates the point in the zone
+	 *
+	 * @return {@link Location#INTERIOR}, {@link Location#EXTERIOR} or {@link CellCovering#UNKNOWN} if the covering can't tell
+	 */
+	private static int locate(final Geometry point, final GeometryValue zone)
+	{
+		final CellCovering covering = zone.getCellCovering();
+		if (covering == null)
+			return CellCovering.UNKNOWN;
+
+		return covering.locate(((Point) point).getX(), ((Point) point).getY());
+	}
+
+	public final static class Within extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:geometry-cell-within";
+
+		public Within()
+		{
+			super(ID, StandardDatatypes.BOOLEAN, false, Arrays.asList(GeometryValue.DATATYPE, GeometryValue.DATATYPE));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			final boolean constantZone = precompute(argExpressions)[1];
+
+			return new GeometryPredicateCall(ID, functionSignature, Boolean.FALSE, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected boolean evaluate(final GeometryValue gv1, final GeometryValue gv2, final RequestMemo memo, final boolean degraded)
+				{
+					final Geometry g1 = gv1.getUnderlyingValue();
+
+					if (constantZone && (g1 instanceof Point) && !g1.isEmpty())
+					{
+						final int location = locate(g1, gv2);
+						if (location != CellCovering.UNKNOWN)
+							return location == Location.INTERIOR;
+					}
+
+					return GeometryPredicates.within(gv1, gv2, degraded);
+				}
+
+			};
+		}
+	}
+
+	public final static class Intersects extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:geometry-cell-intersects";
+
+		public Intersects()
+		{
+			super(ID, StandardDatatypes.BOOLEAN, false, Arrays.asList(GeometryValue.DATATYPE, GeometryValue.DATATYPE));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			final boolean[] constant = precompute(argExpressions);
+
+			return new GeometryPredicateCall(ID, functionSignature, Boolean.FALSE, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected boolean evaluate(final GeometryValue gv1, final GeometryValue gv2, final RequestMemo memo, final boolean degraded)
+				{
+					final Geometry g1 = gv1.getUnderlyingValue();
+					final Geometry g2 = gv2.getUnderlyingValue();
+
+					final int location;
+					if (constant[1] && (g1 instanceof Point) && !g1.isEmpty())
+						location = locate(g1, gv2);
+					else if (constant[0] && (g2 instanceof Point) && !g2.isEmpty())
+						location = locate(g2, gv1);
+					else
+						location = CellCovering.UNKNOWN;
+
+					if (location != CellCovering.UNKNOWN)
+						return location == Location.INTERIOR;
+
+					return GeometryPredicates.intersects(gv1, gv2, degraded);
+				}
+
+			};
+		}
+	}
+
+}
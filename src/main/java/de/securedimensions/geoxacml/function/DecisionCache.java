@@ -0,0 +1,195 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Optional cache of geometry predicate results shared by all decision requests.
+ * <p>
+ * Entries are keyed by function identifier and both operands. The key is hashed by the fingerprints and SRIDs of the operands (see
+ * {@link GeometryValue#getFingerprint()}); on a hash match the operands are compared by identity, which is the common case for the
+ * geometry of the policy, or else coordinate by coordinate, so a fingerprint collision never returns the result of another pair. The
+ * cache is bounded by <code>geoxacml.cache.maxSize</code> entries (default 0: cache disabled), entries expire
+ * <code>geoxacml.cache.ttlSeconds</code> after they were written (default 60), both can be changed with
+ * {@link #configure(long, long)}, and admission follows the W-TinyLFU policy, so only pairs that are requested repeatedly displace
+ * others. The entries keep their operands alive until they are evicted or expire.
+ * <p>
+ * Results computed in degraded mode (see {@link LoadShedding}) are neither cached nor taken from the cache.
+ * <p>
+ * The cache is invalidated when function calls are created again after decisions were cached, i.e. when the PDP reloads its policies,
+ * so the geometries of replaced policies are released at once. The host application may call {@link #invalidateAll()} as well.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class DecisionCache
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(DecisionCache.class);
+
+	private static volatile Cache<Key, Boolean> cache = newCache(Long.getLong("geoxacml.cache.maxSize", 0), Long.getLong("geoxacml.cache.ttlSeconds", 60));
+
+	/**
+	 * Whether results were cached since the function calls were last created
+	 */
+	private static volatile boolean used = false;
+
+	private static final class Key
+	{
+		private final String functionId;
+		private final GeometryValue g1;
+		private final GeometryValue g2;
+		private final long fingerprint1;
+		private final long fingerprint2;
+		private final int srid1;
+		private final int srid2;
+
+		private Key(final String functionId, final GeometryValue g1, final GeometryValue g2)
+		{
+			this.functionId = functionId;
+			this.g1 = g1;
+			this.g2 = g2;
+			this.fingerprint1 = g1.getFingerprint();
+			this.fingerprint2 = g2.getFingerprint();
+			this.srid1 = g1.getUnderlyingValue().getSRID();
+			this.srid2 = g2.getUnderlyingValue().getSRID();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ((functionId.hashCode() * 31 + Long.hashCode(fingerprint1)) * 31 + Long.hashCode(fingerprint2)) * 31 + srid1 * 17 + srid2;
+		}
+
+		@Override
+		public boolean equals(final Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+
+			final Key other = (Key) obj;
+			return fingerprint1 == other.fingerprint1 && fingerprint2 == other.fingerprint2 && srid1 == other.srid1 && srid2 == other.srid2 && functionId.equals(other.functionId)
+					&& same(g1, other.g1) && same(g2, other.g2);
+		}
+
+		private static boolean same(final GeometryValue a, final GeometryValue b)
+		{
+			return a == b || a.getUnderlyingValue().equalsExact(b.getUnderlyingValue());
+		}
+	}
+
+	private DecisionCache()
+	{
+	}
+
+	private static Cache<Key, Boolean> newCache(final long maxSize, final long ttlSeconds)
+	{
+		if (maxSize <= 0)
+			return null;
+
+		LOGGER.info("Spatial decision cache enabled: maximum size {}, TTL {}s", maxSize, ttlSeconds);
+		return Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).recordStats().build();
+	}
+
+	/**
+	 * Replaces the cache (initially configured by <code>geoxacml.cache.maxSize</code> and <code>geoxacml.cache.ttlSeconds</code>),
+	 * dropping all entries
+	 * 
+	 * @param maxSize
+	 *            maximum number of entries, 0 to disable the cache
+	 * @param ttlSeconds
+	 *            time to live of an entry after it was written
+	 */
+	public static void configure(final long maxSize, final long ttlSeconds)
+	{
+		if (maxSize < 0 || ttlSeconds <= 0)
+			throw new IllegalArgumentException("Invalid spatial decision cache configuration: maximum size " + maxSize + ", TTL " + ttlSeconds + "s");
+
+		cache = newCache(maxSize, ttlSeconds);
+		used = false;
+	}
+
+	static boolean isEnabled()
+	{
+		return cache != null;
+	}
+
+	/**
+	 * @return the cached result or <code>null</code>
+	 */
+	static Boolean lookup(final String functionId, final GeometryValue g1, final GeometryValue g2)
+	{
+		final Cache<Key, Boolean> c = cache;
+		return (c == null) ? null : c.getIfPresent(new Key(functionId, g1, g2));
+	}
+
+	static void put(final String functionId, final GeometryValue g1, final GeometryValue g2, final boolean result)
+	{
+		final Cache<Key, Boolean> c = cache;
+		if (c == null)
+			return;
+
+		c.put(new Key(functionId, g1, g2), Boolean.valueOf(result));
+		if (!used)
+			used = true;
+	}
+
+	/**
+	 * Called when a function call is created, i.e. when policies are loaded: invalidates the cache if results were cached since the
+	 * last load, as the policies are reloaded
+	 */
+	static void callCreated()
+	{
+		final Cache<Key, Boolean> c = cache;
+		if (used && c != null)
+		{
+			used = false;
+			c.invalidateAll();
+			LOGGER.debug("Spatial decision cache invalidated on policy reload");
+		}
+	}
+
+	/**
+	 * Removes all entries, e.g. after the policies have been reloaded
+	 */
+	public static void invalidateAll()
+	{
+		final Cache<Key, Boolean> c = cache;
+		if (c != null)
+			c.invalidateAll();
+	}
+
+	/**
+	 * @return the cache statistics or <code>null</code> if the cache is disabled
+	 */
+	public static CacheStats getStats()
+	{
+		final Cache<Key, Boolean> c = cache;
+		return (c == null) ? null : c.stats();
+	}
+}
@@ -0,0 +1,363 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.strtree.ItemBoundable;
+import org.locationtech.jts.index.strtree.ItemDistance;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionSignature;
+import org.ow2.authzforce.core.pdp.api.func.MultiParameterTypedFirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.DoubleValue;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.Value;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+import de.securedimensions.geoxacml.datatype.Circle;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Distance functions. Distances are in units of the CRS of the geometry of the policy: a geometry with another SRID is reprojected to the
+ * CRS of the policy geometry (see {@link Reprojection}), or of the geometries of the bag. If that is not possible, the geometries are
+ * never near each other.
+ * <p>
+ * The distance to a geometry given as a constant is computed from its indexed facets (see {@link GeometryValue#getFacetDistance()}),
+ * after testing whether the geometries intersect, which the facet distance alone does not detect for a geometry in the interior of a
+ * polygon. The index is kept with the geometry of the policy, so the distance between geometries only known at decision time is computed
+ * by JTS without it. The functions on bags search an STRtree over a constant bag (see {@link GeometryBagIndex}): the nearest geometry by
+ * branch-and-bound on the envelope distance, the geometries within a distance by querying the envelope expanded by the distance. A bag
+ * evaluated per decision is scanned. The distance of a point to a geometry parsed from a circle is bounded by the circle in constant
+ * time.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class DistanceFunctions {
+
+	/**
+	 * Computes the distance between the geometries of two values with the same SRID
+	 * 
+	 * @param b
+	 *            the geometry given as a constant, for which the prepared geometry and indexed facets are used, if <code>prepared</code>
+	 */
+	static double distance(final GeometryValue a, final GeometryValue b, final boolean prepared)
+	{
+		final Geometry ga = a.getUnderlyingValue();
+		final Geometry gb = b.getUnderlyingValue();
+		if (ga.isEmpty() || gb.isEmpty() || ga.getSRID() != gb.getSRID())
+			return Double.POSITIVE_INFINITY;
+
+		if (ga instanceof Point && GeometryPredicates.locateInCircle((Point) ga, b) == Location.INTERIOR)
+			return 0.0;
+
+		if (!prepared)
+			return ga.distance(gb);
+
+		if (b.getPreparedGeometry().intersects(ga))
+			return 0.0;
+
+		return b.getFacetDistance().distance(ga);
+	}
+
+	/**
+	 * Tests whether the distance between the geometries of two values with the same SRID is at most <code>d</code>.
+	 * The envelopes are compared first; the prepared geometry and indexed facets of <code>b</code> are used for the exact test if
+	 * <code>prepared</code>.
+	 */
+	static boolean isWithinDistance(final GeometryValue a, final GeometryValue b, final double d, final boolean prepared)
+	{
+		final Geometry ga = a.getUnderlyingValue();
+		final Geometry gb = b.getUnderlyingValue();
+		if (ga.isEmpty() || gb.isEmpty() || ga.getSRID() != gb.getSRID() || d < 0.0)
+			return false;
+
+		if (ga.getEnvelopeInternal().distance(gb.getEnvelopeInternal()) > d)
+			return false;
+
+		if (ga instanceof Point && b.getCircle() != null)
+			return isWithinDistance((Point) ga, b, d);
+		if (gb instanceof Point && a.getCircle() != null)
+			return isWithinDistance((Point) gb, a, d);
+
+		if (!prepared)
+			return ga.isWithinDistance(gb, d);
+
+		if (b.getPreparedGeometry().intersects(ga))
+			return true;
+
+		// stops as soon as a pair of facets within the distance is found
+		return b.getFacetDistance().isWithinDistance(ga, d);
+	}
+
+	/**
+	 * Tests whether a point is within distance <code>d</code> of a geometry parsed from a circle: the bounds given by the inscribed
+	 * circle and the circle itself decide unless the point is in the thin ring between both bounds
+	 */
+	private static boolean isWithinDistance(final Point p, final GeometryValue circleValue, final double d)
+	{
+		final Circle circle = circleValue.getCircle();
+		final Circle inner = circleValue.getInscribedCircle();
+		final double dc = circle.distanceToCenter(p.getX(), p.getY());
+		if (inner != null && dc <= inner.getRadius() + d)
+			return true;
+		if (dc > (circle.getRadius() + d) * (1.0 + 1.0E-9))
+			return false;
+
+		return circleValue.getPreparedGeometry().intersects(p) || circleValue.getFacetDistance().isWithinDistance(p, d);
+	}
+
+	private static final ItemDistance ITEM_DISTANCE = new ItemDistance()
+	{
+		@Override
+		public double distance(final ItemBoundable item1, final ItemBoundable item2)
+		{
+			// item1 is the geometry of the tree, item2 the one searched for
+			return DistanceFunctions.distance((GeometryValue) item2.getItem(), (GeometryValue) item1.getItem(), true);
+		}
+	};
+
+	/**
+	 * @param prepared
+	 *            whether the bag is given as a constant, so its geometries are prepared
+	 * @return the smallest distance between the geometry and a geometry of the bag, positive infinity if there is none
+	 */
+	private static double nearestDistance(final GeometryValue gv, final GeometryBagIndex bag, final boolean prepared)
+	{
+		final Geometry g = gv.getUnderlyingValue();
+		if (g.isEmpty())
+			return Double.POSITIVE_INFINITY;
+
+		double min = Double.POSITIVE_INFINITY;
+		for (final int srid : bag.getSrids())
+		{
+			final GeometryValue probe = GeometryBagIndex.probe(gv, srid);
+			if (probe != null)
+				min = Math.min(min, nearestDistance(probe, bag.getTree(), bag.getGeometries(), prepared));
+		}
+		return min;
+	}
+
+	/**
+	 * @return the smallest distance between the geometry and a geometry with the same SRID, searched in the tree if not
+	 *         <code>null</code>
+	 */
+	private static double nearestDistance(final GeometryValue gv, final STRtree tree, final List<GeometryValue> geometries, final boolean prepared)
+	{
+		if (tree == null)
+		{
+			double min = Double.POSITIVE_INFINITY;
+			for (final GeometryValue other : geometries)
+				min = Math.min(min, distance(gv, other, prepared));
+			return min;
+		}
+
+		if (tree.isEmpty())
+			return Double.POSITIVE_INFINITY;
+
+		// geometries with another SRID have an infinite distance and are never the nearest if one with the same SRID exists
+		final Object nearest = tree.nearestNeighbour(gv.getUnderlyingValue().getEnvelopeInternal(), gv, ITEM_DISTANCE);
+		return (nearest == null) ? Double.POSITIVE_INFINITY : distance(gv, (GeometryValue) nearest, prepared);
+	}
+
+	private static boolean isWithinDistanceOfAny(final GeometryValue gv, final GeometryBagIndex bag, final double d, final boolean prepared)
+	{
+		final Geometry g = gv.getUnderlyingValue();
+		if (g.isEmpty() || d < 0.0)
+			return false;
+
+		for (final int srid : bag.getSrids())
+		{
+			final GeometryValue probe = GeometryBagIndex.probe(gv, srid);
+			if (probe == null)
+				continue;
+
+			final Envelope env = new Envelope(probe.getUnderlyingValue().getEnvelopeInternal());
+			env.expandBy(d);
+			for (final GeometryValue other : bag.query(env))
+			{
+				if (isWithinDistance(probe, other, d, prepared))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Call of a function with a fixed number of arguments, all evaluated before the function
+	 */
+	private static abstract class DistanceCall<R extends AttributeValue> extends BaseFirstOrderFunctionCall<R>
+	{
+		private final String functionId;
+		private final List<Expression<?>> argExpressions;
+		private final int numArgs;
+
+		private DistanceCall(final String functionId, final FirstOrderFunctionSignature<R> functionSig, final int numArgs, final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			super(functionSig, argExpressions, remainingArgTypes);
+			this.functionId = functionId;
+			this.argExpressions = argExpressions;
+			this.numArgs = numArgs;
+		}
+
+		protected abstract R evaluate(Value[] args) throws IndeterminateEvaluationException;
+
+		@Override
+		public R evaluate(final EvaluationContext context, final AttributeValue... remainingArgs)
+				throws IndeterminateEvaluationException
+		{
+			final int n = argExpressions.size() + ((remainingArgs == null) ? 0 : remainingArgs.length);
+			if (n != numArgs)
+				throw new IndeterminateEvaluationException("Function " + functionId + " requires exactly " + numArgs + " arguments but given " + n, XacmlStatusCode.PROCESSING_ERROR.name());
+
+			final Value[] args = new Value[numArgs];
+			for (int i = 0; i < numArgs; i++)
+				args[i] = (i < argExpressions.size()) ? argExpressions.get(i).evaluate(context) : remainingArgs[i - argExpressions.size()];
+
+			return evaluate(args);
+		}
+
+		GeometryValue getGeometry(final Value[] args, final int index) throws IndeterminateEvaluationException
+		{
+			if (!(args[index] instanceof GeometryValue))
+				throw new IndeterminateEvaluationException("Function " + functionId + ": argument #" + index + " is not a geometry", XacmlStatusCode.PROCESSING_ERROR.name());
+			return (GeometryValue) args[index];
+		}
+
+		GeometryBagIndex getBag(final Value[] args, final int index, final GeometryBagIndex constantBag) throws IndeterminateEvaluationException
+		{
+			// probed with one geometry: a bag evaluated per decision is scanned
+			return (constantBag != null) ? constantBag : GeometryBagIndex.forProbes(GeometryBagCall.toGeometries(functionId, index, args[index]), 1);
+		}
+
+		double getDouble(final Value[] args, final int index) throws IndeterminateEvaluationException
+		{
+			if (!(args[index] instanceof DoubleValue))
+				throw new IndeterminateEvaluationException("Function " + functionId + ": argument #" + index + " is not a double", XacmlStatusCode.PROCESSING_ERROR.name());
+			return ((DoubleValue) args[index]).getUnderlyingValue().doubleValue();
+		}
+	}
+
+	public final static class BagNearestDistance extends MultiParameterTypedFirstOrderFunction<DoubleValue>
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:geometry-bag-nearest-distance";
+
+		public BagNearestDistance()
+		{
+			super(ID, StandardDatatypes.DOUBLE, false, Arrays.asList(GeometryValue.DATATYPE, GeometryValue.DATATYPE.getBagDatatype()));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<DoubleValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			final GeometryBagIndex constantBag = GeometryBagIndex.precompute(ID, 1, argExpressions);
+
+			return new DistanceCall<DoubleValue>(ID, functionSignature, 2, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected DoubleValue evaluate(final Value[] args) throws IndeterminateEvaluationException
+				{
+					return new DoubleValue(nearestDistance(getGeometry(args, 0), getBag(args, 1, constantBag), constantBag != null));
+				}
+
+			};
+		}
+	}
+
+	public final static class IsWithinDistanceOfAny extends MultiParameterTypedFirstOrderFunction<BooleanValue>
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:geometry-is-within-distance-of-any";
+
+		public IsWithinDistanceOfAny()
+		{
+			super(ID, StandardDatatypes.BOOLEAN, false, Arrays.asList(GeometryValue.DATATYPE, GeometryValue.DATATYPE.getBagDatatype(), StandardDatatypes.DOUBLE));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			final GeometryBagIndex constantBag = GeometryBagIndex.precompute(ID, 1, argExpressions);
+
+			return new DistanceCall<BooleanValue>(ID, functionSignature, 3, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected BooleanValue evaluate(final Value[] args) throws IndeterminateEvaluationException
+				{
+					return isWithinDistanceOfAny(getGeometry(args, 0), getBag(args, 1, constantBag), getDouble(args, 2), constantBag != null) ? BooleanValue.TRUE : BooleanValue.FALSE;
+				}
+
+			};
+		}
+	}
+
+	public final static class IsWithinDistance extends MultiParameterTypedFirstOrderFunction<BooleanValue>
+	{
+		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-is-within-distance";
+
+		public IsWithinDistance()
+		{
+			super(ID, StandardDatatypes.BOOLEAN, false, Arrays.asList(GeometryValue.DATATYPE, GeometryValue.DATATYPE, StandardDatatypes.DOUBLE));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			// the indexed facets are built for the geometry of the policy, i.e. the constant argument
+			final boolean swap = !argExpressions.isEmpty() && argExpressions.get(0).getValue().isPresent() && !(argExpressions.size() > 1 && argExpressions.get(1).getValue().isPresent());
+			final boolean prepared = swap || (argExpressions.size() > 1 && argExpressions.get(1).getValue().isPresent());
+
+			return new DistanceCall<BooleanValue>(ID, functionSignature, 3, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected BooleanValue evaluate(final Value[] args) throws IndeterminateEvaluationException
+				{
+					final GeometryValue policy = getGeometry(args, swap ? 0 : 1);
+					GeometryValue other = getGeometry(args, swap ? 1 : 0);
+					final double d = getDouble(args, 2);
+					if (other.getUnderlyingValue().getSRID() != policy.getUnderlyingValue().getSRID())
+					{
+						// the distance is given in units of the CRS of the policy geometry
+						other = Reprojection.reproject(other, policy.getUnderlyingValue().getSRID());
+						if (other == null)
+							return BooleanValue.FALSE;
+					}
+					return isWithinDistance(other, policy, d, prepared) ? BooleanValue.TRUE : BooleanValue.FALSE;
+				}
+
+			};
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderBagFunctions;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionSignature;
+import org.ow2.authzforce.core.pdp.api.func.SingleParameterTypedFirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.Value;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+import de.securedimensions.geoxacml.datatype.EnvelopeValue;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Functions on the envelope datatype (see {@link EnvelopeValue}).
+ * <p>
+ * <code>envelope-intersects</code>, <code>envelope-contains</code> and <code>envelope-within</code> compare two boxes on their
+ * coordinates; boxes with different SRID are never related. <code>envelope-from-geometry</code> and <code>envelope-to-geometry</code>
+ * convert between boxes and geometries, and the bag functions <code>envelope-one-and-only</code>, <code>envelope-bag</code> and
+ * <code>envelope-bag-size</code> allow to use envelope attributes from the request.
+ * <p>
+ * The arguments are evaluated one by one into typed values, without collecting them in an intermediate list.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class EnvelopeFunctions {
+
+	private interface Predicate
+	{
+		boolean test(EnvelopeValue a, EnvelopeValue b);
+	}
+
+	/**
+	 * Call of a function with a fixed number of arguments
+	 */
+	private static abstract class EnvelopeCall<R extends AttributeValue> extends BaseFirstOrderFunctionCall<R>
+	{
+		private final String functionId;
+		private final List<Expression<?>> argExpressions;
+
+		private EnvelopeCall(final String functionId, final FirstOrderFunctionSignature<R> functionSig, final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			super(functionSig, argExpressions, remainingArgTypes);
+			this.functionId = functionId;
+			this.argExpressions = argExpressions;
+		}
+
+		<V extends AttributeValue> V getArgument(final int index, final Class<V> type, final EvaluationContext context, final AttributeValue... remainingArgs)
+				throws IndeterminateEvaluationException
+		{
+			final int remaining = index - argExpressions.size();
+			final Value v;
+			if (remaining < 0)
+				v = argExpressions.get(index).evaluate(context);
+			else if (remainingArgs != null && remaining < remainingArgs.length)
+				v = remainingArgs[remaining];
+			else
+				throw new IndeterminateEvaluationException("Function " + functionId + ": argument #" + index + " is missing", XacmlStatusCode.PROCESSING_ERROR.name());
+
+			if (!type.isInstance(v))
+				throw new IndeterminateEvaluationException("Function " + functionId + ": argument #" + index + " is not of type " + type.getSimpleName(), XacmlStatusCode.PROCESSING_ERROR.name());
+			return type.cast(v);
+		}
+	}
+
+	private static abstract class EnvelopePredicate extends SingleParameterTypedFirstOrderFunction<BooleanValue, EnvelopeValue>
+	{
+		private final String id;
+		private final Predicate predicate;
+
+		private EnvelopePredicate(final String id, final Predicate predicate)
+		{
+			super(id, StandardDatatypes.BOOLEAN, false, Arrays.asList(EnvelopeValue.DATATYPE, EnvelopeValue.DATATYPE));
+			this.id = id;
+			this.predicate = predicate;
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			return new EnvelopeCall<BooleanValue>(id, functionSignature, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				public BooleanValue evaluate(final EvaluationContext context, final AttributeValue... remainingArgs) throws IndeterminateEvaluationException
+				{
+					final EnvelopeValue a = getArgument(0, EnvelopeValue.class, context, remainingArgs);
+					final EnvelopeValue b = getArgument(1, EnvelopeValue.class, context, remainingArgs);
+					return predicate.test(a, b) ? BooleanValue.TRUE : BooleanValue.FALSE;
+				}
+
+			};
+		}
+	}
+
+	public final static class Intersects extends EnvelopePredicate
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:envelope-intersects";
+
+		public Intersects()
+		{
+			super(ID, EnvelopeValue::intersects);
+		}
+	}
+
+	public final static class Contains extends EnvelopePredicate
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:envelope-contains";
+
+		public Contains()
+		{
+			super(ID, EnvelopeValue::contains);
+		}
+	}
+
+	public final static class Within extends EnvelopePredicate
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:envelope-within";
+
+		public Within()
+		{
+			super(ID, EnvelopeValue::within);
+		}
+	}
+
+	public final static class FromGeometry extends SingleParameterTypedFirstOrderFunction<EnvelopeValue, GeometryValue>
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:envelope-from-geometry";
+
+		public FromGeometry()
+		{
+			super(ID, EnvelopeValue.DATATYPE, false, Arrays.asList(GeometryValue.DATATYPE));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<EnvelopeValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			return new EnvelopeCall<EnvelopeValue>(ID, functionSignature, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				public EnvelopeValue evaluate(final EvaluationContext context, final AttributeValue... remainingArgs) throws IndeterminateEvaluationException
+				{
+					final EnvelopeValue envelope = EnvelopeValue.of(getArgument(0, GeometryValue.class, context, remainingArgs));
+					if (envelope == null)
+						throw new IndeterminateEvaluationException("Function " + ID + ": an empty geometry has no envelope", XacmlStatusCode.PROCESSING_ERROR.name());
+					return envelope;
+				}
+
+			};
+		}
+	}
+
+	public final static class ToGeometry extends SingleParameterTypedFirstOrderFunction<GeometryValue, EnvelopeValue>
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:envelope-to-geometry";
+
+		public ToGeometry()
+		{
+			super(ID, GeometryValue.DATATYPE, false, Arrays.asList(EnvelopeValue.DATATYPE));
+		}
+
+		@Override
+		public FirstOrderFunctionCall<GeometryValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			return new EnvelopeCall<GeometryValue>(ID, functionSignature, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				public GeometryValue evaluate(final EvaluationContext context, final AttributeValue... remainingArgs) throws IndeterminateEvaluationException
+				{
+					return getArgument(0, EnvelopeValue.class, context, remainingArgs).toGeometry();
+				}
+
+			};
+		}
+	}
+
+	public static class SingletonBagToPrimitive extends FirstOrderBagFunctions.SingletonBagToPrimitive<EnvelopeValue>
+	{
+		/**
+		 * Function identifier: urn:de:securedimensions:function:geoxacml:envelope-one-and-only
+		 */
+		public SingletonBagToPrimitive()
+		{
+			super(EnvelopeValue.DATATYPE, EnvelopeValue.DATATYPE.getBagDatatype());
+		}
+	}
+
+	public static class BagSize extends FirstOrderBagFunctions.BagSize<EnvelopeValue>
+	{
+		/**
+		 * Function identifier: urn:de:securedimensions:function:geoxacml:envelope-bag-size
+		 */
+		public BagSize()
+		{
+			super(EnvelopeValue.DATATYPE.getBagDatatype());
+		}
+	}
+
+	public static class PrimitiveToBag extends FirstOrderBagFunctions.PrimitiveToBag<EnvelopeValue>
+	{
+		/**
+		 * Function identifier: urn:de:securedimensions:function:geoxacml:envelope-bag
+		 */
+		public PrimitiveToBag()
+		{
+			super(EnvelopeValue.DATATYPE, EnvelopeValue.DATATYPE.getBagDatatype());
+		}
+	}
+
+}
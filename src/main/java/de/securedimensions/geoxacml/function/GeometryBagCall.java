@@ -0,0 +1,127 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionSignature;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.Value;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Call of a boolean function on two arguments, each either a geometry or a bag of geometries.
+ * <p>
+ * The arguments are handed to {@link #evaluate(List, List)} as lists; a single geometry becomes a list with one element.
+ * <p>
+ * If the total number of vertices of both arguments reaches <code>geoxacml.parallel.minWork</code> (default 100000), implementations
+ * may evaluate the elements in parallel on the common fork-join pool (see {@link #isParallel(List, List)}).
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+abstract class GeometryBagCall extends BaseFirstOrderFunctionCall<BooleanValue>
+{
+	static final long PARALLEL_MIN_WORK = Long.getLong("geoxacml.parallel.minWork", 100000);
+
+	private final String functionId;
+	private final List<Expression<?>> argExpressions;
+
+	GeometryBagCall(final String functionId, final FirstOrderFunctionSignature<BooleanValue> functionSig, final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+	{
+		super(functionSig, argExpressions, remainingArgTypes);
+		this.functionId = functionId;
+		this.argExpressions = argExpressions;
+	}
+
+	/**
+	 * Evaluates the function on the geometries of both arguments
+	 */
+	protected abstract boolean evaluate(List<GeometryValue> geometries1, List<GeometryValue> geometries2) throws IndeterminateEvaluationException;
+
+	/**
+	 * @return <code>true</code> if the elements are worth being evaluated in parallel
+	 */
+	static boolean isParallel(final List<GeometryValue> geometries1, final List<GeometryValue> geometries2)
+	{
+		if (PARALLEL_MIN_WORK <= 0 || geometries1.size() + geometries2.size() < 2)
+			return false;
+
+		long work = 0;
+		for (final GeometryValue gv : geometries1)
+			work += gv.getUnderlyingValue().getNumPoints();
+		for (final GeometryValue gv : geometries2)
+			work += gv.getUnderlyingValue().getNumPoints();
+		return work >= PARALLEL_MIN_WORK;
+	}
+
+	/**
+	 * Converts a geometry or a bag of geometries to a list of geometries
+	 */
+	static List<GeometryValue> toGeometries(final String functionId, final int index, final Value v) throws IndeterminateEvaluationException
+	{
+		final List<GeometryValue> geometries = new ArrayList<GeometryValue>();
+		if (v instanceof GeometryValue)
+			geometries.add((GeometryValue) v);
+		else if (v instanceof Bag)
+		{
+			for (final Object o : (Bag<?>) v)
+			{
+				if (!(o instanceof GeometryValue))
+					throw new IndeterminateEvaluationException("Function " + functionId + ": argument #" + index + " is not a bag of geometries", XacmlStatusCode.PROCESSING_ERROR.name());
+				geometries.add((GeometryValue) o);
+			}
+		}
+		else
+			throw new IndeterminateEvaluationException("Function " + functionId + ": argument #" + index + " is neither a geometry nor a bag of geometries", XacmlStatusCode.PROCESSING_ERROR.name());
+
+		return geometries;
+	}
+
+	private List<GeometryValue> getArgument(final int index, final EvaluationContext context, final AttributeValue... remainingArgs)
+			throws IndeterminateEvaluationException
+	{
+		final Value v = (index < argExpressions.size()) ? argExpressions.get(index).evaluate(context) : remainingArgs[index - argExpressions.size()];
+		return toGeometries(functionId, index, v);
+	}
+
+	@Override
+	public BooleanValue evaluate(final EvaluationContext context, final AttributeValue... remainingArgs)
+			throws IndeterminateEvaluationException
+	{
+		final int numArgs = argExpressions.size() + ((remainingArgs == null) ? 0 : remainingArgs.length);
+		if (numArgs != 2)
+			throw new IndeterminateEvaluationException("Function " + functionId + " requires exactly two arguments but given " + numArgs, XacmlStatusCode.PROCESSING_ERROR.name());
+
+		final List<GeometryValue> geometries1 = getArgument(0, context, remainingArgs);
+		final List<GeometryValue> geometries2 = getArgument(1, context, remainingArgs);
+
+		return evaluate(geometries1, geometries2) ? BooleanValue.TRUE : BooleanValue.FALSE;
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Spatial index (STR packed R-tree) over the envelopes of a bag of geometries.
+ * <p>
+ * Bags with less than <code>geoxacml.index.minBagSize</code> elements (default 16) are not indexed: all elements are candidates. A bag
+ * given as constant in the policy is indexed when the policy is loaded. A bag evaluated at decision time is only indexed if it is probed
+ * often enough to pay for building the tree (see {@link #forProbes(List, int)}), otherwise it is scanned.
+ * <p>
+ * The tree is built on the envelopes of the geometries in their own CRS. Geometries of another CRS are reprojected to the CRS of the bag
+ * before probing it (see {@link #probe(GeometryValue, int)}), so the bag itself is never reprojected.
+ * <p>
+ * The index is built completely on construction and only queried afterwards, so it can be shared by concurrent decisions.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+final class GeometryBagIndex
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(GeometryBagIndex.class);
+
+	static final int MIN_BAG_SIZE = Integer.getInteger("geoxacml.index.minBagSize", 16);
+
+	private final List<GeometryValue> geometries;
+	private final STRtree tree;
+	private final int[] srids;
+
+	GeometryBagIndex(final List<GeometryValue> geometries)
+	{
+		this(geometries, true);
+	}
+
+	private GeometryBagIndex(final List<GeometryValue> geometries, final boolean indexed)
+	{
+		this.geometries = geometries;
+		this.srids = srids(geometries);
+		if (!indexed || geometries.size() < MIN_BAG_SIZE)
+		{
+			this.tree = null;
+			return;
+		}
+
+		this.tree = new STRtree();
+		for (final GeometryValue gv : geometries)
+		{
+			if (!gv.getUnderlyingValue().isEmpty())
+				tree.insert(gv.getUnderlyingValue().getEnvelopeInternal(), gv);
+		}
+		tree.build();
+	}
+
+	/**
+	 * Returns the index of a bag evaluated at decision time. Building the tree costs O(n log n) and a scan O(n) per probe, so the bag is
+	 * only indexed if it is probed at least log2(n) times.
+	 *
+	 * @param probes
+	 *            number of geometries the bag is probed with
+	 */
+	static GeometryBagIndex forProbes(final List<GeometryValue> geometries, final int probes)
+	{
+		return new GeometryBagIndex(geometries, probes >= 32 - Integer.numberOfLeadingZeros(geometries.size()));
+	}
+
+	private static int[] srids(final List<GeometryValue> geometries)
+	{
+		// few distinct SRIDs, typically one
+		int[] srids = new int[0];
+		for (final GeometryValue gv : geometries)
+		{
+			final Geometry g = gv.getUnderlyingValue();
+			if (g.isEmpty())
+				continue;
+
+			boolean known = false;
+			for (final int srid : srids)
+				known |= srid == g.getSRID();
+			if (!known)
+			{
+				srids = Arrays.copyOf(srids, srids.length + 1);
+				srids[srids.length - 1] = g.getSRID();
+			}
+		}
+		return srids;
+	}
+
+	/**
+	 * Indexes the bag given as constant argument at policy load time and prepares its geometries (see
+	 * {@link GeometryPredicates#prepareConstant(GeometryValue)})
+	 *
+	 * @return the index or <code>null</code> if the argument is not a constant bag of geometries
+	 */
+	static GeometryBagIndex precompute(final String functionId, final int index, final List<Expression<?>> argExpressions)
+	{
+		if (index >= argExpressions.size())
+			return null;
+
+		final Optional<?> constant = argExpressions.get(index).getValue();
+		if (!constant.isPresent())
+			return null;
+
+		try
+		{
+			final GeometryBagIndex bagIndex = new GeometryBagIndex(GeometryBagCall.toGeometries(functionId, index, (Value) constant.get()));
+			for (final GeometryValue g : bagIndex.getGeometries())
+				GeometryPredicates.prepareConstant(g);
+			LOGGER.debug("Function {}: index built for constant bag of {} geometries", functionId, bagIndex.size());
+			return bagIndex;
+		}
+		catch (IndeterminateEvaluationException e)
+		{
+			LOGGER.debug("Function {}: no index for argument #{}: {}", functionId, index, e.getMessage());
+			return null;
+		}
+	}
+
+	int size()
+	{
+		return geometries.size();
+	}
+
+	List<GeometryValue> getGeometries()
+	{
+		return geometries;
+	}
+
+	/**
+	 * @return the distinct SRIDs of the non-empty geometries of the bag
+	 */
+	int[] getSrids()
+	{
+		return srids;
+	}
+
+	/**
+	 * Returns the geometry to probe the geometries of the bag with the SRID, reprojected if it has another SRID (see {@link Reprojection})
+	 *
+	 * @return the geometry or <code>null</code> if it cannot be reprojected
+	 */
+	static GeometryValue probe(final GeometryValue gv, final int srid)
+	{
+		return (gv.getUnderlyingValue().getSRID() == srid) ? gv : Reprojection.reproject(gv, srid);
+	}
+
+	/**
+	 * @return the geometries whose envelope intersects <code>env</code>; all geometries if the bag is not indexed. Geometries of all
+	 *         SRIDs are returned, callers compare the SRID of the candidates with the one of the envelope.
+	 */
+	@SuppressWarnings("unchecked")
+	List<GeometryValue> query(final Envelope env)
+	{
+		if (tree == null)
+			return geometries;
+
+		return (List<GeometryValue>) tree.query(env);
+	}
+
+	/**
+	 * @return the underlying tree or <code>null</code> if the bag is not indexed
+	 */
+	STRtree getTree()
+	{
+		return tree;
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.List;
+
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionSignature;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.Value;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Call of a boolean function on two geometries.
+ * <p>
+ * Results are memoized per decision request (see {@link RequestMemo}), so a predicate evaluated several times on the same operands
+ * within one decision is only computed once. If enabled, the {@link DecisionCache} shares results between decisions, except in degraded
+ * mode.
+ * <p>
+ * Geometries with different SRID are compared after reprojecting one of them (see {@link Reprojection}); if that is not possible, the
+ * result is <code>false</code>.
+ * <p>
+ * Geometries given as constants are prepared when the call is created (see {@link GeometryPredicates#prepareConstant(GeometryValue)}),
+ * and so are their reprojections when first used.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+abstract class GeometryPredicateCall extends BaseFirstOrderFunctionCall<BooleanValue>
+{
+	private final String functionId;
+	private final BooleanValue emptyResult;
+	private final List<Expression<?>> argExpressions;
+	private final boolean reprojectFirst;
+	private final boolean[] constant;
+
+	/**
+	 * @param emptyResult
+	 *            result if one of the geometries is NULL or EMPTY, decided without evaluating the other argument; <code>null</code> to
+	 *            evaluate the predicate in this case too
+	 */
+	GeometryPredicateCall(final String functionId, final FirstOrderFunctionSignature<BooleanValue> functionSig, final Boolean emptyResult, final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+	{
+		super(functionSig, argExpressions, remainingArgTypes);
+		this.functionId = functionId;
+		this.emptyResult = (emptyResult == null) ? null : (emptyResult.booleanValue() ? BooleanValue.TRUE : BooleanValue.FALSE);
+		this.argExpressions = argExpressions;
+		// the first geometry is reprojected if it is the only constant one, otherwise the second
+		this.reprojectFirst = !argExpressions.isEmpty() && argExpressions.get(0).getValue().isPresent() && !(argExpressions.size() > 1 && argExpressions.get(1).getValue().isPresent());
+		this.constant = new boolean[argExpressions.size()];
+		for (int i = 0; i < constant.length; i++)
+		{
+			final Object v = argExpressions.get(i).getValue().orElse(null);
+			if (v instanceof GeometryValue)
+			{
+				GeometryPredicates.prepareConstant((GeometryValue) v);
+				constant[i] = true;
+			}
+		}
+		if (DecisionCache.isEnabled())
+			DecisionCache.callCreated();
+	}
+
+	private boolean isConstant(final int index)
+	{
+		return index < constant.length && constant[index];
+	}
+
+	/**
+	 * Evaluates the predicate on two geometries with the same SRID
+	 * 
+	 * @param memo
+	 *            memo table of the decision, e.g. to share the intersection matrix of the pair with other predicates
+	 * @param degraded
+	 *            whether the degraded mode is in effect for this evaluation (see {@link LoadShedding})
+	 */
+	protected abstract boolean evaluate(GeometryValue g1, GeometryValue g2, RequestMemo memo, boolean degraded) throws IndeterminateEvaluationException;
+
+	private GeometryValue getArgument(final int index, final EvaluationContext context, final AttributeValue... remainingArgs)
+			throws IndeterminateEvaluationException
+	{
+		final Value v = (index < argExpressions.size()) ? argExpressions.get(index).evaluate(context) : remainingArgs[index - argExpressions.size()];
+		if (!(v instanceof GeometryValue))
+			throw new IndeterminateEvaluationException("Function " + functionId + ": argument #" + index + " is not a geometry", XacmlStatusCode.PROCESSING_ERROR.name());
+
+		return (GeometryValue) v;
+	}
+
+	@Override
+	public BooleanValue evaluate(final EvaluationContext context, final AttributeValue... remainingArgs)
+			throws IndeterminateEvaluationException
+	{
+		final int numArgs = argExpressions.size() + ((remainingArgs == null) ? 0 : remainingArgs.length);
+		if (numArgs != 2)
+			throw new IndeterminateEvaluationException("Function " + functionId + " requires exactly two arguments but given " + numArgs, XacmlStatusCode.PROCESSING_ERROR.name());
+
+		GeometryValue g1 = getArgument(0, context, remainingArgs);
+		if (emptyResult != null && g1.getUnderlyingValue().isEmpty())
+			return emptyResult;
+
+		GeometryValue g2 = getArgument(1, context, remainingArgs);
+		if (emptyResult != null && g2.getUnderlyingValue().isEmpty())
+			return emptyResult;
+
+		if (g1.getUnderlyingValue().getSRID() != g2.getUnderlyingValue().getSRID())
+		{
+			// reproject the geometry of the policy, as its reprojection is cached
+			final GeometryValue reprojected = reprojectFirst ? Reprojection.reproject(g1, g2.getUnderlyingValue().getSRID()) : Reprojection.reproject(g2, g1.getUnderlyingValue().getSRID());
+			if (reprojected == null)
+				return BooleanValue.FALSE;
+
+			if (isConstant(reprojectFirst ? 0 : 1))
+				GeometryPredicates.prepareConstant(reprojected);
+
+			if (reprojectFirst)
+				g1 = reprojected;
+			else
+				g2 = reprojected;
+		}
+
+		final RequestMemo memo = RequestMemo.get(context);
+		final boolean degraded = LoadShedding.isActive();
+		Boolean result = memo.lookup(functionId, g1, g2);
+		if (result == null)
+		{
+			if (DecisionCache.isEnabled() && !degraded)
+			{
+				result = DecisionCache.lookup(functionId, g1, g2);
+				if (result == null)
+				{
+					result = Boolean.valueOf(evaluate(g1, g2, memo, degraded));
+					DecisionCache.put(functionId, g1, g2, result.booleanValue());
+				}
+			}
+			else
+				result = Boolean.valueOf(evaluate(g1, g2, memo, degraded));
+
+			memo.put(functionId, g1, g2, result.booleanValue());
+		}
+
+		return result.booleanValue() ? BooleanValue.TRUE : BooleanValue.FALSE;
+	}
+}
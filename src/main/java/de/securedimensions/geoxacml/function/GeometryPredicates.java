@@ -0,0 +1,373 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.IntersectionMatrix;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.operation.predicate.RectangleContains;
+import org.locationtech.jts.operation.predicate.RectangleIntersects;
+
+import de.securedimensions.geoxacml.datatype.Circle;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.index.GridPointLocator;
+
+/**
+ * Evaluation of the topological predicates as a cascade of conservative approximations.
+ * <p>
+ * Each stage either proves the result or passes the pair on to the next, more expensive stage:
+ * <ol>
+ * <li>envelope (outer approximation)</li>
+ * <li>inscribed circle (inner approximation, polygonal geometries only)</li>
+ * <li>convex hull (outer approximation)</li>
+ * <li>exact predicate on the prepared geometry</li>
+ * </ol>
+ * A point tested against a polygonal geometry with a raster (see {@link GridPointLocator}) is located right after the envelope stage.
+ * The raster is only built for the geometries of the policy (see {@link #prepareConstant(GeometryValue)}), as a geometry of a request is
+ * rarely tested often enough to pay for it.
+ * A point tested against a geometry parsed from a circle is located against the circle first, in constant time.
+ * <p>
+ * Pairs involving a rectangle (see {@link GeometryValue#isRectangle()}) are decided by the rectangle algorithms of JTS instead of the
+ * cascade, and all predicates on two rectangles by comparing their envelopes. Pairs involving a single point are decided from the location
+ * of the point (see {@link PointPredicates}), without the prepared geometry or the intersection matrix unless the other geometry is large
+ * or the point is too close to its boundary.
+ * <p>
+ * The circle and the convex hull are only used for geometries with at least <code>geoxacml.approximation.minPoints</code> vertices,
+ * as the prepared geometry alone is cheap enough for small geometries.
+ * <p>
+ * In degraded mode (see {@link LoadShedding}) the cascade runs on the simplified geometries; the caller reads the mode once and passes
+ * it to {@link #within(GeometryValue, GeometryValue, boolean)} or {@link #intersects(GeometryValue, GeometryValue, boolean)}, or
+ * simplifies the geometries itself.
+ * <p>
+ * <code>equals</code>, <code>touches</code>, <code>crosses</code> and <code>overlaps</code> are derived from the DE-9IM intersection
+ * matrix of the pair, which is computed once per decision (see {@link RequestMemo#relate(GeometryValue, GeometryValue)}).
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+final class GeometryPredicates
+{
+	static final int APPROXIMATION_MIN_POINTS = Integer.getInteger("geoxacml.approximation.minPoints", 256);
+
+	private GeometryPredicates()
+	{
+	}
+
+	/**
+	 * Returned by the point locators if the location is not certain
+	 */
+	static final int UNKNOWN = PointPredicates.UNKNOWN;
+
+	private static boolean isLarge(final Geometry g)
+	{
+		return g.getNumPoints() >= APPROXIMATION_MIN_POINTS;
+	}
+
+	/**
+	 * Builds the raster of a geometry given as a constant in the policy when the function call is created
+	 */
+	static void prepareConstant(final GeometryValue g)
+	{
+		g.getGridPointLocator();
+	}
+
+	/**
+	 * Locates a point in a geometry parsed from a circle: inside the circle inscribed in the polygon the point is in the interior,
+	 * outside the circle itself it is in the exterior. Only points in the thin ring between both circles need the exact test.
+	 *
+	 * @return {@link Location#INTERIOR}, {@link Location#EXTERIOR} or {@link #UNKNOWN} if the point is near the boundary or the
+	 *         geometry was not parsed from a circle
+	 */
+	static int locateInCircle(final Point p, final GeometryValue gv)
+	{
+		final Circle circle = gv.getCircle();
+		if (circle == null)
+			return UNKNOWN;
+
+		final Circle inner = gv.getInscribedCircle();
+		if (inner != null && inner.containsProperly(p.getX(), p.getY()))
+			return Location.INTERIOR;
+
+		if (circle.distanceToCenter(p.getX(), p.getY()) > circle.getRadius() * (1.0 + 1.0E-9))
+			return Location.EXTERIOR;
+
+		return UNKNOWN;
+	}
+
+	/**
+	 * Locates a single point in a geometry by the cheapest means available: the circle the geometry was parsed from, its raster if it
+	 * was built, or the point kernel for a geometry that is not large
+	 *
+	 * @param p
+	 *            a single point (see {@link GeometryValue#isPoint()})
+	 * @return {@link Location#INTERIOR}, {@link Location#BOUNDARY}, {@link Location#EXTERIOR} or {@link #UNKNOWN} if the prepared
+	 *         geometry or the intersection matrix is needed
+	 */
+	static int locatePoint(final GeometryValue p, final GeometryValue g)
+	{
+		final int location = locateInCircle((Point) p.getUnderlyingValue(), g);
+		if (location != UNKNOWN)
+			return location;
+
+		final GridPointLocator raster = g.getComputedGridPointLocator();
+		if (raster != null)
+			return raster.locate(p.getPointX(), p.getPointY());
+
+		return isLarge(g.getUnderlyingValue()) ? UNKNOWN : PointPredicates.locate(p, g);
+	}
+
+	/**
+	 * Tests whether the interiors of two rectangles intersect, i.e. they share more than a part of their boundaries
+	 */
+	private static boolean interiorsIntersect(final Envelope ea, final Envelope eb)
+	{
+		return Math.max(ea.getMinX(), eb.getMinX()) < Math.min(ea.getMaxX(), eb.getMaxX())
+				&& Math.max(ea.getMinY(), eb.getMinY()) < Math.min(ea.getMaxY(), eb.getMaxY());
+	}
+
+	/**
+	 * Tests whether <code>a</code> is within <code>b</code>
+	 */
+	static boolean within(final GeometryValue a, final GeometryValue b)
+	{
+		final Geometry ga = a.getUnderlyingValue();
+		final Geometry gb = b.getUnderlyingValue();
+
+		if (ga.isEmpty() || gb.isEmpty())
+			return false;
+
+		final Envelope ea = ga.getEnvelopeInternal();
+		if (!gb.getEnvelopeInternal().covers(ea))
+			return false;
+
+		// the interior of a rectangle with non-zero area is never in the boundary of another one
+		if (b.isRectangle())
+			return a.isRectangle() || RectangleContains.contains((Polygon) gb, ga);
+
+		if (a.isPoint())
+		{
+			final int location = locatePoint(a, b);
+			if (location != UNKNOWN)
+				return location == Location.INTERIOR;
+		}
+
+		if (isLarge(gb) || b.getCircle() != null)
+		{
+			final Circle inner = b.getInscribedCircle();
+			if (inner != null && inner.containsProperly(ea))
+				return true;
+		}
+
+		if (isLarge(gb) && !b.getPreparedConvexHull().covers(ga))
+			return false;
+
+		return b.getPreparedGeometry().contains(ga);
+	}
+
+	/**
+	 * Tests whether <code>a</code> is within <code>b</code>, using the intersection matrix of the pair if already computed
+	 */
+	static boolean within(final GeometryValue a, final GeometryValue b, final RequestMemo memo)
+	{
+		final IntersectionMatrix im = getComputedMatrix(a, b, memo);
+		return (im != null) ? im.isWithin() : within(a, b);
+	}
+
+	/**
+	 * Tests whether <code>a</code> contains <code>b</code>
+	 */
+	static boolean contains(final GeometryValue a, final GeometryValue b)
+	{
+		return within(b, a);
+	}
+
+	/**
+	 * Tests whether <code>a</code> contains <code>b</code>, using the intersection matrix of the pair if already computed
+	 */
+	static boolean contains(final GeometryValue a, final GeometryValue b, final RequestMemo memo)
+	{
+		final IntersectionMatrix im = getComputedMatrix(a, b, memo);
+		return (im != null) ? im.isContains() : contains(a, b);
+	}
+
+	/**
+	 * Tests whether <code>a</code> is within <code>b</code>, on the simplified geometries if <code>degraded</code>, and counts the
+	 * evaluation (see {@link LoadShedding#count(boolean)})
+	 */
+	static boolean within(final GeometryValue a, final GeometryValue b, final boolean degraded)
+	{
+		LoadShedding.count(degraded);
+		return degraded ? within(LoadShedding.approximate(a), LoadShedding.approximate(b)) : within(a, b);
+	}
+
+	/**
+	 * The cascade is cheaper than computing the intersection matrix for within and contains, so the matrix is only used if another
+	 * predicate has already computed it
+	 */
+	private static IntersectionMatrix getComputedMatrix(final GeometryValue a, final GeometryValue b, final RequestMemo memo)
+	{
+		if (a.getUnderlyingValue().isEmpty() || b.getUnderlyingValue().isEmpty())
+			return null;
+		return memo.getIntersectionMatrix(a, b);
+	}
+
+	/**
+	 * Tests whether <code>a</code> and <code>b</code> are topologically equal
+	 */
+	static boolean equals(final GeometryValue a, final GeometryValue b, final RequestMemo memo)
+	{
+		final Geometry ga = a.getUnderlyingValue();
+		final Geometry gb = b.getUnderlyingValue();
+		if (!ga.getEnvelopeInternal().equals(gb.getEnvelopeInternal()))
+			return false;
+		if (a.isRectangle() && b.isRectangle())
+			return true;
+		if (a.isPoint() || b.isPoint())
+		{
+			// a point only equals a point, or a multi point of the same coordinates
+			if (a.isPoint() && b.isPoint())
+				return a.getPointX() == b.getPointX() && a.getPointY() == b.getPointY();
+			if (PointPredicates.isSupported(a) && PointPredicates.isSupported(b))
+				return false;
+		}
+		return memo.relate(a, b).isEquals(ga.getDimension(), gb.getDimension());
+	}
+
+	/**
+	 * Tests whether <code>a</code> touches <code>b</code>
+	 */
+	static boolean touches(final GeometryValue a, final GeometryValue b, final RequestMemo memo)
+	{
+		final Geometry ga = a.getUnderlyingValue();
+		final Geometry gb = b.getUnderlyingValue();
+		if (!ga.getEnvelopeInternal().intersects(gb.getEnvelopeInternal()))
+			return false;
+		if (a.isRectangle() && b.isRectangle())
+			return !interiorsIntersect(ga.getEnvelopeInternal(), gb.getEnvelopeInternal());
+		if (a.isPoint() || b.isPoint())
+		{
+			final int location = a.isPoint() ? locatePoint(a, b) : locatePoint(b, a);
+			if (location != UNKNOWN)
+				return location == Location.BOUNDARY;
+		}
+		return memo.relate(a, b).isTouches(ga.getDimension(), gb.getDimension());
+	}
+
+	/**
+	 * Tests whether <code>a</code> crosses <code>b</code>
+	 */
+	static boolean crosses(final GeometryValue a, final GeometryValue b, final RequestMemo memo)
+	{
+		final Geometry ga = a.getUnderlyingValue();
+		final Geometry gb = b.getUnderlyingValue();
+		// two areas never cross, nor does a single point cross anything
+		if (!ga.getEnvelopeInternal().intersects(gb.getEnvelopeInternal()) || (a.isRectangle() && b.isRectangle()) || a.isPoint() || b.isPoint())
+			return false;
+		return memo.relate(a, b).isCrosses(ga.getDimension(), gb.getDimension());
+	}
+
+	/**
+	 * Tests whether <code>a</code> overlaps <code>b</code>
+	 */
+	static boolean overlaps(final GeometryValue a, final GeometryValue b, final RequestMemo memo)
+	{
+		final Geometry ga = a.getUnderlyingValue();
+		final Geometry gb = b.getUnderlyingValue();
+		// a single point has no part outside of a geometry it intersects, so it never overlaps
+		if (!ga.getEnvelopeInternal().intersects(gb.getEnvelopeInternal()) || a.isPoint() || b.isPoint())
+			return false;
+		if (a.isRectangle() && b.isRectangle())
+		{
+			final Envelope ea = ga.getEnvelopeInternal();
+			final Envelope eb = gb.getEnvelopeInternal();
+			return interiorsIntersect(ea, eb) && !ea.covers(eb) && !eb.covers(ea);
+		}
+		return memo.relate(a, b).isOverlaps(ga.getDimension(), gb.getDimension());
+	}
+
+	/**
+	 * Tests whether <code>a</code> intersects <code>b</code>
+	 */
+	static boolean intersects(final GeometryValue a, final GeometryValue b)
+	{
+		final Geometry ga = a.getUnderlyingValue();
+		final Geometry gb = b.getUnderlyingValue();
+
+		if (ga.isEmpty() || gb.isEmpty())
+			return false;
+
+		if (!ga.getEnvelopeInternal().intersects(gb.getEnvelopeInternal()))
+			return false;
+
+		if (a.isRectangle() || b.isRectangle())
+		{
+			if (a.isRectangle() && b.isRectangle())
+				return true;
+
+			// a large geometry is tested faster by its prepared form
+			final GeometryValue other = a.isRectangle() ? b : a;
+			if (!isLarge(other.getUnderlyingValue()))
+				return RectangleIntersects.intersects((Polygon) (a.isRectangle() ? ga : gb), other.getUnderlyingValue());
+		}
+
+		if (a.isPoint() || b.isPoint())
+		{
+			final int location = a.isPoint() ? locatePoint(a, b) : locatePoint(b, a);
+			if (location != UNKNOWN)
+				return location != Location.EXTERIOR;
+		}
+
+		// approximate the larger geometry, test the smaller one against it
+		final GeometryValue large = (ga.getNumPoints() >= gb.getNumPoints()) ? a : b;
+		final Geometry small = (large == a) ? gb : ga;
+
+		if (isLarge(large.getUnderlyingValue()) || large.getCircle() != null)
+		{
+			final Circle inner = large.getInscribedCircle();
+			if (inner != null && inner.containsProperly(small.getEnvelopeInternal()))
+				return true;
+		}
+
+		if (isLarge(large.getUnderlyingValue()) && !large.getPreparedConvexHull().intersects(small))
+			return false;
+
+		return large.getPreparedGeometry().intersects(small);
+	}
+
+	/**
+	 * Tests whether <code>a</code> intersects <code>b</code>, on the simplified geometries if <code>degraded</code>, and counts the
+	 * evaluation (see {@link LoadShedding#count(boolean)})
+	 */
+	static boolean intersects(final GeometryValue a, final GeometryValue b, final boolean degraded)
+	{
+		LoadShedding.count(degraded);
+		return degraded ? intersects(LoadShedding.approximate(a), LoadShedding.approximate(b)) : intersects(a, b);
+	}
+
+	/**
+	 * Tests whether <code>a</code> and <code>b</code> are disjoint
+	 */
+	static boolean disjoint(final GeometryValue a, final GeometryValue b)
+	{
+		return !intersects(a, b);
+	}
+}
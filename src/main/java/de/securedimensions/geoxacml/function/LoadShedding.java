@@ -0,0 +1,185 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Opt-in degraded evaluation mode for the topological functions under overload.
+ * <p>
+ * While the mode is active, <code>geometry-within</code>, <code>geometry-contains</code>, <code>geometry-intersects</code> and <code>geometry-disjoint</code>
+ * are evaluated against simplified geometries. The simplification is topology preserving and uses the tolerance declared with
+ * <code>geoxacml.degraded.tolerance</code> or {@link #setTolerance(double)} (in units of the CRS); the mode stays off as long as no
+ * tolerance is declared.
+ * <p>
+ * The mode is active if any of the following triggers fires:
+ * <ul>
+ * <li>the explicit switch {@link #setForced(boolean)} (initially <code>geoxacml.degraded</code>)</li>
+ * <li>the system load per processor exceeds <code>geoxacml.degraded.cpuLoad</code></li>
+ * <li>the queue depth reported by the host via {@link #setQueueDepthSupplier(IntSupplier)} exceeds <code>geoxacml.degraded.queueDepth</code></li>
+ * </ul>
+ * A function cannot add advice or status details to the decision, so decisions taken in this mode are made visible through the counters
+ * {@link #getApproximateEvaluations()} and {@link #getExactEvaluations()} and a warning whenever the mode changes. Every evaluation of a
+ * topological predicate is counted once; it counts as approximate only if it was made on simplified geometries, so the other
+ * topological functions, which are always evaluated exactly, count as exact in degraded mode too.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class LoadShedding
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadShedding.class);
+
+	private static final double CPU_LOAD_THRESHOLD = Double.parseDouble(System.getProperty("geoxacml.degraded.cpuLoad", "0"));
+	private static final int QUEUE_DEPTH_THRESHOLD = Integer.getInteger("geoxacml.degraded.queueDepth", 0);
+
+	/**
+	 * The system load is sampled at most once per interval
+	 */
+	private static final long SAMPLE_INTERVAL_NANOS = 1000000000L;
+
+	private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+
+	private static volatile double tolerance = Double.parseDouble(System.getProperty("geoxacml.degraded.tolerance", "0"));
+	private static volatile boolean forced = Boolean.getBoolean("geoxacml.degraded");
+	private static volatile IntSupplier queueDepthSupplier = null;
+
+	private static volatile long lastSample = 0;
+	private static volatile boolean overloaded = false;
+	private static volatile boolean active = false;
+
+	private static final LongAdder approximateEvaluations = new LongAdder();
+	private static final LongAdder exactEvaluations = new LongAdder();
+
+	private LoadShedding()
+	{
+	}
+
+	/**
+	 * Switches the degraded mode on or off explicitly
+	 */
+	public static void setForced(final boolean on)
+	{
+		forced = on;
+	}
+
+	/**
+	 * Sets the simplification tolerance (initially <code>geoxacml.degraded.tolerance</code>); 0 switches the degraded mode off
+	 */
+	public static void setTolerance(final double t)
+	{
+		if (!(t >= 0.0))
+			throw new IllegalArgumentException("Invalid degraded mode tolerance: " + t);
+		tolerance = t;
+	}
+
+	/**
+	 * Registers the host's view on the number of queued decision requests
+	 */
+	public static void setQueueDepthSupplier(final IntSupplier supplier)
+	{
+		queueDepthSupplier = supplier;
+	}
+
+	/**
+	 * @return number of predicate evaluations made on simplified geometries
+	 */
+	public static long getApproximateEvaluations()
+	{
+		return approximateEvaluations.sum();
+	}
+
+	/**
+	 * @return number of predicate evaluations made on the original geometries
+	 */
+	public static long getExactEvaluations()
+	{
+		return exactEvaluations.sum();
+	}
+
+	/**
+	 * Tests whether the degraded mode is in effect. A call reads the mode once and passes it on, so all geometries of one evaluation are
+	 * treated alike.
+	 */
+	static boolean isActive()
+	{
+		final double t = tolerance;
+		if (t <= 0.0)
+			return false;
+
+		final boolean now = forced || isOverloaded();
+		if (now != active)
+		{
+			active = now;
+			LOGGER.warn("Degraded spatial evaluation mode {} (tolerance {})", now ? "entered" : "left", t);
+		}
+		return now;
+	}
+
+	/**
+	 * Counts one predicate evaluation
+	 *
+	 * @param approximate
+	 *            <code>true</code> if the evaluation was made on simplified geometries
+	 */
+	static void count(final boolean approximate)
+	{
+		if (approximate)
+			approximateEvaluations.increment();
+		else
+			exactEvaluations.increment();
+	}
+
+	/**
+	 * Returns the geometry to use in degraded mode
+	 */
+	static GeometryValue approximate(final GeometryValue gv)
+	{
+		return gv.getSimplified(tolerance);
+	}
+
+	private static boolean isOverloaded()
+	{
+		final long t = System.nanoTime();
+		if (t - lastSample < SAMPLE_INTERVAL_NANOS)
+			return overloaded;
+
+		lastSample = t;
+		boolean o = false;
+		if (CPU_LOAD_THRESHOLD > 0.0)
+		{
+			final double load = OS.getSystemLoadAverage();
+			o = load >= 0.0 && (load / OS.getAvailableProcessors()) >= CPU_LOAD_THRESHOLD;
+		}
+		final IntSupplier qds = queueDepthSupplier;
+		if (!o && QUEUE_DEPTH_THRESHOLD > 0 && qds != null)
+			o = qds.getAsInt() >= QUEUE_DEPTH_THRESHOLD;
+
+		overloaded = o;
+		return o;
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Location of a single point in a point, line string or polygon, reading the coordinate sequences directly without allocating.
+ * <p>
+ * A single point has no boundary and an interior of dimension 0, so every topological predicate with a point follows from the location
+ * of the point in the other geometry. The location is only computed where it is certain: a point closer to a segment than the floating
+ * point error of the orientation test is reported as {@link #UNKNOWN} and left to the exact algorithms of JTS.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+final class PointPredicates
+{
+	/**
+	 * Returned by {@link #locate(GeometryValue, GeometryValue)} if the location is not certain or the geometry type is not supported
+	 */
+	static final int UNKNOWN = -1;
+
+	/**
+	 * Relative error bound of the orientation determinant computed in double precision
+	 */
+	private static final double ORIENTATION_ERROR = 1.0E-12;
+
+	private static final int OFF = 0;
+	private static final int ON = 1;
+
+	private PointPredicates()
+	{
+	}
+
+	/**
+	 * Locates the point of <code>p</code> in the geometry of <code>g</code>
+	 *
+	 * @param p
+	 *            a single point (see {@link GeometryValue#isPoint()})
+	 * @return {@link Location#INTERIOR}, {@link Location#BOUNDARY}, {@link Location#EXTERIOR} or {@link #UNKNOWN}
+	 */
+	static int locate(final GeometryValue p, final GeometryValue g)
+	{
+		final double x = p.getPointX();
+		final double y = p.getPointY();
+		final Geometry geometry = g.getUnderlyingValue();
+		if (geometry.isEmpty() || Double.isNaN(x))
+			return UNKNOWN;
+
+		if (g.isPoint())
+			return (x == g.getPointX() && y == g.getPointY()) ? Location.INTERIOR : Location.EXTERIOR;
+
+		if (!geometry.getEnvelopeInternal().intersects(x, y))
+			return Location.EXTERIOR;
+
+		if (geometry instanceof LineString)
+			return locateInLine(x, y, ((LineString) geometry).getCoordinateSequence());
+
+		if (geometry instanceof Polygon)
+			return locateInPolygon(x, y, (Polygon) geometry);
+
+		return UNKNOWN;
+	}
+
+	/**
+	 * @return <code>true</code> if the geometry is a point, line string or polygon, so {@link #locate(GeometryValue, GeometryValue)}
+	 *         may decide the predicates
+	 */
+	static boolean isSupported(final GeometryValue g)
+	{
+		final Geometry geometry = g.getUnderlyingValue();
+		return geometry instanceof Point || geometry instanceof LineString || geometry instanceof Polygon;
+	}
+
+	private static int locateInLine(final double x, final double y, final CoordinateSequence seq)
+	{
+		final int n = seq.size();
+		if (n < 2)
+			return UNKNOWN;
+
+		// the end points of an open line string are its boundary
+		final boolean closed = seq.getX(0) == seq.getX(n - 1) && seq.getY(0) == seq.getY(n - 1);
+		if (!closed && ((x == seq.getX(0) && y == seq.getY(0)) || (x == seq.getX(n - 1) && y == seq.getY(n - 1))))
+			return Location.BOUNDARY;
+
+		boolean unknown = false;
+		for (int i = 1; i < n; i++)
+		{
+			final int s = onSegment(x, y, seq.getX(i - 1), seq.getY(i - 1), seq.getX(i), seq.getY(i));
+			if (s == ON)
+				return Location.INTERIOR;
+			if (s == UNKNOWN)
+				unknown = true;
+		}
+		return unknown ? UNKNOWN : Location.EXTERIOR;
+	}
+
+	private static int locateInPolygon(final double x, final double y, final Polygon polygon)
+	{
+		final int shell = locateInRing(x, y, polygon.getExteriorRing().getCoordinateSequence());
+		if (shell != Location.INTERIOR)
+			return shell;
+
+		for (int i = 0; i < polygon.getNumInteriorRing(); i++)
+		{
+			final int hole = locateInRing(x, y, polygon.getInteriorRingN(i).getCoordinateSequence());
+			if (hole == Location.BOUNDARY || hole == UNKNOWN)
+				return hole;
+			if (hole == Location.INTERIOR)
+				return Location.EXTERIOR;
+		}
+		return Location.INTERIOR;
+	}
+
+	/**
+	 * Locates a point in a ring by counting the crossings of the ray to its right with the segments (half-open in y)
+	 */
+	private static int locateInRing(final double x, final double y, final CoordinateSequence seq)
+	{
+		final int n = seq.size();
+		if (n < 4)
+			return UNKNOWN;
+
+		int crossings = 0;
+		for (int i = 1; i < n; i++)
+		{
+			final double x1 = seq.getX(i - 1);
+			final double y1 = seq.getY(i - 1);
+			final double x2 = seq.getX(i);
+			final double y2 = seq.getY(i);
+
+			final int s = onSegment(x, y, x1, y1, x2, y2);
+			if (s == ON)
+				return Location.BOUNDARY;
+			if (s == UNKNOWN)
+				return UNKNOWN;
+
+			// the sign of the determinant is certain here
+			if (y1 <= y && y2 > y && det(x, y, x1, y1, x2, y2) > 0.0)
+				crossings++;
+			else if (y2 <= y && y1 > y && det(x, y, x1, y1, x2, y2) < 0.0)
+				crossings++;
+		}
+		return ((crossings & 1) == 1) ? Location.INTERIOR : Location.EXTERIOR;
+	}
+
+	/**
+	 * Orientation of the point relative to the segment: positive if left, negative if right, 0 if collinear
+	 */
+	private static double det(final double x, final double y, final double x1, final double y1, final double x2, final double y2)
+	{
+		return (x2 - x1) * (y - y1) - (x - x1) * (y2 - y1);
+	}
+
+	/**
+	 * Tests whether the point is on the segment
+	 *
+	 * @return {@link #ON}, {@link #OFF} or {@link #UNKNOWN} if the point is too close to the segment (or its extension through the y
+	 *         range of the segment) for the sign of the determinant to be certain
+	 */
+	private static int onSegment(final double x, final double y, final double x1, final double y1, final double x2, final double y2)
+	{
+		if ((x == x1 && y == y1) || (x == x2 && y == y2))
+			return ON;
+
+		final boolean inYRange = y >= Math.min(y1, y2) && y <= Math.max(y1, y2);
+		final boolean inBox = inYRange && x >= Math.min(x1, x2) && x <= Math.max(x1, x2);
+
+		final double det = det(x, y, x1, y1, x2, y2);
+		// for axis-parallel segments one product is zero and the sign of the other one is exact
+		final double error = (x1 == x2 || y1 == y2) ? 0.0 : ORIENTATION_ERROR * (Math.abs((x2 - x1) * (y - y1)) + Math.abs((x - x1) * (y2 - y1)));
+
+		if (det == 0.0 && error == 0.0)
+			return inBox ? ON : OFF;
+		if (Math.abs(det) <= error && inYRange)
+			return UNKNOWN;
+		return OFF;
+	}
+}
@@ -0,0 +1,340 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Lineal;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.Puntal;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Dispatch of the topological functions by the kinds of both geometries.
+ * <p>
+ * Each function has a table with one route per pair of geometry kinds (see {@link Kind}). A route is the cheapest correct algorithm
+ * for the pair: a constant where the dimensions of the geometries decide the result (e.g. a polygon never crosses a polygon), a
+ * comparison of coordinates for two points or of envelopes for two rectangles, the point locators (see
+ * {@link GeometryPredicates#locatePoint(GeometryValue, GeometryValue)}) for a point, and the general cascade of
+ * {@link GeometryPredicates} for all other pairs. In degraded mode (see {@link LoadShedding}) all pairs of the functions evaluated
+ * approximately, <code>geometry-within</code>, <code>geometry-contains</code>, <code>geometry-intersects</code> and
+ * <code>geometry-disjoint</code>, take the general route on the simplified geometries; the other functions keep their routes.
+ * <p>
+ * Every route counts its hits; {@link #getRouteHits()} returns the counts of the routes taken so far.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class PredicateDispatch
+{
+	/**
+	 * Kind of a geometry as far as it selects the algorithm
+	 */
+	enum Kind
+	{
+		EMPTY, POINT, MULTI_POINT, LINEAR, RECTANGLE, POLYGONAL, COLLECTION;
+
+		static Kind of(final GeometryValue gv)
+		{
+			final Geometry g = gv.getUnderlyingValue();
+			if (g.isEmpty())
+				return EMPTY;
+			if (gv.isPoint())
+				return POINT;
+			if (gv.isRectangle())
+				return RECTANGLE;
+			if (g instanceof Polygonal)
+				return POLYGONAL;
+			if (g instanceof Lineal)
+				return LINEAR;
+			if (g instanceof Puntal)
+				return MULTI_POINT;
+			return COLLECTION;
+		}
+	}
+
+	/**
+	 * Predicate on two geometries with the same SRID
+	 */
+	interface Route
+	{
+		boolean test(GeometryValue a, GeometryValue b, RequestMemo memo);
+	}
+
+	private static final int KINDS = Kind.values().length;
+
+	private static final Kind[] ANY = Kind.values();
+	private static final Kind[] AREAL = { Kind.RECTANGLE, Kind.POLYGONAL };
+	private static final Kind[] NON_POINT = { Kind.LINEAR, Kind.RECTANGLE, Kind.POLYGONAL };
+
+	private static final Route FALSE = (a, b, memo) -> false;
+
+	private static final String GENERIC = "generic";
+
+	private final String functionId;
+	private final Route generic;
+	private final Route[] routes = new Route[KINDS * KINDS];
+	private final String[] routeNames = new String[KINDS * KINDS];
+	private final LongAdder[] hits = new LongAdder[KINDS * KINDS];
+	private final LongAdder degradedHits = new LongAdder();
+
+	/**
+	 * Whether the function is evaluated on simplified geometries in degraded mode
+	 */
+	private boolean approximated = false;
+
+	private PredicateDispatch(final String functionId, final Route generic)
+	{
+		this.functionId = functionId;
+		this.generic = generic;
+		for (int i = 0; i < routes.length; i++)
+		{
+			routes[i] = generic;
+			routeNames[i] = GENERIC;
+			hits[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Evaluates the function on simplified geometries in degraded mode
+	 */
+	private PredicateDispatch approximated()
+	{
+		this.approximated = true;
+		return this;
+	}
+
+	/**
+	 * Sets the route for all pairs of the given kinds
+	 */
+	private PredicateDispatch route(final String name, final Kind[] kinds1, final Kind[] kinds2, final Route route)
+	{
+		for (final Kind k1 : kinds1)
+		{
+			for (final Kind k2 : kinds2)
+			{
+				routes[k1.ordinal() * KINDS + k2.ordinal()] = route;
+				routeNames[k1.ordinal() * KINDS + k2.ordinal()] = name;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the route for all pairs of the given kinds, and the route with the arguments swapped for the reverse pairs
+	 */
+	private PredicateDispatch symmetric(final String name, final Kind[] kinds1, final Kind[] kinds2, final Route route)
+	{
+		route(name, kinds2, kinds1, (a, b, memo) -> route.test(b, a, memo));
+		return route(name, kinds1, kinds2, route);
+	}
+
+	/**
+	 * @return the table of the converse predicate <code>p(b, a)</code>, with the routes of this table
+	 */
+	private PredicateDispatch converse(final String id, final Route generic)
+	{
+		final PredicateDispatch table = new PredicateDispatch(id, generic);
+		table.approximated = approximated;
+		for (final Kind k1 : ANY)
+		{
+			for (final Kind k2 : ANY)
+			{
+				final int i = k1.ordinal() * KINDS + k2.ordinal();
+				final Route route = routes[k2.ordinal() * KINDS + k1.ordinal()];
+				table.routes[i] = (a, b, memo) -> route.test(b, a, memo);
+				table.routeNames[i] = routeNames[k2.ordinal() * KINDS + k1.ordinal()];
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * @return the table of the negated predicate, with the routes of this table
+	 */
+	private PredicateDispatch negate(final String id, final Route generic)
+	{
+		final PredicateDispatch table = new PredicateDispatch(id, generic);
+		table.approximated = approximated;
+		for (int i = 0; i < routes.length; i++)
+		{
+			final Route route = routes[i];
+			table.routes[i] = (a, b, memo) -> !route.test(a, b, memo);
+			table.routeNames[i] = routeNames[i];
+		}
+		return table;
+	}
+
+	/**
+	 * Evaluates the predicate on the route of the pair, or on the general route with the simplified geometries if the function is
+	 * evaluated approximately in degraded mode
+	 *
+	 * @param degraded
+	 *            the mode read by the caller (see {@link LoadShedding#isActive()})
+	 */
+	boolean test(final GeometryValue a, final GeometryValue b, final RequestMemo memo, final boolean degraded)
+	{
+		if (degraded && approximated)
+		{
+			degradedHits.increment();
+			LoadShedding.count(true);
+			return generic.test(LoadShedding.approximate(a), LoadShedding.approximate(b), memo);
+		}
+
+		LoadShedding.count(false);
+		final int i = Kind.of(a).ordinal() * KINDS + Kind.of(b).ordinal();
+		hits[i].increment();
+		return routes[i].test(a, b, memo);
+	}
+
+	private static boolean samePoint(final GeometryValue a, final GeometryValue b)
+	{
+		return a.getPointX() == b.getPointX() && a.getPointY() == b.getPointY();
+	}
+
+	/**
+	 * Test of the location of a point
+	 */
+	private interface LocationTest
+	{
+		boolean test(int location);
+	}
+
+	/**
+	 * Locates the point <code>p</code> in <code>g</code> and tests the location, or evaluates the fallback if the location is not certain
+	 */
+	private static boolean located(final GeometryValue p, final GeometryValue g, final LocationTest test, final Route fallback, final RequestMemo memo)
+	{
+		if (!p.getUnderlyingValue().getEnvelopeInternal().intersects(g.getUnderlyingValue().getEnvelopeInternal()))
+			return test.test(Location.EXTERIOR);
+
+		final int location = GeometryPredicates.locatePoint(p, g);
+		return (location == GeometryPredicates.UNKNOWN) ? fallback.test(p, g, memo) : test.test(location);
+	}
+
+	static final PredicateDispatch INTERSECTS = new PredicateDispatch(TopologicalFunctions.Intersects.ID, (a, b, memo) -> GeometryPredicates.intersects(a, b))
+			.route("empty", new Kind[] { Kind.EMPTY }, ANY, FALSE)
+			.route("empty", ANY, new Kind[] { Kind.EMPTY }, FALSE)
+			.route("point-point", new Kind[] { Kind.POINT }, new Kind[] { Kind.POINT }, (a, b, memo) -> samePoint(a, b))
+			.symmetric("point-locator", new Kind[] { Kind.POINT }, NON_POINT,
+					(a, b, memo) -> located(a, b, l -> l != Location.EXTERIOR, (p, g, m) -> GeometryPredicates.intersects(p, g), memo))
+			.route("envelope", new Kind[] { Kind.RECTANGLE }, new Kind[] { Kind.RECTANGLE },
+					(a, b, memo) -> a.getUnderlyingValue().getEnvelopeInternal().intersects(b.getUnderlyingValue().getEnvelopeInternal()))
+			.symmetric("prepared-area", new Kind[] { Kind.LINEAR }, new Kind[] { Kind.POLYGONAL },
+					(a, b, memo) -> a.getUnderlyingValue().getEnvelopeInternal().intersects(b.getUnderlyingValue().getEnvelopeInternal())
+							&& b.getPreparedGeometry().intersects(a.getUnderlyingValue()))
+			.approximated();
+
+	static final PredicateDispatch DISJOINT = INTERSECTS.negate(TopologicalFunctions.Disjoint.ID, (a, b, memo) -> GeometryPredicates.disjoint(a, b));
+
+	static final PredicateDispatch WITHIN = new PredicateDispatch(TopologicalFunctions.Within.ID, GeometryPredicates::within)
+			.route("empty", new Kind[] { Kind.EMPTY }, ANY, FALSE)
+			.route("empty", ANY, new Kind[] { Kind.EMPTY }, FALSE)
+			.route("point-point", new Kind[] { Kind.POINT }, new Kind[] { Kind.POINT }, (a, b, memo) -> samePoint(a, b))
+			.route("point-locator", new Kind[] { Kind.POINT }, NON_POINT,
+					(a, b, memo) -> located(a, b, l -> l == Location.INTERIOR, GeometryPredicates::within, memo))
+			// a geometry of higher dimension is never within one of lower dimension
+			.route("dimension", NON_POINT, new Kind[] { Kind.POINT, Kind.MULTI_POINT }, FALSE)
+			.route("dimension", AREAL, new Kind[] { Kind.LINEAR }, FALSE)
+			.approximated();
+
+	static final PredicateDispatch CONTAINS = WITHIN.converse(TopologicalFunctions.Contains.ID, GeometryPredicates::contains);
+
+	static final PredicateDispatch EQUALS = new PredicateDispatch(TopologicalFunctions.Equals.ID, GeometryPredicates::equals)
+			.route("empty", new Kind[] { Kind.EMPTY }, ANY, FALSE)
+			.route("empty", ANY, new Kind[] { Kind.EMPTY }, FALSE)
+			.route("point-point", new Kind[] { Kind.POINT }, new Kind[] { Kind.POINT }, (a, b, memo) -> samePoint(a, b))
+			// geometries of different dimension are never equal
+			.symmetric("dimension", new Kind[] { Kind.POINT, Kind.MULTI_POINT }, NON_POINT, FALSE)
+			.symmetric("dimension", new Kind[] { Kind.LINEAR }, AREAL, FALSE)
+			.route("envelope", new Kind[] { Kind.RECTANGLE }, new Kind[] { Kind.RECTANGLE },
+					(a, b, memo) -> a.getUnderlyingValue().getEnvelopeInternal().equals(b.getUnderlyingValue().getEnvelopeInternal()));
+
+	static final PredicateDispatch TOUCHES = new PredicateDispatch(TopologicalFunctions.Touches.ID, GeometryPredicates::touches)
+			.route("empty", new Kind[] { Kind.EMPTY }, ANY, FALSE)
+			.route("empty", ANY, new Kind[] { Kind.EMPTY }, FALSE)
+			// points have no boundary
+			.route("point-point", new Kind[] { Kind.POINT }, new Kind[] { Kind.POINT }, FALSE)
+			.symmetric("point-locator", new Kind[] { Kind.POINT }, NON_POINT,
+					(a, b, memo) -> located(a, b, l -> l == Location.BOUNDARY, GeometryPredicates::touches, memo))
+			.route("envelope", new Kind[] { Kind.RECTANGLE }, new Kind[] { Kind.RECTANGLE }, GeometryPredicates::touches);
+
+	static final PredicateDispatch CROSSES = new PredicateDispatch(TopologicalFunctions.Crosses.ID, GeometryPredicates::crosses)
+			.route("empty", new Kind[] { Kind.EMPTY }, ANY, FALSE)
+			.route("empty", ANY, new Kind[] { Kind.EMPTY }, FALSE)
+			// a single point never crosses, nor do two areas
+			.symmetric("dimension", new Kind[] { Kind.POINT }, ANY, FALSE)
+			.route("dimension", AREAL, AREAL, FALSE);
+
+	static final PredicateDispatch OVERLAPS = new PredicateDispatch(TopologicalFunctions.Overlaps.ID, GeometryPredicates::overlaps)
+			.route("empty", new Kind[] { Kind.EMPTY }, ANY, FALSE)
+			.route("empty", ANY, new Kind[] { Kind.EMPTY }, FALSE)
+			// a single point never overlaps, nor do geometries of different dimension
+			.symmetric("dimension", new Kind[] { Kind.POINT }, ANY, FALSE)
+			.symmetric("dimension", new Kind[] { Kind.MULTI_POINT }, NON_POINT, FALSE)
+			.symmetric("dimension", new Kind[] { Kind.LINEAR }, AREAL, FALSE)
+			.route("envelope", new Kind[] { Kind.RECTANGLE }, new Kind[] { Kind.RECTANGLE }, GeometryPredicates::overlaps);
+
+	private static final PredicateDispatch[] TABLES = { EQUALS, DISJOINT, TOUCHES, CROSSES, WITHIN, CONTAINS, OVERLAPS, INTERSECTS };
+
+	/**
+	 * Returns the number of evaluations per route taken so far, keyed by
+	 * <code>&lt;function ID&gt;(&lt;kind&gt;,&lt;kind&gt;):&lt;route&gt;</code>; evaluations on simplified geometries are counted as
+	 * <code>&lt;function ID&gt;:degraded</code>
+	 */
+	public static Map<String, Long> getRouteHits()
+	{
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (final PredicateDispatch table : TABLES)
+		{
+			for (final Kind k1 : ANY)
+			{
+				for (final Kind k2 : ANY)
+				{
+					final int i = k1.ordinal() * KINDS + k2.ordinal();
+					final long n = table.hits[i].sum();
+					if (n > 0)
+						result.put(table.functionId + "(" + k1 + "," + k2 + "):" + table.routeNames[i], Long.valueOf(n));
+				}
+			}
+			final long n = table.degradedHits.sum();
+			if (n > 0)
+				result.put(table.functionId + ":degraded", Long.valueOf(n));
+		}
+		return result;
+	}
+
+	/**
+	 * Resets all route counters
+	 */
+	public static void resetRouteHits()
+	{
+		for (final PredicateDispatch table : TABLES)
+		{
+			for (final LongAdder adder : table.hits)
+				adder.reset();
+			table.degradedHits.reset();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import org.locationtech.jts.geom.Geometry;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.securedimensions.geoxacml.crs.CrsTransform;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Reprojection of geometries for predicates on geometries with different SRID (see {@link CrsTransform}).
+ * <p>
+ * Reprojection is disabled unless <code>geoxacml.crs.transform</code> is <code>true</code>: it changes the result of predicates on
+ * geometries with different SRID, which are otherwise <code>false</code>. Reprojected geometries are kept in a cache
+ * bounded by <code>geoxacml.crs.cacheSize</code> entries (default 1024), so a policy geometry is reprojected once per target CRS and its
+ * derived structures (e.g. the prepared geometry) are reused.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+final class Reprojection
+{
+	static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("geoxacml.crs.transform", "false"));
+
+	private static final long CACHE_SIZE = Long.getLong("geoxacml.crs.cacheSize", 1024);
+
+	private static final Cache<Key, GeometryValue> CACHE = (ENABLED && CACHE_SIZE > 0) ? Caffeine.newBuilder().maximumSize(CACHE_SIZE).build() : null;
+
+	private static final class Key
+	{
+		private final GeometryValue geometry;
+		private final int targetSrid;
+
+		private Key(final GeometryValue geometry, final int targetSrid)
+		{
+			this.geometry = geometry;
+			this.targetSrid = targetSrid;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Long.hashCode(geometry.getFingerprint()) * 31 + targetSrid;
+		}
+
+		@Override
+		public boolean equals(final Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+
+			final Key other = (Key) obj;
+			return targetSrid == other.targetSrid && (geometry == other.geometry
+					|| (geometry.getUnderlyingValue().getSRID() == other.geometry.getUnderlyingValue().getSRID() && geometry.equals(other.geometry)));
+		}
+	}
+
+	private Reprojection()
+	{
+	}
+
+	/**
+	 * Reprojects the geometry to the CRS with the target SRID
+	 *
+	 * @return the reprojected geometry or <code>null</code> if reprojection is disabled or not supported between the CRSs
+	 */
+	static GeometryValue reproject(final GeometryValue gv, final int targetSrid)
+	{
+		if (!ENABLED || gv.getUnderlyingValue().isEmpty())
+			return null;
+
+		final Key key = new Key(gv, targetSrid);
+		GeometryValue reprojected = (CACHE == null) ? null : CACHE.getIfPresent(key);
+		if (reprojected == null)
+		{
+			final Geometry g = CrsTransform.transform(gv.getUnderlyingValue(), targetSrid);
+			if (g == null)
+				return null;
+
+			reprojected = new GeometryValue(g);
+			if (CACHE != null)
+				CACHE.put(key, reprojected);
+		}
+		return reprojected;
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.locationtech.jts.geom.IntersectionMatrix;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Memo table of geometry predicate results for one individual decision request.
+ * <p>
+ * The table is kept in the {@link EvaluationContext} of the decision and therefore discarded with it. Entries are keyed by
+ * function identifier and the identity of both operands: attribute values of the request are shared by all expressions that refer to
+ * them, so rules testing the same subject location against the same zone find the result of the first evaluation.
+ * <p>
+ * The table also keeps the DE-9IM intersection matrix of each pair it has been computed for, so one relate computation answers all
+ * predicates derived from the matrix.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class RequestMemo
+{
+	private static final String CONTEXT_KEY = RequestMemo.class.getName();
+
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+
+	private static final class Key
+	{
+		private final String functionId;
+		private final GeometryValue g1;
+		private final GeometryValue g2;
+
+		private Key(final String functionId, final GeometryValue g1, final GeometryValue g2)
+		{
+			this.functionId = functionId;
+			this.g1 = g1;
+			this.g2 = g2;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (functionId.hashCode() * 31 + System.identityHashCode(g1)) * 31 + System.identityHashCode(g2);
+		}
+
+		@Override
+		public boolean equals(final Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+
+			final Key other = (Key) obj;
+			return g1 == other.g1 && g2 == other.g2 && functionId.equals(other.functionId);
+		}
+	}
+
+	/**
+	 * Function identifier used to key intersection matrices
+	 */
+	private static final String RELATE = "relate";
+
+	private final Map<Key, Boolean> results = new HashMap<Key, Boolean>();
+	private final Map<Key, IntersectionMatrix> matrices = new HashMap<Key, IntersectionMatrix>();
+
+	private RequestMemo()
+	{
+	}
+
+	/**
+	 * Returns the memo table of the decision, creating it on first use
+	 */
+	static RequestMemo get(final EvaluationContext context)
+	{
+		RequestMemo memo = (RequestMemo) context.getOther(CONTEXT_KEY);
+		if (memo == null)
+		{
+			memo = new RequestMemo();
+			context.putOther(CONTEXT_KEY, memo);
+		}
+		return memo;
+	}
+
+	/**
+	 * @return the memoized result or <code>null</code> if the predicate has not been evaluated on the operands
+	 */
+	Boolean lookup(final String functionId, final GeometryValue g1, final GeometryValue g2)
+	{
+		final Boolean result = results.get(new Key(functionId, g1, g2));
+		if (result == null)
+			misses.increment();
+		else
+			hits.increment();
+		return result;
+	}
+
+	void put(final String functionId, final GeometryValue g1, final GeometryValue g2, final boolean result)
+	{
+		results.put(new Key(functionId, g1, g2), Boolean.valueOf(result));
+	}
+
+	/**
+	 * Returns the DE-9IM intersection matrix of the pair if it has been computed in this decision, for either order of the operands
+	 * 
+	 * @return the matrix or <code>null</code>
+	 */
+	IntersectionMatrix getIntersectionMatrix(final GeometryValue g1, final GeometryValue g2)
+	{
+		final IntersectionMatrix im = matrices.get(new Key(RELATE, g1, g2));
+		if (im != null)
+			return im;
+
+		final IntersectionMatrix transposed = matrices.get(new Key(RELATE, g2, g1));
+		if (transposed != null)
+		{
+			final IntersectionMatrix t = new IntersectionMatrix(transposed).transpose();
+			matrices.put(new Key(RELATE, g1, g2), t);
+			return t;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the DE-9IM intersection matrix of the pair, computing it on first use in this decision
+	 */
+	IntersectionMatrix relate(final GeometryValue g1, final GeometryValue g2)
+	{
+		IntersectionMatrix im = getIntersectionMatrix(g1, g2);
+		if (im == null)
+		{
+			im = g1.getUnderlyingValue().relate(g2.getUnderlyingValue());
+			matrices.put(new Key(RELATE, g1, g2), im);
+		}
+		return im;
+	}
+
+	/**
+	 * @return number of lookups answered from a memo table, over all decisions
+	 */
+	public static long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return number of lookups not answered from a memo table, over all decisions
+	 */
+	public static long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return fraction of lookups answered from a memo table, over all decisions
+	 */
+	public static double getHitRate()
+	{
+		final long h = hits.sum();
+		final long total = h + misses.sum();
+		return (total == 0) ? 0.0 : (double) h / total;
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.function;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.SingleParameterTypedFirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Spatial join of two bags of geometries.
+ * <p>
+ * <code>geometry-bag-any-intersects-any(A, B)</code> is the same as <code>any-of-any(geometry-intersects, A, B)</code> and
+ * <code>geometry-bag-any-within-any(A, B)</code> the same as <code>any-of-any(geometry-within, A, B)</code>.
+ * <p>
+ * The larger bag, or a bag given as constant in the policy, is indexed (see {@link GeometryBagIndex}) and probed with the envelopes of
+ * the geometries of the other bag, so only pairs with intersecting envelopes are tested. Two bags evaluated per decision are only indexed
+ * if the smaller bag has enough geometries to pay for the index, otherwise the larger bag is scanned. A probe with another SRID than
+ * geometries of the indexed bag is reprojected to their CRS. The join stops at the first pair satisfying the
+ * predicate. The prepared form of each geometry is kept with the geometry, so a geometry of the indexed side is prepared only once
+ * however many probes it is a candidate of.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class SpatialJoinFunctions {
+
+	private interface Predicate
+	{
+		boolean test(GeometryValue a, GeometryValue b, boolean degraded);
+	}
+
+	/**
+	 * Tests whether the predicate holds for any pair of geometries (a, b) with a from <code>probes</code> and b from <code>indexed</code>,
+	 * or the reverse if <code>swapped</code>
+	 */
+	private static boolean join(final List<GeometryValue> probes, final GeometryBagIndex indexed, final boolean swapped, final Predicate predicate, final boolean degraded)
+	{
+		for (final GeometryValue probe : probes)
+		{
+			final Geometry g = probe.getUnderlyingValue();
+			if (g.isEmpty())
+				continue;
+
+			for (final int srid : indexed.getSrids())
+			{
+				final GeometryValue p = GeometryBagIndex.probe(probe, srid);
+				if (p == null)
+					continue;
+
+				for (final GeometryValue candidate : indexed.query(p.getUnderlyingValue().getEnvelopeInternal()))
+				{
+					if (candidate.getUnderlyingValue().getSRID() != srid)
+						continue;
+
+					if (swapped ? predicate.test(candidate, p, degraded) : predicate.test(p, candidate, degraded))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static abstract class JoinFunction extends SingleParameterTypedFirstOrderFunction<BooleanValue, Bag<GeometryValue>>
+	{
+		private final String id;
+		private final Predicate predicate;
+
+		private JoinFunction(final String id, final Predicate predicate)
+		{
+			super(id, StandardDatatypes.BOOLEAN, false, Arrays.asList(GeometryValue.DATATYPE.getBagDatatype(), GeometryValue.DATATYPE.getBagDatatype()));
+			this.id = id;
+			this.predicate = predicate;
+		}
+
+		@Override
+		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
+		{
+			final GeometryBagIndex constantA = GeometryBagIndex.precompute(id, 0, argExpressions);
+			final GeometryBagIndex constantB = (constantA == null) ? GeometryBagIndex.precompute(id, 1, argExpressions) : null;
+
+			return new GeometryBagCall(id, functionSignature, argExpressions, remainingArgTypes)
+			{
+
+				@Override
+				protected boolean evaluate(final List<GeometryValue> bagA, final List<GeometryValue> bagB)
+				{
+					if (bagA.isEmpty() || bagB.isEmpty())
+						return false;
+
+					final boolean degraded = LoadShedding.isActive();
+
+					if (constantA != null)
+						return join(bagB, constantA, true, predicate, degraded);
+					if (constantB != null)
+						return join(bagA, constantB, false, predicate, degraded);
+
+					if (bagA.size() > bagB.size())
+						return join(bagB, GeometryBagIndex.forProbes(bagA, bagB.size()), true, predicate, degraded);
+					return join(bagA, GeometryBagIndex.forProbes(bagB, bagA.size()), false, predicate, degraded);
+				}
+
+			};
+		}
+	}
+
+	public final static class AnyIntersectsAny extends JoinFunction
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:geometry-bag-any-intersects-any";
+
+		public AnyIntersectsAny()
+		{
+			super(ID, GeometryPredicates::intersects);
+		}
+	}
+
+	public final static class AnyWithinAny extends JoinFunction
+	{
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:geometry-bag-any-within-any";
+
+		public AnyWithinAny()
+		{
+			super(ID, GeometryPredicates::within);
+		}
+	}
+
+}
@@ -19,18 +19,21 @@
 package de.securedimensions.geoxacml.function;
 
 import java.util.Arrays;
-import java.util.Deque;
 import java.util.List;
 
-import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
 import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
 import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall;
 import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.func.MultiParameterTypedFirstOrderFunction;
 import org.ow2.authzforce.core.pdp.api.func.SingleParameterTypedFirstOrderFunction;
-import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall.EagerSinglePrimitiveTypeEval;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
 import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
 import org.ow2.authzforce.core.pdp.api.value.Datatype;
 import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+import org.ow2.authzforce.core.pdp.api.value.Value;
 import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
 
 import org.slf4j.Logger;
@@ -51,282 +54,202 @@ public final class TopologicalFunctions {
 	/**
 	 * <p>
 	 * Used here as AuthzForce function extension mechanism as plugging a topological test functions into the PDP engine.
+	 * <p>
+	 * All topological functions share one evaluation path, a {@link GeometryPredicateCall}: the arguments are evaluated one after
+	 * the other without collecting them, a NULL or EMPTY first argument decides the result without evaluating the second, SRID
+	 * mismatches are decided before any geometry work and results are memoized per decision request. The predicate is evaluated on the
+	 * route for the kinds of both geometries (see {@link PredicateDispatch}).
 	 */
-	
-	public final static class Equals extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+	private static abstract class TopologicalFunction extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
 	{
-		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-equals";
-
-		public Equals()
+		private final String id;
+		private final boolean emptyResult;
+		private final PredicateDispatch dispatch;
+
+		/**
+		 * @param emptyResult
+		 *            result if one or both geometries are NULL or EMPTY
+		 */
+		private TopologicalFunction(final String id, final boolean emptyResult, final PredicateDispatch dispatch)
 		{
-			super(ID, StandardDatatypes.BOOLEAN, true, Arrays.asList(GeometryValue.DATATYPE));
+			super(id, StandardDatatypes.BOOLEAN, false, Arrays.asList(GeometryValue.DATATYPE, GeometryValue.DATATYPE));
+			this.id = id;
+			this.emptyResult = emptyResult;
+			this.dispatch = dispatch;
 		}
 
 		@Override
 		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
 		{
 
-			return new EagerSinglePrimitiveTypeEval<BooleanValue, GeometryValue>(functionSignature, argExpressions, remainingArgTypes)
+			return new GeometryPredicateCall(id, functionSignature, Boolean.valueOf(emptyResult), argExpressions, remainingArgTypes)
 			{
 
 				@Override
-				protected BooleanValue evaluate(final Deque<GeometryValue> args) throws IndeterminateEvaluationException
+				protected boolean evaluate(final GeometryValue gv1, final GeometryValue gv2, final RequestMemo memo, final boolean degraded)
 				{
-					if (args.size() != 2)
-						throw new IndeterminateEvaluationException("Funtcion " + ID + " requires exactly two arguments but given " + args.size(), XacmlStatusCode.PROCESSING_ERROR.name());
-										
-					final Geometry g1 = args.poll().getUnderlyingValue();
-					final Geometry g2 = args.poll().getUnderlyingValue();
-					
-					if (g1.getSRID() != g2.getSRID())
-						return BooleanValue.FALSE;
-					
-					return new BooleanValue(g1.equals(g2));
+					return dispatch.test(gv1, gv2, memo, degraded);
 				}
 
 			};
 		}
 	}
 
-	public final static class Disjoint extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+	public final static class Equals extends TopologicalFunction
 	{
-		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-disjoint";
+		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-equals";
 
-		public Disjoint()
+		public Equals()
 		{
-			super(ID, StandardDatatypes.BOOLEAN, true, Arrays.asList(GeometryValue.DATATYPE));
+			super(ID, false, PredicateDispatch.EQUALS);
 		}
+	}
 
-		@Override
-		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
-		{
-
-			return new EagerSinglePrimitiveTypeEval<BooleanValue, GeometryValue>(functionSignature, argExpressions, remainingArgTypes)
-			{
-
-				@Override
-				protected BooleanValue evaluate(final Deque<GeometryValue> args) throws IndeterminateEvaluationException
-				{
-					if (args.size() != 2)
-						throw new IndeterminateEvaluationException("Funtcion " + ID + " requires exactly two arguments but given " + args.size(), XacmlStatusCode.PROCESSING_ERROR.name());
-										
-					final Geometry g1 = args.poll().getUnderlyingValue();
-					final Geometry g2 = args.poll().getUnderlyingValue();
-										
-					if (g1.getSRID() != g2.getSRID())
-						return BooleanValue.FALSE;
-					
-					return new BooleanValue(g1.disjoint(g2));
-				}
+	public final static class Disjoint extends TopologicalFunction
+	{
+		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-disjoint";
 
-			};
+		public Disjoint()
+		{
+			super(ID, true, PredicateDispatch.DISJOINT);
 		}
 	}
-	
-	public final static class Touches extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+
+	public final static class Touches extends TopologicalFunction
 	{
 		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-touches";
 
 		public Touches()
 		{
-			super(ID, StandardDatatypes.BOOLEAN, true, Arrays.asList(GeometryValue.DATATYPE));
-		}
-
-		@Override
-		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
-		{
-
-			return new EagerSinglePrimitiveTypeEval<BooleanValue, GeometryValue>(functionSignature, argExpressions, remainingArgTypes)
-			{
-
-				@Override
-				protected BooleanValue evaluate(final Deque<GeometryValue> args) throws IndeterminateEvaluationException
-				{
-					if (args.size() != 2)
-						throw new IndeterminateEvaluationException("Funtcion " + ID + " requires exactly two arguments but given " + args.size(), XacmlStatusCode.PROCESSING_ERROR.name());
-										
-					final Geometry g1 = args.poll().getUnderlyingValue();
-					final Geometry g2 = args.poll().getUnderlyingValue();
-
-					if (g1.getSRID() != g2.getSRID())
-						return BooleanValue.FALSE;
-					
-					return new BooleanValue(g1.touches(g2));
-				}
-
-			};
+			super(ID, false, PredicateDispatch.TOUCHES);
 		}
 	}
-	
-	public final static class Crosses extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+
+	public final static class Crosses extends TopologicalFunction
 	{
 		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-crosses";
 
 		public Crosses()
 		{
-			super(ID, StandardDatatypes.BOOLEAN, true, Arrays.asList(GeometryValue.DATATYPE));
-		}
-
-		@Override
-		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
-		{
-
-			return new EagerSinglePrimitiveTypeEval<BooleanValue, GeometryValue>(functionSignature, argExpressions, remainingArgTypes)
-			{
-
-				@Override
-				protected BooleanValue evaluate(final Deque<GeometryValue> args) throws IndeterminateEvaluationException
-				{
-					if (args.size() != 2)
-						throw new IndeterminateEvaluationException("Funtcion " + ID + " requires exactly two arguments but given " + args.size(), XacmlStatusCode.PROCESSING_ERROR.name());
-										
-					final Geometry g1 = args.poll().getUnderlyingValue();
-					final Geometry g2 = args.poll().getUnderlyingValue();
-										
-					if (g1.getSRID() != g2.getSRID())
-						return BooleanValue.FALSE;
-					
-					return new BooleanValue(g1.crosses(g2));
-				}
-
-			};
+			super(ID, false, PredicateDispatch.CROSSES);
 		}
 	}
-		
-	public final static class Within extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+
+	public final static class Within extends TopologicalFunction
 	{
 		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-within";
 
 		public Within()
 		{
-			super(ID, StandardDatatypes.BOOLEAN, true, Arrays.asList(GeometryValue.DATATYPE));
-		}
-
-		@Override
-		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
-		{
-
-			return new EagerSinglePrimitiveTypeEval<BooleanValue, GeometryValue>(functionSignature, argExpressions, remainingArgTypes)
-			{
-
-				@Override
-				protected BooleanValue evaluate(final Deque<GeometryValue> args) throws IndeterminateEvaluationException
-				{
-					if (args.size() != 2)
-						throw new IndeterminateEvaluationException("Funtcion " + ID + " requires exactly two arguments but given " + args.size(), XacmlStatusCode.PROCESSING_ERROR.name());
-										
-					final Geometry g1 = args.poll().getUnderlyingValue();
-					final Geometry g2 = args.poll().getUnderlyingValue();
-										
-					if (g1.getSRID() != g2.getSRID())
-						return BooleanValue.FALSE;
-					
-					return new BooleanValue(g1.within(g2));
-				}
-
-			};
+			super(ID, false, PredicateDispatch.WITHIN);
 		}
 	}
 
-	public final static class Contains extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+	public final static class Contains extends TopologicalFunction
 	{
 		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-contains";
 
 		public Contains()
 		{
-			super(ID, StandardDatatypes.BOOLEAN, true, Arrays.asList(GeometryValue.DATATYPE));
-		}
-
-		@Override
-		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
-		{
-
-			return new EagerSinglePrimitiveTypeEval<BooleanValue, GeometryValue>(functionSignature, argExpressions, remainingArgTypes)
-			{
-
-				@Override
-				protected BooleanValue evaluate(final Deque<GeometryValue> args) throws IndeterminateEvaluationException
-				{
-					if (args.size() != 2)
-						throw new IndeterminateEvaluationException("Funtcion " + ID + " requires exactly two arguments but given " + args.size(), XacmlStatusCode.PROCESSING_ERROR.name());
-										
-					final Geometry g1 = args.poll().getUnderlyingValue();
-					final Geometry g2 = args.poll().getUnderlyingValue();
-										
-					if (g1.getSRID() != g2.getSRID())
-						return BooleanValue.FALSE;
-					
-					return new BooleanValue(g1.contains(g2));
-				}
-
-			};
+			super(ID, false, PredicateDispatch.CONTAINS);
 		}
 	}
-	
-	public final static class Overlaps extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+
+	public final static class Overlaps extends TopologicalFunction
 	{
 		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-overlaps";
 
 		public Overlaps()
 		{
-			super(ID, StandardDatatypes.BOOLEAN, true, Arrays.asList(GeometryValue.DATATYPE));
+			super(ID, false, PredicateDispatch.OVERLAPS);
 		}
+	}
 
-		@Override
-		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
-		{
-
-			return new EagerSinglePrimitiveTypeEval<BooleanValue, GeometryValue>(functionSignature, argExpressions, remainingArgTypes)
-			{
-
-				@Override
-				protected BooleanValue evaluate(final Deque<GeometryValue> args) throws IndeterminateEvaluationException
-				{
-					if (args.size() != 2)
-						throw new IndeterminateEvaluationException("Funtcion " + ID + " requires exactly two arguments but given " + args.size(), XacmlStatusCode.PROCESSING_ERROR.name());
-										
-					final Geometry g1 = args.poll().getUnderlyingValue();
-					final Geometry g2 = args.poll().getUnderlyingValue();
-										
-					if (g1.getSRID() != g2.getSRID())
-						return BooleanValue.FALSE;
-					
-					return new BooleanValue(g1.overlaps(g2));
-				}
+	public final static class Intersects extends TopologicalFunction
+	{
+		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-intersects";
 
-			};
+		public Intersects()
+		{
+			super(ID, false, PredicateDispatch.INTERSECTS);
 		}
 	}
 
-	public final static class Intersects extends SingleParameterTypedFirstOrderFunction<BooleanValue, GeometryValue>
+	/**
+	 * <p>
+	 * <code>geometry-relate(g1, g2, pattern)</code> tests the DE-9IM intersection matrix of the geometries against a pattern of nine
+	 * characters out of <code>T F * 0 1 2</code>. The matrix is shared with the other predicates evaluated on the pair in the decision.
+	 */
+	public final static class Relate extends MultiParameterTypedFirstOrderFunction<BooleanValue>
 	{
-		public static final String ID = "urn:ogc:def:function:geoxacml:1.0:geometry-intersects";
+		public static final String ID = "urn:de:securedimensions:function:geoxacml:geometry-relate";
 
-		public Intersects()
+		public Relate()
 		{
-			super(ID, StandardDatatypes.BOOLEAN, true, Arrays.asList(GeometryValue.DATATYPE));
+			super(ID, StandardDatatypes.BOOLEAN, false, Arrays.asList(GeometryValue.DATATYPE, GeometryValue.DATATYPE, StandardDatatypes.STRING));
+		}
+
+		private static boolean isPattern(final String pattern)
+		{
+			return pattern.length() == 9 && pattern.matches("[TF*012]{9}");
 		}
 
 		@Override
 		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
 		{
+			if (argExpressions.size() > 2)
+			{
+				argExpressions.get(2).getValue().ifPresent(v -> {
+					if (v instanceof StringValue && !isPattern(((StringValue) v).getUnderlyingValue()))
+						throw new IllegalArgumentException("Function " + ID + ": invalid DE-9IM pattern '" + ((StringValue) v).getUnderlyingValue() + "'");
+				});
+			}
 
-			return new EagerSinglePrimitiveTypeEval<BooleanValue, GeometryValue>(functionSignature, argExpressions, remainingArgTypes)
+			return new BaseFirstOrderFunctionCall<BooleanValue>(functionSignature, argExpressions, remainingArgTypes)
 			{
 
+				private Value getArgument(final int index, final EvaluationContext context, final AttributeValue... remainingArgs)
+						throws IndeterminateEvaluationException
+				{
+					return (index < argExpressions.size()) ? argExpressions.get(index).evaluate(context) : remainingArgs[index - argExpressions.size()];
+				}
+
 				@Override
-				protected BooleanValue evaluate(final Deque<GeometryValue> args) throws IndeterminateEvaluationException
+				public BooleanValue evaluate(final EvaluationContext context, final AttributeValue... remainingArgs)
+						throws IndeterminateEvaluationException
 				{
-					if (args.size() != 2)
-						throw new IndeterminateEvaluationException("Funtcion " + ID + " requires exactly two arguments but given " + args.size(), XacmlStatusCode.PROCESSING_ERROR.name());
-										
-					final Geometry g1 = args.poll().getUnderlyingValue();
-					final Geometry g2 = args.poll().getUnderlyingValue();
-										
-					if (g1.getSRID() != g2.getSRID())
-						return BooleanValue.FALSE;
-					
-					return new BooleanValue(g1.intersects(g2));
+					final int numArgs = argExpressions.size() + ((remainingArgs == null) ? 0 : remainingArgs.length);
+					if (numArgs != 3)
+						throw new IndeterminateEvaluationException("Function " + ID + " requires exactly three arguments but given " + numArgs, XacmlStatusCode.PROCESSING_ERROR.name());
+
+					final Value v1 = getArgument(0, context, remainingArgs);
+					final Value v2 = getArgument(1, context, remainingArgs);
+					final Value v3 = getArgument(2, context, remainingArgs);
+					if (!(v1 instanceof GeometryValue) || !(v2 instanceof GeometryValue) || !(v3 instanceof StringValue))
+						throw new IndeterminateEvaluationException("Function " + ID + ": invalid argument types", XacmlStatusCode.PROCESSING_ERROR.name());
+
+					final String pattern = ((StringValue) v3).getUnderlyingValue();
+					if (!isPattern(pattern))
+						throw new IndeterminateEvaluationException("Function " + ID + ": invalid DE-9IM pattern '" + pattern + "'", XacmlStatusCode.PROCESSING_ERROR.name());
+
+					final GeometryValue g1 = (GeometryValue) v1;
+					GeometryValue g2 = (GeometryValue) v2;
+					if (g1.getUnderlyingValue().getSRID() != g2.getUnderlyingValue().getSRID())
+					{
+						g2 = Reprojection.reproject(g2, g1.getUnderlyingValue().getSRID());
+						if (g2 == null)
+							return BooleanValue.FALSE;
+					}
+
+					try
+					{
+						return RequestMemo.get(context).relate(g1, g2).matches(pattern) ? BooleanValue.TRUE : BooleanValue.FALSE;
+					}
+					catch (IllegalArgumentException e)
+					{
+						// e.g. relate is not supported for GeometryCollection arguments
+						throw new IndeterminateEvaluationException("Function " + ID + ": " + e.getMessage(), XacmlStatusCode.PROCESSING_ERROR.name());
+					}
 				}
 
 			};
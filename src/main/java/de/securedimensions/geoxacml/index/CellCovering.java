@@ -0,0 +1,213 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hierarchical (quad-tree) cell covering of a polygonal geometry.
+ * <p>
+ * The square that covers the envelope is subdivided recursively. A cell completely in the interior of the geometry is kept as
+ * interior cell, a cell outside is dropped and a cell crossing the boundary is subdivided further. Cells still crossing the boundary at
+ * the finest level (<code>geoxacml.covering.maxLevel</code>, default 10) or when the number of cells would exceed
+ * <code>geoxacml.covering.maxCells</code> (default 65536) are kept as boundary cells.
+ * <p>
+ * A point is located by looking up the key of its cell at each level: an interior cell proves the point is inside, a boundary cell
+ * requires the exact test and no cell at all proves the point is outside. The keys of all cells are kept in one sorted
+ * <code>long[]</code>, the lowest bit telling boundary cells from interior cells, so a lookup is a binary search per level and the
+ * covering takes 8 bytes per cell.
+ * <p>
+ * Cells are tested with a small margin so that rounding when mapping a point to its cell cannot lead to a wrong answer.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class CellCovering
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(CellCovering.class);
+
+	public static final int MAX_LEVEL = Math.min(28, Integer.getInteger("geoxacml.covering.maxLevel", 10));
+	public static final int MAX_CELLS = Integer.getInteger("geoxacml.covering.maxCells", 65536);
+
+	/**
+	 * Returned by {@link #locate(double, double)} if the point is in a boundary cell
+	 */
+	public static final int UNKNOWN = -1;
+
+	/**
+	 * Cell margin relative to the cell size
+	 */
+	private static final double MARGIN = 1.0E-6;
+
+	private final double minX;
+	private final double minY;
+	private final double size;
+	private final int gridSize;
+
+	/**
+	 * Set in the key of a boundary cell
+	 */
+	private static final long BOUNDARY = 1L;
+
+	/**
+	 * Sorted keys of the interior and boundary cells
+	 */
+	private final long[] cells;
+	private final int numInterior;
+
+	/**
+	 * Computes the covering of a polygonal geometry
+	 *
+	 * @param g
+	 *            the polygonal geometry
+	 * @param prepared
+	 *            the prepared form of <code>g</code>, used to classify the cells
+	 * @return the covering, or <code>null</code> if <code>g</code> is not polygonal, empty or has no extent
+	 */
+	public static CellCovering build(final Geometry g, final PreparedGeometry prepared)
+	{
+		if (!(g instanceof Polygonal) || g.isEmpty())
+			return null;
+
+		final Envelope env = g.getEnvelopeInternal();
+		if (env.getWidth() <= 0.0 && env.getHeight() <= 0.0)
+			return null;
+
+		final CellCovering covering = new CellCovering(g, prepared);
+		LOGGER.debug("Cell covering with {} interior and {} boundary cells built for geometry with {} vertices", covering.numInterior, covering.cells.length - covering.numInterior, g.getNumPoints());
+		return covering;
+	}
+
+	private CellCovering(final Geometry g, final PreparedGeometry prepared)
+	{
+		final Envelope env = g.getEnvelopeInternal();
+		this.minX = env.getMinX();
+		this.minY = env.getMinY();
+		this.size = Math.max(env.getWidth(), env.getHeight());
+		this.gridSize = 1 << MAX_LEVEL;
+
+		long[] keys = new long[64];
+		int numKeys = 0;
+		int interior = 0;
+
+		List<long[]> cells = new ArrayList<long[]>();
+		cells.add(new long[] { 0, 0 });
+		for (int level = 0; !cells.isEmpty(); level++)
+		{
+			final List<long[]> ambiguous = new ArrayList<long[]>();
+			final double cellSize = size / (1L << level);
+			for (final long[] cell : cells)
+			{
+				final double x0 = minX + cell[0] * cellSize;
+				final double y0 = minY + cell[1] * cellSize;
+				final double margin = cellSize * MARGIN;
+				final Geometry rect = g.getFactory().toGeometry(new Envelope(x0 - margin, x0 + cellSize + margin, y0 - margin, y0 + cellSize + margin));
+
+				if (!prepared.intersects(rect))
+					continue;
+
+				if (prepared.containsProperly(rect))
+				{
+					if (numKeys == keys.length)
+						keys = Arrays.copyOf(keys, 2 * numKeys);
+					keys[numKeys++] = key(level, cell[0], cell[1]);
+					interior++;
+				}
+				else
+					ambiguous.add(cell);
+			}
+
+			final boolean last = (level == MAX_LEVEL) || (interior + 4L * ambiguous.size() > MAX_CELLS);
+			cells = new ArrayList<long[]>();
+			for (final long[] cell : ambiguous)
+			{
+				if (last)
+				{
+					if (numKeys == keys.length)
+						keys = Arrays.copyOf(keys, 2 * numKeys);
+					keys[numKeys++] = key(level, cell[0], cell[1]) | BOUNDARY;
+					continue;
+				}
+
+				for (int dy = 0; dy < 2; dy++)
+					for (int dx = 0; dx < 2; dx++)
+						cells.add(new long[] { 2 * cell[0] + dx, 2 * cell[1] + dy });
+			}
+		}
+
+		this.cells = Arrays.copyOf(keys, numKeys);
+		Arrays.sort(this.cells);
+		this.numInterior = interior;
+	}
+
+	/**
+	 * @return the key of an interior cell; the key of a boundary cell has the bit {@link #BOUNDARY} set in addition
+	 */
+	private static long key(final int level, final long ix, final long iy)
+	{
+		return ((long) level << 57) | (ix << 29) | (iy << 1);
+	}
+
+	/**
+	 * Determines the location of a point
+	 *
+	 * @return {@link Location#INTERIOR}, {@link Location#EXTERIOR} or {@link #UNKNOWN} if the point is in a boundary cell
+	 */
+	public int locate(final double x, final double y)
+	{
+		final double tx = (x - minX) / size;
+		final double ty = (y - minY) / size;
+		if (tx < 0.0 || tx > 1.0 || ty < 0.0 || ty > 1.0)
+			return Location.EXTERIOR;
+
+		final long ix = Math.min(gridSize - 1, (long) Math.floor(tx * gridSize));
+		final long iy = Math.min(gridSize - 1, (long) Math.floor(ty * gridSize));
+		for (int level = 0; level <= MAX_LEVEL; level++)
+		{
+			final int shift = MAX_LEVEL - level;
+			final long key = key(level, ix >> shift, iy >> shift);
+			final int i = Arrays.binarySearch(cells, key);
+			if (i >= 0)
+				return Location.INTERIOR;
+			// the boundary key of the same cell directly follows the interior key
+			final int next = -i - 1;
+			if (next < cells.length && cells[next] == (key | BOUNDARY))
+				return UNKNOWN;
+		}
+		return Location.EXTERIOR;
+	}
+
+	/**
+	 * @return number of cells in the covering
+	 */
+	public int getNumCells()
+	{
+		return cells.length;
+	}
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.index;
+
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
+import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Polygonal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.securedimensions.geoxacml.io.MappedGeometryStore;
+
+/**
+ * Point locator for polygonal geometries based on a uniform grid over the envelope.
+ * <p>
+ * Each cell is classified as fully inside, fully outside or boundary (crossed by at least one polygon edge).
+ * A point in an inside or outside cell is located in constant time; only points in boundary cells are passed on to an
+ * {@link IndexedPointInAreaLocator}. The edge index copies all coordinates to the heap, so for a geometry with memory-mapped coordinates
+ * (see {@link MappedGeometryStore}) it is only used while the cells are classified, and points in boundary cells are located with a
+ * {@link SimplePointInAreaLocator} on the mapped coordinates: linear in the number of vertices, without heap.
+ * <p>
+ * Cell classification is conservative: a cell is marked as boundary if it overlaps the envelope of any edge. A cell that is
+ * not marked is crossed by no edge, so all its points share the location of its first point.
+ * <p>
+ * The cells are stored with two bits each. The number of cells is bounded by <code>geoxacml.raster.maxBytes</code>
+ * (default 65536 bytes per geometry; 0 disables the raster). Geometries with fewer than <code>geoxacml.raster.minPoints</code> vertices
+ * (default 32) get no raster.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class GridPointLocator implements PointOnGeometryLocator
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(GridPointLocator.class);
+
+	/**
+	 * Memory budget for the cells of one geometry, in bytes
+	 */
+	public static final int MAX_BYTES = Integer.getInteger("geoxacml.raster.maxBytes", 65536);
+
+	/**
+	 * Geometries with fewer vertices are located with the edge index alone
+	 */
+	public static final int MIN_POINTS = Integer.getInteger("geoxacml.raster.minPoints", 32);
+
+	/**
+	 * Number of cells per polygon vertex the grid is sized for, up to the memory budget
+	 */
+	private static final int CELLS_PER_VERTEX = 4;
+
+	private static final int UNKNOWN = 0;
+	private static final int INTERIOR = 1;
+	private static final int EXTERIOR = 2;
+	private static final int BOUNDARY = 3;
+
+	private final double minX;
+	private final double minY;
+	private final double maxX;
+	private final double maxY;
+	private final double cellWidth;
+	private final double cellHeight;
+	private final int nx;
+	private final int ny;
+	private final byte[] cells;
+
+	private final PointOnGeometryLocator fallback;
+
+	/**
+	 * Builds the grid for a polygonal geometry
+	 *
+	 * @param polygonal
+	 *            the geometry
+	 * @return the locator, or <code>null</code> if the raster is disabled, the geometry is too small or has no area
+	 */
+	public static GridPointLocator build(final Geometry polygonal)
+	{
+		if (MAX_BYTES <= 0 || !(polygonal instanceof Polygonal) || polygonal.isEmpty() || polygonal.getNumPoints() < MIN_POINTS)
+			return null;
+
+		final Envelope env = polygonal.getEnvelopeInternal();
+		if (env.getWidth() <= 0.0 || env.getHeight() <= 0.0)
+			return null;
+
+		final long maxCells = 4L * MAX_BYTES;
+		final long numCells = Math.max(16L, Math.min(maxCells, (long) CELLS_PER_VERTEX * polygonal.getNumPoints()));
+		final double aspect = env.getWidth() / env.getHeight();
+		final int nx = (int) Math.max(1L, Math.min(numCells, Math.round(Math.sqrt(numCells * aspect))));
+		final int ny = (int) Math.max(1L, numCells / nx);
+
+		final GridPointLocator locator = new GridPointLocator(polygonal, env, nx, ny);
+		LOGGER.debug("Raster {}x{} built for geometry with {} vertices", nx, ny, polygonal.getNumPoints());
+		return locator;
+	}
+
+	private GridPointLocator(final Geometry polygonal, final Envelope env, final int nx, final int ny)
+	{
+		this.minX = env.getMinX();
+		this.minY = env.getMinY();
+		this.maxX = env.getMaxX();
+		this.maxY = env.getMaxY();
+		this.nx = nx;
+		this.ny = ny;
+		this.cellWidth = env.getWidth() / nx;
+		this.cellHeight = env.getHeight() / ny;
+		this.cells = new byte[(int) (((long) nx * ny + 3) / 4)];
+		final IndexedPointInAreaLocator index = new IndexedPointInAreaLocator(polygonal);
+
+		for (int i = 0; i < polygonal.getNumGeometries(); i++)
+		{
+			final Polygon p = (Polygon) polygonal.getGeometryN(i);
+			markBoundary(p.getExteriorRing());
+			for (int j = 0; j < p.getNumInteriorRing(); j++)
+				markBoundary(p.getInteriorRingN(j));
+		}
+
+		classify(index);
+		this.fallback = MappedGeometryStore.isMapped(polygonal) ? new SimplePointInAreaLocator(polygonal) : index;
+	}
+
+	private void markBoundary(final LineString ring)
+	{
+		final CoordinateSequence cs = ring.getCoordinateSequence();
+		for (int i = 1; i < cs.size(); i++)
+		{
+			final double x0 = cs.getX(i - 1);
+			final double y0 = cs.getY(i - 1);
+			final double x1 = cs.getX(i);
+			final double y1 = cs.getY(i);
+
+			final int cx0 = cellX(Math.min(x0, x1));
+			final int cx1 = cellX(Math.max(x0, x1));
+			final int cy0 = cellY(Math.min(y0, y1));
+			final int cy1 = cellY(Math.max(y0, y1));
+
+			for (int cy = cy0; cy <= cy1; cy++)
+				for (int cx = cx0; cx <= cx1; cx++)
+					set(cy * nx + cx, BOUNDARY);
+		}
+	}
+
+	/**
+	 * Runs of adjacent cells in a row that are not crossed by any edge form one connected edge free region, so one
+	 * point-in-polygon test classifies the whole run
+	 */
+	private void classify(final PointOnGeometryLocator locator)
+	{
+		final Coordinate c = new Coordinate();
+		for (int cy = 0; cy < ny; cy++)
+		{
+			int runLocation = UNKNOWN;
+			for (int cx = 0; cx < nx; cx++)
+			{
+				final int index = cy * nx + cx;
+				if (get(index) == BOUNDARY)
+				{
+					runLocation = UNKNOWN;
+					continue;
+				}
+
+				if (runLocation == UNKNOWN)
+				{
+					c.x = minX + (cx + 0.5) * cellWidth;
+					c.y = minY + (cy + 0.5) * cellHeight;
+					runLocation = (locator.locate(c) == Location.INTERIOR) ? INTERIOR : EXTERIOR;
+				}
+				set(index, runLocation);
+			}
+		}
+	}
+
+	private int cellX(final double x)
+	{
+		final int i = (int) Math.floor((x - minX) / cellWidth);
+		return (i < 0) ? 0 : (i >= nx) ? nx - 1 : i;
+	}
+
+	private int cellY(final double y)
+	{
+		final int i = (int) Math.floor((y - minY) / cellHeight);
+		return (i < 0) ? 0 : (i >= ny) ? ny - 1 : i;
+	}
+
+	private int get(final int index)
+	{
+		return (cells[index >> 2] >> ((index & 3) << 1)) & 3;
+	}
+
+	private void set(final int index, final int state)
+	{
+		final int shift = (index & 3) << 1;
+		cells[index >> 2] = (byte) ((cells[index >> 2] & ~(3 << shift)) | (state << shift));
+	}
+
+	/**
+	 * Determines the location of a point
+	 *
+	 * @return {@link Location#INTERIOR}, {@link Location#BOUNDARY} or {@link Location#EXTERIOR}
+	 */
+	public int locate(final double x, final double y)
+	{
+		if (x < minX || x > maxX || y < minY || y > maxY)
+			return Location.EXTERIOR;
+
+		switch (get(cellY(y) * nx + cellX(x)))
+		{
+			case INTERIOR:
+				return Location.INTERIOR;
+			case EXTERIOR:
+				return Location.EXTERIOR;
+			default:
+				return fallback.locate(new Coordinate(x, y));
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int locate(final Coordinate p)
+	{
+		return locate(p.x, p.y);
+	}
+
+	/**
+	 * @return number of bytes used for the cells
+	 */
+	public int getByteSize()
+	{
+		return cells.length;
+	}
+}
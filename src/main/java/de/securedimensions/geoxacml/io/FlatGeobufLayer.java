@@ -0,0 +1,549 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Read access to the features of a local FlatGeobuf file (see <a href="https://flatgeobuf.org">flatgeobuf.org</a>), used to resolve
+ * geometry references <code>REF=&lt;layer&gt;:&lt;featureIndex&gt;</code>.
+ * <p>
+ * The layer <code>name</code> is the file <code>name.fgb</code> in the directory <code>geoxacml.ref.dir</code>; references are disabled
+ * unless the directory is set. A layer is opened on first use and the file is memory-mapped, so only the pages of the header, the
+ * visited index nodes and the decoded features are read. A feature is addressed by its position in the file; with a spatial index the
+ * position is the one of its leaf in the packed Hilbert R-tree, which is also used for queries by envelope (see {@link #query(Envelope)}).
+ * <p>
+ * Decoded geometries are kept in an LRU cache of <code>geoxacml.ref.cacheSize</code> entries (default 1024), shared by all layers.
+ * <p>
+ * Coordinates of a layer in <code>EPSG:4326</code> are read in the FlatGeobuf (GeoJSON) axis order LON/LAT and normalized to LAT/LON.
+ * Only the geometries and the CRS code are read; feature properties are ignored.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class FlatGeobufLayer
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(FlatGeobufLayer.class);
+
+	private static volatile String directory = System.getProperty("geoxacml.ref.dir");
+
+	private static final long CACHE_SIZE = Long.getLong("geoxacml.ref.cacheSize", 1024);
+
+	private static final Cache<String, Geometry> FEATURES = Caffeine.newBuilder().maximumSize(CACHE_SIZE).recordStats().build();
+
+	private static final Map<String, FlatGeobufLayer> LAYERS = new ConcurrentHashMap<String, FlatGeobufLayer>();
+
+	private static final Pattern LAYER_NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+	private static final byte[] MAGIC = { 'f', 'g', 'b', 3 };
+
+	private static final int NODE_SIZE = 40;
+
+	/**
+	 * FlatGeobuf geometry types
+	 */
+	private static final int POINT = 1;
+	private static final int LINESTRING = 2;
+	private static final int POLYGON = 3;
+	private static final int MULTIPOINT = 4;
+	private static final int MULTILINESTRING = 5;
+	private static final int MULTIPOLYGON = 6;
+	private static final int GEOMETRYCOLLECTION = 7;
+
+	/**
+	 * Returns the layer of the given name, opening it on first use
+	 *
+	 * @throws IllegalArgumentException
+	 *             if references are disabled, the name is invalid or the file cannot be read
+	 */
+	public static FlatGeobufLayer get(final String name) throws IllegalArgumentException
+	{
+		final String dir = directory;
+		if (dir == null)
+			throw new IllegalArgumentException("Geometry references are disabled: geoxacml.ref.dir not set");
+		// the name must not escape the directory
+		if (!LAYER_NAME.matcher(name).matches() || name.startsWith("."))
+			throw new IllegalArgumentException("Invalid layer name: " + name);
+
+		return LAYERS.computeIfAbsent(name, n -> {
+			try
+			{
+				return new FlatGeobufLayer(n, Paths.get(dir, n + ".fgb"));
+			}
+			catch (IOException e)
+			{
+				throw new IllegalArgumentException("Layer " + n + " cannot be read: " + e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Sets the directory of the layers (initially <code>geoxacml.ref.dir</code>); <code>null</code> disables references. Open layers and
+	 * decoded features are dropped; geometry values already parsed from references remain in the parse cache of {@link de.securedimensions.geoxacml.datatype.GeometryValue}.
+	 */
+	public static void setDirectory(final String dir)
+	{
+		directory = dir;
+		LAYERS.clear();
+		FEATURES.invalidateAll();
+	}
+
+	/**
+	 * Resolves a reference <code>&lt;layer&gt;:&lt;featureIndex&gt;</code>
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the reference cannot be resolved
+	 */
+	public static Geometry resolve(final String reference) throws IllegalArgumentException
+	{
+		final int colon = reference.lastIndexOf(':');
+		if (colon <= 0)
+			throw new IllegalArgumentException("Invalid geometry reference: " + reference);
+
+		final long index;
+		try
+		{
+			index = Long.parseLong(reference.substring(colon + 1).trim());
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid feature index in geometry reference: " + reference);
+		}
+		return get(reference.substring(0, colon).trim()).getFeature(index);
+	}
+
+	/**
+	 * @return the statistics of the cache of decoded features
+	 */
+	public static CacheStats getCacheStats()
+	{
+		return FEATURES.stats();
+	}
+
+	private final String name;
+	private final ByteBuffer buffer;
+	private final GeometryFactory gf;
+	private final int srid;
+	private final boolean lonLat;
+	private final int headerGeometryType;
+	private final long featuresCount;
+	private final int indexNodeSize;
+	private final int indexStart;
+	private final int featuresStart;
+
+	/**
+	 * Start (inclusive) and end (exclusive) node of each level of the index, leaves first; the end of the leaves is the node count
+	 */
+	private final long[][] levelBounds;
+
+	/**
+	 * Feature offsets of a file without index, computed on first access
+	 */
+	private volatile long[] offsets = null;
+
+	private FlatGeobufLayer(final String name, final Path file) throws IOException
+	{
+		this.name = name;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("file larger than 2 GB");
+			this.buffer = channel.map(MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		for (int i = 0; i < MAGIC.length; i++)
+		{
+			if (buffer.get(i) != MAGIC[i])
+				throw new IOException("not a FlatGeobuf file");
+		}
+
+		final int headerSize = buffer.getInt(8);
+		final int header = indirect(12);
+
+		this.headerGeometryType = getUByte(header, 2, 0);
+		this.featuresCount = getLong(header, 8, 0);
+		this.indexNodeSize = getUShort(header, 9, 16);
+
+		final int crs = getTable(header, 10);
+		final int code = (crs == 0) ? 0 : getInt(crs, 1, 0);
+		if (code == 0)
+			throw new IOException("no CRS code");
+		this.lonLat = (code == 4326);
+		this.srid = code;
+		this.gf = new GeometryFactory(new PrecisionModel(), srid);
+
+		this.indexStart = 12 + headerSize;
+		if (indexNodeSize > 1 && featuresCount > 0)
+		{
+			this.levelBounds = levelBounds(featuresCount, indexNodeSize);
+			this.featuresStart = Math.toIntExact(indexStart + levelBounds[0][1] * NODE_SIZE);
+		}
+		else
+		{
+			this.levelBounds = null;
+			this.featuresStart = indexStart;
+		}
+
+		LOGGER.info("Layer {} opened: {} features, EPSG:{}, {}", name, Long.valueOf(featuresCount), Integer.valueOf(srid), (levelBounds == null) ? "no index" : "indexed");
+	}
+
+	/**
+	 * Computes the node ranges of the levels of a packed Hilbert R-tree, leaves first; the root is node 0
+	 */
+	private static long[][] levelBounds(final long numItems, final int nodeSize)
+	{
+		final List<Long> levelNumNodes = new ArrayList<Long>();
+		long n = numItems;
+		long numNodes = n;
+		levelNumNodes.add(Long.valueOf(n));
+		do
+		{
+			n = (n + nodeSize - 1) / nodeSize;
+			numNodes += n;
+			levelNumNodes.add(Long.valueOf(n));
+		}
+		while (n != 1);
+
+		final long[][] bounds = new long[levelNumNodes.size()][];
+		long end = numNodes;
+		for (int i = 0; i < bounds.length; i++)
+		{
+			final long start = end - levelNumNodes.get(i).longValue();
+			bounds[i] = new long[] { start, end };
+			end = start;
+		}
+		return bounds;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the SRID of the geometries of the layer
+	 */
+	public int getSRID()
+	{
+		return srid;
+	}
+
+	public long size()
+	{
+		return featuresCount;
+	}
+
+	/**
+	 * Returns the geometry of the feature at the given position
+	 *
+	 * @throws IllegalArgumentException
+	 *             if there is no such feature
+	 */
+	public Geometry getFeature(final long index) throws IllegalArgumentException
+	{
+		if (index < 0 || index >= featuresCount)
+			throw new IllegalArgumentException("Layer " + name + " has no feature " + index);
+
+		return FEATURES.get(name + ':' + index, k -> decodeFeature(featureOffset(index)));
+	}
+
+	/**
+	 * Returns the positions of the features whose envelope intersects the envelope, in file order
+	 *
+	 * @param envelope
+	 *            envelope in the internal axis order (LAT/LON for <code>EPSG:4326</code>)
+	 */
+	public List<Long> query(final Envelope envelope)
+	{
+		final double minX = lonLat ? envelope.getMinY() : envelope.getMinX();
+		final double minY = lonLat ? envelope.getMinX() : envelope.getMinY();
+		final double maxX = lonLat ? envelope.getMaxY() : envelope.getMaxX();
+		final double maxY = lonLat ? envelope.getMaxX() : envelope.getMaxY();
+
+		final List<Long> result = new ArrayList<Long>();
+		if (levelBounds == null)
+		{
+			for (long i = 0; i < featuresCount; i++)
+			{
+				if (getFeature(i).getEnvelopeInternal().intersects(envelope))
+					result.add(Long.valueOf(i));
+			}
+			return result;
+		}
+
+		final int leafLevel = 0;
+		final int rootLevel = levelBounds.length - 1;
+		final Deque<long[]> queue = new ArrayDeque<long[]>();
+		queue.add(new long[] { 0, rootLevel });
+		while (!queue.isEmpty())
+		{
+			final long[] next = queue.poll();
+			final long nodeIndex = next[0];
+			final int level = (int) next[1];
+			final long end = Math.min(nodeIndex + indexNodeSize, levelBounds[level][1]);
+			for (long pos = nodeIndex; pos < end; pos++)
+			{
+				final int node = Math.toIntExact(indexStart + pos * NODE_SIZE);
+				if (maxX < buffer.getDouble(node) || maxY < buffer.getDouble(node + 8) || minX > buffer.getDouble(node + 16) || minY > buffer.getDouble(node + 24))
+					continue;
+
+				if (level == leafLevel)
+					result.add(Long.valueOf(pos - levelBounds[leafLevel][0]));
+				else
+					queue.add(new long[] { buffer.getLong(node + 32), level - 1 });
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * @return the byte offset of the feature relative to the start of the features
+	 */
+	private long featureOffset(final long index)
+	{
+		if (levelBounds != null)
+			return buffer.getLong(Math.toIntExact(indexStart + (levelBounds[0][0] + index) * NODE_SIZE + 32));
+
+		long[] o = offsets;
+		if (o == null)
+		{
+			o = new long[Math.toIntExact(featuresCount)];
+			long offset = 0;
+			for (int i = 0; i < o.length; i++)
+			{
+				o[i] = offset;
+				offset += 4 + (buffer.getInt(Math.toIntExact(featuresStart + offset)) & 0xffffffffL);
+			}
+			offsets = o;
+		}
+		return o[(int) index];
+	}
+
+	private Geometry decodeFeature(final long offset)
+	{
+		final int feature = indirect(Math.toIntExact(featuresStart + offset + 4));
+		final int geometry = getTable(feature, 0);
+		if (geometry == 0)
+			return gf.createGeometryCollection();
+		return decode(geometry, headerGeometryType);
+	}
+
+	private Geometry decode(final int geometry, final int defaultType)
+	{
+		int type = getUByte(geometry, 6, 0);
+		if (type == 0)
+			type = defaultType;
+
+		final Coordinate[] coordinates = getCoordinates(geometry);
+		final long[] ends = getEnds(geometry);
+		switch (type)
+		{
+			case POINT:
+				return (coordinates.length == 0) ? gf.createPoint() : gf.createPoint(coordinates[0]);
+			case LINESTRING:
+				return gf.createLineString(coordinates);
+			case POLYGON:
+				return polygon(coordinates, ends);
+			case MULTIPOINT:
+				return gf.createMultiPointFromCoords(coordinates);
+			case MULTILINESTRING:
+			{
+				final LineString[] lines = new LineString[(ends == null) ? 1 : ends.length];
+				for (int i = 0; i < lines.length; i++)
+					lines[i] = gf.createLineString(part(coordinates, ends, i));
+				return gf.createMultiLineString(lines);
+			}
+			case MULTIPOLYGON:
+			{
+				final int[] parts = getParts(geometry);
+				final Polygon[] polygons = new Polygon[parts.length];
+				for (int i = 0; i < parts.length; i++)
+					polygons[i] = (Polygon) decode(parts[i], POLYGON);
+				return gf.createMultiPolygon(polygons);
+			}
+			case GEOMETRYCOLLECTION:
+			{
+				final int[] parts = getParts(geometry);
+				final Geometry[] geometries = new Geometry[parts.length];
+				for (int i = 0; i < parts.length; i++)
+					geometries[i] = decode(parts[i], 0);
+				return gf.createGeometryCollection(geometries);
+			}
+			default:
+				throw new IllegalArgumentException("Layer " + name + ": unsupported geometry type " + type);
+		}
+	}
+
+	private Polygon polygon(final Coordinate[] coordinates, final long[] ends)
+	{
+		if (coordinates.length == 0)
+			return gf.createPolygon();
+
+		final int rings = (ends == null) ? 1 : ends.length;
+		final LinearRing shell = gf.createLinearRing(part(coordinates, ends, 0));
+		final LinearRing[] holes = new LinearRing[rings - 1];
+		for (int i = 1; i < rings; i++)
+			holes[i - 1] = gf.createLinearRing(part(coordinates, ends, i));
+		return gf.createPolygon(shell, holes);
+	}
+
+	private static Coordinate[] part(final Coordinate[] coordinates, final long[] ends, final int i)
+	{
+		if (ends == null)
+			return coordinates;
+
+		final int start = (i == 0) ? 0 : (int) ends[i - 1];
+		final Coordinate[] result = new Coordinate[(int) ends[i] - start];
+		System.arraycopy(coordinates, start, result, 0, result.length);
+		return result;
+	}
+
+	private Coordinate[] getCoordinates(final int geometry)
+	{
+		final int xy = getVector(geometry, 1);
+		if (xy == 0)
+			return new Coordinate[0];
+
+		final Coordinate[] coordinates = new Coordinate[buffer.getInt(xy) / 2];
+		for (int i = 0; i < coordinates.length; i++)
+		{
+			final double x = buffer.getDouble(xy + 4 + 16 * i);
+			final double y = buffer.getDouble(xy + 4 + 16 * i + 8);
+			coordinates[i] = lonLat ? new Coordinate(y, x) : new Coordinate(x, y);
+		}
+		return coordinates;
+	}
+
+	private long[] getEnds(final int geometry)
+	{
+		final int v = getVector(geometry, 0);
+		if (v == 0)
+			return null;
+
+		final long[] ends = new long[buffer.getInt(v)];
+		for (int i = 0; i < ends.length; i++)
+			ends[i] = buffer.getInt(v + 4 + 4 * i) & 0xffffffffL;
+		return ends;
+	}
+
+	private int[] getParts(final int geometry)
+	{
+		final int v = getVector(geometry, 7);
+		if (v == 0)
+			return new int[0];
+
+		final int[] parts = new int[buffer.getInt(v)];
+		for (int i = 0; i < parts.length; i++)
+			parts[i] = indirect(v + 4 + 4 * i);
+		return parts;
+	}
+
+	/*
+	 * Access to FlatBuffers tables: a table starts with the signed offset of its vtable, which holds the offsets of the fields
+	 */
+
+	private int indirect(final int pos)
+	{
+		return pos + buffer.getInt(pos);
+	}
+
+	/**
+	 * @return the position of the field or 0 if absent
+	 */
+	private int field(final int table, final int field)
+	{
+		final int vtable = table - buffer.getInt(table);
+		final int vtableSize = buffer.getShort(vtable) & 0xffff;
+		final int entry = 4 + 2 * field;
+		if (entry >= vtableSize)
+			return 0;
+		final int offset = buffer.getShort(vtable + entry) & 0xffff;
+		return (offset == 0) ? 0 : table + offset;
+	}
+
+	private int getTable(final int table, final int field)
+	{
+		final int pos = field(table, field);
+		return (pos == 0) ? 0 : indirect(pos);
+	}
+
+	/**
+	 * @return the position of the length of the vector or 0 if absent
+	 */
+	private int getVector(final int table, final int field)
+	{
+		return getTable(table, field);
+	}
+
+	private int getUByte(final int table, final int field, final int defaultValue)
+	{
+		final int pos = field(table, field);
+		return (pos == 0) ? defaultValue : buffer.get(pos) & 0xff;
+	}
+
+	private int getUShort(final int table, final int field, final int defaultValue)
+	{
+		final int pos = field(table, field);
+		return (pos == 0) ? defaultValue : buffer.getShort(pos) & 0xffff;
+	}
+
+	private int getInt(final int table, final int field, final int defaultValue)
+	{
+		final int pos = field(table, field);
+		return (pos == 0) ? defaultValue : buffer.getInt(pos);
+	}
+
+	private long getLong(final int table, final int field, final long defaultValue)
+	{
+		final int pos = field(table, field);
+		return (pos == 0) ? defaultValue : buffer.getLong(pos);
+	}
+
+}
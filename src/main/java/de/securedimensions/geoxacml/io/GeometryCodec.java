@@ -0,0 +1,343 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.impl.CoordinateArraySequence;
+
+/**
+ * Compact binary encoding of a geometry, its SRID and its null reason, used for the serialized form of geometry values.
+ * <p>
+ * Layout (varints are unsigned LEB128, the SRID is zigzag encoded):
+ *
+ * <pre>
+ * byte     version (1)
+ * byte     flags: 1 = coordinates have Z, 2 = null reason present
+ * varint   SRID
+ * [UTF     null reason]
+ * geometry
+ *
+ * geometry:
+ *   byte   type: 0 Point, 1 LineString, 2 LinearRing, 3 Polygon, 4 MultiPoint, 5 MultiLineString, 6 MultiPolygon, 7 GeometryCollection
+ *   Point, LineString, LinearRing:  sequence
+ *   Polygon:                        varint number of rings (0 if empty), sequence per ring, shell first
+ *   Multi*, GeometryCollection:     varint number of parts, geometry per part
+ *
+ * sequence:
+ *   varint number of coordinates
+ *   per coordinate: varint x, varint y [, varint z]
+ * </pre>
+ *
+ * Each ordinate is written as the bits of the double XOR the bits of the same ordinate of the previous coordinate of the geometry (0
+ * for the first). Neighbouring vertices share sign, exponent and the leading mantissa bits, so the XOR is a small number and its
+ * varint takes typically 5 to 7 bytes instead of 8. The encoding is lossless.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class GeometryCodec
+{
+	private static final int VERSION = 1;
+
+	private static final int HAS_Z = 1;
+	private static final int HAS_NULL_REASON = 2;
+
+	private static final int POINT = 0;
+	private static final int LINESTRING = 1;
+	private static final int LINEARRING = 2;
+	private static final int POLYGON = 3;
+	private static final int MULTIPOINT = 4;
+	private static final int MULTILINESTRING = 5;
+	private static final int MULTIPOLYGON = 6;
+	private static final int GEOMETRYCOLLECTION = 7;
+
+	/**
+	 * Bits of the previous ordinates x, y and z
+	 */
+	private final long[] previous = new long[3];
+	private final boolean hasZ;
+
+	private GeometryCodec(final boolean hasZ)
+	{
+		this.hasZ = hasZ;
+	}
+
+	/**
+	 * Writes the geometry, its SRID and, if its user data is a string, its null reason
+	 */
+	public static void write(final Geometry g, final DataOutput out) throws IOException
+	{
+		final boolean hasZ = hasZ(g);
+		final String nullReason = (g.getUserData() instanceof String) ? (String) g.getUserData() : null;
+
+		out.writeByte(VERSION);
+		out.writeByte((hasZ ? HAS_Z : 0) | ((nullReason != null) ? HAS_NULL_REASON : 0));
+		writeVarint(out, (g.getSRID() << 1) ^ (g.getSRID() >> 31));
+		if (nullReason != null)
+			out.writeUTF(nullReason);
+
+		new GeometryCodec(hasZ).writeGeometry(g, out);
+	}
+
+	/**
+	 * Reads a geometry written by {@link #write(Geometry, DataOutput)}
+	 */
+	public static Geometry read(final DataInput in) throws IOException
+	{
+		final int version = in.readUnsignedByte();
+		if (version != VERSION)
+			throw new StreamCorruptedException("Unsupported geometry encoding version: " + version);
+
+		final int flags = in.readUnsignedByte();
+		final int zigzag = (int) readVarint(in);
+		final int srid = (zigzag >>> 1) ^ -(zigzag & 1);
+		final String nullReason = ((flags & HAS_NULL_REASON) != 0) ? in.readUTF() : null;
+
+		final Geometry g = new GeometryCodec((flags & HAS_Z) != 0).readGeometry(in, new GeometryFactory(new PrecisionModel(), srid));
+		g.setSRID(srid);
+		g.setUserData(nullReason);
+		return g;
+	}
+
+	private void writeGeometry(final Geometry g, final DataOutput out) throws IOException
+	{
+		if (g instanceof Point)
+		{
+			out.writeByte(POINT);
+			writeSequence(((Point) g).getCoordinateSequence(), out);
+		}
+		else if (g instanceof LineString)
+		{
+			out.writeByte((g instanceof LinearRing) ? LINEARRING : LINESTRING);
+			writeSequence(((LineString) g).getCoordinateSequence(), out);
+		}
+		else if (g instanceof Polygon)
+		{
+			final Polygon p = (Polygon) g;
+			out.writeByte(POLYGON);
+			if (p.isEmpty())
+			{
+				writeVarint(out, 0);
+				return;
+			}
+			writeVarint(out, 1 + p.getNumInteriorRing());
+			writeSequence(p.getExteriorRing().getCoordinateSequence(), out);
+			for (int i = 0; i < p.getNumInteriorRing(); i++)
+				writeSequence(p.getInteriorRingN(i).getCoordinateSequence(), out);
+		}
+		else
+		{
+			if (g instanceof MultiPoint)
+				out.writeByte(MULTIPOINT);
+			else if (g instanceof MultiLineString)
+				out.writeByte(MULTILINESTRING);
+			else if (g instanceof MultiPolygon)
+				out.writeByte(MULTIPOLYGON);
+			else if (g instanceof GeometryCollection)
+				out.writeByte(GEOMETRYCOLLECTION);
+			else
+				throw new IllegalArgumentException("Unsupported geometry type: " + g.getGeometryType());
+
+			writeVarint(out, g.getNumGeometries());
+			for (int i = 0; i < g.getNumGeometries(); i++)
+				writeGeometry(g.getGeometryN(i), out);
+		}
+	}
+
+	private Geometry readGeometry(final DataInput in, final GeometryFactory gf) throws IOException
+	{
+		final int type = in.readUnsignedByte();
+		switch (type)
+		{
+			case POINT:
+				return gf.createPoint(readSequence(in));
+			case LINESTRING:
+				return gf.createLineString(readSequence(in));
+			case LINEARRING:
+				return gf.createLinearRing(readSequence(in));
+			case POLYGON:
+			{
+				final int rings = readCount(in);
+				if (rings == 0)
+					return gf.createPolygon();
+				final LinearRing shell = gf.createLinearRing(readSequence(in));
+				final LinearRing[] holes = new LinearRing[rings - 1];
+				for (int i = 0; i < holes.length; i++)
+					holes[i] = gf.createLinearRing(readSequence(in));
+				return gf.createPolygon(shell, holes);
+			}
+			case MULTIPOINT:
+			{
+				final Point[] parts = new Point[readCount(in)];
+				for (int i = 0; i < parts.length; i++)
+					parts[i] = (Point) readGeometry(in, gf);
+				return gf.createMultiPoint(parts);
+			}
+			case MULTILINESTRING:
+			{
+				final LineString[] parts = new LineString[readCount(in)];
+				for (int i = 0; i < parts.length; i++)
+					parts[i] = (LineString) readGeometry(in, gf);
+				return gf.createMultiLineString(parts);
+			}
+			case MULTIPOLYGON:
+			{
+				final Polygon[] parts = new Polygon[readCount(in)];
+				for (int i = 0; i < parts.length; i++)
+					parts[i] = (Polygon) readGeometry(in, gf);
+				return gf.createMultiPolygon(parts);
+			}
+			case GEOMETRYCOLLECTION:
+			{
+				final Geometry[] parts = new Geometry[readCount(in)];
+				for (int i = 0; i < parts.length; i++)
+					parts[i] = readGeometry(in, gf);
+				return gf.createGeometryCollection(parts);
+			}
+			default:
+				throw new StreamCorruptedException("Unknown geometry type: " + type);
+		}
+	}
+
+	private void writeSequence(final CoordinateSequence seq, final DataOutput out) throws IOException
+	{
+		writeVarint(out, seq.size());
+		for (int i = 0; i < seq.size(); i++)
+		{
+			writeOrdinate(out, 0, seq.getX(i));
+			writeOrdinate(out, 1, seq.getY(i));
+			if (hasZ)
+				writeOrdinate(out, 2, (seq.getDimension() > 2) ? seq.getOrdinate(i, CoordinateSequence.Z) : Double.NaN);
+		}
+	}
+
+	private CoordinateSequence readSequence(final DataInput in) throws IOException
+	{
+		final int size = readCount(in);
+		final int dimension = hasZ ? 3 : 2;
+		final CoordinateSequence seq = new CoordinateArraySequence(size, dimension);
+		for (int i = 0; i < size; i++)
+		{
+			seq.setOrdinate(i, CoordinateSequence.X, readOrdinate(in, 0));
+			seq.setOrdinate(i, CoordinateSequence.Y, readOrdinate(in, 1));
+			if (hasZ)
+				seq.setOrdinate(i, CoordinateSequence.Z, readOrdinate(in, 2));
+		}
+		return seq;
+	}
+
+	private void writeOrdinate(final DataOutput out, final int ordinate, final double value) throws IOException
+	{
+		final long bits = Double.doubleToRawLongBits(value);
+		writeVarint(out, bits ^ previous[ordinate]);
+		previous[ordinate] = bits;
+	}
+
+	private double readOrdinate(final DataInput in, final int ordinate) throws IOException
+	{
+		final long bits = readVarint(in) ^ previous[ordinate];
+		previous[ordinate] = bits;
+		return Double.longBitsToDouble(bits);
+	}
+
+	private static boolean hasZ(final Geometry g)
+	{
+		if (g instanceof Point)
+			return hasZ(((Point) g).getCoordinateSequence());
+		if (g instanceof LineString)
+			return hasZ(((LineString) g).getCoordinateSequence());
+		if (g instanceof Polygon)
+		{
+			final Polygon p = (Polygon) g;
+			if (hasZ(p.getExteriorRing().getCoordinateSequence()))
+				return true;
+			for (int i = 0; i < p.getNumInteriorRing(); i++)
+			{
+				if (hasZ(p.getInteriorRingN(i).getCoordinateSequence()))
+					return true;
+			}
+			return false;
+		}
+		for (int i = 0; i < g.getNumGeometries(); i++)
+		{
+			if (hasZ(g.getGeometryN(i)))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean hasZ(final CoordinateSequence seq)
+	{
+		if (seq.getDimension() < 3)
+			return false;
+		for (int i = 0; i < seq.size(); i++)
+		{
+			if (!Double.isNaN(seq.getOrdinate(i, CoordinateSequence.Z)))
+				return true;
+		}
+		return false;
+	}
+
+	private static void writeVarint(final DataOutput out, long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarint(final DataInput in) throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			final int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new StreamCorruptedException("Malformed varint");
+	}
+
+	private static int readCount(final DataInput in) throws IOException
+	{
+		final long count = readVarint(in);
+		if (count < 0 || count > Integer.MAX_VALUE)
+			throw new StreamCorruptedException("Invalid count: " + count);
+		return (int) count;
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.io;
+
+import java.nio.DoubleBuffer;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.impl.CoordinateArraySequence;
+
+/**
+ * Two-dimensional coordinate sequence over a range of packed <code>x y</code> pairs in a (memory-mapped) buffer.
+ * <p>
+ * The sequence holds no coordinates on the heap: ordinates are read from the buffer on every access and {@link Coordinate} objects
+ * are only created on request. {@link #copy()} returns a heap sequence, so operations creating new geometries do not write to the
+ * buffer.
+ * <p>
+ * Code reading the ordinates through {@link #getX(int)}, {@link #getY(int)} or {@link #expandEnvelope(Envelope)}, such as the
+ * envelope, the simple point-in-area locator and the fingerprint and codec of geometry values, works on the mapping. Everything that
+ * calls {@link #getCoordinate(int)} or {@link #toCoordinateArray()} allocates one {@link Coordinate} per vertex: transiently for
+ * relate and overlay operations, but for as long as the geometry lives for the derived structures that keep the copy, i.e. the
+ * prepared geometry with its point locator and segment index (see {@link MappedGeometryStore}).
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class MappedCoordinateSequence implements CoordinateSequence
+{
+	private final DoubleBuffer buffer;
+	private final int offset;
+	private final int size;
+
+	/**
+	 * @param offset
+	 *            index of the x ordinate of the first coordinate in the buffer
+	 * @param size
+	 *            number of coordinates
+	 */
+	public MappedCoordinateSequence(final DoubleBuffer buffer, final int offset, final int size)
+	{
+		this.buffer = buffer;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	@Override
+	public int getDimension()
+	{
+		return 2;
+	}
+
+	@Override
+	public Coordinate getCoordinate(final int i)
+	{
+		return new Coordinate(getX(i), getY(i));
+	}
+
+	@Override
+	public Coordinate getCoordinateCopy(final int i)
+	{
+		return getCoordinate(i);
+	}
+
+	@Override
+	public void getCoordinate(final int index, final Coordinate coord)
+	{
+		coord.x = getX(index);
+		coord.y = getY(index);
+	}
+
+	@Override
+	public double getX(final int index)
+	{
+		return buffer.get(offset + 2 * index);
+	}
+
+	@Override
+	public double getY(final int index)
+	{
+		return buffer.get(offset + 2 * index + 1);
+	}
+
+	@Override
+	public double getOrdinate(final int index, final int ordinateIndex)
+	{
+		switch (ordinateIndex)
+		{
+			case CoordinateSequence.X:
+				return getX(index);
+			case CoordinateSequence.Y:
+				return getY(index);
+			default:
+				return Double.NaN;
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Sets an ordinate. The buffer is mapped privately (see {@link MappedGeometryStore}), so the change is never written to the file.
+	 */
+	@Override
+	public void setOrdinate(final int index, final int ordinateIndex, final double value)
+	{
+		switch (ordinateIndex)
+		{
+			case CoordinateSequence.X:
+				buffer.put(offset + 2 * index, value);
+				break;
+			case CoordinateSequence.Y:
+				buffer.put(offset + 2 * index + 1, value);
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid ordinate index: " + ordinateIndex);
+		}
+	}
+
+	@Override
+	public Coordinate[] toCoordinateArray()
+	{
+		final Coordinate[] coordinates = new Coordinate[size];
+		for (int i = 0; i < size; i++)
+			coordinates[i] = getCoordinate(i);
+		return coordinates;
+	}
+
+	@Override
+	public Envelope expandEnvelope(final Envelope env)
+	{
+		for (int i = 0; i < size; i++)
+			env.expandToInclude(getX(i), getY(i));
+		return env;
+	}
+
+	@Override
+	@Deprecated
+	public Object clone()
+	{
+		return copy();
+	}
+
+	@Override
+	public CoordinateSequence copy()
+	{
+		return new CoordinateArraySequence(toCoordinateArray(), 2);
+	}
+
+	@Override
+	public String toString()
+	{
+		return new CoordinateArraySequence(toCoordinateArray(), 2).toString();
+	}
+}
@@ -0,0 +1,341 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.io;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Off-heap store for the coordinates of large geometries.
+ * <p>
+ * If the directory <code>geoxacml.offheap.dir</code> is set, geometries with at least <code>geoxacml.offheap.minPoints</code>
+ * vertices (default 100000) are rebuilt with {@link MappedCoordinateSequence}s over a memory-mapped file of packed <code>x y</code>
+ * pairs. Only the geometry structure remains on the heap. Policy geometries, parsed once when the policy is loaded, are written once.
+ * <p>
+ * Files are named by the SHA-256 hash of their content, so a geometry is written only once per directory: another PDP process on the
+ * same host, or the same process after a restart, maps the existing file and shares its pages in the page cache. The content of an
+ * existing file is hashed again before it is used; a file that does not match its name, e.g. truncated or modified, is replaced.
+ * Files are written under a temporary name and renamed atomically, so no process ever maps a partial file. Files are mapped privately,
+ * so a change to a coordinate never reaches the file. Files are not deleted by the store.
+ * <p>
+ * If a file cannot be written or mapped, the geometry stays on the heap.
+ * <p>
+ * The store only keeps the coordinates off the heap as long as no derived structure copies them (see
+ * {@link MappedCoordinateSequence}). The raster point locator of a mapped geometry locates the points of its boundary cells on the
+ * mapped coordinates, so tests of points stay off the heap. The prepared geometry, needed for the exact predicates on other
+ * geometries, copies them: for a polygon of 1,000,000 vertices (16 MB mapped, 41 MB as a heap geometry) its point locator takes about
+ * 134 MB and its segment index 41 MB of heap. The facet index of the distance functions reads the mapped coordinates, but its tree
+ * takes another 24 MB.
+ *
+ * @author Andreas Matheus, Secure Dimensions GmbH.
+ *
+ */
+public final class MappedGeometryStore
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(MappedGeometryStore.class);
+
+	private static final String DIRECTORY = System.getProperty("geoxacml.offheap.dir");
+
+	private static final int MIN_POINTS = Integer.getInteger("geoxacml.offheap.minPoints", 100000);
+
+	private static final String SUFFIX = ".xy";
+
+	private MappedGeometryStore()
+	{
+	}
+
+	/**
+	 * @return <code>true</code> if large geometries are stored off-heap
+	 */
+	public static boolean isEnabled()
+	{
+		return DIRECTORY != null;
+	}
+
+	/**
+	 * Returns the geometry with its coordinates in a memory-mapped file if the store is enabled and the geometry is large enough
+	 *
+	 * @param swapAxes
+	 *            whether to swap x and y while packing the coordinates
+	 * @return the geometry over mapped coordinates, or <code>g</code> itself
+	 */
+	public static Geometry map(final Geometry g, final boolean swapAxes)
+	{
+		if (DIRECTORY == null || g.getNumPoints() < MIN_POINTS)
+			return g;
+
+		return map(g, swapAxes, Paths.get(DIRECTORY));
+	}
+
+	/**
+	 * Returns the geometry with its coordinates in a memory-mapped file in the given directory, whatever its size
+	 *
+	 * @param swapAxes
+	 *            whether to swap x and y while packing the coordinates
+	 * @return the geometry over mapped coordinates, or <code>g</code> itself if it is empty, has Z ordinates or cannot be mapped
+	 */
+	public static Geometry map(final Geometry g, final boolean swapAxes, final Path dir)
+	{
+		if (g.isEmpty() || (long) g.getNumPoints() * 16 > Integer.MAX_VALUE)
+			return g;
+
+		final List<CoordinateSequence> sequences = new ArrayList<CoordinateSequence>();
+		collect(g, sequences);
+
+		// only x and y are packed
+		for (final CoordinateSequence seq : sequences)
+		{
+			if (seq.getDimension() > 2 && hasZ(seq))
+				return g;
+		}
+
+		final ByteBuffer packed = ByteBuffer.allocate(g.getNumPoints() * 16).order(ByteOrder.nativeOrder());
+		for (final CoordinateSequence seq : sequences)
+		{
+			for (int i = 0; i < seq.size(); i++)
+			{
+				packed.putDouble(swapAxes ? seq.getY(i) : seq.getX(i));
+				packed.putDouble(swapAxes ? seq.getX(i) : seq.getY(i));
+			}
+		}
+		packed.flip();
+
+		try
+		{
+			final DoubleBuffer buffer = mapFile(packed, dir);
+
+			final List<CoordinateSequence> mapped = new ArrayList<CoordinateSequence>(sequences.size());
+			int offset = 0;
+			for (final CoordinateSequence seq : sequences)
+			{
+				mapped.add(new MappedCoordinateSequence(buffer, offset, seq.size()));
+				offset += 2 * seq.size();
+			}
+
+			final Geometry result = rebuild(g, g.getFactory(), mapped.iterator());
+			result.setSRID(g.getSRID());
+			result.setUserData(g.getUserData());
+			return result;
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn("Geometry with {} points kept on heap: {}", Integer.valueOf(g.getNumPoints()), e.getMessage());
+			return g;
+		}
+	}
+
+	/**
+	 * Maps the file named by the hash of the packed coordinates if its content matches, otherwise writes the file and maps it
+	 */
+	private static DoubleBuffer mapFile(final ByteBuffer packed, final Path dir) throws IOException
+	{
+		final String hash = hash(packed);
+		final Path file = dir.resolve(hash + SUFFIX);
+
+		if (Files.isRegularFile(file))
+		{
+			final DoubleBuffer existing = mapFile(file, packed.remaining(), hash);
+			if (existing != null)
+				return existing;
+
+			LOGGER.warn("Content of {} does not match its name, file is written again", file);
+		}
+
+		Files.createDirectories(dir);
+		// written under a temporary name and moved, so other processes never map a partial file
+		final Path tmp = Files.createTempFile(dir, "geoxacml", ".tmp");
+		try
+		{
+			try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE))
+			{
+				final ByteBuffer src = packed.duplicate();
+				while (src.hasRemaining())
+					out.write(src);
+				out.force(false);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(tmp);
+		}
+		LOGGER.debug("Geometry coordinates written to {}", file);
+
+		final DoubleBuffer written = mapFile(file, packed.remaining(), hash);
+		if (written == null)
+			throw new IOException("Content of " + file + " changed after it was written");
+		return written;
+	}
+
+	/**
+	 * Maps the file privately if it has the expected size and SHA-256 hash
+	 *
+	 * @return the coordinates or <code>null</code> if the content does not match
+	 */
+	private static DoubleBuffer mapFile(final Path file, final int size, final String hash) throws IOException
+	{
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			if (in.size() != size)
+				return null;
+
+			final MappedByteBuffer mapped = in.map(MapMode.PRIVATE, 0, size);
+			if (!hash.equals(hash(mapped)))
+				return null;
+
+			return mapped.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the coordinates of the geometry are in a memory-mapped file
+	 */
+	public static boolean isMapped(final Geometry g)
+	{
+		if (g instanceof Point)
+			return ((Point) g).getCoordinateSequence() instanceof MappedCoordinateSequence;
+		if (g instanceof LineString)
+			return ((LineString) g).getCoordinateSequence() instanceof MappedCoordinateSequence;
+		if (g instanceof Polygon)
+			return ((Polygon) g).getExteriorRing().getCoordinateSequence() instanceof MappedCoordinateSequence;
+		return g.getNumGeometries() > 0 && isMapped(g.getGeometryN(0));
+	}
+
+	private static boolean hasZ(final CoordinateSequence seq)
+	{
+		for (int i = 0; i < seq.size(); i++)
+		{
+			if (!Double.isNaN(seq.getOrdinate(i, CoordinateSequence.Z)))
+				return true;
+		}
+		return false;
+	}
+
+	private static String hash(final ByteBuffer packed)
+	{
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(packed.duplicate());
+			final StringBuilder sb = new StringBuilder();
+			for (final byte b : digest.digest())
+				sb.append(String.format("%02x", Byte.valueOf(b)));
+			return sb.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// SHA-256 is available in every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Collects the coordinate sequences of the geometry in the order of {@link #rebuild(Geometry, GeometryFactory, Iterator)}
+	 */
+	private static void collect(final Geometry g, final List<CoordinateSequence> sequences)
+	{
+		if (g instanceof Point)
+			sequences.add(((Point) g).getCoordinateSequence());
+		else if (g instanceof LineString)
+			sequences.add(((LineString) g).getCoordinateSequence());
+		else if (g instanceof Polygon)
+		{
+			final Polygon p = (Polygon) g;
+			sequences.add(p.getExteriorRing().getCoordinateSequence());
+			for (int i = 0; i < p.getNumInteriorRing(); i++)
+				sequences.add(p.getInteriorRingN(i).getCoordinateSequence());
+		}
+		else
+		{
+			for (int i = 0; i < g.getNumGeometries(); i++)
+				collect(g.getGeometryN(i), sequences);
+		}
+	}
+
+	private static Geometry rebuild(final Geometry g, final GeometryFactory gf, final Iterator<CoordinateSequence> sequences)
+	{
+		if (g instanceof Point)
+			return gf.createPoint(sequences.next());
+		if (g instanceof LinearRing)
+			return gf.createLinearRing(sequences.next());
+		if (g instanceof LineString)
+			return gf.createLineString(sequences.next());
+		if (g instanceof Polygon)
+		{
+			final LinearRing shell = gf.createLinearRing(sequences.next());
+			final LinearRing[] holes = new LinearRing[((Polygon) g).getNumInteriorRing()];
+			for (int i = 0; i < holes.length; i++)
+				holes[i] = gf.createLinearRing(sequences.next());
+			return gf.createPolygon(shell, holes);
+		}
+
+		final Geometry[] parts = new Geometry[g.getNumGeometries()];
+		for (int i = 0; i < parts.length; i++)
+			parts[i] = rebuild(g.getGeometryN(i), gf, sequences);
+
+		if (g instanceof MultiPoint)
+			return gf.createMultiPoint(copyOf(parts, Point.class));
+		if (g instanceof MultiLineString)
+			return gf.createMultiLineString(copyOf(parts, LineString.class));
+		if (g instanceof MultiPolygon)
+			return gf.createMultiPolygon(copyOf(parts, Polygon.class));
+		if (g instanceof GeometryCollection)
+			return gf.createGeometryCollection(parts);
+		throw new IllegalArgumentException("Unsupported geometry type: " + g.getGeometryType());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T[] copyOf(final Geometry[] parts, final Class<T> type)
+	{
+		final T[] result = (T[]) Array.newInstance(type, parts.length);
+		for (int i = 0; i < parts.length; i++)
+			result[i] = type.cast(parts[i]);
+		return result;
+	}
+}
@@ -36,6 +36,7 @@ import org.locationtech.jts.geom.Polygon;
 import org.xml.sax.Attributes; 
 import org.xml.sax.SAXException; 
 
+import de.securedimensions.geoxacml.datatype.Circle;
 import de.securedimensions.geoxacml.io.gml3.GMLHandler.Handler;
 
  
@@ -49,6 +50,11 @@ import de.securedimensions.geoxacml.io.gml3.GMLHandler.Handler;
 public class GeometryStrategies
 { 
 
+ /**
+  * Number of segments of the polygon representing a gml:CircleByCenterPoint
+  */
+ public static final int CIRCLE_SEGMENTS = Math.max(8, Integer.getInteger("geoxacml.circle.segments", 64));
+
  /**
   * This set of strategies is not expected to be used directly outside of this distribution. 
   *  
@@ -189,10 +195,20 @@ public Object parse(Handler arg, GeometryFactory gf) throws SAXException {
  
     int srid = getSrid(arg.attrs,gf.getSRID()); 
      
-    Point center = gf.createPoint((Coordinate)arg.children.get(0)); // will be the center of the circle 
+    Coordinate center = (Coordinate)arg.children.get(0); // will be the center of the circle 
     double r = Double.parseDouble((String)arg.children.get(1));
  
-    Geometry g = center.buffer(r);
+    // The polygon is built directly with its vertices on the circle; the analytic circle is kept
+    // as user data so that GeometryValue can evaluate points against the circle itself
+    Coordinate[] shell = new Coordinate[CIRCLE_SEGMENTS + 1];
+    for (int i = 0; i < CIRCLE_SEGMENTS; i++)
+    {
+     double angle = 2.0 * Math.PI * i / CIRCLE_SEGMENTS;
+     shell[i] = new Coordinate(center.x + r * Math.cos(angle), center.y + r * Math.sin(angle));
+    }
+    shell[CIRCLE_SEGMENTS] = new Coordinate(shell[0]);
+    Geometry g = gf.createPolygon(shell);
+    g.setUserData(new Circle(center.x, center.y, r, CIRCLE_SEGMENTS));
      
     if(g.getSRID()!=srid) 
      g.setSRID(srid); 
@@ -363,10 +379,14 @@ public Object parse(Handler arg, GeometryFactory gf) throws SAXException {
      throw new SAXException("Cannot create a coordinate sequence without text to parse"); 
      
     int dimension;
-    if(arg.attrs.getIndex("dimension")>=0) 
+    if(arg.attrs.getIndex("srsDimension")>=0) 
+    	dimension = Integer.parseInt(arg.attrs.getValue("srsDimension")); 
+    else if(arg.attrs.getIndex("dimension")>=0) 
     	dimension = Integer.parseInt(arg.attrs.getValue("dimension")); 
     else 
     	dimension = 2;
+    if (dimension != 2 && dimension != 3)
+    	throw new SAXException("Unsupported dimension of a coordinate sequence: " + dimension);
 
     // now to start parse
     String t = arg.text.toString().trim(); 
@@ -376,7 +396,7 @@ public Object parse(Handler arg, GeometryFactory gf) throws SAXException {
     t = t.replaceAll("\\s+"," "); 
      
     StringTokenizer tokenizer = new StringTokenizer(t);
-    int nTuples = tokenizer.countTokens() / 2;
+    int nTuples = tokenizer.countTokens() / dimension;
  
     CoordinateSequence cs = gf.getCoordinateSequenceFactory().create(nTuples, dimension); 
     
@@ -385,10 +405,9 @@ public Object parse(Handler arg, GeometryFactory gf) throws SAXException {
     {
     	cs.setOrdinate(ix,0,Double.parseDouble(tokenizer.nextToken()));
     	cs.setOrdinate(ix,1,Double.parseDouble(tokenizer.nextToken()));
+    	// a sequence of dimension 2 has no Z ordinate
     	if (dimension == 3)
     		cs.setOrdinate(ix,2,Double.parseDouble(tokenizer.nextToken()));
-    	else
-    		cs.setOrdinate(ix,2,Double.NaN);
     	
     	ix++;
     }
@@ -9,7 +9,31 @@ import org.junit.runners.Suite.SuiteClasses;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.securedimensions.geoxacml.test.combining.ZoneIndexedRuleCombiningAlgTest;
+import de.securedimensions.geoxacml.test.crs.CrsTransformTest;
 import de.securedimensions.geoxacml.test.datatype.GeometryAttributeTest;
+import de.securedimensions.geoxacml.test.datatype.GeometrySerializationTest;
+import de.securedimensions.geoxacml.test.datatype.GeometrySnapshotTest;
+import de.securedimensions.geoxacml.test.datatype.ParseCacheTest;
+import de.securedimensions.geoxacml.test.function.ApproximationCascadeTest;
+import de.securedimensions.geoxacml.test.function.BagSetFunctionsTest;
+import de.securedimensions.geoxacml.test.function.BagTopologicalFunctionsTest;
+import de.securedimensions.geoxacml.test.function.CellCoveringFunctionsTest;
+import de.securedimensions.geoxacml.test.function.CirclePredicatesTest;
+import de.securedimensions.geoxacml.test.function.DecisionCacheTest;
+import de.securedimensions.geoxacml.test.function.DistanceFunctionsTest;
+import de.securedimensions.geoxacml.test.function.EnvelopeFunctionsTest;
+import de.securedimensions.geoxacml.test.function.LoadSheddingTest;
+import de.securedimensions.geoxacml.test.function.PointPredicatesTest;
+import de.securedimensions.geoxacml.test.function.PredicateDispatchTest;
+import de.securedimensions.geoxacml.test.function.RasterLocationTest;
+import de.securedimensions.geoxacml.test.function.RectanglePredicatesTest;
+import de.securedimensions.geoxacml.test.function.RequestMemoTest;
+import de.securedimensions.geoxacml.test.function.SpatialJoinFunctionsTest;
+import de.securedimensions.geoxacml.test.function.TopologicalFunctionsTest;
+import de.securedimensions.geoxacml.test.index.GridPointLocatorTest;
+import de.securedimensions.geoxacml.test.io.FlatGeobufLayerTest;
+import de.securedimensions.geoxacml.test.io.MappedGeometryStoreTest;
 
 /**
  * 
@@ -17,7 +41,7 @@ import de.securedimensions.geoxacml.test.datatype.GeometryAttributeTest;
  * 
  */
 @RunWith(Suite.class)
-@SuiteClasses(value = { GeometryAttributeTest.class })
+@SuiteClasses(value = { GeometryAttributeTest.class, GeometrySerializationTest.class, GeometrySnapshotTest.class, GridPointLocatorTest.class, RasterLocationTest.class, CrsTransformTest.class, MappedGeometryStoreTest.class, ApproximationCascadeTest.class, LoadSheddingTest.class, CellCoveringFunctionsTest.class, RequestMemoTest.class, DecisionCacheTest.class, ParseCacheTest.class, BagSetFunctionsTest.class, BagTopologicalFunctionsTest.class, SpatialJoinFunctionsTest.class, DistanceFunctionsTest.class, TopologicalFunctionsTest.class, CirclePredicatesTest.class, RectanglePredicatesTest.class, PointPredicatesTest.class, EnvelopeFunctionsTest.class, PredicateDispatchTest.class, FlatGeobufLayerTest.class, ZoneIndexedRuleCombiningAlgTest.class })
 public class MainTest
 {
 	/**
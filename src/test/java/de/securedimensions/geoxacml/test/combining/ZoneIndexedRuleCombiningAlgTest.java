@@ -0,0 +1,233 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.combining;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.ow2.authzforce.core.pdp.api.AttributeFqn;
+import org.ow2.authzforce.core.pdp.api.AttributeFqns;
+import org.ow2.authzforce.core.pdp.api.DecisionRequest;
+import org.ow2.authzforce.core.pdp.api.DecisionRequestBuilder;
+import org.ow2.authzforce.core.pdp.api.value.Bags;
+import org.ow2.authzforce.core.pdp.impl.BasePdpEngine;
+import org.ow2.authzforce.core.pdp.impl.PdpEngineConfiguration;
+import org.ow2.authzforce.xacml.Xacml3JaxbHelper;
+
+import de.securedimensions.geoxacml.combining.ZoneIndexedRuleCombiningAlg;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.DecisionType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Policy;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.RuleCombinerParameters;
+
+/**
+ *
+ * GeoXACML3 zone indexed rule combining test: a policy with a rule per zone gives the same decisions with the zone indexed combining
+ * algorithm as with the standard one, and the rules whose zone cannot match are skipped.
+ */
+public class ZoneIndexedRuleCombiningAlgTest
+{
+	private static final GeometryFactory GF = new GeometryFactory(new PrecisionModel(), 4326);
+
+	private static final String SUBJECT = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+	private static final String LOCATION = "urn:de:securedimensions:subject:location";
+	private static final AttributeFqn LOCATION_FQN = AttributeFqns.newInstance(SUBJECT, Optional.empty(), LOCATION);
+
+	private static final String FIRST_APPLICABLE = "urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable";
+	private static final String DENY_OVERRIDES = "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-overrides";
+
+	private static final int ZONES = 10;
+
+	private static File dir;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception
+	{
+		dir = Files.createTempDirectory("zone-index").toFile();
+	}
+
+	@AfterClass
+	public static void tearDownClass()
+	{
+		for (final File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private static String designator()
+	{
+		return "<Apply FunctionId=\"urn:ogc:def:function:geoxacml:1.0:geometry-one-and-only\"><AttributeDesignator Category=\"" + SUBJECT + "\" AttributeId=\"" + LOCATION
+				+ "\" DataType=\"urn:ogc:def:dataType:geoxacml:1.0:geometry\" MustBePresent=\"false\"/></Apply>";
+	}
+
+	private static String zone(final double x, final double y, final double size)
+	{
+		return "<AttributeValue DataType=\"urn:ogc:def:dataType:geoxacml:1.0:geometry\">SRID=4326;POLYGON ((" + x + " " + y + ", " + (x + size) + " " + y + ", " + (x + size) + " "
+				+ (y + size) + ", " + x + " " + (y + size) + ", " + x + " " + y + "))</AttributeValue>";
+	}
+
+	private static String rule(final String id, final String effect, final String condition)
+	{
+		return "<Rule RuleId=\"" + id + "\" Effect=\"" + effect + "\"><Condition>" + condition + "</Condition></Rule>";
+	}
+
+	/**
+	 * A row of zones, each with a smaller zone of the other effect in its lower left quarter, and the same zones in the other argument
+	 * forms; the last rule denies access from outside all zones and is not indexed
+	 */
+	private static Policy policy(final String combiningAlgId) throws Exception
+	{
+		final StringBuilder rules = new StringBuilder();
+		for (int i = 0; i < ZONES; i++)
+		{
+			rules.append(rule("small-" + i, (i % 2 == 0) ? "Deny" : "Permit", "<Apply FunctionId=\"" + TopologicalFunctions.Within.ID + "\">" + designator() + zone(i * 2, 0, 0.5) + "</Apply>"));
+			rules.append(rule("large-" + i, (i % 2 == 0) ? "Permit" : "Deny", "<Apply FunctionId=\"" + TopologicalFunctions.Contains.ID + "\">" + zone(i * 2, 0, 1) + designator() + "</Apply>"));
+			rules.append(rule("band-" + i, "Permit", "<Apply FunctionId=\"" + TopologicalFunctions.Intersects.ID + "\">" + designator() + zone(i * 2, 1.5, 0.25) + "</Apply>"));
+		}
+		rules.append(rule("outside", "Deny", "<Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:not\"><Apply FunctionId=\"" + TopologicalFunctions.Within.ID + "\">" + designator()
+				+ zone(-10, -10, 40) + "</Apply></Apply>"));
+
+		final String xml = "<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"zones\" Version=\"1.0\" RuleCombiningAlgId=\"" + combiningAlgId + "\"><Target/>"
+				+ rules + "</Policy>";
+		return (Policy) Xacml3JaxbHelper.createXacml3Unmarshaller().unmarshal(new StringReader(xml));
+	}
+
+	private static BasePdpEngine pdp(final Policy policy, final String name) throws Exception
+	{
+		final File policyFile = new File(dir, name + "-policy.xml");
+		Xacml3JaxbHelper.createXacml3Marshaller().marshal(policy, policyFile);
+
+		final StringBuilder pdp = new StringBuilder("<pdp xmlns=\"http://authzforce.github.io/core/xmlns/pdp/7\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" version=\"7.1\">");
+		pdp.append("<attributeDatatype>urn:ogc:def:dataType:geoxacml:1.0:geometry</attributeDatatype>");
+		for (final String function : Arrays.asList(TopologicalFunctions.Within.ID, TopologicalFunctions.Contains.ID, TopologicalFunctions.Intersects.ID,
+				"urn:ogc:def:function:geoxacml:1.0:geometry-one-and-only"))
+			pdp.append("<function>").append(function).append("</function>");
+		for (final String alg : Arrays.asList(FIRST_APPLICABLE, DENY_OVERRIDES))
+			pdp.append("<combiningAlgorithm>").append(ZoneIndexedRuleCombiningAlg.ID_PREFIX).append(alg).append("</combiningAlgorithm>");
+		pdp.append("<policyProvider id=\"policies\" xsi:type=\"StaticPolicyProvider\"><policyLocation>").append(policyFile.toURI()).append("</policyLocation></policyProvider>");
+		pdp.append("<rootPolicyRef>zones</rootPolicyRef></pdp>");
+
+		final File pdpFile = new File(dir, name + "-pdp.xml");
+		Files.write(pdpFile.toPath(), pdp.toString().getBytes(StandardCharsets.UTF_8));
+		return new BasePdpEngine(PdpEngineConfiguration.getInstance(pdpFile.toURI().toString()));
+	}
+
+	private static DecisionType decide(final BasePdpEngine pdp, final Geometry location)
+	{
+		final DecisionRequestBuilder<?> builder = pdp.newRequestBuilder(-1, -1);
+		if (location != null)
+			builder.putNamedAttributeIfAbsent(LOCATION_FQN, Bags.singletonAttributeBag(GeometryValue.DATATYPE, new GeometryValue(location)));
+		final DecisionRequest request = builder.build(false);
+		return pdp.evaluate(request).getDecision();
+	}
+
+	private static void assertSameDecisions(final String combiningAlgId) throws Exception
+	{
+		final Policy policy = policy(combiningAlgId);
+		final Policy indexed = ZoneIndexedRuleCombiningAlg.index(policy);
+		Assert.assertEquals(ZoneIndexedRuleCombiningAlg.ID_PREFIX + combiningAlgId, indexed.getRuleCombiningAlgId());
+
+		try (BasePdpEngine standard = pdp(policy, "standard"); BasePdpEngine zoneIndexed = pdp(indexed, "indexed"))
+		{
+			for (double x = -0.5; x <= ZONES * 2; x += 0.25)
+			{
+				for (double y = -0.5; y <= 2.0; y += 0.25)
+				{
+					final Geometry point = GF.createPoint(new Coordinate(x, y));
+					Assert.assertEquals(point.toText(), decide(standard, point), decide(zoneIndexed, point));
+				}
+			}
+
+			final Geometry line = GF.createLineString(new Coordinate[] { new Coordinate(0.1, 0.1), new Coordinate(4.5, 0.2) });
+			Assert.assertEquals(decide(standard, line), decide(zoneIndexed, line));
+			Assert.assertEquals(decide(standard, GF.createPoint()), decide(zoneIndexed, GF.createPoint()));
+			Assert.assertEquals(decide(standard, null), decide(zoneIndexed, null));
+		}
+	}
+
+	@Test
+	public void testIndex() throws Exception
+	{
+		final Policy indexed = ZoneIndexedRuleCombiningAlg.index(policy(FIRST_APPLICABLE));
+		int parameters = 0;
+		for (final Object element : indexed.getCombinerParametersAndRuleCombinerParametersAndVariableDefinitions())
+		{
+			if (element instanceof RuleCombinerParameters)
+			{
+				Assert.assertNotEquals("outside", ((RuleCombinerParameters) element).getRuleIdRef());
+				parameters++;
+			}
+		}
+		Assert.assertEquals(3 * ZONES, parameters);
+
+		// not one of the wrapped algorithms
+		final Policy onlyOne = policy("urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:deny-overrides");
+		Assert.assertSame(onlyOne, ZoneIndexedRuleCombiningAlg.index(onlyOne));
+	}
+
+	@Test
+	public void testFirstApplicable() throws Exception
+	{
+		assertSameDecisions(FIRST_APPLICABLE);
+	}
+
+	@Test
+	public void testDenyOverrides() throws Exception
+	{
+		assertSameDecisions(DENY_OVERRIDES);
+	}
+
+	@Test
+	public void testSkipped() throws Exception
+	{
+		try (BasePdpEngine pdp = pdp(ZoneIndexedRuleCombiningAlg.index(policy(FIRST_APPLICABLE)), "skipped"))
+		{
+			// only the rules of the zones at (2, 0) and the rule that is not indexed are evaluated
+			long skipped = ZoneIndexedRuleCombiningAlg.getSkippedRules();
+			Assert.assertEquals(DecisionType.PERMIT, decide(pdp, GF.createPoint(new Coordinate(2.2, 0.2))));
+			Assert.assertEquals(3 * ZONES - 2, ZoneIndexedRuleCombiningAlg.getSkippedRules() - skipped);
+
+			// no zone: only the rule that is not indexed
+			skipped = ZoneIndexedRuleCombiningAlg.getSkippedRules();
+			Assert.assertEquals(DecisionType.NOT_APPLICABLE, decide(pdp, GF.createPoint(new Coordinate(-5, -5))));
+			Assert.assertEquals(3 * ZONES, ZoneIndexedRuleCombiningAlg.getSkippedRules() - skipped);
+
+			// another CRS or no location: no rule is skipped
+			skipped = ZoneIndexedRuleCombiningAlg.getSkippedRules();
+			final Geometry other = GF.createPoint(new Coordinate(-5, -5));
+			other.setSRID(3857);
+			Assert.assertEquals(DecisionType.DENY, decide(pdp, other));
+			Assert.assertEquals(DecisionType.INDETERMINATE, decide(pdp, null));
+			Assert.assertEquals(skipped, ZoneIndexedRuleCombiningAlg.getSkippedRules());
+		}
+	}
+}
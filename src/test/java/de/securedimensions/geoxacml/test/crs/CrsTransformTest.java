@@ -0,0 +1,135 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.crs;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+
+import de.securedimensions.geoxacml.crs.CrsTransform;
+
+/**
+ * 
+ * GeoXACML3 CRS transformation test: reference values and round trips between EPSG:4326 (LAT/LON), UTM and EPSG:3857, and densified
+ * edges of transformed geometries.
+ */
+public class CrsTransformTest
+{
+	@Test
+	public void testUTM()
+	{
+		final double[] result = new double[2];
+
+		// on the central meridian of zone 18N, the northing is the scaled meridian arc
+		CrsTransform.get(4326, 32618).transform(45.0, -75.0, result);
+		Assert.assertEquals(500000.0, result[0], 1.0E-6);
+		Assert.assertEquals(4982950.400, result[1], 1.0E-3);
+
+		// the equator is at 10000 km northing in the southern zones
+		CrsTransform.get(4326, 32733).transform(0.0, 15.0, result);
+		Assert.assertEquals(500000.0, result[0], 1.0E-6);
+		Assert.assertEquals(10000000.0, result[1], 1.0E-6);
+	}
+
+	@Test
+	public void testPseudoMercator()
+	{
+		final double[] result = new double[2];
+
+		CrsTransform.get(4326, 3857).transform(0.0, 180.0, result);
+		Assert.assertEquals(20037508.342789244, result[0], 1.0E-6);
+		Assert.assertEquals(0.0, result[1], 1.0E-6);
+	}
+
+	@Test
+	public void testRoundTrip()
+	{
+		final Random random = new Random(32632);
+		final double[] projected = new double[2];
+		final double[] geographic = new double[2];
+		final CrsTransform toUTM = CrsTransform.get(4326, 32632);
+		final CrsTransform fromUTM = CrsTransform.get(32632, 4326);
+		final CrsTransform toMercator = CrsTransform.get(32632, 3857);
+		final CrsTransform fromMercator = CrsTransform.get(3857, 32632);
+
+		for (int i = 0; i < 10000; i++)
+		{
+			// zone 32N spans 6 to 12 degrees east
+			final double lat = 80.0 * random.nextDouble();
+			final double lon = 6.0 + 6.0 * random.nextDouble();
+
+			toUTM.transform(lat, lon, projected);
+			fromUTM.transform(projected[0], projected[1], geographic);
+			Assert.assertEquals(lat, geographic[0], 1.0E-9);
+			Assert.assertEquals(lon, geographic[1], 1.0E-9);
+
+			final double easting = projected[0];
+			final double northing = projected[1];
+			toMercator.transform(easting, northing, geographic);
+			fromMercator.transform(geographic[0], geographic[1], projected);
+			Assert.assertEquals(easting, projected[0], 1.0E-4);
+			Assert.assertEquals(northing, projected[1], 1.0E-4);
+		}
+
+		Assert.assertNull(CrsTransform.get(4326, 31467));
+	}
+
+	@Test
+	public void testDensify()
+	{
+		final GeometryFactory gf = new GeometryFactory(new PrecisionModel(), 4326);
+
+		// a parallel is straight in EPSG:4326 and curved in UTM
+		final Geometry parallel = gf.createLineString(new Coordinate[] { new Coordinate(48.0, 6.0), new Coordinate(48.0, 12.0) });
+		parallel.setSRID(4326);
+		final Geometry projected = CrsTransform.transform(parallel, 32632);
+		Assert.assertEquals(32632, projected.getSRID());
+		Assert.assertTrue(projected.getNumPoints() > 400);
+
+		// every vertex, including those added between the two original ones, is on the parallel
+		final double[] geographic = new double[2];
+		final CrsTransform fromUTM = CrsTransform.get(32632, 4326);
+		for (final Coordinate c : projected.getCoordinates())
+		{
+			fromUTM.transform(c.x, c.y, geographic);
+			Assert.assertEquals(48.0, geographic[0], 1.0E-9);
+		}
+
+		// parallels are curved towards the pole, so the vertex on the central meridian of the zone is south of the chord between the end points
+		final double[] middle = new double[2];
+		CrsTransform.get(4326, 32632).transform(48.0, 9.0, middle);
+		Assert.assertTrue(projected.isWithinDistance(gf.createPoint(new Coordinate(middle[0], middle[1])), 1.0E-6));
+		final Coordinate[] ends = { projected.getCoordinates()[0], projected.getCoordinates()[projected.getNumPoints() - 1] };
+		Assert.assertTrue(middle[1] < (ends[0].y + ends[1].y) / 2.0 - 1000.0);
+
+		// a polygon stays valid, a point is not densified
+		final Geometry polygon = gf.toGeometry(new Envelope(47.0, 49.0, 6.0, 12.0));
+		polygon.setSRID(4326);
+		Assert.assertTrue(CrsTransform.transform(polygon, 32632).isValid());
+		final Geometry point = gf.createPoint(new Coordinate(48.0, 9.0));
+		point.setSRID(4326);
+		Assert.assertEquals(1, CrsTransform.transform(point, 32632).getNumPoints());
+	}
+}
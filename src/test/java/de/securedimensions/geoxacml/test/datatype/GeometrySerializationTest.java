@@ -0,0 +1,159 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.datatype;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.securedimensions.geoxacml.datatype.Circle;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ *
+ * GeoXACML3 GeometryValue serialization test: lossless round trips of the compact form and its size compared to the default
+ * serialization of the geometry.
+ */
+public class GeometrySerializationTest
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(GeometrySerializationTest.class);
+
+	private static final GeometryFactory GF = new GeometryFactory(new PrecisionModel(), 4326);
+
+	private static final String[] WKT = {
+			"POINT (48.1 11.5)",
+			"POINT EMPTY",
+			"LINESTRING (48.1 11.5, 48.2 11.6, -48.3 -11.7)",
+			"LINESTRING (48.1 11.5 520, 48.2 11.6 530)",
+			"LINEARRING (0 0, 0 1, 1 1, 1 0, 0 0)",
+			"POLYGON ((0 0, 0 10, 10 10, 10 0, 0 0), (2 2, 2 3, 3 3, 3 2, 2 2))",
+			"POLYGON EMPTY",
+			"MULTIPOINT ((1 1), (2 2))",
+			"MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))",
+			"MULTIPOLYGON (((0 0, 0 1, 1 1, 1 0, 0 0)), ((5 5, 5 6, 6 6, 6 5, 5 5)))",
+			"GEOMETRYCOLLECTION (POINT (1 1), LINESTRING (0 0, 1 1), GEOMETRYCOLLECTION EMPTY)" };
+
+	private static byte[] serialize(final Object o) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+		{
+			out.writeObject(o);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(final byte[] bytes) throws IOException, ClassNotFoundException
+	{
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+		{
+			return in.readObject();
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException, ClassNotFoundException, ParseException
+	{
+		final WKTReader reader = new WKTReader(GF);
+		for (final String wkt : WKT)
+		{
+			final Geometry g = reader.read(wkt);
+			g.setSRID(4326);
+			final GeometryValue gv = new GeometryValue(g);
+
+			final GeometryValue result = (GeometryValue) deserialize(serialize(gv));
+			final Geometry r = result.getUnderlyingValue();
+			Assert.assertEquals(wkt, g.getGeometryType(), r.getGeometryType());
+			Assert.assertTrue(wkt, g.equalsExact(r));
+			Assert.assertEquals(wkt, 4326, r.getSRID());
+			Assert.assertEquals(wkt, g.getCoordinate() == null ? Double.NaN : g.getCoordinate().getZ(), r.getCoordinate() == null ? Double.NaN : r.getCoordinate().getZ(), 0.0);
+		}
+
+		// null geometry with its null reason
+		final Geometry nil = GF.createPoint();
+		nil.setSRID(0);
+		nil.setUserData("withheld");
+		final GeometryValue result = (GeometryValue) deserialize(serialize(new GeometryValue(nil)));
+		Assert.assertEquals("withheld", result.getUnderlyingValue().getUserData());
+		Assert.assertEquals(0, result.getUnderlyingValue().getSRID());
+	}
+
+	@Test
+	public void testCircle() throws IOException, ClassNotFoundException
+	{
+		final Circle circle = new Circle(48.1, 11.5, 0.01, 64);
+		final Geometry g = GF.createPoint(new Coordinate(48.1, 11.5)).buffer(0.01, 16);
+		g.setSRID(4326);
+
+		final GeometryValue result = (GeometryValue) deserialize(serialize(new GeometryValue(g, circle)));
+		Assert.assertNotNull(result.getCircle());
+		Assert.assertEquals(48.1, result.getCircle().getX(), 0.0);
+		Assert.assertEquals(11.5, result.getCircle().getY(), 0.0);
+		Assert.assertEquals(0.01, result.getCircle().getRadius(), 0.0);
+		Assert.assertEquals(64, result.getCircle().getSegments());
+		Assert.assertTrue(g.equalsExact(result.getUnderlyingValue()));
+	}
+
+	@Test
+	public void testSize() throws IOException, ClassNotFoundException
+	{
+		// a ring of 10000 vertices around Munich with 7 decimals
+		final Random random = new Random(4326);
+		final Coordinate[] ring = new Coordinate[10001];
+		for (int i = 0; i < 10000; i++)
+		{
+			final double angle = 2.0 * Math.PI * i / 10000;
+			final double r = 0.1 + 0.001 * random.nextDouble();
+			ring[i] = new Coordinate(Math.round((48.1 + r * Math.cos(angle)) * 1.0E7) / 1.0E7, Math.round((11.5 + r * Math.sin(angle)) * 1.0E7) / 1.0E7);
+		}
+		ring[10000] = ring[0];
+		final Geometry g = GF.createPolygon(ring);
+		g.setSRID(4326);
+		final GeometryValue gv = new GeometryValue(g);
+
+		long start = System.nanoTime();
+		final byte[] standard = serialize(g);
+		deserialize(standard);
+		final long standardTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		final byte[] compact = serialize(gv);
+		final GeometryValue result = (GeometryValue) deserialize(compact);
+		final long compactTime = System.nanoTime() - start;
+
+		LOGGER.info("Polygon with 10001 vertices: default serialization {} bytes in {} us, compact {} bytes in {} us", Integer.valueOf(standard.length), Long.valueOf(standardTime / 1000), Integer.valueOf(compact.length), Long.valueOf(compactTime / 1000));
+
+		Assert.assertTrue(g.equalsExact(result.getUnderlyingValue()));
+		Assert.assertTrue(compact.length * 3 < standard.length * 2);
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.datatype;
+
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.jts.geom.Geometry;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import de.securedimensions.geoxacml.datatype.GeometrySnapshot;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.AttributeValueType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Policy;
+
+/**
+ *
+ * GeoXACML3 geometry snapshot test: a snapshot built from a policy file is used for the geometries of the same policy as loaded by
+ * the PDP, independent of namespace prefixes and whitespace, and ignored if built with a different parser configuration.
+ */
+public class GeometrySnapshotTest
+{
+	private static final String POLICY = "/snapshot/policy.xml";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void tearDown()
+	{
+		GeometrySnapshot.use(null);
+	}
+
+	private static Document parse(final InputSource source) throws Exception
+	{
+		final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		return dbf.newDocumentBuilder().parse(source);
+	}
+
+	/**
+	 * Builds the snapshot of the test policy as the build step does
+	 */
+	private Path build(final Map<String, GeometryValue> values) throws Exception
+	{
+		try (InputStream is = GeometrySnapshotTest.class.getResourceAsStream(POLICY))
+		{
+			GeometrySnapshot.collect(parse(new InputSource(is)), values);
+		}
+		final Path file = folder.getRoot().toPath().resolve("geometries.gxsn");
+		GeometrySnapshot.write(values, file);
+		return file;
+	}
+
+	/**
+	 * Reads the geometry attribute values of the test policy as the PDP does: unmarshalled with JAXB
+	 */
+	private static List<AttributeValueType> unmarshal() throws Exception
+	{
+		final List<AttributeValueType> attributeValues = new ArrayList<AttributeValueType>();
+		final Unmarshaller unmarshaller = JAXBContext.newInstance(Policy.class).createUnmarshaller();
+		unmarshaller.setListener(new Unmarshaller.Listener()
+		{
+			@Override
+			public void afterUnmarshal(final Object target, final Object parent)
+			{
+				if (target instanceof AttributeValueType && GeometryValue.DATATYPE.getId().equals(((AttributeValueType) target).getDataType()))
+					attributeValues.add((AttributeValueType) target);
+			}
+		});
+		try (InputStream is = GeometrySnapshotTest.class.getResourceAsStream(POLICY))
+		{
+			unmarshaller.unmarshal(is);
+		}
+		return attributeValues;
+	}
+
+	private static void assertSame(final Geometry expected, final Geometry actual)
+	{
+		Assert.assertTrue(expected + " != " + actual, expected.equalsExact(actual));
+		Assert.assertEquals(expected.getSRID(), actual.getSRID());
+	}
+
+	@Test
+	public void testPolicyHits() throws Exception
+	{
+		final Map<String, GeometryValue> values = new HashMap<String, GeometryValue>();
+		final Path file = build(values);
+		Assert.assertEquals(3, values.size());
+		Assert.assertTrue(GeometrySnapshot.use(file));
+
+		final List<AttributeValueType> attributeValues = unmarshal();
+		Assert.assertEquals(3, attributeValues.size());
+
+		final long hits = GeometrySnapshot.getHits();
+		final long misses = GeometrySnapshot.getMisses();
+		final List<Geometry> expected = new ArrayList<Geometry>();
+		for (final GeometryValue gv : values.values())
+			expected.add(gv.getUnderlyingValue());
+
+		for (final AttributeValueType av : attributeValues)
+		{
+			final GeometryValue gv = GeometryValue.FACTORY.getInstance(av.getContent(), av.getOtherAttributes(), null);
+			boolean found = false;
+			for (final Geometry g : expected)
+				found |= g.equalsExact(gv.getUnderlyingValue()) && g.getSRID() == gv.getUnderlyingValue().getSRID();
+			Assert.assertTrue("Not in the snapshot: " + gv.getUnderlyingValue(), found);
+		}
+
+		Assert.assertEquals(hits + 3, GeometrySnapshot.getHits());
+		Assert.assertEquals(misses, GeometrySnapshot.getMisses());
+	}
+
+	@Test
+	public void testCanonicalGml() throws Exception
+	{
+		final Map<String, GeometryValue> values = new HashMap<String, GeometryValue>();
+		Assert.assertTrue(GeometrySnapshot.use(build(values)));
+
+		// other prefix, attribute order and whitespace than in the policy file
+		final String gml = "<g:Polygon srsName=\"EPSG:4326\" xmlns:g=\"http://www.opengis.net/gml/3.2\" g:id=\"munich\"><!-- Munich --><g:exterior><g:LinearRing>"
+				+ "<g:posList srsDimension=\"2\">\n\t48.0 11.0  48.0 12.0 49.0 12.0\n49.0 11.0 48.0 11.0 </g:posList></g:LinearRing></g:exterior></g:Polygon>";
+		final List<Serializable> content = Collections.singletonList((Serializable) parse(new InputSource(new StringReader(gml))).getDocumentElement());
+
+		final long hits = GeometrySnapshot.getHits();
+		final GeometryValue gv = GeometryValue.FACTORY.getInstance(content, null, null);
+		Assert.assertEquals(hits + 1, GeometrySnapshot.getHits());
+
+		GeometrySnapshot.use(null);
+		assertSame(GeometryValue.FACTORY.getInstance(content, null, null).getUnderlyingValue(), gv.getUnderlyingValue());
+
+		// other coordinates are not in the snapshot
+		Assert.assertTrue(GeometrySnapshot.use(build(values)));
+		final List<Serializable> other = Collections.singletonList((Serializable) parse(new InputSource(new StringReader(gml.replace("49.0 12.0", "49.5 12.0")))).getDocumentElement());
+		final long misses = GeometrySnapshot.getMisses();
+		Assert.assertFalse(gv.getUnderlyingValue().equalsExact(GeometryValue.FACTORY.getInstance(other, null, null).getUnderlyingValue()));
+		Assert.assertEquals(misses + 1, GeometrySnapshot.getMisses());
+	}
+
+	@Test
+	public void testConfiguration() throws Exception
+	{
+		final Path file = build(new HashMap<String, GeometryValue>());
+
+		// the configuration recorded in the header differs from the one of the parser
+		final byte[] bytes = Files.readAllBytes(file);
+		final ByteBuffer header = ByteBuffer.wrap(bytes);
+		header.putInt(8, header.getInt(8) + 1);
+		final Path other = folder.getRoot().toPath().resolve("other.gxsn");
+		Files.write(other, bytes);
+		Assert.assertFalse(GeometrySnapshot.use(other));
+		Assert.assertFalse(GeometrySnapshot.isEnabled());
+
+		// truncated
+		Files.write(other, new byte[] { 'G', 'X', 'S', 'N' });
+		Assert.assertFalse(GeometrySnapshot.use(other));
+
+		Assert.assertTrue(GeometrySnapshot.use(file));
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.datatype;
+
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+import org.xml.sax.InputSource;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ *
+ * GeoXACML3 parse cache test: the individual decisions of a Multiple Decision request carrying the same geometry encoding share one
+ * value, which equals the geometry read by JTS; encodings that differ in the CRS are different values.
+ */
+public class ParseCacheTest
+{
+	private static final QName CRS = new QName("http://www.opengis.net/geoxacml", "crs");
+
+	private static Map<QName, String> crs(final String crsName)
+	{
+		final Map<QName, String> attributes = new HashMap<QName, String>();
+		attributes.put(CRS, crsName);
+		return attributes;
+	}
+
+	private static Geometry jts(final String wkt, final int srid) throws Exception
+	{
+		final Geometry g = new WKTReader().read(wkt);
+		g.setSRID(srid);
+		return g;
+	}
+
+	private static void assertJts(final Geometry expected, final GeometryValue actual)
+	{
+		Assert.assertTrue(expected + " != " + actual, expected.equalsExact(actual.getUnderlyingValue()));
+		Assert.assertEquals(expected.getSRID(), actual.getUnderlyingValue().getSRID());
+	}
+
+	@Test
+	public void testSharedValue() throws Exception
+	{
+		final String wkt = "POLYGON ((48.01 11.01, 48.01 12.01, 49.01 12.01, 49.01 11.01, 48.01 11.01))";
+
+		// the same attribute value in two individual requests
+		final GeometryValue first = GeometryValue.FACTORY.getInstance("SRID=4326;" + wkt, null, null);
+		final long hits = GeometryValue.getParseCacheStats().hitCount();
+		final GeometryValue second = GeometryValue.FACTORY.getInstance(new String("SRID=4326;" + wkt), null, null);
+		Assert.assertSame(first, second);
+		Assert.assertEquals(hits + 1, GeometryValue.getParseCacheStats().hitCount());
+		assertJts(jts(wkt, 4326), first);
+
+		// the derived structures are shared as well
+		Assert.assertSame(first.getPreparedGeometry(), second.getPreparedGeometry());
+	}
+
+	@Test
+	public void testCrs() throws Exception
+	{
+		final String wkt = "POINT (48.02 11.02)";
+		final GeometryValue wgs84 = GeometryValue.FACTORY.getInstance(wkt, crs("EPSG:4326"), null);
+		final GeometryValue webMercator = GeometryValue.FACTORY.getInstance(wkt, crs("EPSG:3857"), null);
+		Assert.assertNotSame(wgs84, webMercator);
+		assertJts(jts(wkt, 4326), wgs84);
+		assertJts(jts(wkt, 3857), webMercator);
+
+		Assert.assertSame(wgs84, GeometryValue.FACTORY.getInstance(wkt, crs("EPSG:4326"), null));
+		Assert.assertSame(webMercator, GeometryValue.FACTORY.getInstance(wkt, crs("EPSG:3857"), null));
+
+		// another encoding of the same geometry is parsed on its own
+		final GeometryValue ewkt = GeometryValue.FACTORY.getInstance("SRID=4326;" + wkt, null, null);
+		Assert.assertNotSame(wgs84, ewkt);
+		assertJts(jts(wkt, 4326), ewkt);
+	}
+
+	@Test
+	public void testGml() throws Exception
+	{
+		final String gml = "<gml:Point xmlns:gml=\"http://www.opengis.net/gml/3.2\" srsName=\"EPSG:4326\"><gml:pos>48.03 11.03</gml:pos></gml:Point>";
+		final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+
+		// each individual request carries its own element
+		final List<Serializable> first = Collections.singletonList((Serializable) dbf.newDocumentBuilder().parse(new InputSource(new StringReader(gml))).getDocumentElement());
+		final List<Serializable> second = Collections.singletonList((Serializable) dbf.newDocumentBuilder().parse(new InputSource(new StringReader(gml))).getDocumentElement());
+		final GeometryValue gv = GeometryValue.FACTORY.getInstance(first, null, null);
+		Assert.assertSame(gv, GeometryValue.FACTORY.getInstance(second, null, null));
+		assertJts(jts("POINT (48.03 11.03)", 4326), gv);
+	}
+
+	@Test
+	public void testEmpty() throws Exception
+	{
+		final GeometryValue empty = GeometryValue.FACTORY.getInstance("", null, null);
+		Assert.assertTrue(empty.getUnderlyingValue().isEmpty());
+		Assert.assertSame(empty, GeometryValue.FACTORY.getInstance("", null, null));
+
+		final GeometryValue point = GeometryValue.FACTORY.getInstance("SRID=4326;POINT EMPTY", null, null);
+		assertJts(jts("POINT EMPTY", 4326), point);
+		Assert.assertSame(point, GeometryValue.FACTORY.getInstance("SRID=4326;POINT EMPTY", null, null));
+		Assert.assertNotSame(point, GeometryValue.FACTORY.getInstance("SRID=3857;POINT EMPTY", null, null));
+	}
+}
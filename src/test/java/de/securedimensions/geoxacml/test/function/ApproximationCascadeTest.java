@@ -0,0 +1,129 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+
+import de.securedimensions.geoxacml.datatype.Circle;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+
+/**
+ *
+ * GeoXACML3 approximation cascade test: <code>geometry-within</code>, <code>geometry-contains</code>, <code>geometry-intersects</code> and
+ * <code>geometry-disjoint</code> on zones with and without the approximation stages give the results of the JTS predicates, also where
+ * the approximations cannot decide, and the approximations are conservative.
+ */
+public class ApproximationCascadeTest
+{
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Contains CONTAINS = new TopologicalFunctions.Contains();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+	private static final TopologicalFunctions.Disjoint DISJOINT = new TopologicalFunctions.Disjoint();
+
+	/**
+	 * Compares the functions with the JTS predicates, the zone as the constant argument of a policy
+	 */
+	private static void assertJts(final GeometryValue z, final Geometry probe) throws IndeterminateEvaluationException
+	{
+		final Geometry zone = z.getUnderlyingValue();
+		final GeometryValue p = geometry(probe);
+		final String msg = probe.toText();
+		Assert.assertEquals(msg, probe.within(zone), test(WITHIN, variable(p), constant(z)));
+		Assert.assertEquals(msg, zone.contains(probe), test(CONTAINS, constant(z), variable(p)));
+		Assert.assertEquals(msg, probe.intersects(zone), test(INTERSECTS, variable(p), constant(z)));
+		Assert.assertEquals(msg, zone.disjoint(probe), test(DISJOINT, constant(z), variable(p)));
+	}
+
+	@Test
+	public void testLargeZone() throws IndeterminateEvaluationException
+	{
+		// above geoxacml.approximation.minPoints: envelope, inscribed circle, convex hull and exact stage
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		for (final Geometry probe : probes(46.7, 10.1, 2.8, 40))
+			assertJts(zone, probe);
+	}
+
+	@Test
+	public void testSmallZone() throws IndeterminateEvaluationException
+	{
+		// below geoxacml.approximation.minPoints: envelope and exact stage only
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 40));
+		for (final Geometry probe : probes(46.7, 10.1, 2.8, 40))
+			assertJts(zone, probe);
+	}
+
+	@Test
+	public void testApproximations()
+	{
+		// the inner approximation is inside the zone and the outer approximation covers it
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final Geometry z = zone.getUnderlyingValue();
+		final Circle inner = zone.getInscribedCircle();
+		Assert.assertNotNull(inner);
+		for (int i = 0; i < 360; i++)
+		{
+			final double angle = Math.toRadians(i);
+			final Point p = GF.createPoint(new Coordinate(inner.getX() + inner.getRadius() * Math.cos(angle), inner.getY() + inner.getRadius() * Math.sin(angle)));
+			Assert.assertTrue(p.toText(), z.covers(p));
+		}
+		Assert.assertTrue(zone.getPreparedConvexHull().covers(z));
+	}
+
+	@Test
+	public void testBetweenApproximations() throws IndeterminateEvaluationException
+	{
+		// points the approximations cannot decide: in the convex hull but not in the zone, in the hole, and around the inscribed circle
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final Geometry z = zone.getUnderlyingValue();
+		final Geometry hull = z.convexHull();
+		final Circle inner = zone.getInscribedCircle();
+		final Random random = new Random(4326);
+		int outsideInHull = 0;
+		int aroundCircle = 0;
+		while (outsideInHull < 200 || aroundCircle < 200)
+		{
+			final Coordinate c = new Coordinate(46.9 + 2.4 * random.nextDouble(), 10.3 + 2.4 * random.nextDouble());
+			final Point p = GF.createPoint(c);
+			final double dc = inner.distanceToCenter(c.x, c.y);
+			if (hull.contains(p) && !z.contains(p) && outsideInHull < 200)
+				outsideInHull++;
+			else if (Math.abs(dc - inner.getRadius()) < 0.05 && aroundCircle < 200)
+				aroundCircle++;
+			else
+				continue;
+			assertJts(zone, p);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.bag;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.ring;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.BagSetFunctions;
+
+/**
+ *
+ * GeoXACML3 bag set function test: <code>geometry-bag-at-least-one-member-of</code>, <code>geometry-bag-subset</code> and
+ * <code>geometry-set-equals</code> give the results of testing each element against the other bag with <code>equalsExact</code>, for
+ * bags small enough to be evaluated sequentially and large enough to be evaluated in parallel, given in the policy or in the request.
+ */
+public class BagSetFunctionsTest
+{
+	private static final BagSetFunctions.AtLeastOneMemberOf AT_LEAST_ONE_MEMBER_OF = new BagSetFunctions.AtLeastOneMemberOf();
+	private static final BagSetFunctions.Subset SUBSET = new BagSetFunctions.Subset();
+	private static final BagSetFunctions.SetEquals SET_EQUALS = new BagSetFunctions.SetEquals();
+
+	/**
+	 * <code>n</code> polygons with <code>numPoints</code> vertices each, all different
+	 */
+	private static List<GeometryValue> polygons(final int n, final int numPoints, final int srid)
+	{
+		final List<GeometryValue> values = new ArrayList<GeometryValue>();
+		for (int i = 0; i < n; i++)
+		{
+			final Geometry g = GF.createPolygon(ring(48.0 + 0.01 * i, 11.0, 0.5, numPoints));
+			values.add((srid == 4326) ? geometry(g) : geometry(g.toText(), srid));
+		}
+		return values;
+	}
+
+	private static boolean isMember(final GeometryValue gv, final List<GeometryValue> bag)
+	{
+		for (final GeometryValue other : bag)
+		{
+			if (other.getUnderlyingValue().equalsExact(gv.getUnderlyingValue()))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean atLeastOneMemberOf(final List<GeometryValue> bag1, final List<GeometryValue> bag2)
+	{
+		for (final GeometryValue gv : bag1)
+		{
+			if (isMember(gv, bag2))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean subset(final List<GeometryValue> bag1, final List<GeometryValue> bag2)
+	{
+		for (final GeometryValue gv : bag1)
+		{
+			if (!isMember(gv, bag2))
+				return false;
+		}
+		return true;
+	}
+
+	private static void assertReference(final Expression<Bag<GeometryValue>> arg1, final Expression<Bag<GeometryValue>> arg2, final List<GeometryValue> bag1, final List<GeometryValue> bag2) throws IndeterminateEvaluationException
+	{
+		Assert.assertEquals(atLeastOneMemberOf(bag1, bag2), test(AT_LEAST_ONE_MEMBER_OF, arg1, arg2));
+		Assert.assertEquals(subset(bag1, bag2), test(SUBSET, arg1, arg2));
+		Assert.assertEquals(subset(bag1, bag2) && subset(bag2, bag1), test(SET_EQUALS, arg1, arg2));
+	}
+
+	/**
+	 * Compares the functions with the reference with the bags in the request, in the policy or one in each
+	 */
+	private static void assertReference(final List<GeometryValue> bag1, final List<GeometryValue> bag2) throws IndeterminateEvaluationException
+	{
+		assertReference(variable(bag(bag1)), variable(bag(bag2)), bag1, bag2);
+		assertReference(constant(bag(bag1)), variable(bag(bag2)), bag1, bag2);
+		assertReference(variable(bag(bag1)), constant(bag(bag2)), bag1, bag2);
+		assertReference(constant(bag(bag1)), constant(bag(bag2)), bag1, bag2);
+	}
+
+	/**
+	 * Compares the functions with the reference for pairs of bags drawn from the given geometries
+	 */
+	private static void assertReference(final List<GeometryValue> values) throws IndeterminateEvaluationException
+	{
+		final Random random = new Random(4326);
+		final int half = values.size() / 2;
+		final List<GeometryValue> shuffled = new ArrayList<GeometryValue>(values);
+		Collections.shuffle(shuffled, random);
+
+		assertReference(values, shuffled);
+		assertReference(values.subList(0, half), shuffled);
+		assertReference(shuffled, values.subList(0, half));
+		assertReference(values.subList(0, half), values.subList(half, values.size()));
+		// one shared element
+		assertReference(values.subList(0, half + 1), values.subList(half, values.size()));
+		// duplicates
+		final List<GeometryValue> duplicates = new ArrayList<GeometryValue>(values);
+		duplicates.addAll(values.subList(0, half));
+		assertReference(duplicates, values);
+		assertReference(values, duplicates);
+	}
+
+	@Test
+	public void testSequential() throws IndeterminateEvaluationException
+	{
+		assertReference(polygons(20, 16, 4326));
+	}
+
+	@Test
+	public void testParallel() throws IndeterminateEvaluationException
+	{
+		// above geoxacml.parallel.minWork vertices
+		assertReference(polygons(200, 1000, 4326));
+	}
+
+	@Test
+	public void testEmpty() throws IndeterminateEvaluationException
+	{
+		final List<GeometryValue> values = polygons(20, 16, 4326);
+		final List<GeometryValue> none = Collections.emptyList();
+		assertReference(none, values);
+		assertReference(values, none);
+		assertReference(none, none);
+
+		// empty geometries are members like any other
+		final List<GeometryValue> empties = Collections.singletonList(geometry(GF.createPolygon()));
+		assertReference(empties, Collections.singletonList(geometry(GF.createPolygon())));
+		assertReference(empties, values);
+	}
+
+	@Test
+	public void testSridMismatch() throws IndeterminateEvaluationException
+	{
+		// membership compares the coordinates only
+		final List<GeometryValue> wgs84 = polygons(20, 16, 4326);
+		final List<GeometryValue> other = polygons(20, 16, 3857);
+		assertReference(wgs84, other);
+		Assert.assertTrue(test(SET_EQUALS, variable(bag(wgs84)), variable(bag(other))));
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.bag;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.BagTopologicalFunctions;
+
+/**
+ *
+ * GeoXACML3 bag topological function test: <code>geometry-bag-any-within</code> and <code>geometry-bag-any-intersects</code> on an
+ * indexed constant bag and on a scanned bag given at evaluation time give the results of testing every zone with the JTS predicate.
+ */
+public class BagTopologicalFunctionsTest
+{
+	private static final BagTopologicalFunctions.AnyWithin ANY_WITHIN = new BagTopologicalFunctions.AnyWithin();
+	private static final BagTopologicalFunctions.AnyIntersects ANY_INTERSECTS = new BagTopologicalFunctions.AnyIntersects();
+
+	/**
+	 * A grid of 10 x 10 zones with space between them
+	 */
+	private static List<GeometryValue> zones()
+	{
+		final List<GeometryValue> zones = new ArrayList<GeometryValue>();
+		for (int i = 0; i < 10; i++)
+		{
+			for (int j = 0; j < 10; j++)
+				zones.add(geometry(star(40.0 + i, 5.0 + j, 0.35, 300)));
+		}
+		return zones;
+	}
+
+	private interface Predicate
+	{
+		boolean test(Geometry g, Geometry zone);
+	}
+
+	private static boolean any(final Geometry g, final List<GeometryValue> zones, final Predicate predicate)
+	{
+		for (final GeometryValue zone : zones)
+		{
+			if (zone.getUnderlyingValue().getSRID() == g.getSRID() && predicate.test(g, zone.getUnderlyingValue()))
+				return true;
+		}
+		return false;
+	}
+
+	private static void assertReference(final List<GeometryValue> zones, final List<Geometry> probes) throws IndeterminateEvaluationException
+	{
+		final Bag<GeometryValue> bag = bag(zones);
+		final Expression<Bag<GeometryValue>> indexed = constant(bag);
+		final Expression<Bag<GeometryValue>> scanned = variable(bag);
+		for (final Geometry probe : probes)
+		{
+			final GeometryValue p = geometry(probe);
+			final boolean within = any(probe, zones, Geometry::within);
+			final boolean intersects = any(probe, zones, Geometry::intersects);
+			Assert.assertEquals(probe.toText(), within, test(ANY_WITHIN, variable(p), indexed));
+			Assert.assertEquals(probe.toText(), within, test(ANY_WITHIN, variable(p), scanned));
+			Assert.assertEquals(probe.toText(), intersects, test(ANY_INTERSECTS, variable(p), indexed));
+			Assert.assertEquals(probe.toText(), intersects, test(ANY_INTERSECTS, variable(p), scanned));
+		}
+	}
+
+	@Test
+	public void testAgainstJts() throws IndeterminateEvaluationException
+	{
+		assertReference(zones(), probes(39.5, 4.5, 10.0, 60));
+	}
+
+	@Test
+	public void testSmallBag() throws IndeterminateEvaluationException
+	{
+		// below geoxacml.index.minBagSize: not indexed
+		assertReference(zones().subList(0, 5), probes(39.5, 4.5, 2.0, 30));
+	}
+
+	@Test
+	public void testEmpty() throws IndeterminateEvaluationException
+	{
+		final List<GeometryValue> zones = zones();
+		final GeometryValue empty = geometry(GF.createPoint());
+		Assert.assertFalse(test(ANY_WITHIN, variable(empty), constant(bag(zones))));
+		Assert.assertFalse(test(ANY_INTERSECTS, variable(empty), variable(bag(zones))));
+
+		final List<GeometryValue> none = Collections.emptyList();
+		final GeometryValue p = geometry("POINT (40 5)", 4326);
+		Assert.assertFalse(test(ANY_WITHIN, variable(p), constant(bag(none))));
+		Assert.assertFalse(test(ANY_INTERSECTS, variable(p), variable(bag(none))));
+
+		// empty zones never match
+		final List<GeometryValue> withEmpty = new ArrayList<GeometryValue>(zones);
+		withEmpty.add(geometry(GF.createPolygon()));
+		assertReference(withEmpty, probes(39.5, 4.5, 10.0, 20));
+	}
+
+	@Test
+	public void testSridMismatch() throws IndeterminateEvaluationException
+	{
+		// the first half of the zones in another CRS: reprojection is off by default, so only zones in the CRS of the probe match
+		final List<GeometryValue> zones = zones();
+		final List<GeometryValue> mixed = new ArrayList<GeometryValue>();
+		for (int i = 0; i < zones.size(); i++)
+			mixed.add((i < zones.size() / 2) ? geometry(zones.get(i).getUnderlyingValue().toText(), 3857) : zones.get(i));
+		assertReference(mixed, probes(39.5, 4.5, 10.0, 30));
+
+		final GeometryValue p = geometry("POINT (40.2 5)", 4326);
+		Assert.assertTrue(test(ANY_WITHIN, variable(p), constant(bag(zones))));
+		Assert.assertFalse(test(ANY_WITHIN, variable(p), constant(bag(mixed))));
+	}
+
+	@Test
+	public void testCandidates() throws IndeterminateEvaluationException
+	{
+		// probes whose envelopes intersect the envelopes of zones they do not intersect, or of several zones
+		final List<Geometry> probes = new ArrayList<Geometry>();
+		for (int i = 0; i < 10; i++)
+		{
+			// along a row of zones, near the edge of their envelopes
+			probes.add(GF.createLineString(new Coordinate[] { new Coordinate(39.5, 4.66 + i), new Coordinate(49.5, 4.66 + i) }));
+			// a diagonal through the gaps
+			probes.add(GF.createLineString(new Coordinate[] { new Coordinate(39.5 + i, 4.5), new Coordinate(40.5 + i, 5.5) }));
+			// a block of 2 x 2 zones
+			probes.add(GF.toGeometry(new Envelope(39.6 + i * 0.9, 41.4 + i * 0.9, 4.6, 6.4)));
+		}
+		assertReference(zones(), probes);
+	}
+}
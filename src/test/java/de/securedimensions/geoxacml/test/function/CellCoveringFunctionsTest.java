@@ -0,0 +1,185 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.CellCoveringFunctions;
+import de.securedimensions.geoxacml.function.LoadShedding;
+import de.securedimensions.geoxacml.index.CellCovering;
+
+/**
+ *
+ * GeoXACML3 cell covering test: the covering never contradicts the exact location of a point, and
+ * <code>geometry-cell-within</code> and <code>geometry-cell-intersects</code> give the results of the JTS predicates.
+ */
+public class CellCoveringFunctionsTest
+{
+	private static final CellCoveringFunctions.Within WITHIN = new CellCoveringFunctions.Within();
+	private static final CellCoveringFunctions.Intersects INTERSECTS = new CellCoveringFunctions.Intersects();
+
+	@After
+	public void tearDown()
+	{
+		LoadShedding.setForced(false);
+		LoadShedding.setTolerance(0.0);
+	}
+
+	private static Geometry zones()
+	{
+		return GF.createMultiPolygon(new Polygon[] { (Polygon) star(48.1, 11.5, 1.0, 2000), (Polygon) star(50.5, 13.0, 0.5, 300) });
+	}
+
+	@Test
+	public void testLocate()
+	{
+		final Geometry zones = zones();
+		final CellCovering covering = CellCovering.build(zones, PreparedGeometryFactory.prepare(zones));
+		Assert.assertNotNull(covering);
+		Assert.assertTrue(covering.getNumCells() <= CellCovering.MAX_CELLS);
+		final IndexedPointInAreaLocator exact = new IndexedPointInAreaLocator(zones);
+
+		int unknown = 0;
+		final Random random = new Random(4326);
+		for (int i = 0; i < 100000; i++)
+		{
+			final Coordinate c = new Coordinate(46.5 + 5.0 * random.nextDouble(), 10.0 + 5.0 * random.nextDouble());
+			final int location = covering.locate(c.x, c.y);
+			if (location == CellCovering.UNKNOWN)
+				unknown++;
+			else
+				Assert.assertEquals("Location differs for " + c, exact.locate(c), location);
+		}
+		// only a small fraction of the points is in boundary cells
+		Assert.assertTrue(unknown < 10000);
+
+		// a point on the boundary is always in a boundary cell
+		for (final Coordinate c : zones.getCoordinates())
+			Assert.assertEquals("Vertex " + c + " not in a boundary cell", CellCovering.UNKNOWN, covering.locate(c.x, c.y));
+	}
+
+	@Test
+	public void testAgainstJts() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(zones());
+		final Geometry z = zone.getUnderlyingValue();
+		for (final Geometry probe : probes(46.7, 10.1, 4.5, 40))
+		{
+			final GeometryValue p = geometry(probe);
+			final String msg = probe.toText();
+			Assert.assertEquals(msg, probe.within(z), test(WITHIN, variable(p), constant(zone)));
+			Assert.assertEquals(msg, probe.intersects(z), test(INTERSECTS, variable(p), constant(zone)));
+			Assert.assertEquals(msg, z.intersects(probe), test(INTERSECTS, constant(zone), variable(p)));
+		}
+
+		// vertices are decided by the exact test
+		for (final Coordinate c : z.getCoordinates())
+		{
+			final Point p = GF.createPoint(c);
+			Assert.assertFalse(test(WITHIN, variable(geometry(p)), constant(zone)));
+			Assert.assertTrue(test(INTERSECTS, variable(geometry(p)), constant(zone)));
+		}
+	}
+
+	@Test
+	public void testVariableZone() throws IndeterminateEvaluationException
+	{
+		// a zone in the policy is covered when the call is created
+		final GeometryValue constantZone = geometry(zones());
+		WITHIN.newCall(Arrays.asList(variable(geometry("POINT (48.1 12.2)", 4326)), constant(constantZone)));
+		Assert.assertNotNull(constantZone.getComputedCellCovering());
+
+		// a zone in the request is tested exactly and never covered
+		final GeometryValue zone = geometry(zones());
+		final Geometry z = zone.getUnderlyingValue();
+		for (final Geometry probe : probes(46.7, 10.1, 4.5, 10))
+		{
+			final GeometryValue p = geometry(probe);
+			final String msg = probe.toText();
+			Assert.assertEquals(msg, probe.within(z), test(WITHIN, variable(p), variable(zone)));
+			Assert.assertEquals(msg, probe.intersects(z), test(INTERSECTS, variable(p), variable(zone)));
+			Assert.assertEquals(msg, z.intersects(probe), test(INTERSECTS, variable(zone), variable(p)));
+		}
+		Assert.assertNull(zone.getComputedCellCovering());
+	}
+
+	@Test
+	public void testNonPolygonalZone() throws IndeterminateEvaluationException
+	{
+		// a zone without area has no covering: all points are tested exactly
+		final GeometryValue zone = geometry("LINESTRING (47.5 11.5, 48.5 11.5, 48.5 12.5)", 4326);
+		final Geometry z = zone.getUnderlyingValue();
+		WITHIN.newCall(Arrays.asList(variable(geometry("POINT (48.1 12.2)", 4326)), constant(zone)));
+		Assert.assertNull(zone.getComputedCellCovering());
+		for (final Coordinate c : new Coordinate[] { new Coordinate(48.0, 11.5), new Coordinate(48.5, 12.5), new Coordinate(48.0, 12.0) })
+		{
+			final Point p = GF.createPoint(c);
+			Assert.assertEquals(p.toText(), p.within(z), test(WITHIN, variable(geometry(p)), constant(zone)));
+			Assert.assertEquals(p.toText(), p.intersects(z), test(INTERSECTS, variable(geometry(p)), constant(zone)));
+		}
+	}
+
+	@Test
+	public void testDegraded() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(zones());
+		final Geometry z = zone.getUnderlyingValue();
+		final Geometry boundary = z.getBoundary();
+		LoadShedding.setTolerance(0.02);
+		LoadShedding.setForced(true);
+
+		// points off the boundary by more than the tolerance are located by the covering, as in exact mode
+		final Random random = new Random(4326);
+		for (int i = 0; i < 2000; i++)
+		{
+			final Point p = GF.createPoint(new Coordinate(46.5 + 5.0 * random.nextDouble(), 10.0 + 5.0 * random.nextDouble()));
+			if (boundary.isWithinDistance(p, 0.05))
+				continue;
+			Assert.assertEquals(p.toText(), p.within(z), test(WITHIN, variable(geometry(p)), constant(zone)));
+			Assert.assertEquals(p.toText(), p.intersects(z), test(INTERSECTS, variable(geometry(p)), constant(zone)));
+		}
+
+		// other geometries are tested on the simplified geometries
+		final long approximate = LoadShedding.getApproximateEvaluations();
+		final GeometryValue line = geometry("LINESTRING (47.5 11.5, 48.5 11.5)", 4326);
+		Assert.assertTrue(test(INTERSECTS, variable(line), constant(zone)));
+		Assert.assertEquals(approximate + 1, LoadShedding.getApproximateEvaluations());
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.value.DoubleValue;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.xml.sax.InputSource;
+
+import de.securedimensions.geoxacml.datatype.Circle;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.DistanceFunctions;
+import de.securedimensions.geoxacml.function.LoadShedding;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+import de.securedimensions.geoxacml.io.gml3.GeometryStrategies;
+
+/**
+ *
+ * GeoXACML3 circle test: a <code>gml:CircleByCenterPoint</code> keeps its analytic form, and the predicates and distances evaluated
+ * with it give the results of JTS on the polygon representing the circle.
+ */
+public class CirclePredicatesTest
+{
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Contains CONTAINS = new TopologicalFunctions.Contains();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+	private static final TopologicalFunctions.Disjoint DISJOINT = new TopologicalFunctions.Disjoint();
+	private static final TopologicalFunctions.Touches TOUCHES = new TopologicalFunctions.Touches();
+	private static final DistanceFunctions.IsWithinDistance IS_WITHIN_DISTANCE = new DistanceFunctions.IsWithinDistance();
+
+	private static final double X = 48.1;
+	private static final double Y = 11.5;
+	private static final double RADIUS = 0.5;
+
+	private static final double[] DISTANCES = { 0.0, 0.001, 0.1 };
+
+	private static final double EPSILON = 1.0E-9;
+
+	@After
+	public void tearDown()
+	{
+		LoadShedding.setForced(false);
+		LoadShedding.setTolerance(0.0);
+	}
+
+	private static GeometryValue circle(final String srsName) throws Exception
+	{
+		final String gml = "<gml:CircleByCenterPoint xmlns:gml=\"http://www.opengis.net/gml/3.2\" srsName=\"" + srsName + "\" numArc=\"1\"><gml:pos>" + X + " " + Y
+				+ "</gml:pos><gml:radius uom=\"deg\">" + RADIUS + "</gml:radius></gml:CircleByCenterPoint>";
+		final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		final List<Serializable> content = Collections.singletonList((Serializable) dbf.newDocumentBuilder().parse(new InputSource(new StringReader(gml))).getDocumentElement());
+		return GeometryValue.FACTORY.getInstance(content, null, null);
+	}
+
+	/**
+	 * Points close to the circle: on the vertices of the polygon, on the middle of its edges and at distances around the radius
+	 */
+	private static List<Geometry> ringProbes(final int segments)
+	{
+		final List<Geometry> probes = new ArrayList<Geometry>();
+		for (int i = 0; i < 4 * segments; i++)
+		{
+			final double angle = Math.PI * i / (2.0 * segments);
+			for (final double f : new double[] { 0.0, 0.5, 0.99, 0.999, 0.9995, 0.99999, 1.0, 1.00001, 1.001, 1.01, 1.5 })
+				probes.add(GF.createPoint(new Coordinate(X + f * RADIUS * Math.cos(angle), Y + f * RADIUS * Math.sin(angle))));
+		}
+		return probes;
+	}
+
+	private static void assertReference(final GeometryValue circle, final Geometry polygon, final List<Geometry> probes) throws IndeterminateEvaluationException
+	{
+		// the polygon without the analytic form
+		final GeometryValue plain = geometry(polygon.copy());
+		for (final Geometry probe : probes)
+		{
+			final GeometryValue p = geometry(probe);
+			final String message = probe.toText();
+			Assert.assertEquals(message, probe.within(polygon), test(WITHIN, variable(p), constant(circle)));
+			Assert.assertEquals(message, polygon.contains(probe), test(CONTAINS, constant(circle), variable(p)));
+			Assert.assertEquals(message, probe.intersects(polygon), test(INTERSECTS, variable(p), constant(circle)));
+			Assert.assertEquals(message, probe.disjoint(polygon), test(DISJOINT, constant(circle), variable(p)));
+			Assert.assertEquals(message, probe.touches(polygon), test(TOUCHES, variable(p), constant(circle)));
+			Assert.assertEquals(message, test(WITHIN, variable(p), constant(plain)), test(WITHIN, variable(p), constant(circle)));
+
+			final double distance = probe.distance(polygon);
+			for (final double d : DISTANCES)
+			{
+				if (Math.abs(distance - d) < EPSILON)
+					continue;
+
+				Assert.assertEquals(message + " " + d, distance <= d, test(IS_WITHIN_DISTANCE, variable(p), constant(circle), constant(StandardDatatypes.DOUBLE, new DoubleValue(d))));
+			}
+		}
+	}
+
+	@Test
+	public void testParse() throws Exception
+	{
+		final GeometryValue gv = circle("EPSG:4326");
+		final Circle circle = gv.getCircle();
+		Assert.assertNotNull(circle);
+		Assert.assertEquals(X, circle.getX(), 0.0);
+		Assert.assertEquals(Y, circle.getY(), 0.0);
+		Assert.assertEquals(RADIUS, circle.getRadius(), 0.0);
+		Assert.assertEquals(GeometryStrategies.CIRCLE_SEGMENTS, circle.getSegments());
+
+		// the polygon has its vertices on the circle
+		final Geometry g = gv.getUnderlyingValue();
+		Assert.assertEquals(4326, g.getSRID());
+		Assert.assertEquals(GeometryStrategies.CIRCLE_SEGMENTS + 1, g.getNumPoints());
+		for (final Coordinate c : g.getCoordinates())
+			Assert.assertEquals(RADIUS, circle.distanceToCenter(c.x, c.y), EPSILON);
+
+		// the inscribed circle is inside the polygon
+		final Circle inner = gv.getInscribedCircle();
+		Assert.assertTrue(inner.getRadius() < RADIUS * Math.cos(Math.PI / circle.getSegments()));
+		Assert.assertTrue(g.contains(GF.createPoint(new Coordinate(inner.getX(), inner.getY())).buffer(inner.getRadius(), 64)));
+	}
+
+	@Test
+	public void testAgainstJts() throws Exception
+	{
+		final GeometryValue circle = circle("EPSG:4326");
+		final Geometry polygon = circle.getUnderlyingValue();
+		assertReference(circle, polygon, ringProbes(circle.getCircle().getSegments()));
+		assertReference(circle, polygon, probes(X - 1.0, Y - 1.0, 2.0, 12));
+	}
+
+	@Test
+	public void testCrs() throws Exception
+	{
+		// the circle is kept in the CRS given with srsName
+		final GeometryValue webMercator = circle("EPSG:3857");
+		Assert.assertEquals(3857, webMercator.getUnderlyingValue().getSRID());
+		Assert.assertNotNull(webMercator.getCircle());
+		Assert.assertTrue(test(WITHIN, variable(geometry("POINT (" + X + " " + Y + ")", 3857)), constant(webMercator)));
+	}
+
+	@Test
+	public void testDegraded() throws Exception
+	{
+		final double tolerance = 0.02;
+		final GeometryValue circle = circle("EPSG:4326");
+		final Geometry simplified = TopologyPreservingSimplifier.simplify(circle.getUnderlyingValue(), tolerance);
+
+		LoadShedding.setTolerance(tolerance);
+		LoadShedding.setForced(true);
+		final long approximate = LoadShedding.getApproximateEvaluations();
+		for (final Geometry probe : ringProbes(16))
+		{
+			final GeometryValue p = geometry(probe);
+			Assert.assertEquals(probe.toText(), probe.within(simplified), test(WITHIN, variable(p), constant(circle)));
+			Assert.assertEquals(probe.toText(), probe.intersects(simplified), test(INTERSECTS, variable(p), constant(circle)));
+			// always exact
+			Assert.assertEquals(probe.toText(), probe.touches(circle.getUnderlyingValue()), test(TOUCHES, variable(p), constant(circle)));
+		}
+		Assert.assertTrue(LoadShedding.getApproximateEvaluations() > approximate);
+	}
+}
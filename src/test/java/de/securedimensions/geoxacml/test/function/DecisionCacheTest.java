@@ -0,0 +1,184 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.newContext;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunctionCall;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.DecisionCache;
+import de.securedimensions.geoxacml.function.LoadShedding;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+
+/**
+ *
+ * GeoXACML3 decision cache test: a predicate evaluated in another decision on operands with the same coordinates is answered from the
+ * cache with the result of the JTS predicate; other operands, reloaded policies and degraded mode bypass the cached results.
+ */
+public class DecisionCacheTest
+{
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+
+	private GeometryValue zone;
+
+	/**
+	 * The call of the policy: the zone is constant, the argument is given at evaluation time
+	 */
+	private FirstOrderFunctionCall<BooleanValue> rule;
+
+	@Before
+	public void setUp()
+	{
+		DecisionCache.configure(1000, 60);
+		zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		rule = WITHIN.newCall(Arrays.asList(constant(zone)), GeometryValue.DATATYPE);
+	}
+
+	@After
+	public void tearDown()
+	{
+		DecisionCache.configure(0, 60);
+		LoadShedding.setForced(false);
+		LoadShedding.setTolerance(0.0);
+	}
+
+	/**
+	 * Evaluates <code>within(zone, g)</code> in a new decision
+	 */
+	private boolean evaluate(final GeometryValue g) throws IndeterminateEvaluationException
+	{
+		return rule.evaluate(newContext(), g).getUnderlyingValue().booleanValue();
+	}
+
+	@Test
+	public void testAcrossDecisions() throws IndeterminateEvaluationException
+	{
+		for (final Geometry probe : probes(46.7, 10.1, 2.8, 10))
+		{
+			final boolean expected = zone.getUnderlyingValue().within(probe);
+			final CacheStats before = DecisionCache.getStats();
+			Assert.assertEquals(probe.toText(), expected, evaluate(geometry(probe)));
+			// the same coordinates in the next request
+			Assert.assertEquals(probe.toText(), expected, evaluate(geometry(probe.copy())));
+			final CacheStats after = DecisionCache.getStats();
+			Assert.assertEquals(before.missCount() + 1, after.missCount());
+			Assert.assertEquals(before.hitCount() + 1, after.hitCount());
+		}
+
+		// other coordinates are another key
+		final GeometryValue p = geometry("POINT (48.1 12.2)", 4326);
+		evaluate(p);
+		final long misses = DecisionCache.getStats().missCount();
+		evaluate(geometry("POINT (48.1 12.200001)", 4326));
+		Assert.assertEquals(misses + 1, DecisionCache.getStats().missCount());
+	}
+
+	@Test
+	public void testPolicyReload() throws IndeterminateEvaluationException
+	{
+		final GeometryValue p = geometry(zone.getUnderlyingValue().copy());
+		Assert.assertTrue(evaluate(p));
+		Assert.assertEquals(1, DecisionCache.getStats().missCount());
+
+		// creating the calls again drops the results of the previous policies
+		rule = WITHIN.newCall(Arrays.asList(constant(zone)), GeometryValue.DATATYPE);
+		Assert.assertTrue(evaluate(p));
+		Assert.assertEquals(0, DecisionCache.getStats().hitCount());
+		Assert.assertEquals(2, DecisionCache.getStats().missCount());
+		Assert.assertTrue(evaluate(p));
+		Assert.assertEquals(1, DecisionCache.getStats().hitCount());
+	}
+
+	@Test
+	public void testKeys() throws IndeterminateEvaluationException
+	{
+		// calls created before any evaluation, so they do not invalidate the cache
+		final FirstOrderFunctionCall<BooleanValue> contains = new TopologicalFunctions.Contains().newCall(Arrays.asList(constant(zone)), GeometryValue.DATATYPE);
+		final FirstOrderFunctionCall<BooleanValue> swapped = WITHIN.newCall(Arrays.asList(), GeometryValue.DATATYPE, GeometryValue.DATATYPE);
+		final GeometryValue p = geometry("POINT (48.1 12.2)", 4326);
+		Assert.assertFalse(evaluate(p));
+
+		// another function or the operands swapped are other keys
+		Assert.assertTrue(contains.evaluate(newContext(), p).getUnderlyingValue().booleanValue());
+		Assert.assertTrue(swapped.evaluate(newContext(), p, zone).getUnderlyingValue().booleanValue());
+		Assert.assertEquals(0, DecisionCache.getStats().hitCount());
+		Assert.assertEquals(3, DecisionCache.getStats().missCount());
+
+		// an explicit invalidation drops the results
+		DecisionCache.invalidateAll();
+		Assert.assertFalse(evaluate(p));
+		Assert.assertEquals(0, DecisionCache.getStats().hitCount());
+	}
+
+	@Test
+	public void testEmptyAndSridMismatch() throws IndeterminateEvaluationException
+	{
+		Assert.assertFalse(evaluate(geometry(GF.createPolygon())));
+		final Geometry other = zone.getUnderlyingValue().getEnvelope();
+		Assert.assertFalse(evaluate(geometry(other.toText(), 3857)));
+		Assert.assertEquals(0, DecisionCache.getStats().requestCount());
+	}
+
+	@Test
+	public void testDegraded() throws IndeterminateEvaluationException
+	{
+		final GeometryValue p = geometry(zone.getUnderlyingValue().getEnvelope());
+		Assert.assertTrue(evaluate(p));
+		Assert.assertEquals(1, DecisionCache.getStats().requestCount());
+
+		// results are neither taken from nor put into the cache
+		LoadShedding.setTolerance(0.02);
+		LoadShedding.setForced(true);
+		Assert.assertTrue(evaluate(p));
+		Assert.assertFalse(evaluate(geometry(GF.createPoint(zone.getUnderlyingValue().getCentroid().getCoordinate()))));
+		Assert.assertEquals(1, DecisionCache.getStats().requestCount());
+	}
+
+	@Test
+	public void testDisabled() throws IndeterminateEvaluationException
+	{
+		DecisionCache.configure(0, 60);
+		Assert.assertNull(DecisionCache.getStats());
+		for (final Geometry probe : probes(46.7, 10.1, 2.8, 5))
+			Assert.assertEquals(probe.toText(), zone.getUnderlyingValue().within(probe), evaluate(geometry(probe)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidConfiguration()
+	{
+		DecisionCache.configure(-1, 60);
+	}
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.bag;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.call;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.newContext;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+import org.ow2.authzforce.core.pdp.api.value.DoubleValue;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.DistanceFunctions;
+
+/**
+ *
+ * GeoXACML3 distance function test: <code>geometry-bag-nearest-distance</code> and <code>geometry-is-within-distance-of-any</code> on
+ * an indexed constant bag and on a scanned bag given at evaluation time give the results of JTS distances to every zone;
+ * <code>geometry-is-within-distance</code> gives the result of <code>Geometry.isWithinDistance</code> whichever argument is constant.
+ */
+public class DistanceFunctionsTest
+{
+	private static final DistanceFunctions.BagNearestDistance BAG_NEAREST_DISTANCE = new DistanceFunctions.BagNearestDistance();
+	private static final DistanceFunctions.IsWithinDistanceOfAny IS_WITHIN_DISTANCE_OF_ANY = new DistanceFunctions.IsWithinDistanceOfAny();
+	private static final DistanceFunctions.IsWithinDistance IS_WITHIN_DISTANCE = new DistanceFunctions.IsWithinDistance();
+
+	private static final double[] DISTANCES = { 0.0, 0.05, 0.2, 0.6 };
+
+	private static final double EPSILON = 1.0E-9;
+
+	/**
+	 * A grid of 5 x 5 zones with space between them
+	 */
+	private static List<GeometryValue> zones()
+	{
+		final List<GeometryValue> zones = new ArrayList<GeometryValue>();
+		for (int i = 0; i < 5; i++)
+		{
+			for (int j = 0; j < 5; j++)
+				zones.add(geometry(star(40.0 + i, 5.0 + j, 0.35, 300)));
+		}
+		return zones;
+	}
+
+	private static Expression<DoubleValue> distance(final double d)
+	{
+		return constant(StandardDatatypes.DOUBLE, new DoubleValue(d));
+	}
+
+	private static double nearestDistance(final Geometry g, final List<GeometryValue> zones)
+	{
+		double min = Double.POSITIVE_INFINITY;
+		for (final GeometryValue zone : zones)
+		{
+			final Geometry z = zone.getUnderlyingValue();
+			if (!g.isEmpty() && !z.isEmpty() && z.getSRID() == g.getSRID())
+				min = Math.min(min, g.distance(z));
+		}
+		return min;
+	}
+
+	private static double nearestDistance(final GeometryValue gv, final Expression<Bag<GeometryValue>> zones) throws IndeterminateEvaluationException
+	{
+		return call(BAG_NEAREST_DISTANCE, newContext(), variable(gv), zones).getUnderlyingValue().doubleValue();
+	}
+
+	private static void assertReference(final List<GeometryValue> zones, final List<Geometry> probes) throws IndeterminateEvaluationException
+	{
+		final Bag<GeometryValue> bag = bag(zones);
+		final Expression<Bag<GeometryValue>> indexed = constant(bag);
+		final Expression<Bag<GeometryValue>> scanned = variable(bag);
+		for (final Geometry probe : probes)
+		{
+			final GeometryValue p = geometry(probe);
+			final double nearest = nearestDistance(probe, zones);
+			Assert.assertEquals(probe.toText(), nearest, nearestDistance(p, indexed), EPSILON);
+			Assert.assertEquals(probe.toText(), nearest, nearestDistance(p, scanned), EPSILON);
+			for (final double d : DISTANCES)
+			{
+				// away from the boundary of the distance, where rounding decides
+				if (Math.abs(nearest - d) < EPSILON)
+					continue;
+
+				Assert.assertEquals(probe.toText() + " " + d, nearest <= d, test(IS_WITHIN_DISTANCE_OF_ANY, variable(p), indexed, distance(d)));
+				Assert.assertEquals(probe.toText() + " " + d, nearest <= d, test(IS_WITHIN_DISTANCE_OF_ANY, variable(p), scanned, distance(d)));
+			}
+		}
+	}
+
+	@Test
+	public void testBagAgainstJts() throws IndeterminateEvaluationException
+	{
+		assertReference(zones(), probes(39.0, 4.0, 6.0, 15));
+	}
+
+	@Test
+	public void testSmallBag() throws IndeterminateEvaluationException
+	{
+		// below geoxacml.index.minBagSize: not indexed
+		assertReference(zones().subList(0, 3), probes(39.0, 4.0, 3.0, 10));
+	}
+
+	@Test
+	public void testBagEmpty() throws IndeterminateEvaluationException
+	{
+		final List<GeometryValue> zones = zones();
+		final GeometryValue empty = geometry(GF.createPoint());
+		Assert.assertEquals(Double.POSITIVE_INFINITY, nearestDistance(empty, constant(bag(zones))), 0.0);
+		Assert.assertFalse(test(IS_WITHIN_DISTANCE_OF_ANY, variable(empty), variable(bag(zones)), distance(100.0)));
+
+		final List<GeometryValue> none = Collections.emptyList();
+		final GeometryValue p = geometry("POINT (40 5)", 4326);
+		Assert.assertEquals(Double.POSITIVE_INFINITY, nearestDistance(p, constant(bag(none))), 0.0);
+		Assert.assertEquals(Double.POSITIVE_INFINITY, nearestDistance(p, variable(bag(none))), 0.0);
+		Assert.assertFalse(test(IS_WITHIN_DISTANCE_OF_ANY, variable(p), constant(bag(none)), distance(100.0)));
+
+		// empty zones are never near
+		final List<GeometryValue> withEmpty = new ArrayList<GeometryValue>(zones);
+		withEmpty.add(geometry(GF.createPolygon()));
+		assertReference(withEmpty, probes(39.0, 4.0, 6.0, 5));
+
+		// a negative distance is never reached
+		Assert.assertFalse(test(IS_WITHIN_DISTANCE_OF_ANY, variable(geometry("POINT (40.2 5)", 4326)), constant(bag(zones)), distance(-1.0)));
+	}
+
+	@Test
+	public void testBagSridMismatch() throws IndeterminateEvaluationException
+	{
+		// the first half of the zones in another CRS: reprojection is off by default, so only zones in the CRS of the probe are near
+		final List<GeometryValue> zones = zones();
+		final List<GeometryValue> mixed = new ArrayList<GeometryValue>();
+		for (int i = 0; i < zones.size(); i++)
+			mixed.add((i < zones.size() / 2) ? geometry(zones.get(i).getUnderlyingValue().toText(), 3857) : zones.get(i));
+		assertReference(mixed, probes(39.0, 4.0, 6.0, 10));
+
+		// no zone in the CRS of the probe
+		final GeometryValue p = geometry("POINT (40.2 5)", 3857);
+		Assert.assertEquals(Double.POSITIVE_INFINITY, nearestDistance(p, constant(bag(zones))), 0.0);
+		Assert.assertFalse(test(IS_WITHIN_DISTANCE_OF_ANY, variable(p), variable(bag(zones)), distance(100.0)));
+	}
+
+	@Test
+	public void testNearestNotByEnvelope() throws IndeterminateEvaluationException
+	{
+		// the probe is inside the envelopes of the long diagonal zones, but the small zone away from it is nearer
+		final List<GeometryValue> zones = new ArrayList<GeometryValue>();
+		for (int i = 0; i < 20; i++)
+			zones.add(geometry("LINESTRING (" + (40.0 + 0.01 * i) + " 5, " + (50.0 + 0.01 * i) + " 15)", 4326));
+		zones.add(geometry(GF.toGeometry(new Envelope(47.0, 47.1, 7.9, 8.0))));
+		final Geometry probe = GF.createPoint(new Coordinate(47.0, 7.5));
+		Assert.assertTrue(zones.get(0).getUnderlyingValue().getEnvelopeInternal().contains(probe.getCoordinate()));
+		assertReference(zones, Collections.singletonList(probe));
+		Assert.assertEquals(0.4, nearestDistance(geometry(probe), constant(bag(zones))), EPSILON);
+	}
+
+	/**
+	 * Compares <code>geometry-is-within-distance</code> with JTS for the zone as first, second or no constant argument
+	 */
+	private static void assertReference(final GeometryValue zone, final List<Geometry> probes) throws IndeterminateEvaluationException
+	{
+		final Geometry z = zone.getUnderlyingValue();
+		for (final Geometry probe : probes)
+		{
+			final GeometryValue p = geometry(probe);
+			final double distance = (z.isEmpty() || probe.isEmpty() || z.getSRID() != probe.getSRID()) ? Double.POSITIVE_INFINITY : probe.distance(z);
+			for (final double d : DISTANCES)
+			{
+				if (Math.abs(distance - d) < EPSILON)
+					continue;
+
+				final boolean expected = distance <= d;
+				Assert.assertEquals(probe.toText() + " " + d, expected, test(IS_WITHIN_DISTANCE, variable(p), constant(zone), distance(d)));
+				Assert.assertEquals(probe.toText() + " " + d, expected, test(IS_WITHIN_DISTANCE, constant(zone), variable(p), distance(d)));
+				Assert.assertEquals(probe.toText() + " " + d, expected, test(IS_WITHIN_DISTANCE, variable(p), variable(zone), distance(d)));
+			}
+		}
+	}
+
+	@Test
+	public void testAgainstJts() throws IndeterminateEvaluationException
+	{
+		final List<Geometry> probes = probes(46.7, 10.1, 2.8, 15);
+		assertReference(geometry(star(48.1, 11.5, 1.0, 2000)), probes);
+		assertReference(geometry("LINESTRING (47.2 10.6, 48.1 11.5, 49.0 11.2, 48.6 12.4)", 4326), probes);
+		assertReference(geometry("POINT (48.1 11.5)", 4326), probes);
+	}
+
+	@Test
+	public void testEmpty() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final GeometryValue empty = geometry(GF.createPoint());
+		Assert.assertFalse(test(IS_WITHIN_DISTANCE, variable(empty), constant(zone), distance(100.0)));
+		Assert.assertFalse(test(IS_WITHIN_DISTANCE, constant(zone), variable(empty), distance(100.0)));
+		assertReference(geometry(GF.createPolygon()), probes(46.7, 10.1, 2.8, 5));
+
+		// a negative distance is never reached
+		final GeometryValue p = geometry("POINT (48.1 11.5)", 4326);
+		Assert.assertFalse(test(IS_WITHIN_DISTANCE, variable(p), constant(zone), distance(-1.0)));
+	}
+
+	@Test
+	public void testEnvelopeNear() throws IndeterminateEvaluationException
+	{
+		// points in the bay of an L-shaped zone: within the distance of its envelope, but not always of the zone
+		final GeometryValue zone = geometry("POLYGON ((47 10, 47 12, 47.2 12, 47.2 10.2, 49 10.2, 49 10, 47 10))", 4326);
+		final List<Geometry> probes = new ArrayList<Geometry>();
+		for (int i = 1; i < 10; i++)
+		{
+			for (int j = 1; j < 10; j++)
+				probes.add(GF.createPoint(new Coordinate(47.2 + 0.18 * i, 10.2 + 0.18 * j)));
+		}
+		assertReference(zone, probes);
+	}
+}
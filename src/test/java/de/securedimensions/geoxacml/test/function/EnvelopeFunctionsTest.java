@@ -0,0 +1,206 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.call;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.newContext;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+
+import de.securedimensions.geoxacml.datatype.EnvelopeValue;
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.EnvelopeFunctions;
+
+/**
+ *
+ * GeoXACML3 envelope test: the box predicates compared on the primitive coordinates give the results of the JTS
+ * <code>Envelope</code> predicates, and the conversions between boxes and geometries agree with JTS.
+ */
+public class EnvelopeFunctionsTest
+{
+	private static final EnvelopeFunctions.Intersects INTERSECTS = new EnvelopeFunctions.Intersects();
+	private static final EnvelopeFunctions.Contains CONTAINS = new EnvelopeFunctions.Contains();
+	private static final EnvelopeFunctions.Within WITHIN = new EnvelopeFunctions.Within();
+	private static final EnvelopeFunctions.FromGeometry FROM_GEOMETRY = new EnvelopeFunctions.FromGeometry();
+	private static final EnvelopeFunctions.ToGeometry TO_GEOMETRY = new EnvelopeFunctions.ToGeometry();
+
+	private static final QName CRS = new QName("http://www.opengis.net/geoxacml", "crs");
+
+	/**
+	 * All boxes, including lines and points, with corners on a grid of 4 x 4 points
+	 */
+	private static List<Envelope> boxes()
+	{
+		final List<Envelope> boxes = new ArrayList<Envelope>();
+		for (int x0 = 0; x0 < 4; x0++)
+		{
+			for (int x1 = x0; x1 < 4; x1++)
+			{
+				for (int y0 = 0; y0 < 4; y0++)
+				{
+					for (int y1 = y0; y1 < 4; y1++)
+						boxes.add(new Envelope(x0, x1, y0, y1));
+				}
+			}
+		}
+		return boxes;
+	}
+
+	private static EnvelopeValue box(final Envelope e, final int srid)
+	{
+		return new EnvelopeValue(e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY(), srid);
+	}
+
+	private static boolean evaluate(final FirstOrderFunction<BooleanValue> function, final EnvelopeValue a, final EnvelopeValue b) throws IndeterminateEvaluationException
+	{
+		return test(function, variable(EnvelopeValue.DATATYPE, a), constant(EnvelopeValue.DATATYPE, b));
+	}
+
+	@Test
+	public void testAgainstJts() throws IndeterminateEvaluationException
+	{
+		final List<Envelope> boxes = boxes();
+		for (final Envelope e1 : boxes)
+		{
+			final EnvelopeValue a = box(e1, 4326);
+			for (final Envelope e2 : boxes)
+			{
+				final EnvelopeValue b = box(e2, 4326);
+				final String message = e1 + " " + e2;
+				Assert.assertEquals(message, e1.intersects(e2), evaluate(INTERSECTS, a, b));
+				Assert.assertEquals(message, e1.covers(e2), evaluate(CONTAINS, a, b));
+				Assert.assertEquals(message, e2.covers(e1), evaluate(WITHIN, a, b));
+				Assert.assertEquals(message, e1.equals(e2), a.equals(b));
+			}
+		}
+	}
+
+	@Test
+	public void testConversions() throws IndeterminateEvaluationException
+	{
+		for (final Geometry g : probes(48.0, 11.0, 1.0, 5))
+		{
+			final EnvelopeValue box = call(FROM_GEOMETRY, newContext(), variable(geometry(g)));
+			Assert.assertTrue(g.toText(), box(g.getEnvelopeInternal(), 4326).equals(box));
+
+			final GeometryValue gv = call(TO_GEOMETRY, newContext(), variable(EnvelopeValue.DATATYPE, box));
+			Assert.assertTrue(g.toText(), gv.getUnderlyingValue().equalsTopo(g.getEnvelope()));
+			Assert.assertEquals(4326, gv.getUnderlyingValue().getSRID());
+		}
+	}
+
+	@Test
+	public void testParse()
+	{
+		final EnvelopeValue box = new EnvelopeValue(1.0, 2.0, 3.0, 4.0, 4326);
+		Assert.assertEquals(box, EnvelopeValue.FACTORY.getInstance("SRID=4326;BOX(1 2, 3 4)", null));
+		Assert.assertEquals(box, EnvelopeValue.FACTORY.getInstance(box.toString(), null));
+
+		final Map<QName, String> attributes = new HashMap<QName, String>();
+		attributes.put(CRS, "EPSG:4326");
+		Assert.assertEquals(box, EnvelopeValue.FACTORY.getInstance("BOX(1 2, 3 4)", attributes));
+
+		// CRS84 is LON/LAT
+		attributes.put(CRS, "urn:ogc:def:crs:OGC::CRS84");
+		Assert.assertEquals(box, EnvelopeValue.FACTORY.getInstance("BOX(2 1, 4 3)", attributes));
+
+		// -0.0 and 0.0 are the same coordinate
+		Assert.assertEquals(new EnvelopeValue(0.0, 0.0, 1.0, 1.0, 4326), new EnvelopeValue(-0.0, -0.0, 1.0, 1.0, 4326));
+		Assert.assertEquals(new EnvelopeValue(0.0, 0.0, 1.0, 1.0, 4326).hashCode(), new EnvelopeValue(-0.0, -0.0, 1.0, 1.0, 4326).hashCode());
+	}
+
+	@Test
+	public void testInvalid()
+	{
+		for (final String encoding : new String[] { "SRID=4326;BOX(NaN 2, 3 4)", "SRID=4326;BOX(3 2, 1 4)", "BOX(1 2, 3 4)", "SRID=4326;BOX(1 2 3 4)", "SRID=4326;POINT (1 2)" })
+		{
+			try
+			{
+				EnvelopeValue.FACTORY.getInstance(encoding, null);
+				Assert.fail(encoding);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+
+		try
+		{
+			new EnvelopeValue(1.0, Double.NaN, 3.0, 4.0, 4326);
+			Assert.fail("NaN");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	@Test(expected = IndeterminateEvaluationException.class)
+	public void testEmpty() throws IndeterminateEvaluationException
+	{
+		Assert.assertNull(EnvelopeValue.of(geometry(GF.createPolygon())));
+		call(FROM_GEOMETRY, newContext(), variable(geometry(GF.createPoint())));
+	}
+
+	@Test
+	public void testSridMismatch() throws IndeterminateEvaluationException
+	{
+		// boxes in different CRS are never related
+		final EnvelopeValue box = new EnvelopeValue(1.0, 2.0, 3.0, 4.0, 4326);
+		final EnvelopeValue other = new EnvelopeValue(1.0, 2.0, 3.0, 4.0, 3857);
+		Assert.assertTrue(evaluate(INTERSECTS, box, box));
+		Assert.assertFalse(evaluate(INTERSECTS, box, other));
+		Assert.assertFalse(evaluate(CONTAINS, box, other));
+		Assert.assertFalse(evaluate(WITHIN, other, box));
+		Assert.assertNotEquals(box, other);
+	}
+
+	@Test
+	public void testDegenerateBoxes() throws IndeterminateEvaluationException
+	{
+		// boxes of points and lines become points and lines, only boxes with an area become rectangles
+		for (final Envelope e : boxes())
+		{
+			final GeometryValue gv = call(TO_GEOMETRY, newContext(), variable(EnvelopeValue.DATATYPE, box(e, 4326)));
+			Assert.assertTrue(e.toString(), gv.getUnderlyingValue().equalsExact(GF.toGeometry(e)));
+			Assert.assertEquals(e.toString(), e.getArea() > 0.0, gv.isRectangle());
+			Assert.assertTrue(e.toString(), box(e, 4326).equals(call(FROM_GEOMETRY, newContext(), variable(gv))));
+		}
+	}
+}
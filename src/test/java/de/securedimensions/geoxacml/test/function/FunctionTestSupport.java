@@ -0,0 +1,235 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.ConstantExpression;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+import org.ow2.authzforce.core.pdp.api.value.Bags;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.Value;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+
+/**
+ * Calls GeoXACML functions outside of a PDP, with arguments that are either constant, as the values of a policy, or only known at
+ * evaluation time, as the attributes of a request, and creates the test geometries.
+ */
+final class FunctionTestSupport
+{
+	static final GeometryFactory GF = new GeometryFactory(new PrecisionModel(), 4326);
+
+	private FunctionTestSupport()
+	{
+	}
+
+	/**
+	 * A new evaluation context, i.e. a new decision request. Only the named attributes of the context are supported.
+	 */
+	static EvaluationContext newContext()
+	{
+		final Map<Object, Object> other = new HashMap<Object, Object>();
+		return (EvaluationContext) Proxy.newProxyInstance(EvaluationContext.class.getClassLoader(), new Class<?>[] { EvaluationContext.class }, (proxy, method, args) -> {
+			switch (method.getName())
+			{
+				case "getOther":
+					return other.get(args[0]);
+				case "putOther":
+					return other.put(args[0], args[1]);
+				case "removeOther":
+					return other.remove(args[0]);
+				case "hashCode":
+					return Integer.valueOf(System.identityHashCode(proxy));
+				case "equals":
+					return Boolean.valueOf(proxy == args[0]);
+				default:
+					return (method.getReturnType() == boolean.class) ? Boolean.FALSE : null;
+			}
+		});
+	}
+
+	/**
+	 * An argument known when the policy is loaded
+	 */
+	static <V extends Value> Expression<V> constant(final Datatype<V> datatype, final V value)
+	{
+		return new ConstantExpression<V>(datatype, value)
+		{
+		};
+	}
+
+	static Expression<GeometryValue> constant(final GeometryValue value)
+	{
+		return constant(GeometryValue.DATATYPE, value);
+	}
+
+	static Expression<Bag<GeometryValue>> constant(final Bag<GeometryValue> bag)
+	{
+		return constant(GeometryValue.DATATYPE.getBagDatatype(), bag);
+	}
+
+	/**
+	 * An argument only known when the request is evaluated
+	 */
+	static <V extends Value> Expression<V> variable(final Datatype<V> datatype, final V value)
+	{
+		return new Expression<V>()
+		{
+			@Override
+			public Datatype<V> getReturnType()
+			{
+				return datatype;
+			}
+
+			@Override
+			public V evaluate(final EvaluationContext context)
+			{
+				return value;
+			}
+
+			@Override
+			public Optional<V> getValue()
+			{
+				return Optional.empty();
+			}
+		};
+	}
+
+	static Expression<GeometryValue> variable(final GeometryValue value)
+	{
+		return variable(GeometryValue.DATATYPE, value);
+	}
+
+	static Expression<Bag<GeometryValue>> variable(final Bag<GeometryValue> bag)
+	{
+		return variable(GeometryValue.DATATYPE.getBagDatatype(), bag);
+	}
+
+	static Bag<GeometryValue> bag(final Collection<GeometryValue> values)
+	{
+		return Bags.newBag(GeometryValue.DATATYPE, values);
+	}
+
+	/**
+	 * Evaluates the function in the given context
+	 */
+	static <R extends Value> R call(final FirstOrderFunction<R> function, final EvaluationContext context, final Expression<?>... args) throws IndeterminateEvaluationException
+	{
+		return function.newCall(Arrays.asList(args)).evaluate(context);
+	}
+
+	/**
+	 * Evaluates a boolean function in a new context
+	 */
+	static boolean test(final FirstOrderFunction<BooleanValue> function, final Expression<?>... args) throws IndeterminateEvaluationException
+	{
+		return call(function, newContext(), args).getUnderlyingValue().booleanValue();
+	}
+
+	static GeometryValue geometry(final String wkt, final int srid)
+	{
+		try
+		{
+			final Geometry g = new WKTReader(GF).read(wkt);
+			g.setSRID(srid);
+			return new GeometryValue(g);
+		}
+		catch (final ParseException e)
+		{
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	static GeometryValue geometry(final Geometry g)
+	{
+		g.setSRID(GF.getSRID());
+		return new GeometryValue(g);
+	}
+
+	/**
+	 * A star shaped ring with <code>n</code> vertices around (cx, cy), so the polygon is neither convex nor a circle
+	 */
+	static LinearRing ring(final double cx, final double cy, final double r, final int n)
+	{
+		final Coordinate[] c = new Coordinate[n + 1];
+		for (int i = 0; i < n; i++)
+		{
+			final double angle = 2.0 * Math.PI * i / n;
+			final double radius = r * (1.0 + 0.2 * Math.sin(7.0 * angle));
+			c[i] = new Coordinate(cx + radius * Math.cos(angle), cy + radius * Math.sin(angle));
+		}
+		c[n] = c[0];
+		return GF.createLinearRing(c);
+	}
+
+	/**
+	 * A star shaped polygon with a hole around (cx, cy)
+	 */
+	static Geometry star(final double cx, final double cy, final double r, final int n)
+	{
+		return GF.createPolygon(ring(cx, cy, r, n), new LinearRing[] { ring(cx, cy, r / 5.0, Math.max(4, n / 4)) });
+	}
+
+	/**
+	 * Test geometries of all kinds in the square [x0, x0 + size] x [y0, y0 + size], placed regularly so some of them are inside, on
+	 * the boundary or outside of a zone in the square
+	 */
+	static List<Geometry> probes(final double x0, final double y0, final double size, final int steps)
+	{
+		final List<Geometry> probes = new ArrayList<Geometry>();
+		final double d = size / steps;
+		for (int i = 0; i <= steps; i++)
+		{
+			for (int j = 0; j <= steps; j++)
+			{
+				final double x = x0 + i * d;
+				final double y = y0 + j * d;
+				probes.add(GF.createPoint(new Coordinate(x, y)));
+				if ((i + j) % 3 == 0)
+					probes.add(GF.toGeometry(new Envelope(x, x + d / 2.0, y, y + d / 2.0)));
+				else if ((i + j) % 3 == 1)
+					probes.add(GF.createLineString(new Coordinate[] { new Coordinate(x, y), new Coordinate(x + d * 1.5, y + d / 3.0) }));
+				else
+					probes.add(GF.createPolygon(ring(x, y, d / 3.0, 12)));
+			}
+		}
+		return probes;
+	}
+}
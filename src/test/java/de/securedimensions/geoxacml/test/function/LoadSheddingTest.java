@@ -0,0 +1,183 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.LoadShedding;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+
+/**
+ *
+ * GeoXACML3 degraded mode test: while the mode is active the approximated functions give the results of the JTS predicates on the
+ * simplified geometries and are counted as approximate, the other functions stay exact.
+ */
+public class LoadSheddingTest
+{
+	private static final double TOLERANCE = 0.02;
+
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Contains CONTAINS = new TopologicalFunctions.Contains();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+	private static final TopologicalFunctions.Disjoint DISJOINT = new TopologicalFunctions.Disjoint();
+	private static final TopologicalFunctions.Touches TOUCHES = new TopologicalFunctions.Touches();
+
+	@After
+	public void tearDown()
+	{
+		LoadShedding.setForced(false);
+		LoadShedding.setTolerance(0.0);
+	}
+
+	/**
+	 * The geometry the degraded mode evaluates instead of <code>g</code>
+	 */
+	private static Geometry simplify(final Geometry g)
+	{
+		if (g.isEmpty() || g.getNumPoints() <= 4)
+			return g;
+		final Geometry s = TopologyPreservingSimplifier.simplify(g, TOLERANCE);
+		return (s.getNumPoints() >= g.getNumPoints()) ? g : s;
+	}
+
+	@Test
+	public void testDegraded() throws IndeterminateEvaluationException
+	{
+		final Geometry zone = star(48.1, 11.5, 1.0, 2000);
+		final Geometry simplifiedZone = simplify(zone);
+		Assert.assertTrue(simplifiedZone.getNumPoints() < zone.getNumPoints());
+		final GeometryValue z = geometry(zone);
+
+		LoadShedding.setTolerance(TOLERANCE);
+		LoadShedding.setForced(true);
+		final long approximate = LoadShedding.getApproximateEvaluations();
+		final long exact = LoadShedding.getExactEvaluations();
+
+		final List<Geometry> probes = probes(46.7, 10.1, 2.8, 30);
+		for (final Geometry probe : probes)
+		{
+			final GeometryValue p = geometry(probe);
+			final Geometry s = simplify(probe);
+			final String msg = probe.toText();
+			Assert.assertEquals(msg, s.within(simplifiedZone), test(WITHIN, variable(p), constant(z)));
+			Assert.assertEquals(msg, simplifiedZone.contains(s), test(CONTAINS, constant(z), variable(p)));
+			Assert.assertEquals(msg, s.intersects(simplifiedZone), test(INTERSECTS, variable(p), constant(z)));
+			Assert.assertEquals(msg, simplifiedZone.disjoint(s), test(DISJOINT, constant(z), variable(p)));
+		}
+
+		Assert.assertEquals(approximate + 4 * probes.size(), LoadShedding.getApproximateEvaluations());
+		Assert.assertEquals(exact, LoadShedding.getExactEvaluations());
+	}
+
+	@Test
+	public void testExactFunctions() throws IndeterminateEvaluationException
+	{
+		LoadShedding.setTolerance(TOLERANCE);
+		LoadShedding.setForced(true);
+		final long approximate = LoadShedding.getApproximateEvaluations();
+		final long exact = LoadShedding.getExactEvaluations();
+
+		// touches is not approximated: a vertex of the original zone is on its boundary
+		final Geometry zone = star(48.1, 11.5, 1.0, 2000);
+		final Geometry vertex = GF.createPoint(zone.getCoordinates()[1]);
+		Assert.assertTrue(test(TOUCHES, variable(geometry(vertex)), constant(geometry(zone))));
+
+		Assert.assertEquals(approximate, LoadShedding.getApproximateEvaluations());
+		Assert.assertEquals(exact + 1, LoadShedding.getExactEvaluations());
+	}
+
+	@Test
+	public void testSwitch() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final GeometryValue p = geometry(GF.createPoint(new Coordinate(48.1, 12.2)));
+		LoadShedding.setTolerance(TOLERANCE);
+
+		// not forced and no overload threshold declared: exact
+		long approximate = LoadShedding.getApproximateEvaluations();
+		Assert.assertEquals(zone.getUnderlyingValue().intersects(p.getUnderlyingValue()), test(INTERSECTS, variable(p), constant(zone)));
+		Assert.assertEquals(approximate, LoadShedding.getApproximateEvaluations());
+
+		LoadShedding.setForced(true);
+		Assert.assertEquals(simplify(zone.getUnderlyingValue()).intersects(p.getUnderlyingValue()), test(INTERSECTS, variable(p), constant(zone)));
+		Assert.assertEquals(approximate + 1, LoadShedding.getApproximateEvaluations());
+
+		// tolerance 0 switches the mode off
+		LoadShedding.setTolerance(0.0);
+		approximate = LoadShedding.getApproximateEvaluations();
+		Assert.assertEquals(zone.getUnderlyingValue().intersects(p.getUnderlyingValue()), test(INTERSECTS, variable(p), constant(zone)));
+		Assert.assertEquals(approximate, LoadShedding.getApproximateEvaluations());
+	}
+
+	@Test
+	public void testNotEvaluated() throws IndeterminateEvaluationException
+	{
+		LoadShedding.setTolerance(TOLERANCE);
+		LoadShedding.setForced(true);
+		final long approximate = LoadShedding.getApproximateEvaluations();
+		final long exact = LoadShedding.getExactEvaluations();
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+
+		// decided before the mode is read: not counted
+		final GeometryValue empty = geometry(GF.createPolygon());
+		Assert.assertFalse(test(WITHIN, variable(empty), constant(zone)));
+		Assert.assertTrue(test(DISJOINT, constant(zone), variable(empty)));
+		Assert.assertFalse(test(INTERSECTS, variable(geometry("POINT (48.1 11.5)", 3857)), constant(zone)));
+
+		Assert.assertEquals(approximate, LoadShedding.getApproximateEvaluations());
+		Assert.assertEquals(exact, LoadShedding.getExactEvaluations());
+	}
+
+	@Test
+	public void testSimplifiedOnce()
+	{
+		// the zone is simplified once per tolerance, not per evaluation
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final GeometryValue simplified = zone.getSimplified(TOLERANCE);
+		Assert.assertSame(simplified, zone.getSimplified(TOLERANCE));
+		Assert.assertNotSame(simplified, zone.getSimplified(TOLERANCE / 2.0));
+
+		// small geometries are not simplified
+		final GeometryValue p = geometry(GF.createPoint(new Coordinate(48.1, 12.2)));
+		Assert.assertSame(p, p.getSimplified(TOLERANCE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidTolerance()
+	{
+		LoadShedding.setTolerance(Double.NaN);
+	}
+}
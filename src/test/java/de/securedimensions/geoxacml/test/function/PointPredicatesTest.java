@@ -0,0 +1,202 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.LoadShedding;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+
+/**
+ *
+ * GeoXACML3 point test: the predicates with a single point, decided from the location of the point read from the coordinate
+ * sequences, give the results of the JTS predicates for points on vertices, on edges, close to edges, in holes and on line ends.
+ */
+public class PointPredicatesTest
+{
+	private static final TopologicalFunctions.Equals EQUALS = new TopologicalFunctions.Equals();
+	private static final TopologicalFunctions.Disjoint DISJOINT = new TopologicalFunctions.Disjoint();
+	private static final TopologicalFunctions.Touches TOUCHES = new TopologicalFunctions.Touches();
+	private static final TopologicalFunctions.Crosses CROSSES = new TopologicalFunctions.Crosses();
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Contains CONTAINS = new TopologicalFunctions.Contains();
+	private static final TopologicalFunctions.Overlaps OVERLAPS = new TopologicalFunctions.Overlaps();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+
+	private static final List<FirstOrderFunction<BooleanValue>> FUNCTIONS = Arrays.<FirstOrderFunction<BooleanValue>> asList(EQUALS, DISJOINT, TOUCHES, CROSSES, WITHIN, CONTAINS, OVERLAPS, INTERSECTS);
+
+	private interface Predicate
+	{
+		boolean test(Geometry a, Geometry b);
+	}
+
+	private static final List<Predicate> PREDICATES = Arrays.<Predicate> asList(Geometry::equalsTopo, Geometry::disjoint, Geometry::touches, Geometry::crosses, Geometry::within, Geometry::contains, Geometry::overlaps, Geometry::intersects);
+
+	private static final String[] GEOMETRIES = {
+			"POINT (1 1)",
+			"LINESTRING (0 0, 1 1, 2 1, 2 3)",
+			"LINESTRING (0 0, 2 0, 2 2, 0 2, 0 0)",
+			"POLYGON ((0 0, 0 3, 3 3, 3 0, 0 0), (1 1, 2 1, 2 2, 1 2, 1 1))",
+			"POLYGON ((0 0, 1 2.5, 0 3, 3 3, 2.2 1.1, 3 0, 0 0))",
+			"MULTIPOINT ((1 1), (2 2))",
+			"MULTIPOLYGON (((0 0, 0 1, 1 1, 1 0, 0 0)), ((2 2, 2 3, 3 3, 3 2, 2 2)))" };
+
+	@After
+	public void tearDown()
+	{
+		LoadShedding.setForced(false);
+		LoadShedding.setTolerance(0.0);
+	}
+
+	/**
+	 * Points on the vertices and on the middle of the edges of the geometry, slightly off them, and on a grid
+	 */
+	private static List<Geometry> points(final Geometry g)
+	{
+		final List<Geometry> points = new ArrayList<Geometry>();
+		final Coordinate[] coordinates = g.getCoordinates();
+		for (int i = 0; i < coordinates.length; i++)
+		{
+			final Coordinate c = coordinates[i];
+			points.add(GF.createPoint(new Coordinate(c)));
+			points.add(GF.createPoint(new Coordinate(c.x + 1.0E-7, c.y)));
+			points.add(GF.createPoint(new Coordinate(c.x, c.y - 1.0E-7)));
+			if (i + 1 < coordinates.length)
+			{
+				final Coordinate n = coordinates[i + 1];
+				final Coordinate m = new Coordinate((c.x + n.x) / 2.0, (c.y + n.y) / 2.0);
+				points.add(GF.createPoint(m));
+				points.add(GF.createPoint(new Coordinate(m.x + 1.0E-13, m.y - 1.0E-13)));
+				points.add(GF.createPoint(new Coordinate(m.x - 1.0E-6, m.y + 1.0E-6)));
+			}
+		}
+		for (int i = -1; i <= 13; i++)
+		{
+			for (int j = -1; j <= 13; j++)
+				points.add(GF.createPoint(new Coordinate(i * 0.25, j * 0.25)));
+		}
+		return points;
+	}
+
+	private static void assertReference(final GeometryValue zone, final Geometry reference, final List<Geometry> points) throws IndeterminateEvaluationException
+	{
+		for (final Geometry point : points)
+		{
+			final GeometryValue p = geometry(point);
+			for (int i = 0; i < FUNCTIONS.size(); i++)
+			{
+				final FirstOrderFunction<BooleanValue> function = FUNCTIONS.get(i);
+				final String message = function.getId() + " " + point.toText() + " " + reference.getGeometryType();
+				Assert.assertEquals(message, PREDICATES.get(i).test(point, reference), test(function, variable(p), constant(zone)));
+				Assert.assertEquals(message, PREDICATES.get(i).test(reference, point), test(function, constant(zone), variable(p)));
+			}
+		}
+	}
+
+	@Test
+	public void testPointValue()
+	{
+		final GeometryValue p = geometry("POINT (48.1 11.5)", 4326);
+		Assert.assertTrue(p.isPoint());
+		Assert.assertEquals(48.1, p.getPointX(), 0.0);
+		Assert.assertEquals(11.5, p.getPointY(), 0.0);
+
+		Assert.assertFalse(geometry(GF.createPoint()).isPoint());
+		Assert.assertTrue(Double.isNaN(geometry(GF.createPoint()).getPointX()));
+		Assert.assertFalse(geometry("MULTIPOINT ((48.1 11.5))", 4326).isPoint());
+		Assert.assertFalse(geometry("LINESTRING (48.1 11.5, 48.2 11.5)", 4326).isPoint());
+	}
+
+	@Test
+	public void testAgainstJts() throws IndeterminateEvaluationException
+	{
+		for (final String wkt : GEOMETRIES)
+		{
+			final GeometryValue zone = geometry(wkt, 4326);
+			assertReference(zone, zone.getUnderlyingValue(), points(zone.getUnderlyingValue()));
+		}
+
+		// a geometry large enough for its prepared form
+		final Geometry large = star(1.5, 1.5, 1.4, 2000);
+		assertReference(geometry(large), large, points(large).subList(0, 600));
+	}
+
+	@Test
+	public void testTwoPoints() throws IndeterminateEvaluationException
+	{
+		// both arguments are points, given by the request
+		final List<Geometry> points = Arrays.<Geometry> asList(GF.createPoint(new Coordinate(1, 1)), GF.createPoint(new Coordinate(1, 1)), GF.createPoint(new Coordinate(1 + 1.0E-13, 1)),
+				GF.createPoint(new Coordinate(0.0, 2)), GF.createPoint(new Coordinate(-0.0, 2)));
+		for (final Geometry a : points)
+		{
+			for (final Geometry b : points)
+			{
+				for (int i = 0; i < FUNCTIONS.size(); i++)
+				{
+					final FirstOrderFunction<BooleanValue> function = FUNCTIONS.get(i);
+					Assert.assertEquals(function.getId() + " " + a.toText() + " " + b.toText(), PREDICATES.get(i).test(a, b), test(function, variable(geometry(a)), variable(geometry(b))));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDegraded() throws IndeterminateEvaluationException
+	{
+		final double tolerance = 0.02;
+		final Geometry polygon = star(1.5, 1.5, 1.4, 120);
+		final Geometry simplified = TopologyPreservingSimplifier.simplify(polygon, tolerance);
+		final GeometryValue zone = geometry(polygon);
+
+		LoadShedding.setTolerance(tolerance);
+		LoadShedding.setForced(true);
+		final long approximate = LoadShedding.getApproximateEvaluations();
+		for (final Geometry point : points(polygon))
+		{
+			final GeometryValue p = geometry(point);
+			// approximated on the simplified polygon
+			Assert.assertEquals(point.toText(), point.within(simplified), test(WITHIN, variable(p), constant(zone)));
+			Assert.assertEquals(point.toText(), simplified.contains(point), test(CONTAINS, constant(zone), variable(p)));
+			Assert.assertEquals(point.toText(), point.intersects(simplified), test(INTERSECTS, variable(p), constant(zone)));
+			// always exact
+			Assert.assertEquals(point.toText(), point.touches(polygon), test(TOUCHES, variable(p), constant(zone)));
+		}
+		Assert.assertTrue(LoadShedding.getApproximateEvaluations() > approximate);
+	}
+}
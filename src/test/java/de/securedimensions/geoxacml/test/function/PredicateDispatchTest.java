@@ -0,0 +1,202 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.LoadShedding;
+import de.securedimensions.geoxacml.function.PredicateDispatch;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+
+/**
+ *
+ * GeoXACML3 predicate dispatch test: for every pair of geometry kinds the route taken by each topological function gives the result of
+ * the JTS predicate, and the route hits are counted under the route of the pair.
+ */
+public class PredicateDispatchTest
+{
+	private static final TopologicalFunctions.Equals EQUALS = new TopologicalFunctions.Equals();
+	private static final TopologicalFunctions.Disjoint DISJOINT = new TopologicalFunctions.Disjoint();
+	private static final TopologicalFunctions.Touches TOUCHES = new TopologicalFunctions.Touches();
+	private static final TopologicalFunctions.Crosses CROSSES = new TopologicalFunctions.Crosses();
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Contains CONTAINS = new TopologicalFunctions.Contains();
+	private static final TopologicalFunctions.Overlaps OVERLAPS = new TopologicalFunctions.Overlaps();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+
+	private static final List<FirstOrderFunction<BooleanValue>> FUNCTIONS = Arrays.<FirstOrderFunction<BooleanValue>> asList(EQUALS, DISJOINT, TOUCHES, CROSSES, WITHIN, CONTAINS, OVERLAPS, INTERSECTS);
+
+	private interface Predicate
+	{
+		boolean test(Geometry a, Geometry b);
+	}
+
+	private static final List<Predicate> PREDICATES = Arrays.<Predicate> asList(Geometry::equalsTopo, Geometry::disjoint, Geometry::touches, Geometry::crosses, Geometry::within, Geometry::contains, Geometry::overlaps, Geometry::intersects);
+
+	/**
+	 * Geometries of every kind but empty and collection, placed so that all relations occur between them
+	 */
+	private static final String[] GEOMETRIES = {
+			// point
+			"POINT (1 1)", "POINT (0 0)", "POINT (2 1)", "POINT (5 5)",
+			// multi point
+			"MULTIPOINT ((1 1), (5 5))", "MULTIPOINT ((0.5 0.5), (1 1))", "MULTIPOINT ((0 0), (2 2))",
+			// linear
+			"LINESTRING (0 0, 2 2)", "LINESTRING (-1 1, 3 1)", "LINESTRING (0 0, 0 2)", "LINESTRING (1 1, 1.5 1.5)", "LINESTRING (0 0, 2 0, 2 2, 0 2, 0 0)",
+			"MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))",
+			// rectangle
+			"POLYGON ((0 0, 0 2, 2 2, 2 0, 0 0))", "POLYGON ((1 1, 1 3, 3 3, 3 1, 1 1))", "POLYGON ((0.5 0.5, 0.5 1.5, 1.5 1.5, 1.5 0.5, 0.5 0.5))",
+			"POLYGON ((2 0, 2 2, 3 2, 3 0, 2 0))",
+			// polygonal
+			"POLYGON ((0 0, 2 0, 1 2, 0 0))", "POLYGON ((-1 -1, -1 3, 3 3, 3 -1, -1 -1), (0.5 0.5, 1.5 0.5, 1.5 1.5, 0.5 1.5, 0.5 0.5))",
+			"MULTIPOLYGON (((0 0, 0 1, 1 1, 1 0, 0 0)), ((2 2, 2 3, 3 3, 3 2, 2 2)))" };
+
+	@After
+	public void tearDown()
+	{
+		LoadShedding.setForced(false);
+		LoadShedding.setTolerance(0.0);
+	}
+
+	private static List<GeometryValue> geometries()
+	{
+		final List<GeometryValue> geometries = new ArrayList<GeometryValue>();
+		for (final String wkt : GEOMETRIES)
+			geometries.add(geometry(wkt, 4326));
+		geometries.add(geometry(star(1.0, 1.0, 1.2, 40)));
+		return geometries;
+	}
+
+	private static long hits(final Map<String, Long> routeHits, final String key)
+	{
+		final Long n = routeHits.get(key);
+		return (n == null) ? 0 : n.longValue();
+	}
+
+	@Test
+	public void testAllKindPairs() throws IndeterminateEvaluationException
+	{
+		final List<GeometryValue> geometries = geometries();
+		for (final GeometryValue a : geometries)
+		{
+			for (final GeometryValue b : geometries)
+			{
+				for (int i = 0; i < FUNCTIONS.size(); i++)
+				{
+					final FirstOrderFunction<BooleanValue> function = FUNCTIONS.get(i);
+					final String message = function.getId() + " " + a.getUnderlyingValue().toText() + " " + b.getUnderlyingValue().toText();
+					Assert.assertEquals(message, PREDICATES.get(i).test(a.getUnderlyingValue(), b.getUnderlyingValue()), test(function, variable(a), constant(b)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRouteHits() throws IndeterminateEvaluationException
+	{
+		final GeometryValue point = geometry("POINT (1 1)", 4326);
+		final GeometryValue polygon = geometry("POLYGON ((0 0, 2 0, 1 2, 0 0))", 4326);
+		final GeometryValue rectangle = geometry("POLYGON ((0 0, 0 2, 2 2, 2 0, 0 0))", 4326);
+		final GeometryValue line = geometry("LINESTRING (-1 1, 3 1)", 4326);
+
+		final String within = TopologicalFunctions.Within.ID + "(POINT,POLYGONAL):point-locator";
+		final String contains = TopologicalFunctions.Contains.ID + "(POLYGONAL,POINT):point-locator";
+		final String crosses = TopologicalFunctions.Crosses.ID + "(POLYGONAL,RECTANGLE):dimension";
+		final String equals = TopologicalFunctions.Equals.ID + "(RECTANGLE,RECTANGLE):envelope";
+		final String intersects = TopologicalFunctions.Intersects.ID + "(LINEAR,POLYGONAL):prepared-area";
+		// a line never overlaps an area
+		final String overlaps = TopologicalFunctions.Overlaps.ID + "(LINEAR,RECTANGLE):dimension";
+
+		final Map<String, Long> before = PredicateDispatch.getRouteHits();
+		Assert.assertTrue(test(WITHIN, variable(point), constant(polygon)));
+		Assert.assertTrue(test(CONTAINS, variable(polygon), constant(point)));
+		Assert.assertFalse(test(CROSSES, variable(polygon), constant(rectangle)));
+		Assert.assertTrue(test(EQUALS, variable(rectangle), constant(geometry("POLYGON ((0 0, 2 0, 2 2, 0 2, 0 0))", 4326))));
+		Assert.assertTrue(test(INTERSECTS, variable(line), constant(polygon)));
+		Assert.assertFalse(test(OVERLAPS, variable(line), constant(rectangle)));
+		final Map<String, Long> after = PredicateDispatch.getRouteHits();
+
+		for (final String key : new String[] { within, contains, crosses, equals, intersects, overlaps })
+			Assert.assertEquals(key, hits(before, key) + 1, hits(after, key));
+	}
+
+	@Test
+	public void testNotDispatched() throws IndeterminateEvaluationException
+	{
+		// empty geometries and geometries in different CRS are decided before the dispatch and hit no route
+		final GeometryValue polygon = geometry("POLYGON ((0 0, 2 0, 1 2, 0 0))", 4326);
+		final Map<String, Long> before = PredicateDispatch.getRouteHits();
+		Assert.assertTrue(test(DISJOINT, variable(geometry(GF.createPolygon())), constant(polygon)));
+		Assert.assertFalse(test(WITHIN, variable(geometry("POINT (1 1)", 3857)), constant(polygon)));
+		Assert.assertEquals(before, PredicateDispatch.getRouteHits());
+	}
+
+	@Test
+	public void testDegraded() throws IndeterminateEvaluationException
+	{
+		final double tolerance = 0.02;
+		final List<GeometryValue> geometries = geometries();
+		LoadShedding.setTolerance(tolerance);
+		LoadShedding.setForced(true);
+
+		final Map<String, Long> before = PredicateDispatch.getRouteHits();
+		for (final GeometryValue a : geometries)
+		{
+			for (final GeometryValue b : geometries)
+			{
+				// the approximated functions evaluate the simplified geometries on the general route
+				final Geometry sa = (a.getUnderlyingValue().getNumPoints() <= 4) ? a.getUnderlyingValue() : TopologyPreservingSimplifier.simplify(a.getUnderlyingValue(), tolerance);
+				final Geometry sb = (b.getUnderlyingValue().getNumPoints() <= 4) ? b.getUnderlyingValue() : TopologyPreservingSimplifier.simplify(b.getUnderlyingValue(), tolerance);
+				for (int i = 0; i < FUNCTIONS.size(); i++)
+				{
+					final FirstOrderFunction<BooleanValue> function = FUNCTIONS.get(i);
+					final boolean approximated = function == WITHIN || function == CONTAINS || function == INTERSECTS || function == DISJOINT;
+					final boolean expected = approximated ? PREDICATES.get(i).test(sa, sb) : PREDICATES.get(i).test(a.getUnderlyingValue(), b.getUnderlyingValue());
+					Assert.assertEquals(function.getId() + " " + a + " " + b, expected, test(function, variable(a), constant(b)));
+				}
+			}
+		}
+		final Map<String, Long> after = PredicateDispatch.getRouteHits();
+
+		final long n = geometries.size() * geometries.size();
+		for (final String id : new String[] { TopologicalFunctions.Within.ID, TopologicalFunctions.Contains.ID, TopologicalFunctions.Intersects.ID, TopologicalFunctions.Disjoint.ID })
+			Assert.assertEquals(id, hits(before, id + ":degraded") + n, hits(after, id + ":degraded"));
+		Assert.assertEquals(hits(before, TopologicalFunctions.Touches.ID + ":degraded"), hits(after, TopologicalFunctions.Touches.ID + ":degraded"));
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.bag;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.ring;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.BagTopologicalFunctions;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+import de.securedimensions.geoxacml.index.GridPointLocator;
+
+/**
+ *
+ * GeoXACML3 raster test: a zone of the policy gets its raster when the function call is created and the points located with it get
+ * the results of the JTS predicates; a zone of the request is never rasterized.
+ */
+public class RasterLocationTest
+{
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+	private static final BagTopologicalFunctions.AnyWithin ANY_WITHIN = new BagTopologicalFunctions.AnyWithin();
+
+	private static GeometryValue zone()
+	{
+		return geometry(star(48.1, 11.5, 1.0, 400));
+	}
+
+	private static Point[] points()
+	{
+		final Random random = new Random(4326);
+		final Point[] points = new Point[2000];
+		for (int i = 0; i < points.length; i++)
+			points[i] = GF.createPoint(new Coordinate(46.9 + 2.4 * random.nextDouble(), 10.3 + 2.4 * random.nextDouble()));
+		return points;
+	}
+
+	@Test
+	public void testConstantZone() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = zone();
+		final Geometry z = zone.getUnderlyingValue();
+		WITHIN.newCall(Arrays.asList(variable(geometry("POINT (0 0)", 4326)), constant(zone)));
+		Assert.assertNotNull("No raster for the zone of the policy", zone.getComputedGridPointLocator());
+
+		for (final Point p : points())
+		{
+			final GeometryValue gv = geometry(p);
+			Assert.assertEquals(p.toText(), p.within(z), test(WITHIN, variable(gv), constant(zone)));
+			Assert.assertEquals(p.toText(), z.intersects(p), test(INTERSECTS, constant(zone), variable(gv)));
+		}
+
+		// the vertices are on the boundary
+		for (final Coordinate c : z.getCoordinates())
+		{
+			final GeometryValue gv = geometry(GF.createPoint(c));
+			Assert.assertFalse(test(WITHIN, variable(gv), constant(zone)));
+			Assert.assertTrue(test(INTERSECTS, variable(gv), constant(zone)));
+		}
+	}
+
+	@Test
+	public void testSmallZone() throws IndeterminateEvaluationException
+	{
+		// below geoxacml.raster.minPoints: located with the edge index alone
+		final GeometryValue zone = geometry(GF.createPolygon(ring(48.1, 11.5, 1.0, GridPointLocator.MIN_POINTS / 2)));
+		final Geometry z = zone.getUnderlyingValue();
+		WITHIN.newCall(Arrays.asList(variable(geometry("POINT (0 0)", 4326)), constant(zone)));
+		Assert.assertNull(zone.getComputedGridPointLocator());
+		for (final Point p : points())
+			Assert.assertEquals(p.toText(), p.within(z), test(WITHIN, variable(geometry(p)), constant(zone)));
+	}
+
+	@Test
+	public void testConstantBag() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = zone();
+		ANY_WITHIN.newCall(Arrays.asList(variable(geometry("POINT (0 0)", 4326)), constant(bag(Collections.singletonList(zone)))));
+		Assert.assertNotNull("No raster for the zone in the bag of the policy", zone.getComputedGridPointLocator());
+	}
+
+	@Test
+	public void testVariableZone() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = zone();
+		final Geometry z = zone.getUnderlyingValue();
+		for (final Point p : points())
+		{
+			final GeometryValue gv = geometry(p);
+			Assert.assertEquals(p.toText(), p.within(z), test(WITHIN, variable(gv), variable(zone)));
+			Assert.assertEquals(p.toText(), z.intersects(p), test(INTERSECTS, variable(zone), variable(gv)));
+		}
+		Assert.assertNull("Raster built for the zone of the request", zone.getComputedGridPointLocator());
+
+		// a zone of the request is not rasterized in a bag either
+		final GeometryValue bagZone = zone();
+		Assert.assertTrue(test(ANY_WITHIN, variable(geometry("POINT (48.1 12.2)", 4326)), variable(bag(Collections.singletonList(bagZone)))));
+		Assert.assertNull(bagZone.getComputedGridPointLocator());
+	}
+}
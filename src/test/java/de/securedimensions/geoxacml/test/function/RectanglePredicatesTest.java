@@ -0,0 +1,215 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.xml.sax.InputSource;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.LoadShedding;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+
+/**
+ *
+ * GeoXACML3 rectangle test: <code>gml:Envelope</code> and rectangular polygons are flagged as rectangles, and the predicates evaluated
+ * with the envelope algorithms give the results of the JTS predicates, including rectangles sharing edges or corners.
+ */
+public class RectanglePredicatesTest
+{
+	private static final TopologicalFunctions.Equals EQUALS = new TopologicalFunctions.Equals();
+	private static final TopologicalFunctions.Disjoint DISJOINT = new TopologicalFunctions.Disjoint();
+	private static final TopologicalFunctions.Touches TOUCHES = new TopologicalFunctions.Touches();
+	private static final TopologicalFunctions.Crosses CROSSES = new TopologicalFunctions.Crosses();
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Contains CONTAINS = new TopologicalFunctions.Contains();
+	private static final TopologicalFunctions.Overlaps OVERLAPS = new TopologicalFunctions.Overlaps();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+
+	private static final List<FirstOrderFunction<BooleanValue>> FUNCTIONS = Arrays.<FirstOrderFunction<BooleanValue>> asList(EQUALS, DISJOINT, TOUCHES, CROSSES, WITHIN, CONTAINS, OVERLAPS, INTERSECTS);
+
+	private interface Predicate
+	{
+		boolean test(Geometry a, Geometry b);
+	}
+
+	private static final List<Predicate> PREDICATES = Arrays.<Predicate> asList(Geometry::equalsTopo, Geometry::disjoint, Geometry::touches, Geometry::crosses, Geometry::within, Geometry::contains, Geometry::overlaps, Geometry::intersects);
+
+	@After
+	public void tearDown()
+	{
+		LoadShedding.setForced(false);
+		LoadShedding.setTolerance(0.0);
+	}
+
+	private static GeometryValue envelope(final String lowerCorner, final String upperCorner, final String srsName) throws Exception
+	{
+		final String gml = "<gml:Envelope xmlns:gml=\"http://www.opengis.net/gml/3.2\" srsName=\"" + srsName + "\"><gml:lowerCorner>" + lowerCorner + "</gml:lowerCorner><gml:upperCorner>"
+				+ upperCorner + "</gml:upperCorner></gml:Envelope>";
+		final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		final List<Serializable> content = Collections.singletonList((Serializable) dbf.newDocumentBuilder().parse(new InputSource(new StringReader(gml))).getDocumentElement());
+		return GeometryValue.FACTORY.getInstance(content, null, null);
+	}
+
+	/**
+	 * All rectangles with corners on a grid of 5 x 5 points, so they share edges and corners with a rectangle from (1, 1) to (3, 3)
+	 */
+	private static List<Geometry> rectangles()
+	{
+		final List<Geometry> rectangles = new ArrayList<Geometry>();
+		for (int x0 = 0; x0 < 5; x0++)
+		{
+			for (int x1 = x0 + 1; x1 < 5; x1++)
+			{
+				for (int y0 = 0; y0 < 5; y0++)
+				{
+					for (int y1 = y0 + 1; y1 < 5; y1++)
+						rectangles.add(GF.toGeometry(new Envelope(x0, x1, y0, y1)));
+				}
+			}
+		}
+		return rectangles;
+	}
+
+	/**
+	 * Points, segments and thin polygons on the grid
+	 */
+	private static List<Geometry> grid()
+	{
+		final List<Geometry> geometries = new ArrayList<Geometry>();
+		for (int i = 0; i <= 8; i++)
+		{
+			for (int j = 0; j <= 8; j++)
+			{
+				final Coordinate c = new Coordinate(i * 0.5, j * 0.5);
+				geometries.add(GF.createPoint(c));
+				geometries.add(GF.createLineString(new Coordinate[] { c, new Coordinate(c.x + 1.0, c.y) }));
+				geometries.add(GF.createLineString(new Coordinate[] { c, new Coordinate(c.x + 0.5, c.y + 1.5) }));
+				geometries.add(GF.createPolygon(new Coordinate[] { c, new Coordinate(c.x + 1.0, c.y + 0.25), new Coordinate(c.x + 0.5, c.y + 1.0), c }));
+			}
+		}
+		return geometries;
+	}
+
+	private static void assertReference(final GeometryValue zone, final Geometry reference, final List<Geometry> probes) throws IndeterminateEvaluationException
+	{
+		for (final Geometry probe : probes)
+		{
+			final GeometryValue p = geometry(probe);
+			for (int i = 0; i < FUNCTIONS.size(); i++)
+			{
+				final FirstOrderFunction<BooleanValue> function = FUNCTIONS.get(i);
+				final String message = function.getId() + " " + probe.toText();
+				Assert.assertEquals(message, PREDICATES.get(i).test(probe, reference), test(function, variable(p), constant(zone)));
+				Assert.assertEquals(message, PREDICATES.get(i).test(reference, probe), test(function, constant(zone), variable(p)));
+			}
+		}
+	}
+
+	@Test
+	public void testFlagged() throws Exception
+	{
+		Assert.assertTrue(envelope("1 1", "3 3", "EPSG:4326").isRectangle());
+		Assert.assertTrue(geometry("POLYGON ((1 1, 1 3, 3 3, 3 1, 1 1))", 4326).isRectangle());
+		Assert.assertTrue(geometry("POLYGON ((1 1, 3 1, 3 3, 1 3, 1 1))", 4326).isRectangle());
+		Assert.assertFalse(geometry("POLYGON ((1 1, 1 3, 3 3, 3.1 1, 1 1))", 4326).isRectangle());
+		Assert.assertFalse(geometry("POLYGON ((1 1, 1 3, 3 3, 3 1, 1 1), (1.5 1.5, 1.5 2, 2 2, 2 1.5, 1.5 1.5))", 4326).isRectangle());
+		Assert.assertFalse(geometry("LINESTRING (1 1, 3 3)", 4326).isRectangle());
+		Assert.assertFalse(geometry(GF.createPolygon()).isRectangle());
+
+		// the envelope is the rectangle with the corners
+		final GeometryValue envelope = envelope("1 1", "3 3", "EPSG:4326");
+		Assert.assertTrue(envelope.getUnderlyingValue().equalsTopo(GF.toGeometry(new Envelope(1, 3, 1, 3))));
+		Assert.assertEquals(4326, envelope.getUnderlyingValue().getSRID());
+	}
+
+	@Test
+	public void testAgainstJts() throws Exception
+	{
+		final Geometry reference = GF.toGeometry(new Envelope(1, 3, 1, 3));
+		final List<Geometry> probes = rectangles();
+		probes.addAll(grid());
+		assertReference(envelope("1 1", "3 3", "EPSG:4326"), reference, probes);
+		assertReference(geometry(reference.copy()), reference, probes);
+
+		// a geometry large enough for its prepared form
+		final Geometry large = star(2.0, 2.0, 1.5, 2000);
+		assertReference(geometry(large), large, rectangles());
+		assertReference(geometry(reference.copy()), reference, Collections.singletonList(large));
+	}
+
+	@Test
+	public void testZeroArea() throws Exception
+	{
+		// an envelope with a zero width or height is not a rectangle and is evaluated by JTS
+		for (final GeometryValue degenerate : Arrays.asList(envelope("1 1", "3 1", "EPSG:4326"), envelope("1 1", "1 3", "EPSG:4326"), envelope("1 1", "1 1", "EPSG:4326")))
+		{
+			Assert.assertFalse(degenerate.isRectangle());
+			assertReference(degenerate, degenerate.getUnderlyingValue(), rectangles());
+		}
+	}
+
+	@Test
+	public void testDegraded() throws Exception
+	{
+		// rectangles are never simplified
+		final double tolerance = 0.02;
+		final Geometry reference = GF.toGeometry(new Envelope(1, 3, 1, 3));
+		LoadShedding.setTolerance(tolerance);
+		LoadShedding.setForced(true);
+		assertReference(envelope("1 1", "3 3", "EPSG:4326"), reference, rectangles());
+
+		// the other geometry is
+		final Geometry large = star(2.0, 2.0, 1.5, 2000);
+		final Geometry simplified = TopologyPreservingSimplifier.simplify(large, tolerance);
+		final GeometryValue zone = geometry(large);
+		for (final Geometry probe : rectangles())
+		{
+			final GeometryValue p = geometry(probe);
+			Assert.assertEquals(probe.toText(), probe.within(simplified), test(WITHIN, variable(p), constant(zone)));
+			Assert.assertEquals(probe.toText(), probe.intersects(simplified), test(INTERSECTS, variable(p), constant(zone)));
+			Assert.assertEquals(probe.toText(), probe.overlaps(large), test(OVERLAPS, variable(p), constant(zone)));
+		}
+	}
+}
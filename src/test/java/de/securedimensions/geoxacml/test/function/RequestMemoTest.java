@@ -0,0 +1,154 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.call;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.newContext;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.FunctionCall;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.LoadShedding;
+import de.securedimensions.geoxacml.function.RequestMemo;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+
+/**
+ *
+ * GeoXACML3 request memo test: a predicate evaluated again on the same operands within one decision is answered from the memo table
+ * with the result of the JTS predicate, a new decision or other operands are evaluated again.
+ */
+public class RequestMemoTest
+{
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+
+	@After
+	public void tearDown()
+	{
+		LoadShedding.setForced(false);
+		LoadShedding.setTolerance(0.0);
+	}
+
+	private static boolean evaluate(final FunctionCall<BooleanValue> call, final EvaluationContext context) throws IndeterminateEvaluationException
+	{
+		return call.evaluate(context).getUnderlyingValue().booleanValue();
+	}
+
+	@Test
+	public void testSameDecision() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		for (final Geometry probe : probes(46.7, 10.1, 2.8, 10))
+		{
+			final GeometryValue p = geometry(probe);
+			final boolean expected = probe.within(zone.getUnderlyingValue());
+			// two rules of the policy testing the same attribute against the same zone
+			final FunctionCall<BooleanValue> rule1 = WITHIN.newCall(Arrays.<Expression<?>> asList(variable(p), constant(zone)));
+			final FunctionCall<BooleanValue> rule2 = WITHIN.newCall(Arrays.<Expression<?>> asList(variable(p), constant(zone)));
+			final EvaluationContext context = newContext();
+
+			final long hits = RequestMemo.getHits();
+			final long misses = RequestMemo.getMisses();
+			Assert.assertEquals(probe.toText(), expected, evaluate(rule1, context));
+			Assert.assertEquals(misses + 1, RequestMemo.getMisses());
+			Assert.assertEquals(probe.toText(), expected, evaluate(rule2, context));
+			Assert.assertEquals(probe.toText(), expected, evaluate(rule1, context));
+			Assert.assertEquals(hits + 2, RequestMemo.getHits());
+			Assert.assertEquals(misses + 1, RequestMemo.getMisses());
+		}
+	}
+
+	@Test
+	public void testOtherDecisionOrOperands() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final GeometryValue p = geometry("POINT (48.1 12.2)", 4326);
+		final EvaluationContext context = newContext();
+		Assert.assertTrue(call(WITHIN, context, variable(p), constant(zone)).getUnderlyingValue().booleanValue());
+
+		final long hits = RequestMemo.getHits();
+		final long misses = RequestMemo.getMisses();
+
+		// a new decision
+		Assert.assertTrue(call(WITHIN, newContext(), variable(p), constant(zone)).getUnderlyingValue().booleanValue());
+		// another function on the same operands
+		Assert.assertTrue(call(INTERSECTS, context, variable(p), constant(zone)).getUnderlyingValue().booleanValue());
+		// an equal value of another attribute
+		Assert.assertTrue(call(WITHIN, context, variable(geometry("POINT (48.1 12.2)", 4326)), constant(zone)).getUnderlyingValue().booleanValue());
+		// the operands swapped
+		Assert.assertFalse(call(WITHIN, context, constant(zone), variable(p)).getUnderlyingValue().booleanValue());
+
+		Assert.assertEquals(hits, RequestMemo.getHits());
+		Assert.assertEquals(misses + 4, RequestMemo.getMisses());
+	}
+
+	@Test
+	public void testEmptyAndSridMismatch() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final GeometryValue empty = geometry(GF.createPoint());
+		final GeometryValue other = geometry("POINT (48.1 12.2)", 3857);
+		final EvaluationContext context = newContext();
+
+		// decided without the memo table
+		final long hits = RequestMemo.getHits();
+		final long misses = RequestMemo.getMisses();
+		for (int i = 0; i < 2; i++)
+		{
+			Assert.assertFalse(call(WITHIN, context, variable(empty), constant(zone)).getUnderlyingValue().booleanValue());
+			Assert.assertFalse(call(WITHIN, context, variable(other), constant(zone)).getUnderlyingValue().booleanValue());
+		}
+		Assert.assertEquals(hits, RequestMemo.getHits());
+		Assert.assertEquals(misses, RequestMemo.getMisses());
+	}
+
+	@Test
+	public void testDegraded() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final GeometryValue p = geometry("LINESTRING (47.5 11.5, 48.5 11.5)", 4326);
+		LoadShedding.setTolerance(0.02);
+		LoadShedding.setForced(true);
+
+		// the memoized result is the approximate one, evaluated once
+		final EvaluationContext context = newContext();
+		final long approximate = LoadShedding.getApproximateEvaluations();
+		final long hits = RequestMemo.getHits();
+		Assert.assertTrue(call(INTERSECTS, context, variable(p), constant(zone)).getUnderlyingValue().booleanValue());
+		Assert.assertTrue(call(INTERSECTS, context, variable(p), constant(zone)).getUnderlyingValue().booleanValue());
+		Assert.assertEquals(approximate + 1, LoadShedding.getApproximateEvaluations());
+		Assert.assertEquals(hits + 1, RequestMemo.getHits());
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.bag;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.SpatialJoinFunctions;
+
+/**
+ *
+ * GeoXACML3 spatial join test: <code>geometry-bag-any-intersects-any</code> and <code>geometry-bag-any-within-any</code> give the
+ * results of testing every pair of geometries with the JTS predicate, whichever bag is constant, indexed or scanned.
+ */
+public class SpatialJoinFunctionsTest
+{
+	private static final SpatialJoinFunctions.AnyIntersectsAny ANY_INTERSECTS_ANY = new SpatialJoinFunctions.AnyIntersectsAny();
+	private static final SpatialJoinFunctions.AnyWithinAny ANY_WITHIN_ANY = new SpatialJoinFunctions.AnyWithinAny();
+
+	/**
+	 * A grid of 5 x 5 zones with space between them
+	 */
+	private static List<GeometryValue> zones()
+	{
+		final List<GeometryValue> zones = new ArrayList<GeometryValue>();
+		for (int i = 0; i < 5; i++)
+		{
+			for (int j = 0; j < 5; j++)
+				zones.add(geometry(star(40.0 + i, 5.0 + j, 0.35, 300)));
+		}
+		return zones;
+	}
+
+	private static List<GeometryValue> values(final List<Geometry> geometries)
+	{
+		final List<GeometryValue> values = new ArrayList<GeometryValue>();
+		for (final Geometry g : geometries)
+			values.add(geometry(g));
+		return values;
+	}
+
+	private interface Predicate
+	{
+		boolean test(Geometry a, Geometry b);
+	}
+
+	private static boolean anyOfAny(final List<GeometryValue> bagA, final List<GeometryValue> bagB, final Predicate predicate)
+	{
+		for (final GeometryValue a : bagA)
+		{
+			for (final GeometryValue b : bagB)
+			{
+				final Geometry ga = a.getUnderlyingValue();
+				final Geometry gb = b.getUnderlyingValue();
+				if (ga.getSRID() == gb.getSRID() && predicate.test(ga, gb))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static void assertJoin(final List<GeometryValue> bagA, final List<GeometryValue> bagB, final List<GeometryValue> referenceA, final List<GeometryValue> referenceB) throws IndeterminateEvaluationException
+	{
+		final Bag<GeometryValue> a = bag(bagA);
+		final Bag<GeometryValue> b = bag(bagB);
+		final boolean within = anyOfAny(referenceA, referenceB, Geometry::within);
+		final boolean intersects = anyOfAny(referenceA, referenceB, Geometry::intersects);
+		final String message = bagA.size() + " x " + bagB.size() + " geometries";
+
+		Assert.assertEquals(message, within, test(ANY_WITHIN_ANY, variable(a), variable(b)));
+		Assert.assertEquals(message, within, test(ANY_WITHIN_ANY, constant(a), variable(b)));
+		Assert.assertEquals(message, within, test(ANY_WITHIN_ANY, variable(a), constant(b)));
+		Assert.assertEquals(message, intersects, test(ANY_INTERSECTS_ANY, variable(a), variable(b)));
+		Assert.assertEquals(message, intersects, test(ANY_INTERSECTS_ANY, constant(a), variable(b)));
+		Assert.assertEquals(message, intersects, test(ANY_INTERSECTS_ANY, variable(a), constant(b)));
+	}
+
+	/**
+	 * Joins groups of <code>groupSize</code> probes with the zones, in both orders
+	 */
+	private static void assertReference(final List<GeometryValue> zones, final List<GeometryValue> probes, final int groupSize) throws IndeterminateEvaluationException
+	{
+		for (int i = 0; i < probes.size(); i += groupSize)
+		{
+			final List<GeometryValue> group = probes.subList(i, Math.min(i + groupSize, probes.size()));
+			assertJoin(group, zones, group, zones);
+			assertJoin(zones, group, zones, group);
+		}
+	}
+
+	@Test
+	public void testScanned() throws IndeterminateEvaluationException
+	{
+		// too few probes to index the zones given at evaluation time
+		assertReference(zones(), values(probes(39.5, 4.5, 5.0, 20)), 2);
+	}
+
+	@Test
+	public void testIndexed() throws IndeterminateEvaluationException
+	{
+		// enough probes to index the zones given at evaluation time
+		assertReference(zones(), values(probes(39.5, 4.5, 5.0, 20)), 40);
+	}
+
+	@Test
+	public void testEmpty() throws IndeterminateEvaluationException
+	{
+		final List<GeometryValue> zones = zones();
+		final List<GeometryValue> none = Collections.emptyList();
+		assertJoin(none, zones, none, zones);
+		assertJoin(zones, none, zones, none);
+		assertJoin(none, none, none, none);
+
+		// empty geometries never match
+		final List<GeometryValue> probes = values(probes(39.5, 4.5, 5.0, 10));
+		final List<GeometryValue> empties = new ArrayList<GeometryValue>();
+		empties.add(geometry(GF.createPoint()));
+		empties.add(geometry(GF.createPolygon()));
+		assertJoin(empties, zones, empties, zones);
+		final List<GeometryValue> withEmpty = new ArrayList<GeometryValue>(zones);
+		withEmpty.addAll(empties);
+		assertReference(withEmpty, probes, 5);
+	}
+
+	@Test
+	public void testSridMismatch() throws IndeterminateEvaluationException
+	{
+		// the first half of the zones in another CRS: reprojection is off by default, so only pairs in the same CRS match
+		final List<GeometryValue> zones = zones();
+		final List<GeometryValue> mixed = new ArrayList<GeometryValue>();
+		for (int i = 0; i < zones.size(); i++)
+			mixed.add((i < zones.size() / 2) ? geometry(zones.get(i).getUnderlyingValue().toText(), 3857) : zones.get(i));
+		final List<GeometryValue> probes = values(probes(39.5, 4.5, 5.0, 20));
+		assertReference(mixed, probes, 2);
+		assertReference(mixed, probes, 40);
+
+		final List<GeometryValue> p = Collections.singletonList(geometry("POINT (40.2 5)", 4326));
+		Assert.assertTrue(test(ANY_WITHIN_ANY, variable(bag(p)), constant(bag(zones))));
+		Assert.assertFalse(test(ANY_WITHIN_ANY, variable(bag(p)), constant(bag(mixed))));
+		Assert.assertFalse(test(ANY_INTERSECTS_ANY, constant(bag(mixed)), variable(bag(p))));
+	}
+}
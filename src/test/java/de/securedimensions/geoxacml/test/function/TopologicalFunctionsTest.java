@@ -0,0 +1,250 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.function;
+
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.GF;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.call;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.constant;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.geometry;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.newContext;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.probes;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.star;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.test;
+import static de.securedimensions.geoxacml.test.function.FunctionTestSupport.variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+
+/**
+ *
+ * GeoXACML3 topological function test: the eight predicates give the results of the JTS predicates whichever argument is constant,
+ * <code>geometry-relate</code> gives the result of matching the JTS intersection matrix against the pattern, and the predicates
+ * evaluated on the same pair in the decision agree with it. Arguments may be given as expressions or passed on evaluation.
+ */
+public class TopologicalFunctionsTest
+{
+	private static final TopologicalFunctions.Relate RELATE = new TopologicalFunctions.Relate();
+	private static final TopologicalFunctions.Equals EQUALS = new TopologicalFunctions.Equals();
+	private static final TopologicalFunctions.Disjoint DISJOINT = new TopologicalFunctions.Disjoint();
+	private static final TopologicalFunctions.Touches TOUCHES = new TopologicalFunctions.Touches();
+	private static final TopologicalFunctions.Crosses CROSSES = new TopologicalFunctions.Crosses();
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Contains CONTAINS = new TopologicalFunctions.Contains();
+	private static final TopologicalFunctions.Overlaps OVERLAPS = new TopologicalFunctions.Overlaps();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+
+	private static final String[] PATTERNS = { "T*F**F***", "T*****FF*", "FF*FF****", "T********", "F***T****", "212101212", "1*T***T**", "0********" };
+
+	private static Expression<StringValue> pattern(final String pattern)
+	{
+		return constant(StandardDatatypes.STRING, new StringValue(pattern));
+	}
+
+	private static boolean relate(final EvaluationContext context, final GeometryValue g1, final GeometryValue g2, final String pattern) throws IndeterminateEvaluationException
+	{
+		return call(RELATE, context, variable(g1), constant(g2), pattern(pattern)).getUnderlyingValue().booleanValue();
+	}
+
+	private static void assertRelate(final GeometryValue zone, final Iterable<Geometry> probes) throws IndeterminateEvaluationException
+	{
+		final Geometry z = zone.getUnderlyingValue();
+		for (final Geometry probe : probes)
+		{
+			final GeometryValue p = geometry(probe);
+			final EvaluationContext context = newContext();
+			for (final String pattern : PATTERNS)
+			{
+				final boolean expected = probe.relate(z, pattern);
+				Assert.assertEquals(probe.toText() + " " + pattern, expected, relate(context, p, zone, pattern));
+				Assert.assertEquals(probe.toText() + " " + pattern, expected, relate(newContext(), p, zone, pattern));
+			}
+
+			// the matrix of the pair answers the predicates of the decision
+			Assert.assertEquals(probe.toText(), probe.within(z), test(WITHIN, variable(p), constant(zone)));
+			Assert.assertEquals(probe.toText(), probe.within(z), call(WITHIN, context, variable(p), constant(zone)).getUnderlyingValue().booleanValue());
+			Assert.assertEquals(probe.toText(), probe.intersects(z), call(INTERSECTS, context, variable(p), constant(zone)).getUnderlyingValue().booleanValue());
+		}
+	}
+
+	@Test
+	public void testRelateAgainstJts() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		assertRelate(zone, probes(46.7, 10.1, 2.8, 12));
+		assertRelate(geometry("LINESTRING (47.2 10.6, 48.1 11.5, 49.0 11.2, 48.6 12.4)", 4326), probes(46.7, 10.1, 2.8, 8));
+		// identical geometries
+		assertRelate(zone, Arrays.asList(zone.getUnderlyingValue().copy()));
+	}
+
+	@Test
+	public void testRelateEmpty() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final GeometryValue empty = geometry(GF.createPolygon());
+		for (final String pattern : PATTERNS)
+		{
+			Assert.assertEquals(pattern, empty.getUnderlyingValue().relate(zone.getUnderlyingValue(), pattern), relate(newContext(), empty, zone, pattern));
+			Assert.assertEquals(pattern, zone.getUnderlyingValue().relate(empty.getUnderlyingValue(), pattern), relate(newContext(), zone, empty, pattern));
+		}
+	}
+
+	@Test
+	public void testTransposedMatrix() throws IndeterminateEvaluationException
+	{
+		// the matrix computed for (probe, zone) answers the patterns and predicates on (zone, probe) in the same decision
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final Geometry z = zone.getUnderlyingValue();
+		for (final Geometry probe : probes(46.7, 10.1, 2.8, 8))
+		{
+			final GeometryValue p = geometry(probe);
+			final EvaluationContext context = newContext();
+			relate(context, p, zone, PATTERNS[0]);
+			for (final String pattern : PATTERNS)
+				Assert.assertEquals(probe.toText() + " " + pattern, z.relate(probe, pattern), call(RELATE, context, constant(zone), variable(p), pattern(pattern)).getUnderlyingValue().booleanValue());
+			Assert.assertEquals(probe.toText(), z.touches(probe), call(TOUCHES, context, constant(zone), variable(p)).getUnderlyingValue().booleanValue());
+			Assert.assertEquals(probe.toText(), z.overlaps(probe), call(OVERLAPS, context, constant(zone), variable(p)).getUnderlyingValue().booleanValue());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidConstantPattern()
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 20));
+		RELATE.newCall(Arrays.<Expression<?>> asList(constant(zone), constant(zone), pattern("T*F**F**")));
+	}
+
+	@Test(expected = IndeterminateEvaluationException.class)
+	public void testInvalidPattern() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 20));
+		call(RELATE, newContext(), constant(zone), constant(zone), variable(StandardDatatypes.STRING, new StringValue("T*F**F**X")));
+	}
+
+	private interface Predicate
+	{
+		boolean test(Geometry a, Geometry b);
+	}
+
+	private static void assertPredicate(final FirstOrderFunction<BooleanValue> function, final Predicate predicate, final GeometryValue g1, final GeometryValue g2, final Geometry reference1, final Geometry reference2) throws IndeterminateEvaluationException
+	{
+		final boolean expected = predicate.test(reference1, reference2);
+		final String message = function.getId() + " " + g1.getUnderlyingValue().getGeometryType() + " " + g2.getUnderlyingValue().getGeometryType();
+		Assert.assertEquals(message, expected, test(function, variable(g1), constant(g2)));
+		Assert.assertEquals(message, expected, test(function, constant(g1), variable(g2)));
+		Assert.assertEquals(message, expected, test(function, variable(g1), variable(g2)));
+	}
+
+	/**
+	 * Compares the eight predicates with JTS for the pairs (probe, zone) and (zone, probe)
+	 */
+	private static void assertPredicates(final GeometryValue zone, final Iterable<Geometry> probes) throws IndeterminateEvaluationException
+	{
+		final Geometry z = zone.getUnderlyingValue();
+		for (final Geometry probe : probes)
+		{
+			final GeometryValue p = geometry(probe);
+			assertPredicate(EQUALS, Geometry::equalsTopo, p, zone, probe, z);
+			assertPredicate(EQUALS, Geometry::equalsTopo, zone, p, z, probe);
+			assertPredicate(DISJOINT, Geometry::disjoint, p, zone, probe, z);
+			assertPredicate(DISJOINT, Geometry::disjoint, zone, p, z, probe);
+			assertPredicate(TOUCHES, Geometry::touches, p, zone, probe, z);
+			assertPredicate(TOUCHES, Geometry::touches, zone, p, z, probe);
+			assertPredicate(CROSSES, Geometry::crosses, p, zone, probe, z);
+			assertPredicate(CROSSES, Geometry::crosses, zone, p, z, probe);
+			assertPredicate(WITHIN, Geometry::within, p, zone, probe, z);
+			assertPredicate(WITHIN, Geometry::within, zone, p, z, probe);
+			assertPredicate(CONTAINS, Geometry::contains, p, zone, probe, z);
+			assertPredicate(CONTAINS, Geometry::contains, zone, p, z, probe);
+			assertPredicate(OVERLAPS, Geometry::overlaps, p, zone, probe, z);
+			assertPredicate(OVERLAPS, Geometry::overlaps, zone, p, z, probe);
+			assertPredicate(INTERSECTS, Geometry::intersects, p, zone, probe, z);
+			assertPredicate(INTERSECTS, Geometry::intersects, zone, p, z, probe);
+		}
+	}
+
+	@Test
+	public void testPredicatesAgainstJts() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		assertPredicates(zone, probes(46.7, 10.1, 2.8, 12));
+		assertPredicates(geometry("POLYGON ((47.5 10.9, 47.5 12.1, 48.7 12.1, 48.7 10.9, 47.5 10.9))", 4326), probes(46.7, 10.1, 2.8, 8));
+		assertPredicates(geometry("LINESTRING (47.2 10.6, 48.1 11.5, 49.0 11.2, 48.6 12.4)", 4326), probes(46.7, 10.1, 2.8, 8));
+		assertPredicates(geometry("POINT (48.1 11.5)", 4326), probes(46.7, 10.1, 2.8, 8));
+
+		// identical and shared boundaries
+		final List<Geometry> probes = new ArrayList<Geometry>();
+		probes.add(zone.getUnderlyingValue().copy());
+		probes.add(zone.getUnderlyingValue().getBoundary());
+		probes.add(GF.createPoint(zone.getUnderlyingValue().getCoordinates()[0]));
+		assertPredicates(zone, probes);
+	}
+
+	@Test
+	public void testPredicatesEmpty() throws IndeterminateEvaluationException
+	{
+		// an empty geometry is disjoint from every geometry and satisfies no other predicate
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		for (final GeometryValue empty : Arrays.asList(geometry(GF.createPoint()), geometry(GF.createPolygon())))
+		{
+			for (final GeometryValue other : Arrays.asList(zone, empty))
+			{
+				Assert.assertTrue(test(DISJOINT, variable(empty), constant(other)));
+				Assert.assertTrue(test(DISJOINT, constant(other), variable(empty)));
+				for (final FirstOrderFunction<BooleanValue> function : Arrays.<FirstOrderFunction<BooleanValue>> asList(EQUALS, TOUCHES, CROSSES, WITHIN, CONTAINS, OVERLAPS, INTERSECTS))
+				{
+					Assert.assertFalse(function.getId(), test(function, variable(empty), constant(other)));
+					Assert.assertFalse(function.getId(), test(function, constant(other), variable(empty)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRemainingArguments() throws IndeterminateEvaluationException
+	{
+		// arguments passed by a higher-order function, e.g. any-of, instead of expressions
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 2000));
+		final GeometryValue p = geometry("POINT (48.1 12.2)", 4326);
+		Assert.assertTrue(WITHIN.newCall(Arrays.<Expression<?>> asList(), GeometryValue.DATATYPE, GeometryValue.DATATYPE).evaluate(newContext(), p, zone).getUnderlyingValue().booleanValue());
+		Assert.assertTrue(CONTAINS.newCall(Arrays.<Expression<?>> asList(constant(zone)), GeometryValue.DATATYPE).evaluate(newContext(), p).getUnderlyingValue().booleanValue());
+		Assert.assertFalse(TOUCHES.newCall(Arrays.<Expression<?>> asList(variable(p)), GeometryValue.DATATYPE).evaluate(newContext(), zone).getUnderlyingValue().booleanValue());
+	}
+
+	@Test(expected = IndeterminateEvaluationException.class)
+	public void testMissingArgument() throws IndeterminateEvaluationException
+	{
+		final GeometryValue zone = geometry(star(48.1, 11.5, 1.0, 20));
+		INTERSECTS.newCall(Arrays.<Expression<?>> asList(constant(zone)), GeometryValue.DATATYPE).evaluate(newContext());
+	}
+}
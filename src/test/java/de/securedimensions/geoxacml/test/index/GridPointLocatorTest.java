@@ -0,0 +1,78 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.index;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.securedimensions.geoxacml.index.GridPointLocator;
+
+/**
+ * 
+ * GeoXACML3 raster point locator test: the raster must locate points exactly like the edge index.
+ */
+public class GridPointLocatorTest
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(GridPointLocatorTest.class);
+
+	private static Polygon star(final GeometryFactory gf, final int numPoints, final Random random)
+	{
+		final Coordinate[] shell = new Coordinate[numPoints + 1];
+		for (int i = 0; i < numPoints; i++)
+		{
+			final double angle = 2 * Math.PI * i / numPoints;
+			final double r = 5.0 + 5.0 * random.nextDouble();
+			shell[i] = new Coordinate(10.0 + r * Math.cos(angle), 50.0 + r * Math.sin(angle));
+		}
+		shell[numPoints] = new Coordinate(shell[0]);
+		return gf.createPolygon(shell);
+	}
+
+	@Test
+	public void test()
+	{
+		final GeometryFactory gf = new GeometryFactory();
+		final Random random = new Random(4326);
+		final Polygon polygon = star(gf, 2000, random);
+
+		final GridPointLocator raster = GridPointLocator.build(polygon);
+		Assert.assertNotNull("No raster built", raster);
+		final IndexedPointInAreaLocator exact = new IndexedPointInAreaLocator(polygon);
+
+		for (int i = 0; i < 100000; i++)
+		{
+			final Coordinate c = new Coordinate(-1.0 + 22.0 * random.nextDouble(), 39.0 + 22.0 * random.nextDouble());
+			Assert.assertEquals("Location differs for " + c, exact.locate(c), raster.locate(c));
+		}
+
+		// vertices are on the boundary
+		for (final Coordinate c : polygon.getCoordinates())
+			Assert.assertEquals("Location differs for vertex " + c, exact.locate(c), raster.locate(c));
+
+		LOGGER.info("Raster with {} bytes agrees with the edge index", raster.getByteSize());
+	}
+}
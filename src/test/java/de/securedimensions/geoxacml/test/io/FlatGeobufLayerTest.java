@@ -0,0 +1,645 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.ConstantExpression;
+import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.func.FirstOrderFunction;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.function.LoadShedding;
+import de.securedimensions.geoxacml.function.TopologicalFunctions;
+import de.securedimensions.geoxacml.io.FlatGeobufLayer;
+
+/**
+ *
+ * GeoXACML3 geometry reference test: features of FlatGeobuf files written by the test resolve to the geometries they were written
+ * from, with and without spatial index, and the predicates on referenced geometries give the results of JTS on these geometries.
+ */
+public class FlatGeobufLayerTest
+{
+	private static final GeometryFactory GF = new GeometryFactory(new PrecisionModel(), 4326);
+
+	private static final TopologicalFunctions.Within WITHIN = new TopologicalFunctions.Within();
+	private static final TopologicalFunctions.Contains CONTAINS = new TopologicalFunctions.Contains();
+	private static final TopologicalFunctions.Intersects INTERSECTS = new TopologicalFunctions.Intersects();
+	private static final TopologicalFunctions.Disjoint DISJOINT = new TopologicalFunctions.Disjoint();
+	private static final TopologicalFunctions.Touches TOUCHES = new TopologicalFunctions.Touches();
+
+	/**
+	 * FlatGeobuf geometry types, starting at 1
+	 */
+	private static final List<String> TYPES = Arrays.asList("Point", "LineString", "Polygon", "MultiPoint", "MultiLineString", "MultiPolygon", "GeometryCollection");
+
+	private static final int POLYGON = 3;
+	private static final int MULTIPOLYGON = 6;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Features of the indexed layer <code>zones</code> in <code>EPSG:4326</code>, <code>null</code> for a feature without geometry
+	 */
+	private List<Geometry> zones;
+
+	/**
+	 * Features of the layer <code>mercator</code> in <code>EPSG:3857</code> without index
+	 */
+	private List<Geometry> mercator;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		zones = new ArrayList<Geometry>();
+		zones.add(GF.createPolygon(ring(48.1, 11.5, 1.0, 400), new LinearRing[] { ring(48.1, 11.5, 0.2, 100) }));
+		zones.add(GF.createLineString(new Coordinate[] { new Coordinate(47.0, 10.5), new Coordinate(48.1, 11.5), new Coordinate(49.0, 11.0) }));
+		zones.add(GF.createPoint(new Coordinate(48.5, 11.9)));
+		zones.add(GF.createMultiPointFromCoords(new Coordinate[] { new Coordinate(47.5, 11.0), new Coordinate(48.7, 12.1) }));
+		zones.add(GF.createMultiLineString(new LineString[] { GF.createLineString(new Coordinate[] { new Coordinate(47.2, 10.8), new Coordinate(47.9, 12.0) }),
+				GF.createLineString(new Coordinate[] { new Coordinate(48.2, 10.6), new Coordinate(48.9, 11.7), new Coordinate(49.1, 12.2) }) }));
+		zones.add(GF.createMultiPolygon(new Polygon[] { GF.createPolygon(ring(47.5, 11.0, 0.3, 60)),
+				GF.createPolygon(ring(48.8, 12.0, 0.4, 80), new LinearRing[] { ring(48.8, 12.0, 0.1, 20) }) }));
+		zones.add(GF.createGeometryCollection(new Geometry[] { GF.createPoint(new Coordinate(47.1, 10.9)), GF.createPolygon(ring(48.4, 11.2, 0.2, 30)) }));
+		zones.add(null);
+		// enough features for an index of several levels
+		for (int i = 0; i < 8; i++)
+		{
+			for (int j = 0; j < 8; j++)
+				zones.add(GF.toGeometry(new Envelope(47.0 + 0.25 * i, 47.2 + 0.25 * i, 10.5 + 0.25 * j, 10.7 + 0.25 * j)));
+		}
+		write(folder.getRoot().toPath().resolve("zones.fgb"), zones, 4326, 0, 4);
+
+		final GeometryFactory mercatorFactory = new GeometryFactory(new PrecisionModel(), 3857);
+		mercator = new ArrayList<Geometry>();
+		for (int i = 0; i < 5; i++)
+			mercator.add(mercatorFactory.createPolygon(ring(48.1 + i, 11.5, 0.4, 50)));
+		write(folder.getRoot().toPath().resolve("mercator.fgb"), mercator, 3857, POLYGON, 0);
+
+		Files.write(folder.getRoot().toPath().resolve("broken.fgb"), new byte[] { 'f', 'g', 'b', 2, 0, 0, 0, 0, 0, 0, 0, 0 });
+
+		FlatGeobufLayer.setDirectory(folder.getRoot().getAbsolutePath());
+	}
+
+	@After
+	public void tearDown()
+	{
+		FlatGeobufLayer.setDirectory(System.getProperty("geoxacml.ref.dir"));
+		LoadShedding.setForced(false);
+		LoadShedding.setTolerance(0.0);
+	}
+
+	/**
+	 * A star shaped ring with <code>n</code> vertices around (cx, cy)
+	 */
+	private static LinearRing ring(final double cx, final double cy, final double r, final int n)
+	{
+		final Coordinate[] c = new Coordinate[n + 1];
+		for (int i = 0; i < n; i++)
+		{
+			final double angle = 2.0 * Math.PI * i / n;
+			final double radius = r * (1.0 + 0.2 * Math.sin(7.0 * angle));
+			c[i] = new Coordinate(cx + radius * Math.cos(angle), cy + radius * Math.sin(angle));
+		}
+		c[n] = c[0];
+		return GF.createLinearRing(c);
+	}
+
+	private static GeometryValue resolve(final String reference)
+	{
+		return GeometryValue.FACTORY.getInstance("REF=" + reference, null, null);
+	}
+
+	/*
+	 * Minimal FlatBuffers encoder writing front to back: a table follows its vtable and is followed by the objects it references
+	 */
+
+	private interface Part
+	{
+		/**
+		 * Writes the part at the position of the buffer
+		 *
+		 * @return the position offsets to the part point to
+		 */
+		int write(ByteBuffer b);
+	}
+
+	private static void reference(final ByteBuffer b, final int slot, final Part part)
+	{
+		final int target = part.write(b);
+		b.putInt(slot, target - slot);
+	}
+
+	/**
+	 * A buffer with the given root table
+	 */
+	private static byte[] root(final Part table)
+	{
+		final ByteBuffer b = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(0);
+		reference(b, 0, table);
+		return Arrays.copyOf(b.array(), b.position());
+	}
+
+	/**
+	 * A table of fields given as pairs of field number and value, a Byte, Short, Integer, Long or a referenced Part
+	 */
+	private static Part table(final Object... fields)
+	{
+		return b -> {
+			int count = 0;
+			for (int i = 0; i < fields.length; i += 2)
+				count = Math.max(count, ((Integer) fields[i]).intValue() + 1);
+
+			final int vtable = b.position();
+			final int vtableSize = 4 + 2 * count;
+			final int table = vtable + vtableSize;
+			b.position(table);
+			b.putInt(table - vtable);
+			final Map<Integer, Part> references = new LinkedHashMap<Integer, Part>();
+			for (int i = 0; i < fields.length; i += 2)
+			{
+				b.putShort(vtable + 4 + 2 * ((Integer) fields[i]).intValue(), (short) (b.position() - table));
+				final Object value = fields[i + 1];
+				if (value instanceof Byte)
+					b.put(((Byte) value).byteValue());
+				else if (value instanceof Short)
+					b.putShort(((Short) value).shortValue());
+				else if (value instanceof Integer)
+					b.putInt(((Integer) value).intValue());
+				else if (value instanceof Long)
+					b.putLong(((Long) value).longValue());
+				else
+				{
+					references.put(Integer.valueOf(b.position()), (Part) value);
+					b.putInt(0);
+				}
+			}
+			b.putShort(vtable, (short) vtableSize);
+			b.putShort(vtable + 2, (short) (b.position() - table));
+			for (final Map.Entry<Integer, Part> r : references.entrySet())
+				reference(b, r.getKey().intValue(), r.getValue());
+			return table;
+		};
+	}
+
+	private static Part doubles(final double[] values)
+	{
+		return b -> {
+			final int pos = b.position();
+			b.putInt(values.length);
+			for (final double v : values)
+				b.putDouble(v);
+			return pos;
+		};
+	}
+
+	private static Part uints(final int[] values)
+	{
+		return b -> {
+			final int pos = b.position();
+			b.putInt(values.length);
+			for (final int v : values)
+				b.putInt(v);
+			return pos;
+		};
+	}
+
+	private static Part tables(final List<Part> tables)
+	{
+		return b -> {
+			final int pos = b.position();
+			b.putInt(tables.size());
+			b.position(pos + 4 + 4 * tables.size());
+			for (int i = 0; i < tables.size(); i++)
+				reference(b, pos + 4 + 4 * i, tables.get(i));
+			return pos;
+		};
+	}
+
+	/**
+	 * The FlatGeobuf geometry table; the type is omitted if it is the default type
+	 */
+	private static Part geometry(final Geometry g, final boolean lonLat, final int defaultType)
+	{
+		final int type = TYPES.indexOf(g.getGeometryType()) + 1;
+		final List<Object> fields = new ArrayList<Object>();
+		if (type != defaultType)
+			Collections.addAll(fields, Integer.valueOf(6), Byte.valueOf((byte) type));
+
+		if (type >= MULTIPOLYGON)
+		{
+			final List<Part> parts = new ArrayList<Part>();
+			for (int i = 0; i < g.getNumGeometries(); i++)
+				parts.add(geometry(g.getGeometryN(i), lonLat, (type == MULTIPOLYGON) ? POLYGON : 0));
+			Collections.addAll(fields, Integer.valueOf(7), tables(parts));
+			return table(fields.toArray());
+		}
+
+		final List<LineString> lines = new ArrayList<LineString>();
+		if (g instanceof Polygon)
+		{
+			final Polygon p = (Polygon) g;
+			lines.add(p.getExteriorRing());
+			for (int i = 0; i < p.getNumInteriorRing(); i++)
+				lines.add(p.getInteriorRingN(i));
+		}
+		else if (!(g instanceof Point) && g.getNumGeometries() > 1 && g.getGeometryN(0) instanceof LineString)
+		{
+			for (int i = 0; i < g.getNumGeometries(); i++)
+				lines.add((LineString) g.getGeometryN(i));
+		}
+		if (lines.size() > 1)
+		{
+			final int[] ends = new int[lines.size()];
+			int end = 0;
+			for (int i = 0; i < ends.length; i++)
+			{
+				end += lines.get(i).getNumPoints();
+				ends[i] = end;
+			}
+			Collections.addAll(fields, Integer.valueOf(0), uints(ends));
+		}
+
+		final Coordinate[] coordinates = g.getCoordinates();
+		if (coordinates.length > 0)
+		{
+			final double[] xy = new double[2 * coordinates.length];
+			for (int i = 0; i < coordinates.length; i++)
+			{
+				xy[2 * i] = lonLat ? coordinates[i].y : coordinates[i].x;
+				xy[2 * i + 1] = lonLat ? coordinates[i].x : coordinates[i].y;
+			}
+			Collections.addAll(fields, Integer.valueOf(1), doubles(xy));
+		}
+		return table(fields.toArray());
+	}
+
+	/**
+	 * Writes a FlatGeobuf file; features are indexed in the given order if the node size is not 0
+	 */
+	private static void write(final Path file, final List<Geometry> geometries, final int srid, final int headerType, final int nodeSize) throws IOException
+	{
+		final boolean lonLat = (srid == 4326);
+		final List<byte[]> features = new ArrayList<byte[]>();
+		for (final Geometry g : geometries)
+			features.add(root((g == null) ? table() : table(Integer.valueOf(0), geometry(g, lonLat, headerType))));
+
+		final byte[] header = root(table(Integer.valueOf(2), Byte.valueOf((byte) headerType), Integer.valueOf(8), Long.valueOf(geometries.size()), Integer.valueOf(9),
+				Short.valueOf((short) nodeSize), Integer.valueOf(10), table(Integer.valueOf(1), Integer.valueOf(srid))));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] { 'f', 'g', 'b', 3, 'f', 'g', 'b', 0 });
+		out.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(header.length).array());
+		out.write(header);
+		if (nodeSize > 0)
+			out.write(index(geometries, features, nodeSize, lonLat));
+		for (final byte[] feature : features)
+		{
+			out.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(feature.length).array());
+			out.write(feature);
+		}
+		Files.write(file, out.toByteArray());
+	}
+
+	/**
+	 * The packed R-tree over the features in their order, root first
+	 */
+	private static byte[] index(final List<Geometry> geometries, final List<byte[]> features, final int nodeSize, final boolean lonLat)
+	{
+		final List<Integer> levelSizes = new ArrayList<Integer>();
+		int n = geometries.size();
+		int numNodes = n;
+		levelSizes.add(Integer.valueOf(n));
+		do
+		{
+			n = (n + nodeSize - 1) / nodeSize;
+			numNodes += n;
+			levelSizes.add(Integer.valueOf(n));
+		}
+		while (n != 1);
+
+		final double[][] boxes = new double[numNodes][];
+		final long[] offsets = new long[numNodes];
+
+		// leaves
+		int start = numNodes - geometries.size();
+		long offset = 0;
+		for (int i = 0; i < geometries.size(); i++)
+		{
+			final Geometry g = geometries.get(i);
+			final Envelope e = (g == null) ? new Envelope() : g.getEnvelopeInternal();
+			boxes[start + i] = e.isNull() ? new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY }
+					: lonLat ? new double[] { e.getMinY(), e.getMinX(), e.getMaxY(), e.getMaxX() } : new double[] { e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY() };
+			offsets[start + i] = offset;
+			offset += 4 + features.get(i).length;
+		}
+
+		// the levels above cover the nodes of the level below
+		for (int level = 1; level < levelSizes.size(); level++)
+		{
+			final int childStart = start;
+			final int childEnd = start + levelSizes.get(level - 1).intValue();
+			start -= levelSizes.get(level).intValue();
+			for (int i = 0; i < levelSizes.get(level).intValue(); i++)
+			{
+				final double[] box = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+				for (int child = childStart + i * nodeSize; child < Math.min(childStart + (i + 1) * nodeSize, childEnd); child++)
+				{
+					box[0] = Math.min(box[0], boxes[child][0]);
+					box[1] = Math.min(box[1], boxes[child][1]);
+					box[2] = Math.max(box[2], boxes[child][2]);
+					box[3] = Math.max(box[3], boxes[child][3]);
+				}
+				boxes[start + i] = box;
+				offsets[start + i] = childStart + i * nodeSize;
+			}
+		}
+
+		final ByteBuffer b = ByteBuffer.allocate(40 * numNodes).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < numNodes; i++)
+		{
+			for (final double d : boxes[i])
+				b.putDouble(d);
+			b.putLong(offsets[i]);
+		}
+		return b.array();
+	}
+
+	/*
+	 * Evaluation of the functions
+	 */
+
+	private static EvaluationContext newContext()
+	{
+		final Map<Object, Object> other = new HashMap<Object, Object>();
+		return (EvaluationContext) Proxy.newProxyInstance(EvaluationContext.class.getClassLoader(), new Class<?>[] { EvaluationContext.class }, (proxy, method, args) -> {
+			switch (method.getName())
+			{
+				case "getOther":
+					return other.get(args[0]);
+				case "putOther":
+					return other.put(args[0], args[1]);
+				case "removeOther":
+					return other.remove(args[0]);
+				case "hashCode":
+					return Integer.valueOf(System.identityHashCode(proxy));
+				case "equals":
+					return Boolean.valueOf(proxy == args[0]);
+				default:
+					return (method.getReturnType() == boolean.class) ? Boolean.FALSE : null;
+			}
+		});
+	}
+
+	/**
+	 * Evaluates the function on a request value and a referenced geometry known when the policy is loaded
+	 */
+	private static boolean test(final FirstOrderFunction<BooleanValue> function, final GeometryValue request, final GeometryValue policy) throws IndeterminateEvaluationException
+	{
+		final Datatype<GeometryValue> datatype = GeometryValue.DATATYPE;
+		final Expression<GeometryValue> variable = new Expression<GeometryValue>()
+		{
+			@Override
+			public Datatype<GeometryValue> getReturnType()
+			{
+				return datatype;
+			}
+
+			@Override
+			public GeometryValue evaluate(final EvaluationContext context)
+			{
+				return request;
+			}
+
+			@Override
+			public Optional<GeometryValue> getValue()
+			{
+				return Optional.empty();
+			}
+		};
+		final Expression<GeometryValue> constant = new ConstantExpression<GeometryValue>(datatype, policy)
+		{
+		};
+		return function.newCall(Arrays.<Expression<?>> asList(variable, constant)).evaluate(newContext()).getUnderlyingValue().booleanValue();
+	}
+
+	private static List<Point> probes(final double x0, final double y0, final double size, final int steps)
+	{
+		final List<Point> probes = new ArrayList<Point>();
+		for (int i = 0; i <= steps; i++)
+		{
+			for (int j = 0; j <= steps; j++)
+				probes.add(GF.createPoint(new Coordinate(x0 + size * i / steps, y0 + size * j / steps)));
+		}
+		return probes;
+	}
+
+	@Test
+	public void testResolve()
+	{
+		final FlatGeobufLayer layer = FlatGeobufLayer.get("zones");
+		Assert.assertEquals(zones.size(), layer.size());
+		Assert.assertEquals(4326, layer.getSRID());
+		for (int i = 0; i < zones.size(); i++)
+		{
+			if (zones.get(i) == null)
+				continue;
+
+			final Geometry g = resolve("zones:" + i).getUnderlyingValue();
+			Assert.assertEquals(zones.get(i).getGeometryType(), g.getGeometryType());
+			Assert.assertTrue(zones.get(i).toText(), zones.get(i).equalsExact(g));
+			Assert.assertEquals(4326, g.getSRID());
+		}
+		Assert.assertTrue(zones.get(2).equalsExact(GeometryValue.FACTORY.getInstance("ref=zones:2", null, null).getUnderlyingValue()));
+
+		// without index, and the geometry type given in the header
+		Assert.assertEquals(3857, FlatGeobufLayer.get("mercator").getSRID());
+		for (int i = 0; i < mercator.size(); i++)
+		{
+			final Geometry g = resolve("mercator:" + i).getUnderlyingValue();
+			Assert.assertTrue(mercator.get(i).equalsExact(g));
+			Assert.assertEquals(3857, g.getSRID());
+		}
+	}
+
+	@Test
+	public void testQuery()
+	{
+		for (final String name : new String[] { "zones", "mercator" })
+		{
+			final FlatGeobufLayer layer = FlatGeobufLayer.get(name);
+			final List<Geometry> features = name.equals("zones") ? zones : mercator;
+			for (final Envelope query : new Envelope[] { new Envelope(47.0, 47.1, 10.5, 10.6), new Envelope(48.0, 48.3, 11.0, 11.3), new Envelope(46.0, 54.0, 10.0, 13.0),
+					new Envelope(49.2, 49.3, 12.5, 12.6), new Envelope(60.0, 61.0, 20.0, 21.0) })
+			{
+				final List<Long> expected = new ArrayList<Long>();
+				for (int i = 0; i < features.size(); i++)
+				{
+					if (features.get(i) != null && features.get(i).getEnvelopeInternal().intersects(query))
+						expected.add(Long.valueOf(i));
+				}
+				Assert.assertEquals(name + " " + query, expected, layer.query(query));
+			}
+		}
+	}
+
+	@Test
+	public void testAgainstJts() throws IndeterminateEvaluationException
+	{
+		final List<Point> probes = probes(46.9, 10.3, 2.4, 24);
+		for (int i = 0; i < zones.size(); i++)
+		{
+			final Geometry g = zones.get(i);
+			if (g == null || g.getGeometryType().equals("GeometryCollection"))
+				continue;
+
+			final GeometryValue zone = resolve("zones:" + i);
+			for (final Point p : probes)
+			{
+				final GeometryValue point = new GeometryValue(p);
+				final String message = g.getGeometryType() + " " + p.toText();
+				Assert.assertEquals(message, p.within(g), test(WITHIN, point, zone));
+				Assert.assertEquals(message, p.intersects(g), test(INTERSECTS, point, zone));
+				Assert.assertEquals(message, p.contains(g), test(CONTAINS, point, zone));
+				Assert.assertEquals(message, p.touches(g), test(TOUCHES, point, zone));
+			}
+		}
+	}
+
+	@Test
+	public void testInvalid()
+	{
+		for (final String reference : new String[] { "unknown:0", "zones:" + 10000, "zones:-1", "zones:x", "zones", ":0", "../zones:0", ".zones:0", "broken:0" })
+		{
+			try
+			{
+				resolve(reference);
+				Assert.fail(reference);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+
+		// references are disabled without directory; values already parsed are kept by the parse cache
+		FlatGeobufLayer.setDirectory(null);
+		try
+		{
+			FlatGeobufLayer.resolve("zones:0");
+			Assert.fail("disabled");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IndeterminateEvaluationException
+	{
+		// a feature without geometry is an empty collection
+		final GeometryValue empty = resolve("zones:" + zones.indexOf(null));
+		Assert.assertTrue(empty.getUnderlyingValue().isEmpty());
+		Assert.assertEquals(4326, empty.getUnderlyingValue().getSRID());
+
+		final GeometryValue zone = resolve("zones:0");
+		Assert.assertTrue(test(DISJOINT, empty, zone));
+		Assert.assertFalse(test(WITHIN, empty, zone));
+		Assert.assertFalse(test(INTERSECTS, empty, zone));
+		Assert.assertFalse(test(INTERSECTS, new GeometryValue(GF.createPoint(new Coordinate(47.5, 11.0))), empty));
+		Assert.assertTrue(test(DISJOINT, new GeometryValue(GF.createPoint(new Coordinate(47.5, 11.0))), empty));
+	}
+
+	@Test
+	public void testSridMismatch() throws IndeterminateEvaluationException
+	{
+		// reprojection is off by default
+		final GeometryValue zone = resolve("mercator:0");
+		final Coordinate center = new Coordinate(48.1, 11.5);
+		final GeometryValue point = new GeometryValue(GF.createPoint(center));
+		final GeometryValue mercatorPoint = new GeometryValue(new GeometryFactory(new PrecisionModel(), 3857).createPoint(center));
+		Assert.assertTrue(test(WITHIN, mercatorPoint, zone));
+		Assert.assertFalse(test(WITHIN, point, zone));
+		Assert.assertFalse(test(INTERSECTS, point, zone));
+		Assert.assertFalse(test(DISJOINT, point, zone));
+		Assert.assertFalse(test(WITHIN, mercatorPoint, resolve("zones:0")));
+	}
+
+	@Test
+	public void testDegraded() throws IndeterminateEvaluationException
+	{
+		final double tolerance = 0.02;
+		final Geometry polygon = zones.get(0);
+		final Geometry simplified = TopologyPreservingSimplifier.simplify(polygon, tolerance);
+		final GeometryValue zone = resolve("zones:0");
+
+		LoadShedding.setTolerance(tolerance);
+		LoadShedding.setForced(true);
+		final long approximate = LoadShedding.getApproximateEvaluations();
+		for (final Point p : probes(46.9, 10.3, 2.4, 24))
+		{
+			final GeometryValue point = new GeometryValue(p);
+			Assert.assertEquals(p.toText(), p.within(simplified), test(WITHIN, point, zone));
+			Assert.assertEquals(p.toText(), p.intersects(simplified), test(INTERSECTS, point, zone));
+			// always exact
+			Assert.assertEquals(p.toText(), p.touches(polygon), test(TOUCHES, point, zone));
+		}
+		Assert.assertTrue(LoadShedding.getApproximateEvaluations() > approximate);
+
+		// the referenced geometry itself is not changed
+		Assert.assertTrue(polygon.equalsExact(resolve("zones:0").getUnderlyingValue()));
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2019 Secure Dimensions GmbH.
+ *
+ * This file is part of GeoXACML 3 Community Version.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.securedimensions.geoxacml.test.io;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.securedimensions.geoxacml.datatype.GeometryValue;
+import de.securedimensions.geoxacml.index.GridPointLocator;
+import de.securedimensions.geoxacml.io.MappedGeometryStore;
+
+/**
+ *
+ * GeoXACML3 off-heap geometry store test: coordinates of mapped geometries, reuse and verification of existing files, and predicates
+ * on mapped geometries compared to the same geometries on the heap.
+ */
+public class MappedGeometryStoreTest
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(MappedGeometryStoreTest.class);
+
+	private static final GeometryFactory GF = new GeometryFactory(new PrecisionModel(), 4326);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A star shaped ring with <code>n</code> vertices around (cx, cy)
+	 */
+	private static LinearRing ring(final double cx, final double cy, final double r, final int n)
+	{
+		final Coordinate[] c = new Coordinate[n + 1];
+		for (int i = 0; i < n; i++)
+		{
+			final double angle = 2.0 * Math.PI * i / n;
+			final double radius = r * (1.0 + 0.2 * Math.sin(7.0 * angle));
+			c[i] = new Coordinate(cx + radius * Math.cos(angle), cy + radius * Math.sin(angle));
+		}
+		c[n] = c[0];
+		return GF.createLinearRing(c);
+	}
+
+	private static Geometry polygon(final int n)
+	{
+		final Geometry g = GF.createPolygon(ring(48.1, 11.5, 1.0, n), new LinearRing[] { ring(48.1, 11.5, 0.2, n / 4) });
+		g.setSRID(4326);
+		return g;
+	}
+
+	private static Geometry swap(final Geometry g)
+	{
+		final Geometry swapped = g.copy();
+		swapped.apply(new CoordinateSequenceFilter()
+		{
+			@Override
+			public void filter(final CoordinateSequence seq, final int i)
+			{
+				final double x = seq.getX(i);
+				seq.setOrdinate(i, CoordinateSequence.X, seq.getY(i));
+				seq.setOrdinate(i, CoordinateSequence.Y, x);
+			}
+
+			@Override
+			public boolean isDone()
+			{
+				return false;
+			}
+
+			@Override
+			public boolean isGeometryChanged()
+			{
+				return true;
+			}
+		});
+		return swapped;
+	}
+
+	private List<Path> files() throws IOException
+	{
+		final List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder.getRoot().toPath()))
+		{
+			for (final Path file : stream)
+				files.add(file);
+		}
+		return files;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final Path dir = folder.getRoot().toPath();
+		final Geometry[] geometries = { polygon(4000),
+				GF.createMultiPolygon(new Polygon[] { (Polygon) polygon(1000), GF.createPolygon(ring(50.0, 8.0, 0.5, 500)) }),
+				GF.createLineString(ring(48.1, 11.5, 1.0, 2000).getCoordinates()) };
+
+		for (final Geometry g : geometries)
+		{
+			g.setSRID(4326);
+			g.setUserData("reason");
+			final Geometry mapped = MappedGeometryStore.map(g, false, dir);
+			Assert.assertNotSame(g, mapped);
+			Assert.assertTrue(MappedGeometryStore.isMapped(mapped));
+			Assert.assertFalse(MappedGeometryStore.isMapped(g));
+			Assert.assertEquals(g.getGeometryType(), mapped.getGeometryType());
+			Assert.assertTrue(g.equalsExact(mapped));
+			Assert.assertEquals(4326, mapped.getSRID());
+			Assert.assertEquals("reason", mapped.getUserData());
+			Assert.assertEquals(g.getEnvelopeInternal(), mapped.getEnvelopeInternal());
+
+			// axes swapped while packing
+			Assert.assertTrue(swap(g).equalsExact(MappedGeometryStore.map(g, true, dir)));
+		}
+
+		// empty geometries are not mapped
+		final Geometry empty = GF.createPolygon();
+		Assert.assertSame(empty, MappedGeometryStore.map(empty, false, dir));
+	}
+
+	@Test
+	public void testReopen() throws IOException
+	{
+		final Path dir = folder.getRoot().toPath();
+		final Geometry g = polygon(4000);
+
+		final Geometry first = MappedGeometryStore.map(g, false, dir);
+		final List<Path> files = files();
+		Assert.assertEquals(1, files.size());
+		final long modified = Files.getLastModifiedTime(files.get(0)).toMillis();
+
+		// the same coordinates map the existing file
+		final Geometry second = MappedGeometryStore.map(polygon(4000), false, dir);
+		Assert.assertEquals(files, files());
+		Assert.assertEquals(modified, Files.getLastModifiedTime(files.get(0)).toMillis());
+		Assert.assertTrue(first.equalsExact(second));
+		Assert.assertTrue(g.equalsExact(second));
+	}
+
+	@Test
+	public void testModifiedFile() throws IOException
+	{
+		final Path dir = folder.getRoot().toPath();
+		final Geometry g = polygon(4000);
+		MappedGeometryStore.map(g, false, dir);
+		final Path file = files().get(0);
+
+		// same size, different content: not used, written again
+		Files.write(file, new byte[(int) Files.size(file)]);
+		Assert.assertTrue(g.equalsExact(MappedGeometryStore.map(g, false, dir)));
+
+		// truncated
+		Files.write(file, new byte[16]);
+		Assert.assertTrue(g.equalsExact(MappedGeometryStore.map(g, false, dir)));
+		Assert.assertEquals(1, files().size());
+	}
+
+	@Test
+	public void testPredicates()
+	{
+		final Geometry g = polygon(4000);
+		final Geometry mapped = MappedGeometryStore.map(g, false, folder.getRoot().toPath());
+		final GeometryValue heapValue = new GeometryValue(g);
+		final GeometryValue mappedValue = new GeometryValue(mapped);
+
+		final GridPointLocator raster = mappedValue.getGridPointLocator();
+		Assert.assertNotNull(raster);
+
+		final Geometry line = GF.createLineString(new Coordinate[] { new Coordinate(46.0, 11.5), new Coordinate(48.1, 11.5) });
+		Assert.assertEquals(g.intersects(line), mappedValue.getPreparedGeometry().intersects(line));
+		Assert.assertEquals(g.contains(line), mappedValue.getPreparedGeometry().contains(line));
+
+		for (double x = 46.8; x <= 49.4; x += 0.05)
+		{
+			for (double y = 10.2; y <= 12.8; y += 0.05)
+			{
+				final Point p = GF.createPoint(new Coordinate(x, y));
+				final int expected = SimplePointInAreaLocator.locate(p.getCoordinate(), g);
+				Assert.assertEquals(expected, raster.locate(x, y));
+				Assert.assertEquals(expected, heapValue.getGridPointLocator().locate(x, y));
+				Assert.assertEquals(g.contains(p), mapped.contains(p));
+				Assert.assertEquals(g.intersects(p), PreparedGeometryFactory.prepare(mapped).intersects(p));
+			}
+		}
+	}
+
+	@Test
+	public void testHeapResidency()
+	{
+		final Geometry mapped = MappedGeometryStore.map(polygon(200000), false, folder.getRoot().toPath());
+		final GeometryValue gv = new GeometryValue(mapped);
+
+		final long base = usedHeap();
+		final GridPointLocator raster = gv.getGridPointLocator();
+		final long rasterHeap = usedHeap() - base;
+		gv.getPreparedGeometry().intersects(GF.createPoint(new Coordinate(48.1, 11.5)));
+		final long preparedHeap = usedHeap() - base - rasterHeap;
+
+		LOGGER.info("Mapped polygon with {} vertices: raster {} KB, prepared geometry {} KB of heap", Integer.valueOf(mapped.getNumPoints()), Long.valueOf(rasterHeap / 1024), Long.valueOf(preparedHeap / 1024));
+		Assert.assertTrue(raster.getByteSize() <= GridPointLocator.MAX_BYTES);
+	}
+
+	private static long usedHeap()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}